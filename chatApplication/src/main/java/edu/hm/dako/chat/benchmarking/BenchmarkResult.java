@@ -0,0 +1,149 @@
+package edu.hm.dako.chat.benchmarking;
+
+import edu.hm.dako.chat.common.LatencyHistogram;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Vollstaendiges Ergebnis eines Benchmark-Laufs fuer die Ablage in einer {@link ResultSink}:
+ * Eingabeparameter, Messergebnisse, Umgebung (JVM und Rechner), Latenz-Histogramme und die
+ * Zeitreihe der empfangenen Responses je Sekunde.
+ * <p>
+ * Die Kennzahlen liefert {@link #getSummaryFields()} als geordnete Felder, deren Namen die
+ * Einheit enthalten (z.B. p99RttMs). CSV- und JSON-Lines-Ablage verwenden dieselben Namen,
+ * der Vergleich von Ergebnisdateien arbeitet mit beiden Formaten.
+ */
+public class BenchmarkResult {
+
+    private final UserInterfaceInputParameters parameters;
+    private final UserInterfaceResultData resultData;
+    private final String startTime;
+    private final long elapsedMillis;
+    private final LatencyHistogram rttHistogram;
+    private final LatencyHistogram serverTimeHistogram;
+    private final long[] throughputSeries;
+    private int repetition = 1;
+
+    /**
+     * Konstruktor
+     *
+     * @param parameters          Eingabeparameter des Laufs
+     * @param resultData          Messergebnisse des Laufs
+     * @param startTime           Testbeginn als Datum/Uhrzeit-String
+     * @param elapsedMillis       Testdauer in ms
+     * @param rttHistogram        RTTs aller Clients in ns
+     * @param serverTimeHistogram Serverzeiten aller Clients in ns
+     * @param throughputSeries    Empfangene Responses je Sekunde
+     */
+    public BenchmarkResult(UserInterfaceInputParameters parameters, UserInterfaceResultData resultData,
+                           String startTime, long elapsedMillis, LatencyHistogram rttHistogram,
+                           LatencyHistogram serverTimeHistogram, long[] throughputSeries) {
+        this.parameters = parameters;
+        this.resultData = resultData;
+        this.startTime = startTime;
+        this.elapsedMillis = elapsedMillis;
+        this.rttHistogram = rttHistogram;
+        this.serverTimeHistogram = serverTimeHistogram;
+        this.throughputSeries = throughputSeries;
+    }
+
+    /**
+     * @param repetition Nummer der Wiederholung eines Messpunkts, beginnend mit 1
+     */
+    public void setRepetition(int repetition) {
+        this.repetition = repetition;
+    }
+
+    public UserInterfaceResultData getResultData() {
+        return resultData;
+    }
+
+    public LatencyHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    public LatencyHistogram getServerTimeHistogram() {
+        return serverTimeHistogram;
+    }
+
+    public long[] getThroughputSeries() {
+        return throughputSeries;
+    }
+
+    /**
+     * Kennzahlen des Laufs in fester Reihenfolge. Werte sind Strings oder Zahlen,
+     * Zeiten in ms, Durchsatz in Responses/s, Speicher in MByte.
+     *
+     * @return Feldname und Wert
+     */
+    public Map<String, Object> getSummaryFields() {
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+
+        // Eingabeparameter
+        fields.put("implementation", parameters.getImplementationType().name());
+        fields.put("measurement", parameters.getMeasurementType().name());
+        fields.put("clients", parameters.getNumberOfClients());
+        fields.put("messagesPerClient", parameters.getNumberOfMessages());
+        fields.put("messageLength", parameters.getMessageLength());
+        fields.put("thinkTimeMs", parameters.getClientThinkTime());
+        fields.put("windowSize", parameters.getWindowSize());
+        fields.put("requestRatePerSec", parameters.getRequestRate());
+        fields.put("arrivalProcess", parameters.getArrivalProcess().name());
+        fields.put("rooms", parameters.getNumberOfRooms());
+        fields.put("responseTimeoutMs", parameters.getResponseTimeout());
+        fields.put("maxRetries", parameters.getNumberOfRetries());
+        fields.put("server", parameters.getRemoteServerList());
+        fields.put("repetition", repetition);
+
+        // Messergebnisse
+        fields.put("startTime", startTime);
+        fields.put("endTime", resultData.getEndTime());
+        fields.put("elapsedMs", elapsedMillis);
+        fields.put("sentRequests", resultData.getNumberOfSentRequests());
+        fields.put("responses", resultData.getNumberOfResponses());
+        fields.put("lostResponses", resultData.getNumberOfLostResponses());
+        fields.put("retries", resultData.getNumberOfRetries());
+        fields.put("sentEvents", resultData.getNumberOfSentEventMessages());
+        fields.put("receivedConfirms", resultData.getNumberOfReceivedConfirmEvents());
+        fields.put("lostConfirms", resultData.getNumberOfLostConfirmEvents());
+        fields.put("retriedEvents", resultData.getNumberOfRetriedEvents());
+        fields.put("throughputPerSec", elapsedMillis > 0
+                ? resultData.getNumberOfResponses() * 1000.0 / elapsedMillis : 0.0);
+        fields.put("avgRttMs", resultData.getAvgRTT());
+        fields.put("minRttMs", resultData.getMinRTT());
+        fields.put("p50RttMs", resultData.getP50RTT());
+        fields.put("p90RttMs", resultData.getP90RTT());
+        fields.put("p99RttMs", resultData.getP99RTT());
+        fields.put("p999RttMs", resultData.getP999RTT());
+        fields.put("maxRttMs", resultData.getMaxRTT());
+        fields.put("avgServerTimeMs", resultData.getAvgServerTime());
+        fields.put("p50ServerTimeMs", resultData.getP50ServerTime());
+        fields.put("p90ServerTimeMs", resultData.getP90ServerTime());
+        fields.put("p99ServerTimeMs", resultData.getP99ServerTime());
+        fields.put("p999ServerTimeMs", resultData.getP999ServerTime());
+        fields.put("maxServerTimeMs", resultData.getMaxServerTime());
+        fields.put("maxHeapUsedMb", resultData.getMaxHeapSize());
+        fields.put("cpuUsage", resultData.getMaxCpuUsage());
+
+        // Umgebung
+        Runtime runtime = Runtime.getRuntime();
+        fields.put("javaVersion", System.getProperty("java.version"));
+        fields.put("javaVm", System.getProperty("java.vm.name") + " " + System.getProperty("java.vm.version"));
+        fields.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version")
+                + " " + System.getProperty("os.arch"));
+        fields.put("processors", runtime.availableProcessors());
+        fields.put("maxHeapMb", runtime.maxMemory() / (1024 * 1024));
+        fields.put("host", getHostName());
+        return fields;
+    }
+
+    private static String getHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unbekannt";
+        }
+    }
+}
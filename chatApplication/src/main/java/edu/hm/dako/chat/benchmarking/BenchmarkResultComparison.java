@@ -0,0 +1,309 @@
+package edu.hm.dako.chat.benchmarking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Vergleich zweier Ergebnisdateien (CSV oder JSON Lines, siehe {@link CsvResultSink} und
+ * {@link JsonLinesResultSink}), z.B. einer Basismessung und einer Messung nach einer Aenderung.
+ * <p>
+ * Saetze mit gleichen Eingabeparametern bilden einen Messpunkt, ihre Kennzahlen werden ueber
+ * die Wiederholungen gemittelt. Verschlechtert sich eine Kennzahl eines Messpunkts um mehr als
+ * die Toleranz (Default 10 %), wird sie als Regression gemeldet und das Programm endet mit
+ * Exit-Code 1.
+ * <p>
+ * Aufruf: BenchmarkResultComparison basis.jsonl neu.jsonl [Toleranz in %]
+ */
+public class BenchmarkResultComparison {
+
+    private static final double DEFAULT_TOLERANCE = 10.0;
+
+    // Eingabeparameter, die einen Messpunkt bestimmen
+    private static final String[] KEY_FIELDS = {
+            "implementation", "clients", "messagesPerClient", "messageLength", "thinkTimeMs",
+            "windowSize", "requestRatePerSec", "arrivalProcess"};
+
+    // Verglichene Kennzahlen, bei allen ausser dem Durchsatz ist ein kleinerer Wert besser
+    private static final String THROUGHPUT = "throughputPerSec";
+    private static final String[] METRICS = {
+            THROUGHPUT, "avgRttMs", "p50RttMs", "p99RttMs", "p999RttMs", "p99ServerTimeMs"};
+
+    /**
+     * main
+     *
+     * @param args Basisdatei, Vergleichsdatei und optional die Toleranz in Prozent
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Aufruf: BenchmarkResultComparison <Basisdatei> <Vergleichsdatei> [Toleranz in %]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        try {
+            Map<String, Map<String, Double>> baseline = averageByPoint(readRecords(new File(args[0])));
+            Map<String, Map<String, Double>> candidate = averageByPoint(readRecords(new File(args[1])));
+            int regressions = compare(baseline, candidate, tolerance);
+            System.out.println(regressions == 0 ? "Keine Regressionen" : regressions + " Regression(en)");
+            System.exit(regressions == 0 ? 0 : 1);
+        } catch (IOException e) {
+            System.out.println("Ergebnisdatei nicht lesbar: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Vergleicht alle Messpunkte und gibt die Abweichungen aus
+     *
+     * @return Anzahl der Regressionen
+     */
+    static int compare(Map<String, Map<String, Double>> baseline, Map<String, Map<String, Double>> candidate,
+                       double tolerance) {
+        int regressions = 0;
+        for (Map.Entry<String, Map<String, Double>> point : baseline.entrySet()) {
+            Map<String, Double> after = candidate.get(point.getKey());
+            if (after == null) {
+                System.out.println(point.getKey() + ": nicht in der Vergleichsdatei enthalten");
+                continue;
+            }
+            System.out.println(point.getKey());
+            for (String metric : METRICS) {
+                Double before = point.getValue().get(metric);
+                Double now = after.get(metric);
+                if (before == null || now == null) {
+                    continue;
+                }
+                double change = before == 0 ? 0 : (now - before) / before * 100.0;
+                boolean worse = metric.equals(THROUGHPUT) ? change < -tolerance : change > tolerance;
+                if (worse) {
+                    regressions++;
+                }
+                System.out.println(String.format(Locale.ROOT, "  %-16s %12.3f %12.3f %+8.1f %%%s",
+                        metric, before, now, change, worse ? "  REGRESSION" : ""));
+            }
+        }
+        for (String point : candidate.keySet()) {
+            if (!baseline.containsKey(point)) {
+                System.out.println(point + ": nicht in der Basisdatei enthalten");
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * Mittelwerte der Kennzahlen je Messpunkt bilden
+     */
+    static Map<String, Map<String, Double>> averageByPoint(List<Map<String, String>> records) {
+        Map<String, Map<String, Double>> sums = new LinkedHashMap<String, Map<String, Double>>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Map<String, String> record : records) {
+            StringBuilder key = new StringBuilder();
+            for (String field : KEY_FIELDS) {
+                if (key.length() > 0) {
+                    key.append(' ');
+                }
+                key.append(field).append('=').append(record.get(field));
+            }
+            String point = key.toString();
+            Map<String, Double> sum = sums.get(point);
+            if (sum == null) {
+                sum = new HashMap<String, Double>();
+                sums.put(point, sum);
+                counts.put(point, 0);
+            }
+            counts.put(point, counts.get(point) + 1);
+            for (String metric : METRICS) {
+                String value = record.get(metric);
+                if (value != null) {
+                    Double old = sum.get(metric);
+                    sum.put(metric, (old == null ? 0 : old) + Double.parseDouble(value));
+                }
+            }
+        }
+        for (Map.Entry<String, Map<String, Double>> point : sums.entrySet()) {
+            int n = counts.get(point.getKey());
+            for (Map.Entry<String, Double> metric : point.getValue().entrySet()) {
+                metric.setValue(metric.getValue() / n);
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Liest alle Saetze einer Ergebnisdatei. Dateien, deren erste Zeile mit '{' beginnt,
+     * werden als JSON Lines gelesen, alle anderen als CSV mit Kopfzeile.
+     *
+     * @return Je Satz die einfachen Felder (ohne Histogramme und Zeitreihe)
+     */
+    static List<Map<String, String>> readRecords(File file) throws IOException {
+        List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line = in.readLine();
+            if (line == null) {
+                return records;
+            }
+            if (line.startsWith("{")) {
+                for (; line != null; line = in.readLine()) {
+                    if (line.trim().length() > 0) {
+                        records.add(parseJsonLine(line));
+                    }
+                }
+            } else {
+                List<String> header = parseCsvLine(line);
+                while ((line = in.readLine()) != null) {
+                    if (line.trim().length() == 0) {
+                        continue;
+                    }
+                    List<String> values = parseCsvLine(line);
+                    Map<String, String> record = new HashMap<String, String>();
+                    for (int i = 0; i < header.size() && i < values.size(); i++) {
+                        record.put(header.get(i), values.get(i));
+                    }
+                    records.add(record);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    private static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Liest die einfachen Felder (Strings, Zahlen) eines JSON-Objekts, geschachtelte Werte
+     * werden uebersprungen
+     */
+    private static Map<String, String> parseJsonLine(String line) throws IOException {
+        Map<String, String> record = new HashMap<String, String>();
+        int[] pos = {line.indexOf('{') + 1};
+        while (true) {
+            skipWhitespace(line, pos);
+            if (pos[0] >= line.length() || line.charAt(pos[0]) == '}') {
+                return record;
+            }
+            if (line.charAt(pos[0]) == ',') {
+                pos[0]++;
+                continue;
+            }
+            String name = parseJsonString(line, pos);
+            skipWhitespace(line, pos);
+            if (pos[0] >= line.length() || line.charAt(pos[0]) != ':') {
+                throw new IOException("Ungueltiger JSON-Satz: " + line);
+            }
+            pos[0]++;
+            skipWhitespace(line, pos);
+            char c = line.charAt(pos[0]);
+            if (c == '"') {
+                record.put(name, parseJsonString(line, pos));
+            } else if (c == '[' || c == '{') {
+                skipJsonValue(line, pos);
+            } else {
+                int start = pos[0];
+                while (pos[0] < line.length() && ",}] \t".indexOf(line.charAt(pos[0])) < 0) {
+                    pos[0]++;
+                }
+                record.put(name, line.substring(start, pos[0]));
+            }
+        }
+    }
+
+    private static String parseJsonString(String line, int[] pos) throws IOException {
+        if (line.charAt(pos[0]) != '"') {
+            throw new IOException("Ungueltiger JSON-Satz: " + line);
+        }
+        StringBuilder s = new StringBuilder();
+        for (int i = pos[0] + 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return s.toString();
+            }
+            if (c == '\\') {
+                char e = line.charAt(++i);
+                switch (e) {
+                    case 'n':
+                        s.append('\n');
+                        break;
+                    case 'r':
+                        s.append('\r');
+                        break;
+                    case 't':
+                        s.append('\t');
+                        break;
+                    case 'u':
+                        s.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default:
+                        s.append(e);
+                }
+            } else {
+                s.append(c);
+            }
+        }
+        throw new IOException("Ungueltiger JSON-Satz: " + line);
+    }
+
+    private static void skipJsonValue(String line, int[] pos) throws IOException {
+        int depth = 0;
+        while (pos[0] < line.length()) {
+            char c = line.charAt(pos[0]);
+            if (c == '"') {
+                parseJsonString(line, pos);
+                continue;
+            }
+            if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                depth--;
+            }
+            pos[0]++;
+            if (depth == 0) {
+                return;
+            }
+        }
+        throw new IOException("Ungueltiger JSON-Satz: " + line);
+    }
+
+    private static void skipWhitespace(String line, int[] pos) {
+        while (pos[0] < line.length() && Character.isWhitespace(line.charAt(pos[0]))) {
+            pos[0]++;
+        }
+    }
+}
@@ -1,13 +1,20 @@
 package edu.hm.dako.chat.benchmarking;
 
+import edu.hm.dako.chat.client.AbstractClient;
 import edu.hm.dako.chat.client.ChatClientUserInterface;
 import edu.hm.dako.chat.client.ClientFactory;
 import edu.hm.dako.chat.common.CpuUtilisationWatch;
+import edu.hm.dako.chat.common.LatencyHistogram;
 import edu.hm.dako.chat.common.SharedClientStatistics;
+import edu.hm.dako.chat.common.VirtualThreads;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -25,10 +32,52 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
     private SharedClientStatistics sharedData;
     private CpuUtilisationWatch cpuUtilisationWatch;
 
+    // Ergebnisdateien, an die jeder Lauf angehaengt wird
+    public static final String RESULT_FILE_CSV = "Benchmarking-ChatApp-Ergebnisse.csv";
+    public static final String RESULT_FILE_JSONL = "Benchmarking-ChatApp-Ergebnisse.jsonl";
+
+    // Ablagen fuer die Ergebnisse der Laeufe
+    private final List<ResultSink> resultSinks;
+
+    // Ergebnis des letzten Laufs
+    private BenchmarkResult lastResult;
+
+    /**
+     * Konstruktor: Ergebnisse werden als CSV und JSON Lines in die Standard-Ergebnisdateien
+     * im aktuellen Verzeichnis geschrieben
+     */
+    public BenchmarkingClient() {
+        resultSinks = new ArrayList<ResultSink>();
+        resultSinks.add(new CsvResultSink(new File(RESULT_FILE_CSV)));
+        resultSinks.add(new JsonLinesResultSink(new File(RESULT_FILE_JSONL)));
+    }
+
+    /**
+     * Konstruktor mit eigenen Ablagen fuer die Ergebnisse
+     *
+     * @param resultSinks Ablagen, leere Liste wenn die Ergebnisse nur ueber
+     *                    {@link #getLastResult()} abgeholt werden. Die Ablagen werden nach
+     *                    jedem Lauf geschlossen und beim naechsten Schreiben wieder geoeffnet.
+     */
+    public BenchmarkingClient(List<ResultSink> resultSinks) {
+        this.resultSinks = resultSinks;
+    }
+
+    /**
+     * @return Ergebnis des zuletzt ausgefuehrten Laufs, null vor dem ersten Lauf
+     */
+    public BenchmarkResult getLastResult() {
+        return lastResult;
+    }
+
     @Override
     public synchronized void  setUserList(Vector<String> names) {
     }
 
+    @Override
+    public void changeUserList(String userName, boolean added) {
+    }
+
     @Override
     public synchronized void setMessageLine(String sender, String message) {
     }
@@ -80,6 +129,7 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
         // Gemeinsamen Datenbereich fuer alle Threads anlegen
         sharedData = new SharedClientStatistics(parm.getNumberOfClients(),
                 parm.getNumberOfMessages(), parm.getClientThinkTime());
+        sharedData.startHeapUsageSampling();
         /**
          * Startzeit ermitteln
          */
@@ -91,18 +141,39 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
         /**
          * Laufzeitzaehler-Thread erzeugen
          */
-        TimeCounterThread timeCounterThread = new TimeCounterThread(clientGui);
+        TimeCounterThread timeCounterThread = new TimeCounterThread(clientGui, sharedData);
         timeCounterThread.start();
 
         cpuUtilisationWatch = new CpuUtilisationWatch();
 
         /**
          * Client-Threads in Abhaengigkeit des Implementierungstyps
-         * instanziieren und starten
+         * instanziieren und starten, bei eingeschalteten virtuellen Threads
+         * (siehe VirtualThreads) als virtuelle Threads
          */
-        ExecutorService executorService = Executors.newFixedThreadPool(parm.getNumberOfClients());
+        ExecutorService executorService = Executors.newFixedThreadPool(parm.getNumberOfClients(),
+                VirtualThreads.newThreadFactory("BenchmarkingClient", false));
+        AbstractClient[] clients = new AbstractClient[parm.getNumberOfClients()];
         for (int i = 0; i < parm.getNumberOfClients(); i++) {
-            executorService.submit(ClientFactory.getClient(this, parm, i, sharedData));
+            clients[i] = ClientFactory.getClient(this, parm, i, sharedData);
+            if (parm.getNumberOfRooms() > 0) {
+                // Clients reihum auf die Chat-Raeume verteilen
+                clients[i].setRoom("Raum-" + (i % parm.getNumberOfRooms()));
+            }
+            executorService.submit(clients[i]);
+        }
+
+        /**
+         * Im Open-Loop-Betrieb sendet der Lastgenerator die Requests nach Zeitplan,
+         * sobald alle Clients angemeldet sind
+         */
+        OpenLoopLoadGenerator loadGenerator = null;
+        if (parm.isOpenLoop()) {
+            loadGenerator = new OpenLoopLoadGenerator(clients, parm.getNumberOfMessages(),
+                    parm.getRequestRate(), parm.getArrivalProcess(), sharedData);
+            loadGenerator.start();
+            clientGui.setMessageLine("Open-Loop-Betrieb mit " + parm.getRequestRate() + " Requests/s ("
+                    + parm.mapArrivalProcessToString(parm.getArrivalProcess()) + ")");
         }
 
         /**
@@ -112,6 +183,15 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
         startData.setNumberOfRequests(numberOfAllRequests);
         startData.setStartTime(getCurrentTime(cal));
         long numberOfPlannedEventMessages = numberOfAllRequests * parm.getNumberOfClients();
+        if (parm.getNumberOfRooms() > 0) {
+            // Jede Nachricht geht nur an die Mitglieder des eigenen Raums
+            numberOfPlannedEventMessages = 0;
+            for (int r = 0; r < parm.getNumberOfRooms(); r++) {
+                long members = parm.getNumberOfClients() / parm.getNumberOfRooms()
+                        + (r < parm.getNumberOfClients() % parm.getNumberOfRooms() ? 1 : 0);
+                numberOfPlannedEventMessages += members * members * parm.getNumberOfMessages();
+            }
+        }
         log.debug("Anzahl geplanter Event-Nachrichten: " + numberOfPlannedEventMessages);
         startData.setNumberOfPlannedEventMessages(numberOfPlannedEventMessages);
   
@@ -131,11 +211,18 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
             log.error("Das Beenden des ExecutorService wurde unterbrochen");
             e.printStackTrace();
         }
+        long elapsedMillis = Calendar.getInstance().getTimeInMillis() - startTime;
 
         /**
-         * Laufzeitzaehler-Thread beenden
+         * Laufzeitzaehler-Thread und Heap-Messung beenden
          */
         timeCounterThread.stopThread();
+        sharedData.stopHeapUsageSampling();
+
+        if (loadGenerator != null) {
+            clientGui.setMessageLine("Max. Verspaetung des Lastgenerators gegenueber Zeitplan: "
+                    + TimeUnit.NANOSECONDS.toMillis(loadGenerator.getMaxSendDelay()) + " ms");
+        }
 
         /**
          * Analyse der Ergebnisse durchfuehren, Statistikdaten berechnen und
@@ -158,14 +245,19 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
         log.debug("Anzahl aller erneuten Sendungen wegen Nachrichtenverlust (Uebertragungswiederholungen): " + sharedData.getSumOfAllRetries());
         
         /**
-         * Datensatz fuer Benchmark-Lauf auf Protokolldatei schreiben
+         * Ergebnis des Benchmark-Laufs in den Ergebnisdateien ablegen
          */
-
-        sharedData.writeStatisticSet("Benchmarking-ChatApp-Protokolldatei",
-                parm.mapImplementationTypeToString(parm.getImplementationType()),
-                parm.mapMeasurementTypeToString(parm.getMeasurementType()),
-                startTimeAsString,
-                resultData.getEndTime());
+        lastResult = new BenchmarkResult(parm, resultData, startTimeAsString, elapsedMillis,
+                sharedData.getRttHistogram(), sharedData.getServerTimeHistogram(),
+                timeCounterThread.getThroughputSeries());
+        for (ResultSink sink : resultSinks) {
+            try {
+                sink.write(lastResult);
+                sink.close();
+            } catch (IOException e) {
+                log.error("Fehler beim Schreiben des Ergebnisses: " + e.getMessage());
+            }
+        }
     }
     
     /**
@@ -185,6 +277,19 @@ public class BenchmarkingClient implements BenchmarkingStartInterface, ChatClien
         resultData.setAvgServerTime(sharedData.getAverageServerTime()
                 / parm.getNumberOfClients() / 1000000d);
 
+        // Perzentile aus den zusammengefuehrten Histogrammen aller Clients
+        LatencyHistogram rtt = sharedData.getRttHistogram();
+        resultData.setP50RTT(rtt.getValueAtPercentile(50.0) / 1000000d);
+        resultData.setP90RTT(rtt.getValueAtPercentile(90.0) / 1000000d);
+        resultData.setP99RTT(rtt.getValueAtPercentile(99.0) / 1000000d);
+        resultData.setP999RTT(rtt.getValueAtPercentile(99.9) / 1000000d);
+        LatencyHistogram serverTime = sharedData.getServerTimeHistogram();
+        resultData.setP50ServerTime(serverTime.getValueAtPercentile(50.0) / 1000000d);
+        resultData.setP90ServerTime(serverTime.getValueAtPercentile(90.0) / 1000000d);
+        resultData.setP99ServerTime(serverTime.getValueAtPercentile(99.0) / 1000000d);
+        resultData.setP999ServerTime(serverTime.getValueAtPercentile(99.9) / 1000000d);
+        resultData.setMaxServerTime(serverTime.getMaxValue() / 1000000d);
+
         cal = Calendar.getInstance();
         resultData.setEndTime(getCurrentTime(cal));
         
@@ -22,6 +22,7 @@ import com.jgoodies.forms.factories.DefaultComponentFactory;
 import com.jgoodies.forms.layout.CellConstraints;
 import com.jgoodies.forms.layout.FormLayout;
 
+import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.ArrivalProcess;
 import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.ImplementationType;
 import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.MeasurementType;
 
@@ -40,7 +41,10 @@ public class BenchmarkingClientGui extends JPanel
         implements BenchmarkingClientUserInterface, ActionListener {
 
     public static final String IMPL_TCP = "TCP";
+    public static final String IMPL_TCP_NIO = "TCP-NIO";
     public static final String IMPL_UDP = "UDP";
+    public static final String ARRIVAL_CONSTANT = "Konstante Rate";
+    public static final String ARRIVAL_POISSON = "Poisson-Prozess";
     private long timeCounter = 0; // Zeitzaehler fuer Testlaufzeit
 
     private static JFrame frameBenchmarkingGui; // Frame fuer Anwendungs-GUI
@@ -50,8 +54,9 @@ public class BenchmarkingClientGui extends JPanel
      * GUI-Komponenten
      */
 
-    private JComboBox optionListImplType;
-    private JComboBox optionListMeasureType;
+    private JComboBox<String> optionListImplType;
+    private JComboBox<String> optionListMeasureType;
+    private JComboBox<String> optionListArrivalProcess;
     private JTextField textFieldNumberOfClientThreads;
     private JFormattedTextField textFieldAvgCpuUsage;
     private JFormattedTextField textFieldNumberOfMessagesPerClients;
@@ -61,6 +66,8 @@ public class BenchmarkingClientGui extends JPanel
     private JFormattedTextField textFieldMessageLength; 
     private JFormattedTextField textFieldNumberOfMaxRetries;
     private JFormattedTextField textFieldResponseTimeout;
+    private JFormattedTextField textFieldWindowSize;
+    private JFormattedTextField textFieldRequestRate;
     private JFormattedTextField textFieldSeperator;
     private JFormattedTextField textFieldPlannedRequests;
     private JFormattedTextField textFieldTestBegin;
@@ -73,6 +80,15 @@ public class BenchmarkingClientGui extends JPanel
     private JFormattedTextField textFieldMaxRTT;
     private JFormattedTextField textFieldMaxHeapUsage;
     private JFormattedTextField textFieldMinRTT;
+    private JFormattedTextField textFieldP50RTT;
+    private JFormattedTextField textFieldP50ServerTime;
+    private JFormattedTextField textFieldP90RTT;
+    private JFormattedTextField textFieldP90ServerTime;
+    private JFormattedTextField textFieldP99RTT;
+    private JFormattedTextField textFieldP99ServerTime;
+    private JFormattedTextField textFieldP999RTT;
+    private JFormattedTextField textFieldP999ServerTime;
+    private JFormattedTextField textFieldMaxServerTime;
     private JFormattedTextField textFieldNumberOfRetries; // Anzahl der Uebertragungswiederholungen
     
     private JFormattedTextField textFieldPlannedEventMessages;
@@ -103,13 +119,19 @@ public class BenchmarkingClientGui extends JPanel
          */
         String[] optionStrings = {
                 IMPL_TCP,
+                IMPL_TCP_NIO,
                 IMPL_UDP};
-        optionListImplType = new JComboBox(optionStrings);
+        optionListImplType = new JComboBox<String>(optionStrings);
 
         String[] optionStrings1 = {
                 "Variable Threads",
                 "Variable Length"};
-        optionListMeasureType = new JComboBox(optionStrings1);
+        optionListMeasureType = new JComboBox<String>(optionStrings1);
+
+        String[] optionStrings2 = {
+                ARRIVAL_CONSTANT,
+                ARRIVAL_POISSON};
+        optionListArrivalProcess = new JComboBox<String>(optionStrings2);
 
         textFieldNumberOfClientThreads = new JTextField();
         //text = new JFormattedTextField();
@@ -123,6 +145,8 @@ public class BenchmarkingClientGui extends JPanel
         
         textFieldNumberOfMaxRetries = new JFormattedTextField();
         textFieldResponseTimeout = new JFormattedTextField();
+        textFieldWindowSize = new JFormattedTextField();
+        textFieldRequestRate = new JFormattedTextField();
         
         textFieldSeperator = new JFormattedTextField();
         textFieldPlannedRequests = new JFormattedTextField();
@@ -131,6 +155,15 @@ public class BenchmarkingClientGui extends JPanel
         textFieldTestEnd = new JFormattedTextField();
         textFieldReceivedResponses = new JFormattedTextField();
         textFieldTestDuration = new JFormattedTextField();
+        textFieldP50RTT = new JFormattedTextField();
+        textFieldP50ServerTime = new JFormattedTextField();
+        textFieldP90RTT = new JFormattedTextField();
+        textFieldP90ServerTime = new JFormattedTextField();
+        textFieldP99RTT = new JFormattedTextField();
+        textFieldP99ServerTime = new JFormattedTextField();
+        textFieldP999RTT = new JFormattedTextField();
+        textFieldP999ServerTime = new JFormattedTextField();
+        textFieldMaxServerTime = new JFormattedTextField();
         textFieldAvgRTT = new JFormattedTextField();
         textFieldAvgServerTime = new JFormattedTextField();
         textFieldMaxRTT = new JFormattedTextField();
@@ -178,7 +211,7 @@ public class BenchmarkingClientGui extends JPanel
                 // Zeilen
                 "p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p," + // Erster Block, Eingabepearameter
                 "20dlu, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p," + // Zweiter Block, Laufzeitdaten
-                "10dlu, p, p, p, p, p, p, p, p, p," + // Dritter Block, Messergebnisse
+                "10dlu, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p, p," + // Dritter Block, Messergebnisse
                 "20dlu, p, p, p," + // Vierter Block, Meldungszeilen
                 "p, p, p, p" // Fuenfter Block, Buttons
         		);
@@ -230,6 +263,17 @@ public class BenchmarkingClientGui extends JPanel
         panelBenchmarkingClientGui.add(textFieldResponseTimeout, cc.xy(7, 11));
         textFieldResponseTimeout.setText("2000");
 
+        panelBenchmarkingClientGui.add(new JLabel("Max. ausstehende Requests"), cc.xy(1, 13));
+        panelBenchmarkingClientGui.add(textFieldWindowSize, cc.xy(3, 13));
+        textFieldWindowSize.setText("1");
+
+        panelBenchmarkingClientGui.add(new JLabel("Requestrate [1/s], 0 = Closed Loop"), cc.xy(5, 13));
+        panelBenchmarkingClientGui.add(textFieldRequestRate, cc.xy(7, 13));
+        textFieldRequestRate.setText("0");
+
+        panelBenchmarkingClientGui.add(new JLabel("Ankunftsprozess"), cc.xy(1, 15));
+        panelBenchmarkingClientGui.add(optionListArrivalProcess, cc.xyw(3, 15, 1));
+
         panelBenchmarkingClientGui.add(createSeparator("Laufzeitdaten"), cc.xyw(1, 17, 7));
         panelBenchmarkingClientGui.add(new JLabel("Geplante Requests"), cc.xy(1, 19));
         panelBenchmarkingClientGui.add(textFieldPlannedRequests, cc.xy(3, 19));
@@ -304,24 +348,60 @@ public class BenchmarkingClientGui extends JPanel
         panelBenchmarkingClientGui.add(new JLabel("Durchschnittliche CPU-Auslastung [%]"), cc.xy(5, 43));
         panelBenchmarkingClientGui.add(textFieldAvgCpuUsage, cc.xy(7, 43));
         textFieldAvgCpuUsage.setEditable(false);
-      
         
-        panelBenchmarkingClientGui.add(createSeparator(""), cc.xyw(1, 47, 7));
+        panelBenchmarkingClientGui.add(new JLabel("RTT 50%-Perzentil [ms]"), cc.xy(1, 45));
+        panelBenchmarkingClientGui.add(textFieldP50RTT, cc.xy(3, 45));
+        textFieldP50RTT.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("Serverzeit 50%-Perzentil [ms]"), cc.xy(5, 45));
+        panelBenchmarkingClientGui.add(textFieldP50ServerTime, cc.xy(7, 45));
+        textFieldP50ServerTime.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("RTT 90%-Perzentil [ms]"), cc.xy(1, 47));
+        panelBenchmarkingClientGui.add(textFieldP90RTT, cc.xy(3, 47));
+        textFieldP90RTT.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("Serverzeit 90%-Perzentil [ms]"), cc.xy(5, 47));
+        panelBenchmarkingClientGui.add(textFieldP90ServerTime, cc.xy(7, 47));
+        textFieldP90ServerTime.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("RTT 99%-Perzentil [ms]"), cc.xy(1, 49));
+        panelBenchmarkingClientGui.add(textFieldP99RTT, cc.xy(3, 49));
+        textFieldP99RTT.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("Serverzeit 99%-Perzentil [ms]"), cc.xy(5, 49));
+        panelBenchmarkingClientGui.add(textFieldP99ServerTime, cc.xy(7, 49));
+        textFieldP99ServerTime.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("RTT 99,9%-Perzentil [ms]"), cc.xy(1, 51));
+        panelBenchmarkingClientGui.add(textFieldP999RTT, cc.xy(3, 51));
+        textFieldP999RTT.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("Serverzeit 99,9%-Perzentil [ms]"), cc.xy(5, 51));
+        panelBenchmarkingClientGui.add(textFieldP999ServerTime, cc.xy(7, 51));
+        textFieldP999ServerTime.setEditable(false);
+        
+        panelBenchmarkingClientGui.add(new JLabel("Maximale Serverzeit [ms]"), cc.xy(5, 53));
+        panelBenchmarkingClientGui.add(textFieldMaxServerTime, cc.xy(7, 53));
+        textFieldMaxServerTime.setEditable(false);
+        
+      
+        panelBenchmarkingClientGui.add(createSeparator(""), cc.xyw(1, 57, 7));
 
         // Meldungsbereich erzeugen
 
-        panelBenchmarkingClientGui.add(scrollPane, cc.xyw(1, 49, 7));
+        panelBenchmarkingClientGui.add(scrollPane, cc.xyw(1, 59, 7));
         messageArea.setLineWrap(true);
         messageArea.setWrapStyleWord(true);
         messageArea.setEditable(false);
         messageArea.setCaretPosition(0);
 
-        panelBenchmarkingClientGui.add(createSeparator(""), cc.xyw(1, 51, 7));
+        panelBenchmarkingClientGui.add(createSeparator(""), cc.xyw(1, 61, 7));
 
         // Buttons erzeugen
-        panelBenchmarkingClientGui.add(startButton, cc.xyw(2, 53, 2));   //Starten
-        panelBenchmarkingClientGui.add(newButton, cc.xyw(4, 53, 2));     //Loeschen
-        panelBenchmarkingClientGui.add(finishButton, cc.xyw(6, 53, 2));  //Abbrechen
+        panelBenchmarkingClientGui.add(startButton, cc.xyw(2, 63, 2));   //Starten
+        panelBenchmarkingClientGui.add(newButton, cc.xyw(4, 63, 2));     //Loeschen
+        panelBenchmarkingClientGui.add(finishButton, cc.xyw(6, 63, 2));  //Abbrechen
         
         // Listener fuer Buttons registrieren
         startButton.addActionListener(this);
@@ -494,6 +574,40 @@ public class BenchmarkingClientGui extends JPanel
              System.out.println("Maximale Anzahl Wiederholungen:" + iNumberOfMaxRetries);
              iParm.setNumberOfRetries( iNumberOfMaxRetries.intValue());
     	}
+
+        // Validierung fuer maximale Anzahl ausstehender Requests (1 = Stop-and-Wait)
+        testString = textFieldWindowSize.getText();
+        if (testString.matches( "[0-9]+")){
+        	int iWindowSize = Integer.parseInt(textFieldWindowSize.getText());
+        	if (iWindowSize < 1) {
+        		// nicht im Wertebereich
+        		// Aktualisieren des Frames auf dem Bildschirm
+        		setMessageLine("Max. ausstehende Requests bitte groesser als 0 angeben");
+        		frameBenchmarkingGui.update(frameBenchmarkingGui.getGraphics());
+        		return;
+        	} else {
+        	 System.out.println("Max. ausstehende Requests:" + iWindowSize);
+        	 iParm.setWindowSize(iWindowSize);
+        	}
+        } else {
+       	 setMessageLine("Max. ausstehende Requests nicht numerisch");
+    		 frameBenchmarkingGui.update(frameBenchmarkingGui.getGraphics());
+    		 return;
+        }
+
+        // Validierung fuer Requestrate im Open-Loop-Betrieb (0 = Closed-Loop-Betrieb)
+        testString = textFieldRequestRate.getText();
+        if (!testString.matches( "[0-9]+")) {
+        	 // nicht numerisch
+        	 // Aktualisieren des Frames auf dem Bildschirm
+        	 setMessageLine("Requestrate nicht numerisch");
+            frameBenchmarkingGui.update(frameBenchmarkingGui.getGraphics());
+            return;
+         } else {
+        	 int iRequestRate = Integer.parseInt(textFieldRequestRate.getText());
+             System.out.println("Requestrate:" + iRequestRate + " Requests/s");
+             iParm.setRequestRate(iRequestRate);
+    	}
         
        
         /*
@@ -505,6 +619,8 @@ public class BenchmarkingClientGui extends JPanel
         System.out.println("Implementierungstyp eingegeben: " + item1);
         if (item1.equals(IMPL_TCP))
             iParm.setImplementationType(ImplementationType.TCPImplementation);
+        if (item1.equals(IMPL_TCP_NIO))
+            iParm.setImplementationType(ImplementationType.TCPNioImplementation);
         if (item1.equals(IMPL_UDP))
             iParm.setImplementationType(ImplementationType.UDPImplementation);
 
@@ -517,6 +633,14 @@ public class BenchmarkingClientGui extends JPanel
         if (item1.equals("Variable Length"))
             iParm.setMeasurementType(MeasurementType.VarMsgLength);
 
+        // Eingegebenen Ankunftsprozess auslesen
+        String item3 = (String) optionListArrivalProcess.getSelectedItem();
+        System.out.println("Ankunftsprozess eingegeben: " + item3);
+        if (item3.equals(ARRIVAL_CONSTANT))
+            iParm.setArrivalProcess(ArrivalProcess.Constant);
+        if (item3.equals(ARRIVAL_POISSON))
+            iParm.setArrivalProcess(ArrivalProcess.Poisson);
+
         // Aufruf des Benchmarks
         BenchmarkingClient benchClient = new BenchmarkingClient();
         benchClient.executeTest(iParm, this);
@@ -545,6 +669,15 @@ public class BenchmarkingClientGui extends JPanel
         textFieldAvgCpuUsage.setText("");
         textFieldMaxHeapUsage.setText("");
         textFieldMinRTT.setText("");
+        textFieldP50RTT.setText("");
+        textFieldP50ServerTime.setText("");
+        textFieldP90RTT.setText("");
+        textFieldP90ServerTime.setText("");
+        textFieldP99RTT.setText("");
+        textFieldP99ServerTime.setText("");
+        textFieldP999RTT.setText("");
+        textFieldP999ServerTime.setText("");
+        textFieldMaxServerTime.setText("");
         textFieldNumberOfRetries.setText(""); // Anzahl an Nachrichtenwiederholungen insgesamt
         textFieldPlannedEventMessages.setText("");
         textFieldSentEventMessages.setText("");
@@ -621,15 +754,33 @@ public class BenchmarkingClientGui extends JPanel
         textFieldNumberOfRetries.setText((new Long(data.getNumberOfRetries())).toString()); 
 
         formatter = new Formatter();
-		textFieldAvgRTT.setText(formatter.format( "%.2f", (new Double(data.getAvgRTT())) ).toString());          
+		textFieldAvgRTT.setText(formatter.format( "%.2f", data.getAvgRTT() ).toString());          
 		formatter = new Formatter();
-		textFieldAvgServerTime.setText(formatter.format( "%.2f", (new Double(data.getAvgServerTime())) ).toString());       
+		textFieldAvgServerTime.setText(formatter.format( "%.2f", data.getAvgServerTime() ).toString());       
 		formatter = new Formatter();
-		textFieldMaxRTT.setText(formatter.format( "%.2f", (new Double(data.getMaxRTT())) ).toString());
+		textFieldMaxRTT.setText(formatter.format( "%.2f", data.getMaxRTT() ).toString());
 		formatter = new Formatter();
-        textFieldMinRTT.setText(formatter.format( "%.2f", (new Double(data.getMinRTT())) ).toString());
+        textFieldMinRTT.setText(formatter.format( "%.2f", data.getMinRTT() ).toString());
+        formatter = new Formatter();
+        textFieldAvgCpuUsage.setText(formatter.format( "%.2f", data.getMaxCpuUsage() * 100).toString());
+        formatter = new Formatter();
+        textFieldP50RTT.setText(formatter.format( "%.2f", data.getP50RTT() ).toString());
+        formatter = new Formatter();
+        textFieldP50ServerTime.setText(formatter.format( "%.2f", data.getP50ServerTime() ).toString());
+        formatter = new Formatter();
+        textFieldP90RTT.setText(formatter.format( "%.2f", data.getP90RTT() ).toString());
+        formatter = new Formatter();
+        textFieldP90ServerTime.setText(formatter.format( "%.2f", data.getP90ServerTime() ).toString());
+        formatter = new Formatter();
+        textFieldP99RTT.setText(formatter.format( "%.2f", data.getP99RTT() ).toString());
+        formatter = new Formatter();
+        textFieldP99ServerTime.setText(formatter.format( "%.2f", data.getP99ServerTime() ).toString());
+        formatter = new Formatter();
+        textFieldP999RTT.setText(formatter.format( "%.2f", data.getP999RTT() ).toString());
+        formatter = new Formatter();
+        textFieldP999ServerTime.setText(formatter.format( "%.2f", data.getP999ServerTime() ).toString());
         formatter = new Formatter();
-        textFieldAvgCpuUsage.setText(formatter.format( "%.2f", (new Double(data.getMaxCpuUsage() * 100))).toString());
+        textFieldMaxServerTime.setText(formatter.format( "%.2f", data.getMaxServerTime() ).toString());
                
         textFieldSentEventMessages.setText((new Long(data.getNumberOfSentEventMessages())).toString());         
         textFieldReceivedConfirmEvents.setText((new Long(data.getNumberOfReceivedConfirmEvents())).toString());          
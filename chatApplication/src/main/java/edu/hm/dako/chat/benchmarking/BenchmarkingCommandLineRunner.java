@@ -0,0 +1,332 @@
+package edu.hm.dako.chat.benchmarking;
+
+import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.ArrivalProcess;
+import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.ImplementationType;
+import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.MeasurementType;
+import edu.hm.dako.chat.server.ChatServer;
+import edu.hm.dako.chat.server.ServerFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.PropertyConfigurator;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark ohne GUI von der Kommandozeile aus starten.
+ * <p>
+ * Anzahl der Clients und Nachrichtenlaenge koennen als Bereich angegeben werden, fuer jeden
+ * Messpunkt (jede Kombination) wird der Benchmark ueber
+ * {@link BenchmarkingStartInterface#executeTest} ausgefuehrt: zuerst die Aufwaermlaeufe, deren
+ * Ergebnisse verworfen werden, dann die Wiederholungen, deren Ergebnisse in die Ergebnisdatei
+ * geschrieben werden (JSON Lines bei Endung .jsonl, sonst CSV). Der Server laeuft entweder im
+ * selben Prozess oder extern, die Loopback-Implementierung nur im selben Prozess.
+ * <p>
+ * Beispiel: --impl TCPNioImplementation --clients 10..1000*2 --length 10 --messages 100
+ * --warmup 1 --repeat 3 --out ergebnisse.jsonl
+ * <p>
+ * Bereiche: "10..1000*2" (Faktor), "10..100+10" (Schrittweite), "10,50,100" (Liste) oder
+ * ein einzelner Wert.
+ * <p>
+ * Laeuft der Server als Cluster mehrerer Knoten (siehe {@link edu.hm.dako.chat.cluster.ClusterNode}),
+ * werden die Clients mit --server host:port,host:port reihum auf die Knoten verteilt.
+ */
+public class BenchmarkingCommandLineRunner implements BenchmarkingClientUserInterface {
+
+    private static Log log = LogFactory.getLog(BenchmarkingCommandLineRunner.class);
+
+    @Override
+    public void showStartData(UserInterfaceStartData data) {
+        log.debug("Testbeginn: " + data.getStartTime() + ", geplante Requests: " + data.getNumberOfRequests());
+    }
+
+    @Override
+    public void showResultData(UserInterfaceResultData data) {
+        log.debug("Testende: " + data.getEndTime() + ", empfangene Responses: " + data.getNumberOfResponses());
+    }
+
+    @Override
+    public void setMessageLine(String message) {
+        System.out.println("*** Meldung: " + message + " ***");
+    }
+
+    @Override
+    public void resetCurrentRunTime() {
+    }
+
+    @Override
+    public void addCurrentRunTime(long sec) {
+        // Kein Laufzeitzaehler im Batch-Betrieb
+    }
+
+    /**
+     * main
+     *
+     * @param args Optionen, siehe {@link #printUsage()}
+     */
+    public static void main(String[] args) {
+        PropertyConfigurator.configureAndWatch("log4j.client.properties", 60 * 1000);
+
+        BenchmarkingCommandLineRunner runner = new BenchmarkingCommandLineRunner();
+        try {
+            System.exit(runner.run(args));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ungueltige Option: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Optionen:");
+        System.out.println("  --impl <Typ>          TCPImplementation (Default), TCPNioImplementation,");
+        System.out.println("                        UDPImplementation oder LoopbackImplementation");
+        System.out.println("                        (nur mit --server inprocess)");
+        System.out.println("  --server <Adresse>    inprocess (Default) oder host:port eines laufenden Servers,");
+        System.out.println("                        host:port,host:port,... verteilt die Clients reihum auf");
+        System.out.println("                        die Knoten eines Server-Clusters");
+        System.out.println("  --clients <Bereich>   Anzahl Client-Threads, Default 10");
+        System.out.println("  --length <Bereich>    Nachrichtenlaenge in Byte, Default 10");
+        System.out.println("  --messages <n>        Anzahl Nachrichten je Client, Default 100");
+        System.out.println("  --think <ms>          Denkzeit, Default 0");
+        System.out.println("  --window <n>          Max. ausstehende Requests je Client, Default 1");
+        System.out.println("  --rate <n>            Requests/s im Open-Loop-Betrieb, Default 0 (Closed Loop)");
+        System.out.println("  --arrival <Prozess>   Constant (Default) oder Poisson");
+        System.out.println("  --rooms <n>           Clients reihum auf n Chat-Raeume verteilen, Default 0 (ein Raum)");
+        System.out.println("  --timeout <ms>        Response-Timeout, Default 2000");
+        System.out.println("  --warmup <n>          Aufwaermlaeufe je Messpunkt, Default 0");
+        System.out.println("  --repeat <n>          Gemessene Laeufe je Messpunkt, Default 1");
+        System.out.println("  --out <Datei>         Ergebnisdatei, *.jsonl als JSON Lines, sonst CSV;");
+        System.out.println("                        Default benchmark-results.csv");
+        System.out.println("Bereiche: 10..1000*2, 10..100+10, 10,50,100 oder ein einzelner Wert");
+    }
+
+    /**
+     * Fuehrt alle Messpunkte aus
+     *
+     * @param args Optionen
+     * @return Exit-Code
+     */
+    int run(String[] args) {
+        UserInterfaceInputParameters parm = new UserInterfaceInputParameters();
+        parm.setNumberOfMessages(100);
+        parm.setClientThinkTime(0);
+        parm.setResponseTimeout(2000);
+
+        String server = "inprocess";
+        List<Integer> clientValues = parseRange("10");
+        List<Integer> lengthValues = parseRange("10");
+        int warmup = 0;
+        int repeat = 1;
+        String outFile = "benchmark-results.csv";
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(option + " ohne Wert");
+            }
+            String value = args[++i];
+            if (option.equals("--impl")) {
+                parm.setImplementationType(ImplementationType.valueOf(value));
+            } else if (option.equals("--server")) {
+                server = value;
+            } else if (option.equals("--clients")) {
+                clientValues = parseRange(value);
+            } else if (option.equals("--length")) {
+                lengthValues = parseRange(value);
+            } else if (option.equals("--messages")) {
+                parm.setNumberOfMessages(parsePositive(value));
+            } else if (option.equals("--think")) {
+                parm.setClientThinkTime(Integer.parseInt(value));
+            } else if (option.equals("--window")) {
+                parm.setWindowSize(parsePositive(value));
+            } else if (option.equals("--rate")) {
+                parm.setRequestRate(Integer.parseInt(value));
+            } else if (option.equals("--arrival")) {
+                parm.setArrivalProcess(ArrivalProcess.valueOf(value));
+            } else if (option.equals("--rooms")) {
+                parm.setNumberOfRooms(Integer.parseInt(value));
+            } else if (option.equals("--timeout")) {
+                parm.setResponseTimeout(Integer.parseInt(value));
+            } else if (option.equals("--warmup")) {
+                warmup = Integer.parseInt(value);
+            } else if (option.equals("--repeat")) {
+                repeat = parsePositive(value);
+            } else if (option.equals("--out")) {
+                outFile = value;
+            } else {
+                throw new IllegalArgumentException(option);
+            }
+        }
+
+        // Bei mehreren Clientanzahlen wird die Threadanzahl variiert, sonst die Nachrichtenlaenge
+        parm.setMeasurementType(clientValues.size() == 1 && lengthValues.size() > 1
+                ? MeasurementType.VarMsgLength : MeasurementType.VarThreads);
+
+        ChatServer inProcessServer = null;
+        if (server.equals("inprocess")) {
+            inProcessServer = startInProcessServer(parm.getImplementationType());
+            if (inProcessServer == null) {
+                return 1;
+            }
+        } else if (parm.getImplementationType() == ImplementationType.LoopbackImplementation) {
+            throw new IllegalArgumentException("--server " + server + ": Loopback-Server muss im Prozess laufen");
+        } else {
+            // Mehrere Knoten eines Clusters: Clients werden reihum verteilt
+            List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+            for (String node : server.split(",")) {
+                int colon = node.lastIndexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("--server " + server);
+                }
+                servers.add(InetSocketAddress.createUnresolved(node.substring(0, colon),
+                        Integer.parseInt(node.substring(colon + 1))));
+            }
+            parm.setRemoteServers(servers);
+        }
+
+        int failedRuns = 0;
+        File file = new File(outFile);
+        ResultSink sink = outFile.endsWith(".jsonl") ? new JsonLinesResultSink(file) : new CsvResultSink(file);
+        try {
+            try {
+                for (int clients : clientValues) {
+                    for (int length : lengthValues) {
+                        parm.setNumberOfClients(clients);
+                        parm.setMessageLength(length);
+                        for (int w = 0; w < warmup; w++) {
+                            setMessageLine("Aufwaermlauf " + (w + 1) + "/" + warmup + ": " + clients
+                                    + " Clients, Nachrichtenlaenge " + length);
+                            executeRun(parm);
+                        }
+                        for (int r = 0; r < repeat; r++) {
+                            setMessageLine("Messlauf " + (r + 1) + "/" + repeat + ": " + clients
+                                    + " Clients, Nachrichtenlaenge " + length);
+                            BenchmarkResult result = executeRun(parm);
+                            if (result == null) {
+                                failedRuns++;
+                                continue;
+                            }
+                            result.setRepetition(r + 1);
+                            sink.write(result);
+                        }
+                    }
+                }
+            } finally {
+                sink.close();
+            }
+        } catch (IOException e) {
+            log.error("Fehler beim Schreiben der Ergebnisdatei " + outFile, e);
+            return 1;
+        } finally {
+            stopInProcessServer(inProcessServer);
+        }
+
+        setMessageLine("Alle Messpunkte ausgefuehrt, Ergebnisse in " + outFile);
+        return failedRuns == 0 ? 0 : 1;
+    }
+
+    private BenchmarkResult executeRun(UserInterfaceInputParameters parm) {
+        // Ergebnisse schreibt der Runner selbst, Aufwaermlaeufe werden nicht abgelegt
+        BenchmarkingClient benchClient = new BenchmarkingClient(new ArrayList<ResultSink>());
+        benchClient.executeTest(parm, this);
+        return benchClient.getLastResult();
+    }
+
+    /**
+     * Startet einen Server im selben Prozess. Der Listen-Socket (bei Loopback der Eintrag in der
+     * Tabelle der Server-Sockets) ist bereits beim Erzeugen des Servers gebunden, Verbindungen,
+     * die vor dem Annehmen in {@link ChatServer#start()} eintreffen, warten im Backlog. Auf den
+     * Server-Thread muss daher nicht gewartet werden.
+     *
+     * @param type Implementierung
+     * @return Gestarteter Server oder null, falls er nicht erzeugt werden konnte
+     */
+    private ChatServer startInProcessServer(ImplementationType type) {
+        final ChatServer server;
+        try {
+            server = ServerFactory.getServer(type);
+        } catch (Exception e) {
+            log.error("Server " + type + " konnte nicht erzeugt werden", e);
+            return null;
+        }
+        Thread serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.start();
+            }
+        }, "InProcessServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return server;
+    }
+
+    private void stopInProcessServer(ChatServer server) {
+        if (server == null) {
+            return;
+        }
+        try {
+            server.stop();
+        } catch (Exception e) {
+            log.error("Server konnte nicht beendet werden", e);
+        }
+    }
+
+    /**
+     * Bereich in die Liste seiner Werte zerlegen
+     *
+     * @param spec Bereich, z.B. "10..1000*2", "10..100+10", "10,50,100" oder "10"
+     * @return Werte des Bereichs in aufsteigender Reihenfolge der Angabe
+     */
+    static List<Integer> parseRange(String spec) {
+        List<Integer> values = new ArrayList<Integer>();
+        int dots = spec.indexOf("..");
+        if (dots < 0) {
+            for (String value : spec.split(",")) {
+                values.add(parsePositive(value.trim()));
+            }
+            return values;
+        }
+
+        int from = parsePositive(spec.substring(0, dots));
+        String rest = spec.substring(dots + 2);
+        int multiply = rest.indexOf('*');
+        int add = rest.indexOf('+');
+        if (multiply >= 0) {
+            int to = parsePositive(rest.substring(0, multiply));
+            int factor = parsePositive(rest.substring(multiply + 1));
+            if (factor < 2) {
+                throw new IllegalArgumentException(spec);
+            }
+            for (long v = from; v <= to; v *= factor) {
+                values.add((int) v);
+            }
+        } else {
+            int to = parsePositive(add >= 0 ? rest.substring(0, add) : rest);
+            int step = add >= 0 ? parsePositive(rest.substring(add + 1)) : 1;
+            for (long v = from; v <= to; v += step) {
+                values.add((int) v);
+            }
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException(spec);
+        }
+        return values;
+    }
+
+    private static int parsePositive(String value) {
+        int i;
+        try {
+            i = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value);
+        }
+        if (i < 1) {
+            throw new IllegalArgumentException(value);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,99 @@
+package edu.hm.dako.chat.benchmarking;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ablage der Kennzahlen eines Laufs als Zeile einer CSV-Datei (RFC 4180, Trennzeichen Komma,
+ * Dezimalpunkt). Die erste Zeile enthaelt die Feldnamen aus
+ * {@link BenchmarkResult#getSummaryFields()}, die Einheiten sind Teil der Namen. Histogramme
+ * und Durchsatz-Zeitreihe enthaelt nur die JSON-Lines-Ablage.
+ * <p>
+ * Die Datei wird beim ersten Schreiben geoeffnet und bis {@link #close()} offen gehalten,
+ * neue Zeilen werden an eine bestehende Datei angehaengt.
+ */
+public class CsvResultSink implements ResultSink {
+
+    private static Log log = LogFactory.getLog(CsvResultSink.class);
+
+    private final File file;
+    private BufferedWriter out;
+
+    public CsvResultSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void write(BenchmarkResult result) throws IOException {
+        Map<String, Object> fields = result.getSummaryFields();
+        if (out == null) {
+            open(formatLine(fields.keySet().iterator()));
+        }
+        out.write(formatLine(fields.values().iterator()));
+        out.newLine();
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void open(String header) throws IOException {
+        boolean writeHeader = true;
+        if (file.exists() && file.length() > 0) {
+            writeHeader = false;
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                if (!header.equals(in.readLine())) {
+                    log.warn("Kopfzeile der Datei " + file + " passt nicht zum aktuellen Satzaufbau");
+                }
+            } finally {
+                in.close();
+            }
+        }
+        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        if (writeHeader) {
+            out.write(header);
+            out.newLine();
+        }
+    }
+
+    private static String formatLine(Iterator<?> values) {
+        StringBuilder line = new StringBuilder();
+        while (values.hasNext()) {
+            line.append(formatValue(values.next()));
+            if (values.hasNext()) {
+                line.append(',');
+            }
+        }
+        return line.toString();
+    }
+
+    private static String formatValue(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return String.format(Locale.ROOT, "%.3f", ((Number) value).doubleValue());
+        }
+        String s = String.valueOf(value);
+        if (s.indexOf(',') >= 0 || s.indexOf('"') >= 0 || s.indexOf('\n') >= 0
+                || s.indexOf('\r') >= 0) {
+            return '"' + s.replace("\"", "\"\"") + '"';
+        }
+        return s;
+    }
+}
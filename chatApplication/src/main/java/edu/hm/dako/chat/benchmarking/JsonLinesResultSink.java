@@ -0,0 +1,136 @@
+package edu.hm.dako.chat.benchmarking;
+
+import edu.hm.dako.chat.common.LatencyHistogram;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ablage eines Laufs als JSON-Objekt in einer Zeile (JSON Lines). Neben den Kennzahlen aus
+ * {@link BenchmarkResult#getSummaryFields()} enthaelt jeder Satz:
+ * <ul>
+ * <li>rttHistogramNs, serverTimeHistogramNs: belegte Teilbereiche der Histogramme als Paare
+ * [Obergrenze in ns, Anzahl]</li>
+ * <li>throughputSeriesPerSec: empfangene Responses je Sekunde des Laufs</li>
+ * </ul>
+ */
+public class JsonLinesResultSink implements ResultSink {
+
+    private final File file;
+    private BufferedWriter out;
+
+    public JsonLinesResultSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void write(BenchmarkResult result) throws IOException {
+        if (out == null) {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        }
+        StringBuilder json = new StringBuilder(4096);
+        json.append('{');
+        for (Map.Entry<String, Object> field : result.getSummaryFields().entrySet()) {
+            appendName(json, field.getKey());
+            appendValue(json, field.getValue());
+            json.append(',');
+        }
+        appendName(json, "rttHistogramNs");
+        appendHistogram(json, result.getRttHistogram());
+        json.append(',');
+        appendName(json, "serverTimeHistogramNs");
+        appendHistogram(json, result.getServerTimeHistogram());
+        json.append(',');
+        appendName(json, "throughputSeriesPerSec");
+        json.append('[');
+        long[] series = result.getThroughputSeries();
+        for (int i = 0; i < series.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(series[i]);
+        }
+        json.append("]}");
+
+        out.write(json.toString());
+        out.newLine();
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private static void appendName(StringBuilder json, String name) {
+        appendString(json, name);
+        json.append(':');
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                // NaN und Infinity sind in JSON nicht darstellbar
+                json.append("null");
+                return;
+            }
+            json.append(String.format(Locale.ROOT, "%.3f", d));
+        } else if (value instanceof Number) {
+            json.append(value);
+        } else {
+            appendString(json, String.valueOf(value));
+        }
+    }
+
+    private static void appendHistogram(StringBuilder json, LatencyHistogram histogram) {
+        json.append('[');
+        long[][] buckets = histogram.getRecordedBuckets();
+        for (int i = 0; i < buckets.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('[').append(buckets[i][0]).append(',').append(buckets[i][1]).append(']');
+        }
+        json.append(']');
+    }
+
+    private static void appendString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,130 @@
+package edu.hm.dako.chat.benchmarking;
+
+import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters.ArrivalProcess;
+import edu.hm.dako.chat.client.AbstractClient;
+import edu.hm.dako.chat.common.SharedClientStatistics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lastgenerator fuer den Open-Loop-Betrieb.
+ * <p>
+ * Im Closed-Loop-Betrieb sendet jeder Client erst nach Eintreffen der letzten Response den
+ * naechsten Request. Ist der Server langsam, sinkt damit auch die erzeugte Last, und die
+ * Wartezeit der nicht gesendeten Requests taucht in keiner Messung auf (Coordinated Omission).
+ * <p>
+ * Der Lastgenerator legt die Sendezeitpunkte dagegen unabhaengig von den Responses fest:
+ * Bei konstanter Rate im festen Abstand 1/Rate, bei einem Poisson-Prozess mit exponentiell
+ * verteilten Abstaenden. Die Requests werden reihum auf die angemeldeten Clients verteilt,
+ * jeder Client erhaelt so genau seine Anzahl Nachrichten. Die RTT wird ab dem geplanten
+ * Sendezeitpunkt gemessen, Verzoegerungen beim Senden gehen also in die Messung ein.
+ */
+public class OpenLoopLoadGenerator extends Thread {
+
+    private static final Log log = LogFactory.getLog(OpenLoopLoadGenerator.class);
+
+    private final AbstractClient[] clients;
+    private final int numberOfMessages;
+    private final int requestRate;
+    private final ArrivalProcess arrivalProcess;
+    private final SharedClientStatistics sharedData;
+
+    // Groesste Verspaetung eines Requests gegenueber seinem geplanten Sendezeitpunkt in ns
+    private volatile long maxSendDelay;
+
+    /**
+     * Konstruktor
+     *
+     * @param clients          Alle Clients des Laufs, Index ist die Client-Nummer
+     * @param numberOfMessages Anzahl der Nachrichten je Client
+     * @param requestRate      Ziel-Requestrate ueber alle Clients in Requests/s
+     * @param arrivalProcess   Verteilung der Abstaende zwischen zwei Requests
+     * @param sharedData       Gemeinsame Daten der Client-Threads
+     */
+    public OpenLoopLoadGenerator(AbstractClient[] clients, int numberOfMessages, int requestRate,
+                                 ArrivalProcess arrivalProcess, SharedClientStatistics sharedData) {
+        setName("OpenLoopLoadGenerator");
+        setDaemon(true);
+        this.clients = clients;
+        this.numberOfMessages = numberOfMessages;
+        this.requestRate = requestRate;
+        this.arrivalProcess = arrivalProcess;
+        this.sharedData = sharedData;
+    }
+
+    /**
+     * Run-Methode fuer den Thread:
+     * Wartet, bis alle Clients angemeldet sind, und sendet dann alle Requests nach Zeitplan
+     */
+    @Override
+    public void run() {
+        try {
+            sharedData.getLoginSignal().await();
+        } catch (InterruptedException e) {
+            log.debug(getName() + " vor Lastbeginn unterbrochen");
+            return;
+        }
+        log.debug(getName() + " gestartet, " + requestRate + " Requests/s, Ankunftsprozess " + arrivalProcess);
+
+        long numberOfRequests = (long) clients.length * numberOfMessages;
+        double meanInterval = TimeUnit.SECONDS.toNanos(1) / (double) requestRate;
+        Random random = new Random();
+
+        // Die Zeitpunkte werden absolut fortgeschrieben, eine Verspaetung verschiebt also
+        // nicht die folgenden Requests
+        long intendedSendTime = System.nanoTime();
+        double carry = 0;
+        for (long n = 0; n < numberOfRequests; n++) {
+            if (!waitUntil(intendedSendTime)) {
+                log.debug(getName() + " unterbrochen nach " + n + " Requests");
+                return;
+            }
+            long delay = System.nanoTime() - intendedSendTime;
+            if (delay > maxSendDelay) {
+                maxSendDelay = delay;
+            }
+            clients[(int) (n % clients.length)].sendScheduledMessage(intendedSendTime);
+
+            // Naechsten Zeitpunkt bestimmen, Nachkommaanteile werden aufsummiert
+            carry += nextInterval(meanInterval, random);
+            long interval = (long) carry;
+            carry -= interval;
+            intendedSendTime += interval;
+        }
+        log.debug(getName() + " beendet, max. Verspaetung gegenueber Zeitplan: "
+                + TimeUnit.NANOSECONDS.toMillis(maxSendDelay) + " ms");
+    }
+
+    /**
+     * @return Groesste Verspaetung eines Requests gegenueber seinem geplanten Sendezeitpunkt in ns
+     */
+    public long getMaxSendDelay() {
+        return maxSendDelay;
+    }
+
+    private double nextInterval(double meanInterval, Random random) {
+        switch (arrivalProcess) {
+            case Poisson:
+                // Exponentialverteilter Abstand, 1 - nextDouble() liegt in (0, 1]
+                return -Math.log(1.0 - random.nextDouble()) * meanInterval;
+            case Constant:
+            default:
+                return meanInterval;
+        }
+    }
+
+    private boolean waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (isInterrupted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
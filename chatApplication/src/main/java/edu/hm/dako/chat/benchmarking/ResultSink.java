@@ -0,0 +1,18 @@
+package edu.hm.dako.chat.benchmarking;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Ablage fuer die Ergebnisse von Benchmark-Laeufen
+ */
+public interface ResultSink extends Closeable {
+
+    /**
+     * Schreibt das Ergebnis eines Laufs
+     *
+     * @param result Ergebnis
+     * @throws IOException Fehler beim Schreiben
+     */
+    public void write(BenchmarkResult result) throws IOException;
+}
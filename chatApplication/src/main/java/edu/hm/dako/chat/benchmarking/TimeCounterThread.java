@@ -1,8 +1,11 @@
 package edu.hm.dako.chat.benchmarking;
 
+import edu.hm.dako.chat.common.SharedClientStatistics;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class TimeCounterThread extends Thread {
@@ -13,13 +16,31 @@ public class TimeCounterThread extends Thread {
 
     private BenchmarkingClientUserInterface out = null;
 
-    private boolean running = true;
+    private volatile boolean running = true;
+
+    // Statistik, aus der je Zeitschritt die Anzahl empfangener Responses ermittelt wird
+    private SharedClientStatistics sharedData = null;
+
+    // Empfangene Responses je Zeitschritt (Durchsatz-Zeitreihe)
+    private final List<Long> throughputSeries = new ArrayList<Long>();
+    private long lastReceivedResponses = 0;
 
     public TimeCounterThread(BenchmarkingClientUserInterface clientGui) {
         setName("TimeCounterThread");
         this.out = clientGui;
     }
 
+    /**
+     * Konstruktor mit Aufzeichnung des Durchsatzes je Zeitschritt
+     *
+     * @param clientGui  Ausgabe des Laufzeitzaehlers
+     * @param sharedData Statistik des Laufs
+     */
+    public TimeCounterThread(BenchmarkingClientUserInterface clientGui, SharedClientStatistics sharedData) {
+        this(clientGui);
+        this.sharedData = sharedData;
+    }
+
     /**
      * Run-Methode fuer den Thread:
      * Erzeugt alle n Sekunden einen Zaehler und sendet ihn an die Ausgabe
@@ -38,7 +59,28 @@ public class TimeCounterThread extends Thread {
             }
 
             out.addCurrentRunTime(numberOfSeconds);
+            recordThroughput();
+        }
+    }
+
+    private synchronized void recordThroughput() {
+        if (sharedData == null) {
+            return;
+        }
+        long receivedResponses = sharedData.getSumOfAllReceivedMessages();
+        throughputSeries.add(receivedResponses - lastReceivedResponses);
+        lastReceivedResponses = receivedResponses;
+    }
+
+    /**
+     * @return Anzahl empfangener Responses je Sekunde seit dem Start, ein Eintrag je Sekunde
+     */
+    public synchronized long[] getThroughputSeries() {
+        long[] series = new long[throughputSeries.size()];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = throughputSeries.get(i);
         }
+        return series;
     }
 
     /**
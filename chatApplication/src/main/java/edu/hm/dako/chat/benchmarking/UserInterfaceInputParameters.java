@@ -1,5 +1,8 @@
 package edu.hm.dako.chat.benchmarking;
 
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Konfigurationsparameter fuer Lasttest
@@ -15,6 +18,10 @@ public class UserInterfaceInputParameters {
     
     private int numberOfRetries;			// Maximale Anzahl an Uebertragungswiederholungen bei verbindungslosen Prototokollen
     private int responseTimoeut;			// Maximale wartezeit in ms auf eine Antwort des Servers bei verbindungslosen Protokollen
+    private int windowSize;                 // Maximale Anzahl ausstehender Chat-Requests je Client, 1 = Stop-and-Wait
+    private int requestRate;                // Ziel-Requestrate ueber alle Clients in Requests/s, 0 = Closed-Loop-Betrieb
+    private ArrivalProcess arrivalProcess;  // Verteilung der Abstaende zwischen zwei Requests im Open-Loop-Betrieb
+    private int numberOfRooms;              // Anzahl Chat-Raeume, auf die die Clients verteilt werden, 0 = alle im Standardraum
     										// Typ der Implementierung
 	
     private ImplementationType implementationType;
@@ -22,6 +29,7 @@ public class UserInterfaceInputParameters {
     private MeasurementType measurementType;
     private int remoteServerPort;           // UDP- oder TCP-Port des Servers, Default: 50000
     private String remoteServerAddress;     // Server-IP-Adresse, Default: "127.0.0.1"
+    private List<InetSocketAddress> remoteServers; // Alle Knoten eines Server-Clusters, leer = ein Server
 
     /**
      * Implementierungsvarianten des Lasttests mit verschiedenen Transportprotokollen
@@ -30,7 +38,17 @@ public class UserInterfaceInputParameters {
      */
     public enum ImplementationType {
         TCPImplementation,
+        TCPNioImplementation,
         UDPImplementation,
+        LoopbackImplementation,     // TCP-Server und -Clients ueber Verbindungen im selben Prozess
+    }
+
+    /**
+     * Verteilung der Abstaende zwischen zwei Requests im Open-Loop-Betrieb
+     */
+    public enum ArrivalProcess {
+        Constant,   // Fester Abstand 1/Rate
+        Poisson     // Exponentiell verteilte Abstaende mit Mittelwert 1/Rate
     }
 
     /**
@@ -42,8 +60,13 @@ public class UserInterfaceInputParameters {
         clientThinkTime = 1;
         messageLength = 100;
         numberOfMessages = 5;
+        windowSize = 1;
+        requestRate = 0;
+        arrivalProcess = ArrivalProcess.Constant;
+        numberOfRooms = 0;
         remoteServerPort = 50000;
         remoteServerAddress = "127.0.0.1";
+        remoteServers = new ArrayList<InetSocketAddress>();
         implementationType = ImplementationType.TCPImplementation;
         measurementType = MeasurementType.VarThreads;
     }
@@ -61,9 +84,38 @@ public class UserInterfaceInputParameters {
             case TCPImplementation:
                 returnString = "TCP-Implementation";
                 break;
+            case TCPNioImplementation:
+                returnString = "TCP-NIO-Implementation";
+                break;
             case UDPImplementation:
                 returnString = "UDP-Implementation";
                 break;
+            case LoopbackImplementation:
+                returnString = "Loopback-Implementation";
+                break;
+            default:
+                break;
+        }
+
+        return returnString;
+    }
+
+    /**
+     * Abbildung der Ankunftsprozesse auf Strings
+     *
+     * @param process Ankunftsprozess
+     * @return Passender String fuer Ankunftsprozess
+     */
+    public String mapArrivalProcessToString(ArrivalProcess process) {
+        String returnString = null;
+
+        switch (process) {
+            case Constant:
+                returnString = "Konstante Rate";
+                break;
+            case Poisson:
+                returnString = "Poisson-Prozess";
+                break;
             default:
                 break;
         }
@@ -174,6 +226,58 @@ public class UserInterfaceInputParameters {
     public void setRemoteServerAddress(String remoteServerAddress) {
         this.remoteServerAddress = remoteServerAddress;
     }
+
+    /**
+     * Setzt die Knoten eines Server-Clusters, die Clients werden reihum auf die Knoten verteilt
+     *
+     * @param remoteServers Adressen der Knoten, der erste wird auch als einzelner Server verwendet
+     */
+    public void setRemoteServers(List<InetSocketAddress> remoteServers) {
+        this.remoteServers = new ArrayList<InetSocketAddress>(remoteServers);
+        if (!remoteServers.isEmpty()) {
+            remoteServerAddress = remoteServers.get(0).getHostString();
+            remoteServerPort = remoteServers.get(0).getPort();
+        }
+    }
+
+    /**
+     * @param numberOfClient Nummer des Clients
+     * @return Adresse des Serverknotens, mit dem sich der Client verbindet
+     */
+    public String getRemoteServerAddress(int numberOfClient) {
+        if (remoteServers.isEmpty()) {
+            return remoteServerAddress;
+        }
+        return remoteServers.get(numberOfClient % remoteServers.size()).getHostString();
+    }
+
+    /**
+     * @param numberOfClient Nummer des Clients
+     * @return Port des Serverknotens, mit dem sich der Client verbindet
+     */
+    public int getRemoteServerPort(int numberOfClient) {
+        if (remoteServers.isEmpty()) {
+            return remoteServerPort;
+        }
+        return remoteServers.get(numberOfClient % remoteServers.size()).getPort();
+    }
+
+    /**
+     * @return Alle Serverknoten als host:port, durch Komma getrennt
+     */
+    public String getRemoteServerList() {
+        if (remoteServers.isEmpty()) {
+            return remoteServerAddress + ":" + remoteServerPort;
+        }
+        StringBuilder list = new StringBuilder();
+        for (InetSocketAddress server : remoteServers) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(server.getHostString()).append(':').append(server.getPort());
+        }
+        return list.toString();
+    }
         
     public void setNumberOfRetries(int numberOfRetries) {
         this.numberOfRetries = numberOfRetries;
@@ -182,4 +286,43 @@ public class UserInterfaceInputParameters {
     public void setResponseTimeout(int responseTimer) {
         this.responseTimoeut = responseTimer;
     }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getRequestRate() {
+        return requestRate;
+    }
+
+    public void setRequestRate(int requestRate) {
+        this.requestRate = requestRate;
+    }
+
+    /**
+     * @return true, wenn die Requests mit fester Rate vom Lastgenerator gesendet werden
+     */
+    public boolean isOpenLoop() {
+        return requestRate > 0;
+    }
+
+    public int getNumberOfRooms() {
+        return numberOfRooms;
+    }
+
+    public void setNumberOfRooms(int numberOfRooms) {
+        this.numberOfRooms = numberOfRooms;
+    }
+
+    public ArrivalProcess getArrivalProcess() {
+        return arrivalProcess;
+    }
+
+    public void setArrivalProcess(ArrivalProcess arrivalProcess) {
+        this.arrivalProcess = arrivalProcess;
+    }
 }
\ No newline at end of file
@@ -20,6 +20,15 @@ public class UserInterfaceResultData {
     private double maxRTT;              // Maximale RTT in ms
     private double minRTT;              // Minimale RTT in ms
     private double avgServerTime;       // Mittlere Serverbearbeitungszeit in ms
+    private double p50RTT;              // 50 %-Perzentil der RTT in ms
+    private double p90RTT;              // 90 %-Perzentil der RTT in ms
+    private double p99RTT;              // 99 %-Perzentil der RTT in ms
+    private double p999RTT;             // 99,9 %-Perzentil der RTT in ms
+    private double p50ServerTime;       // 50 %-Perzentil der Serverbearbeitungszeit in ms
+    private double p90ServerTime;       // 90 %-Perzentil der Serverbearbeitungszeit in ms
+    private double p99ServerTime;       // 99 %-Perzentil der Serverbearbeitungszeit in ms
+    private double p999ServerTime;      // 99,9 %-Perzentil der Serverbearbeitungszeit in ms
+    private double maxServerTime;       // Maximale Serverbearbeitungszeit in ms
     private long maxHeapSize;           // Maximale Heap-Belegung waehrend des Testlaufs in MByte
     private float maxCpuUsage;          // Maximale CPU-Auslastung waehrend des Testlaufs in Prozent
 
@@ -151,4 +160,76 @@ public class UserInterfaceResultData {
     public void setMaxCpuUsage(float maxCpuUsage) {
         this.maxCpuUsage = maxCpuUsage;
     }
+
+    public double getP50RTT() {
+        return p50RTT;
+    }
+
+    public void setP50RTT(double p50RTT) {
+        this.p50RTT = p50RTT;
+    }
+
+    public double getP90RTT() {
+        return p90RTT;
+    }
+
+    public void setP90RTT(double p90RTT) {
+        this.p90RTT = p90RTT;
+    }
+
+    public double getP99RTT() {
+        return p99RTT;
+    }
+
+    public void setP99RTT(double p99RTT) {
+        this.p99RTT = p99RTT;
+    }
+
+    public double getP999RTT() {
+        return p999RTT;
+    }
+
+    public void setP999RTT(double p999RTT) {
+        this.p999RTT = p999RTT;
+    }
+
+    public double getP50ServerTime() {
+        return p50ServerTime;
+    }
+
+    public void setP50ServerTime(double p50ServerTime) {
+        this.p50ServerTime = p50ServerTime;
+    }
+
+    public double getP90ServerTime() {
+        return p90ServerTime;
+    }
+
+    public void setP90ServerTime(double p90ServerTime) {
+        this.p90ServerTime = p90ServerTime;
+    }
+
+    public double getP99ServerTime() {
+        return p99ServerTime;
+    }
+
+    public void setP99ServerTime(double p99ServerTime) {
+        this.p99ServerTime = p99ServerTime;
+    }
+
+    public double getP999ServerTime() {
+        return p999ServerTime;
+    }
+
+    public void setP999ServerTime(double p999ServerTime) {
+        this.p999ServerTime = p999ServerTime;
+    }
+
+    public double getMaxServerTime() {
+        return maxServerTime;
+    }
+
+    public void setMaxServerTime(double maxServerTime) {
+        this.maxServerTime = maxServerTime;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package edu.hm.dako.chat.benchmarking.micro;
+
+import edu.hm.dako.chat.common.ChatClientListEntry;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.SharedChatClientList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Operationen der gemeinsamen Clientliste ({@link SharedChatClientList}) je Chat-Nachricht,
+ * gemessen ueber die Anzahl angemeldeter Clients:
+ * <ul>
+ * <li>clientList.createWaitList: Warteliste fuer ein Event anlegen und wieder loeschen</li>
+ * <li>clientList.confirmWaitListEntry: Einen Eintrag aus der Warteliste loeschen, ist die
+ * Warteliste leer, wird eine neue angelegt (Kosten je Bestaetigung anteilig enthalten)</li>
+ * <li>clientList.getClientNameList: Kopie der Namensliste fuer den Versand eines Events</li>
+ * </ul>
+ * Die Clientliste ist ein Singleton, jeder Benchmark leert sie vor und nach der Messung.
+ */
+public final class ClientListBenchmarks {
+
+    private static final int[] USERS = {10, 100, 1000, 10000};
+
+    private ClientListBenchmarks() {
+    }
+
+    public static List<MicroBenchmark> create() {
+        List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+        benchmarks.add(new ClientListBenchmark("clientList.createWaitList") {
+            private long sequenceNumber;
+
+            @Override
+            public Object run() {
+                clients.createWaitList(names[0], ChatPDU.CHAT_MESSAGE_EVENT, ++sequenceNumber);
+                clients.deleteWaitList(names[0]);
+                return clients;
+            }
+        });
+        benchmarks.add(new ClientListBenchmark("clientList.confirmWaitListEntry") {
+            private long sequenceNumber;
+            private int next;
+
+            @Override
+            public Object run() {
+                if (next == 0) {
+                    clients.createWaitList(names[0], ChatPDU.CHAT_MESSAGE_EVENT, ++sequenceNumber);
+                }
+                boolean last = clients.confirmWaitListEntry(names[0], ChatPDU.CHAT_MESSAGE_EVENT,
+                        sequenceNumber, names[next]);
+                next = (next + 1) % names.length;
+                return last;
+            }
+        });
+        benchmarks.add(new ClientListBenchmark("clientList.getClientNameList") {
+            @Override
+            public Object run() {
+                return clients.getClientNameList();
+            }
+        });
+        return benchmarks;
+    }
+
+    /**
+     * Basis der Benchmarks: Clientliste mit der zu messenden Anzahl Clients fuellen
+     */
+    private abstract static class ClientListBenchmark extends MicroBenchmark {
+        protected SharedChatClientList clients;
+        protected String[] names;
+
+        ClientListBenchmark(String name) {
+            super(name, "users", USERS);
+        }
+
+        @Override
+        public void setUp(int size) {
+            clients = SharedChatClientList.getInstance();
+            clients.deleteAll();
+            names = new String[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = "user-" + i;
+                clients.createClient(names[i], new ChatClientListEntry(names[i], null, null));
+            }
+        }
+
+        @Override
+        public void tearDown() {
+            clients.deleteAll();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package edu.hm.dako.chat.benchmarking.micro;
+
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduSender;
+
+import java.io.Serializable;
+
+/**
+ * Sendende Seite einer Verbindung ohne Netzwerk fuer Mikrobenchmarks: gesendete Nachrichten
+ * werden wie bei einer echten Verbindung mit dem Codec in einen Rahmen codiert und anschliessend
+ * verworfen.
+ */
+class DiscardingSender implements PduSender {
+
+    private final PduCodec codec;
+
+    DiscardingSender(PduCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void send(Serializable message) throws Exception {
+        sendEncoded(new EncodedPdu(message));
+    }
+
+    @Override
+    public void sendEncoded(EncodedPdu pdu) throws Exception {
+        pdu.getFrame(codec);
+    }
+
+    @Override
+    public void shutdownOutput() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
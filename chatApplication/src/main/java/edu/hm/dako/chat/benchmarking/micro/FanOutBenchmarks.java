@@ -0,0 +1,128 @@
+package edu.hm.dako.chat.benchmarking.micro;
+
+import edu.hm.dako.chat.common.ChatClientListEntry;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.OutboundQueue;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import edu.hm.dako.chat.connection.PduCodecs;
+import edu.hm.dako.chat.server.AbstractChatWorker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Verteilen einer Chat-Nachricht an alle angemeldeten Clients ueber die Bearbeitung im
+ * {@link AbstractChatWorker}, gemessen ueber die Anzahl der Clients:
+ * <ul>
+ * <li>fanOut.sendPduToRoom: Event-PDU in die Ausgangswarteschlangen aller Clients einreihen,
+ * alle Clients sind im Standardraum</li>
+ * <li>fanOut.chatMessageRequest: Vollstaendige Bearbeitung eines Chat-Message-Requests (Event-PDU
+ * erzeugen, Warteliste anlegen, verteilen), die Warteliste wird danach wieder geloescht, da
+ * keine Bestaetigungen eintreffen</li>
+ * </ul>
+ * Jeder Client ist mit einem {@link DiscardingSender} verbunden. Die Writer-Threads der
+ * Ausgangswarteschlangen laufen nebenher, bei voller Warteschlange blockiert der Benchmark
+ * (Ueberlaufpolitik BLOCK). Gemessen wird damit der Durchsatz im eingeschwungenen Zustand
+ * einschliesslich des Codierens und Schreibens, nicht nur das Einreihen.
+ */
+public final class FanOutBenchmarks {
+
+    private static final int[] USERS = {10, 100, 1000};
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int MESSAGE_LENGTH = 100;
+
+    private FanOutBenchmarks() {
+    }
+
+    public static List<MicroBenchmark> create() {
+        List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+        benchmarks.add(new FanOutBenchmark("fanOut.sendPduToRoom") {
+            private ChatPDU eventPdu;
+
+            @Override
+            public void setUp(int size) {
+                super.setUp(size);
+                eventPdu = PduCodecBenchmarks.createChatMessageEventPdu(MESSAGE_LENGTH);
+            }
+
+            @Override
+            public Object run() {
+                worker.broadcast(eventPdu);
+                return worker;
+            }
+        });
+        benchmarks.add(new FanOutBenchmark("fanOut.chatMessageRequest") {
+            private ChatPDU requestPdu;
+
+            @Override
+            public void setUp(int size) {
+                super.setUp(size);
+                requestPdu = PduCodecBenchmarks.createChatMessageEventPdu(MESSAGE_LENGTH);
+                requestPdu.setPduType(ChatPDU.CHAT_MESSAGE_REQUEST);
+            }
+
+            @Override
+            public Object run() {
+                worker.handleReceivedPdu(requestPdu);
+                clients.deleteWaitList(worker.getUserName());
+                return worker;
+            }
+        });
+        return benchmarks;
+    }
+
+    /**
+     * Basis der Benchmarks: Clientliste mit Clients samt Ausgangswarteschlangen fuellen
+     */
+    private abstract static class FanOutBenchmark extends MicroBenchmark {
+        protected SharedChatClientList clients;
+        protected OutboundDispatcher dispatcher;
+        protected BroadcastWorker worker;
+        private List<OutboundQueue> queues;
+
+        FanOutBenchmark(String name) {
+            super(name, "users", USERS);
+        }
+
+        @Override
+        public void setUp(int size) {
+            clients = SharedChatClientList.getInstance();
+            clients.deleteAll();
+            dispatcher = new OutboundDispatcher(QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.BLOCK);
+            queues = new ArrayList<OutboundQueue>();
+            for (int i = 0; i < size; i++) {
+                String name = "user-" + i;
+                DiscardingSender connection = new DiscardingSender(PduCodecs.BINARY);
+                OutboundQueue queue = dispatcher.createQueue(name, connection);
+                queues.add(queue);
+                clients.createClient(name, new ChatClientListEntry(name, connection, queue));
+            }
+            worker = new BroadcastWorker(clients, dispatcher, "user-0");
+        }
+
+        @Override
+        public void tearDown() {
+            for (OutboundQueue queue : queues) {
+                queue.close();
+            }
+            dispatcher.shutdown();
+            clients.deleteAll();
+        }
+    }
+
+    /**
+     * Worker ohne eigene Verbindung, der die Verteilung fuer einen angemeldeten Client ausloest
+     */
+    private static class BroadcastWorker extends AbstractChatWorker {
+
+        BroadcastWorker(SharedChatClientList clients, OutboundDispatcher dispatcher, String userName) {
+            super(null, clients, dispatcher);
+            this.userName = userName;
+        }
+
+        void broadcast(ChatPDU pdu) {
+            sendPduToRoom(pdu, clients.getRoomMemberList(clients.getRoom(userName)));
+        }
+    }
+}
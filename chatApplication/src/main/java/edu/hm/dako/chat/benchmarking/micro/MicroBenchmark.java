@@ -0,0 +1,66 @@
+package edu.hm.dako.chat.benchmarking.micro;
+
+/**
+ * Einzelner Mikrobenchmark, ausgefuehrt von {@link MicroBenchmarkRunner}.
+ * <p>
+ * Fuer jede Groesse aus {@link #getSizes()} ruft der Runner einmal {@link #setUp(int)} auf,
+ * dann {@link #run()} in Aufwaerm- und Messiterationen so oft wie moeglich und zum Schluss
+ * {@link #tearDown()}. Das Ergebnis von {@link #run()} wird vom Runner verbraucht, damit der
+ * JIT-Compiler die Berechnung nicht als unbenutzt entfernen kann.
+ */
+public abstract class MicroBenchmark {
+
+    private final String name;
+    private final String sizeName;
+    private final int[] sizes;
+
+    /**
+     * Konstruktor
+     *
+     * @param name     Name des Benchmarks in der Ausgabe
+     * @param sizeName Bedeutung der Groesse, z.B. "users" oder "messageLength"
+     * @param sizes    Zu messende Groessen
+     */
+    protected MicroBenchmark(String name, String sizeName, int... sizes) {
+        this.name = name;
+        this.sizeName = sizeName;
+        this.sizes = sizes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSizeName() {
+        return sizeName;
+    }
+
+    public int[] getSizes() {
+        return sizes;
+    }
+
+    /**
+     * Vorbereitung vor den Iterationen einer Groesse, wird nicht gemessen
+     *
+     * @param size Zu messende Groesse
+     * @throws Exception Fehler bei der Vorbereitung
+     */
+    public void setUp(int size) throws Exception {
+    }
+
+    /**
+     * Eine gemessene Operation
+     *
+     * @return Ergebnis der Operation
+     * @throws Exception Fehler in der Operation, beendet den Benchmark
+     */
+    public abstract Object run() throws Exception;
+
+    /**
+     * Aufraeumen nach den Iterationen einer Groesse, wird nicht gemessen
+     *
+     * @throws Exception Fehler beim Aufraeumen
+     */
+    public void tearDown() throws Exception {
+    }
+}
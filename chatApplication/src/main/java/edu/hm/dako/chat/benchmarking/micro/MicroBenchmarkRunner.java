@@ -0,0 +1,364 @@
+package edu.hm.dako.chat.benchmarking.micro;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Ausfuehrung der Mikrobenchmarks fuer Codierung, Clientliste und Verteilung von Events.
+ * <p>
+ * Je Benchmark und Groesse laufen zuerst die Aufwaermiterationen (Ergebnis verworfen, der
+ * JIT-Compiler uebersetzt in dieser Zeit die gemessenen Methoden), dann die Messiterationen.
+ * Eine Iteration ruft die Operation fuer eine feste Zeit in Bloecken auf, die Uhr wird nur
+ * zwischen den Bloecken gelesen. Ausgegeben werden Mittelwert, Standardabweichung und Minimum
+ * der Zeit je Operation ueber die Messiterationen.
+ * <p>
+ * Jeder Messpunkt (Benchmark und Groesse) laeuft in einer eigenen JVM, damit weder die
+ * JIT-Optimierungen eines anderen Benchmarks noch Zustand der Singletons (z.B. die nach einem
+ * Lauf mit 10000 Clients vergroesserte Hash-Tabelle der Clientliste) das Ergebnis verfaelschen.
+ * Mit --fork false laufen alle Messpunkte im selben Prozess.
+ * <p>
+ * Das Log-Level wird auf WARN gesetzt, damit keine Log-Ausgaben gemessen werden. Das Aufbauen
+ * der Log-Texte fuer log.debug bleibt wie im Serverbetrieb Teil der Messung.
+ * <p>
+ * Beispiel: --filter clientList --warmup 3 --iterations 5 --time 1000 --out micro.csv
+ */
+public class MicroBenchmarkRunner {
+
+    private static Log log = LogFactory.getLog(MicroBenchmarkRunner.class);
+
+    // Kennzeichnet die Ergebniszeile eines Messpunkts in einer eigenen JVM
+    private static final String RESULT_PREFIX = "MICROBENCHMARK-RESULT ";
+
+    // Angestrebte Dauer eines Blocks von Aufrufen zwischen zwei Zeitmessungen
+    private static final long BATCH_NANOS = 100 * 1000;
+
+    // Ergebnisse werden mit diesem Objekt verglichen, damit der JIT-Compiler sie nicht verwirft
+    private volatile Object sentinel = new Object();
+    private int sentinelHits;
+
+    private int warmupIterations = 5;
+    private int measurementIterations = 5;
+    private long iterationNanos = 1000L * 1000 * 1000;
+
+    /**
+     * main
+     *
+     * @param args Optionen, siehe {@link #printUsage()}
+     */
+    public static void main(String[] args) {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+
+        try {
+            System.exit(new MicroBenchmarkRunner().run(args));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Ungueltige Option: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+    }
+
+    private static void printUsage() {
+        System.out.println("Optionen:");
+        System.out.println("  --filter <Text>       Nur Benchmarks, deren Name den Text enthaelt");
+        System.out.println("  --warmup <n>          Aufwaermiterationen je Messpunkt, Default 5");
+        System.out.println("  --iterations <n>      Messiterationen je Messpunkt, Default 5");
+        System.out.println("  --time <ms>           Dauer einer Iteration, Default 1000");
+        System.out.println("  --fork <true|false>   Jeden Messpunkt in einer eigenen JVM ausfuehren, Default true");
+        System.out.println("  --out <Datei>         Ergebnisse zusaetzlich als CSV ablegen");
+    }
+
+    /**
+     * @return Alle vorhandenen Mikrobenchmarks
+     */
+    static List<MicroBenchmark> getAllBenchmarks() {
+        List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+        benchmarks.addAll(PduCodecBenchmarks.create());
+        benchmarks.addAll(ClientListBenchmarks.create());
+        benchmarks.addAll(FanOutBenchmarks.create());
+        return benchmarks;
+    }
+
+    /**
+     * Fuehrt alle ausgewaehlten Benchmarks aus
+     *
+     * @param args Optionen
+     * @return Exit-Code
+     */
+    int run(String[] args) {
+        String filter = null;
+        String outFile = null;
+        boolean fork = true;
+        String single = null;
+        int singleSize = 0;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException(option + " ohne Wert");
+            }
+            String value = args[++i];
+            if (option.equals("--filter")) {
+                filter = value;
+            } else if (option.equals("--warmup")) {
+                warmupIterations = parseNumber(value, 0);
+            } else if (option.equals("--iterations")) {
+                measurementIterations = parseNumber(value, 1);
+            } else if (option.equals("--time")) {
+                iterationNanos = parseNumber(value, 1) * 1000L * 1000;
+            } else if (option.equals("--out")) {
+                outFile = value;
+            } else if (option.equals("--fork")) {
+                fork = Boolean.parseBoolean(value);
+            } else if (option.equals("--single")) {
+                // Intern: einzelnen Messpunkt "Name:Groesse" in dieser JVM ausfuehren
+                int colon = value.lastIndexOf(':');
+                single = value.substring(0, colon);
+                singleSize = parseNumber(value.substring(colon + 1), 0);
+            } else {
+                throw new IllegalArgumentException(option);
+            }
+        }
+
+        if (single != null) {
+            return runSingle(single, singleSize);
+        }
+
+        List<String> lines = new ArrayList<String>();
+        lines.add("benchmark,sizeName,size,meanNsPerOp,stdDevNsPerOp,minNsPerOp,iterations,javaVersion");
+        System.out.println(String.format(Locale.ROOT, "%-36s %-14s %7s %14s %12s %14s",
+                "Benchmark", "Groesse", "", "ns/op", "+-", "min ns/op"));
+
+        int failed = 0;
+        for (MicroBenchmark benchmark : getAllBenchmarks()) {
+            if (filter != null && !benchmark.getName().contains(filter)) {
+                continue;
+            }
+            for (int size : benchmark.getSizes()) {
+                double[] nanosPerOp;
+                try {
+                    nanosPerOp = fork ? measureInNewJvm(benchmark, size) : measure(benchmark, size);
+                } catch (Exception e) {
+                    System.out.println(benchmark.getName() + " (" + size + ") abgebrochen: " + e);
+                    failed++;
+                    continue;
+                }
+                double mean = mean(nanosPerOp);
+                double stdDev = stdDev(nanosPerOp, mean);
+                double min = min(nanosPerOp);
+                System.out.println(String.format(Locale.ROOT, "%-36s %-14s %7d %14.1f %12.1f %14.1f",
+                        benchmark.getName(), benchmark.getSizeName(), size, mean, stdDev, min));
+                lines.add(String.format(Locale.ROOT, "%s,%s,%d,%.1f,%.1f,%.1f,%d,%s",
+                        benchmark.getName(), benchmark.getSizeName(), size, mean, stdDev, min,
+                        nanosPerOp.length, System.getProperty("java.version")));
+            }
+        }
+
+        if (outFile != null) {
+            try {
+                writeLines(new File(outFile), lines);
+            } catch (IOException e) {
+                System.out.println("Ergebnisdatei " + outFile + " nicht schreibbar: " + e.getMessage());
+                return 1;
+            }
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Misst einen Messpunkt in dieser JVM und gibt das Ergebnis fuer den aufrufenden Prozess aus
+     *
+     * @return Exit-Code
+     */
+    private int runSingle(String name, int size) {
+        for (MicroBenchmark benchmark : getAllBenchmarks()) {
+            if (benchmark.getName().equals(name)) {
+                try {
+                    double[] nanosPerOp = measure(benchmark, size);
+                    StringBuilder result = new StringBuilder(RESULT_PREFIX);
+                    for (int i = 0; i < nanosPerOp.length; i++) {
+                        if (i > 0) {
+                            result.append(',');
+                        }
+                        result.append(nanosPerOp[i]);
+                    }
+                    System.out.println(result);
+                    return 0;
+                } catch (Exception e) {
+                    log.error("Messpunkt " + name + " mit Groesse " + size + " fehlgeschlagen", e);
+                    return 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException("--single " + name);
+    }
+
+    /**
+     * Misst einen Messpunkt in einer neuen JVM mit demselben Klassenpfad
+     *
+     * @return Zeit je Operation in ns fuer jede Messiteration
+     */
+    private double[] measureInNewJvm(MicroBenchmark benchmark, int size) throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MicroBenchmarkRunner.class.getName());
+        command.add("--warmup");
+        command.add(String.valueOf(warmupIterations));
+        command.add("--iterations");
+        command.add(String.valueOf(measurementIterations));
+        command.add("--time");
+        command.add(String.valueOf(iterationNanos / (1000 * 1000)));
+        command.add("--single");
+        command.add(benchmark.getName() + ":" + size);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String result = null;
+        BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(RESULT_PREFIX)) {
+                    result = line.substring(RESULT_PREFIX.length());
+                } else {
+                    System.out.println(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0 || result == null) {
+            throw new IOException("JVM des Messpunkts endete mit Exit-Code " + exitCode);
+        }
+        String[] values = result.split(",");
+        double[] nanosPerOp = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            nanosPerOp[i] = Double.parseDouble(values[i]);
+        }
+        return nanosPerOp;
+    }
+
+    /**
+     * Misst einen Benchmark fuer eine Groesse
+     *
+     * @return Zeit je Operation in ns fuer jede Messiteration
+     */
+    private double[] measure(MicroBenchmark benchmark, int size) throws Exception {
+        System.gc();
+        benchmark.setUp(size);
+        try {
+            // Blockgroesse so waehlen, dass ein Block etwa BATCH_NANOS dauert
+            int batchSize = 1;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < BATCH_NANOS * 10) {
+                runBatch(benchmark, batchSize);
+                batchSize *= 2;
+            }
+            long operations = batchSize - 1L;
+            batchSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                    operations * BATCH_NANOS / Math.max(1, System.nanoTime() - start)));
+
+            for (int i = 0; i < warmupIterations; i++) {
+                runIteration(benchmark, batchSize);
+            }
+            double[] nanosPerOp = new double[measurementIterations];
+            for (int i = 0; i < measurementIterations; i++) {
+                nanosPerOp[i] = runIteration(benchmark, batchSize);
+            }
+            return nanosPerOp;
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * @return Zeit je Operation in ns
+     */
+    private double runIteration(MicroBenchmark benchmark, int batchSize) throws Exception {
+        long operations = 0;
+        long start = System.nanoTime();
+        long deadline = start + iterationNanos;
+        long now;
+        do {
+            runBatch(benchmark, batchSize);
+            operations += batchSize;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / operations;
+    }
+
+    private void runBatch(MicroBenchmark benchmark, int batchSize) throws Exception {
+        for (int i = 0; i < batchSize; i++) {
+            if (benchmark.run() == sentinel) {
+                sentinelHits++;
+            }
+        }
+    }
+
+    private static void writeLines(File file, List<String> lines) throws IOException {
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.newLine();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+
+    private static double stdDev(double[] values, double mean) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double sum = 0;
+        for (double v : values) {
+            sum += (v - mean) * (v - mean);
+        }
+        return Math.sqrt(sum / (values.length - 1));
+    }
+
+    private static double min(double[] values) {
+        double min = Double.MAX_VALUE;
+        for (double v : values) {
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+
+    private static int parseNumber(String value, int minimum) {
+        int i;
+        try {
+            i = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value);
+        }
+        if (i < minimum) {
+            throw new IllegalArgumentException(value);
+        }
+        return i;
+    }
+}
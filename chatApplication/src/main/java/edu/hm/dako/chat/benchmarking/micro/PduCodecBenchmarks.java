@@ -0,0 +1,117 @@
+package edu.hm.dako.chat.benchmarking.micro;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduCodecs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Codieren und Decodieren einer Chat-Message-Event-PDU mit der Java-Serialisierung
+ * (ObjectOutputStream) und der binaeren Codierung, gemessen ueber die Nachrichtenlaenge.
+ * <p>
+ * "frame" misst den Weg beim Senden eines Events: neue {@link EncodedPdu} und Rahmen fuer
+ * einen Codec erzeugen.
+ */
+public final class PduCodecBenchmarks {
+
+    private static final int[] MESSAGE_LENGTHS = {10, 100, 1000, 10000};
+
+    private PduCodecBenchmarks() {
+    }
+
+    public static List<MicroBenchmark> create() {
+        List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+        for (PduCodec codec : Arrays.asList(PduCodecs.SERIALIZATION, PduCodecs.BINARY)) {
+            benchmarks.add(new Encode(codec));
+            benchmarks.add(new Decode(codec));
+            benchmarks.add(new Frame(codec));
+        }
+        return benchmarks;
+    }
+
+    /**
+     * Erzeugt eine Chat-Message-Event-PDU wie der Server beim Weiterleiten einer Nachricht
+     *
+     * @param messageLength Laenge der Chat-Nachricht in Zeichen
+     * @return PDU
+     */
+    static ChatPDU createChatMessageEventPdu(int messageLength) {
+        char[] message = new char[messageLength];
+        Arrays.fill(message, 'A');
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.CHAT_MESSAGE_EVENT);
+        pdu.setUserName("user-0");
+        pdu.setEventUserName("user-0");
+        pdu.setClientThreadName("Client-Thread-0");
+        pdu.setServerThreadName("Worker-Thread-0");
+        pdu.setSequenceNumber(4711);
+        pdu.setClientStatus(ChatClientConversationStatus.REGISTERED);
+        pdu.setMessage(new String(message));
+        return pdu;
+    }
+
+    private static class Encode extends MicroBenchmark {
+        private final PduCodec codec;
+        private ChatPDU pdu;
+
+        Encode(PduCodec codec) {
+            super("codec.encode." + codec.getName(), "messageLength", MESSAGE_LENGTHS);
+            this.codec = codec;
+        }
+
+        @Override
+        public void setUp(int size) {
+            pdu = createChatMessageEventPdu(size);
+        }
+
+        @Override
+        public Object run() throws Exception {
+            return codec.encode(pdu);
+        }
+    }
+
+    private static class Decode extends MicroBenchmark {
+        private final PduCodec codec;
+        private byte[] encoded;
+
+        Decode(PduCodec codec) {
+            super("codec.decode." + codec.getName(), "messageLength", MESSAGE_LENGTHS);
+            this.codec = codec;
+        }
+
+        @Override
+        public void setUp(int size) throws Exception {
+            encoded = codec.encode(createChatMessageEventPdu(size));
+        }
+
+        @Override
+        public Object run() throws Exception {
+            return codec.decode(encoded, 0, encoded.length);
+        }
+    }
+
+    private static class Frame extends MicroBenchmark {
+        private final PduCodec codec;
+        private ChatPDU pdu;
+
+        Frame(PduCodec codec) {
+            super("codec.frame." + codec.getName(), "messageLength", MESSAGE_LENGTHS);
+            this.codec = codec;
+        }
+
+        @Override
+        public void setUp(int size) {
+            pdu = createChatMessageEventPdu(size);
+        }
+
+        @Override
+        public Object run() throws Exception {
+            return new EncodedPdu(pdu).getFrame(codec);
+        }
+    }
+}
@@ -34,11 +34,27 @@ public abstract class AbstractClient implements Runnable {
 
 	protected int numberOfRetries;
 
+	/**
+	 * Maximale Anzahl gleichzeitig ausstehender Chat-Requests (1 = Stop-and-Wait)
+	 */
+	protected int windowSize;
+
+	/**
+	 * Open-Loop-Betrieb: Die Chat-Requests sendet ein Lastgenerator ueber
+	 * {@link #sendScheduledMessage(long)}, der Client-Thread wartet nur auf die Responses
+	 */
+	protected boolean openLoop;
+
 	/**
 	 * Denkzeit des Clients zwischen zwei Requests in ms
 	 */
 	protected int clientThinkTime;
 
+	/**
+	 * Chat-Raum, in den der Client nach dem Login wechselt, null = Standardraum
+	 */
+	protected String room;
+
 	/**
 	 * Gemeinsame Daten der Threads
 	 */
@@ -53,12 +69,14 @@ public abstract class AbstractClient implements Runnable {
 	 * @param messageLength          Laenge einer Nachricht
 	 * @param numberOfMessagesToSend Anzahl zu sendender Nachrichten je Thread
 	 * @param clientThinkTime        Denkzeit des Test-Clients
+	 * @param windowSize             Maximale Anzahl ausstehender Chat-Requests
+	 * @param openLoop               Chat-Requests werden von einem Lastgenerator gesendet
 	 * @param sharedData             Gemeinsame Daten der Threads
 	 * @param connectionFactory      Der zu verwendende Client
 	 */
 	public AbstractClient(int serverPort, String remoteServerAddress, int clientNumber, int messageLength,
 	                      int numberOfMessagesToSend, int clientThinkTime,
-	                      int numberOfRetries, int responseTimeout,
+	                      int numberOfRetries, int responseTimeout, int windowSize, boolean openLoop,
 	                      SharedClientStatistics sharedData,
 	                      ConnectionFactory connectionFactory) {
 		this.serverPort = serverPort;
@@ -69,6 +87,8 @@ public abstract class AbstractClient implements Runnable {
 		this.clientThinkTime = clientThinkTime;
 		this.numberOfRetries = numberOfRetries;
 		this.responseTimeout = responseTimeout;
+		this.windowSize = windowSize;
+		this.openLoop = openLoop;
 		this.sharedData = sharedData;
 		Thread.currentThread().setName("Client-" + String.valueOf(clientNumber + 1));
 		threadName = Thread.currentThread().getName();
@@ -84,12 +104,23 @@ public abstract class AbstractClient implements Runnable {
 		this.clientThinkTime = 0;
 		this.numberOfRetries = 2;
 		this.responseTimeout = 1000;
+		this.windowSize = 1;
+		this.openLoop = false;
 		this.sharedData = null;
 		Thread.currentThread().setName("Client");
 		threadName = Thread.currentThread().getName();
 	}
 
 
+	/**
+	 * Legt den Chat-Raum fest, in den der Client nach dem Login wechselt
+	 *
+	 * @param room Name des Raums, null = Standardraum
+	 */
+	public void setRoom(String room) {
+		this.room = room;
+	}
+
 	/**
 	 * Synchronisation mit allen anderen Client-Threads:
 	 * Warten, bis alle Clients angemeldet sind und dann
@@ -114,6 +145,14 @@ public abstract class AbstractClient implements Runnable {
 		sharedData.getLogoutSignal().await();
 	}
 	
+	/**
+	 * Chat-Request im Open-Loop-Betrieb senden, ohne auf die Response zu warten. Wird vom
+	 * Lastgenerator aufgerufen, die RTT wird ab dem geplanten Sendezeitpunkt gemessen.
+	 *
+	 * @param intendedSendTime Geplanter Sendezeitpunkt in ns (System.nanoTime)
+	 */
+	public abstract void sendScheduledMessage(long intendedSendTime);
+
 	/**
 	 * Nacharbeit nach Empfang einer PDU vom Server
 	 *
@@ -70,6 +70,9 @@ public class ChatClientSwingGUI extends JFrame implements ChatClientUserInterfac
 
 	private String userName;
 
+	// Angezeigte Userliste, wird bei Aenderungen fortgeschrieben
+	private final Vector<String> userListNames = new Vector<String>();
+
 	private String serverNameOrIp;
 
 	private String serverPort;
@@ -138,7 +141,22 @@ public class ChatClientSwingGUI extends JFrame implements ChatClientUserInterfac
 
 	@Override
 	public synchronized void setUserList(Vector<String> userList) {
-		fillUserList(userList);
+		userListNames.clear();
+		userListNames.addAll(userList);
+		fillUserList(userListNames);
+	}
+
+	@Override
+	public synchronized void changeUserList(String changedUser, boolean added) {
+		if (added) {
+			// Neuer User wird nur angehaengt
+			if (!userListNames.contains(changedUser)) {
+				userListNames.add(changedUser);
+				txtAreaChatUserList.append(changedUser + "\n");
+			}
+		} else if (userListNames.remove(changedUser)) {
+			fillUserList(userListNames);
+		}
 	}
 
 	@Override
@@ -16,6 +16,14 @@ public interface ChatClientUserInterface {
      */
     public void setUserList(Vector<String> userList);
 
+    /**
+     * Aenderung der zuletzt uebergebenen Userliste
+     *
+     * @param userName Name des hinzugekommenen bzw. entfernten Users
+     * @param added true, wenn der User hinzugekommen ist, false, wenn er entfernt wurde
+     */
+    public void changeUserList(String userName, boolean added);
+
     /**
      * Uebergabe einer Nachricht zur Ausgabe in der Messagezeile
      *
@@ -4,8 +4,11 @@ package edu.hm.dako.chat.client;
 import edu.hm.dako.chat.common.SharedClientStatistics;
 import edu.hm.dako.chat.connection.ConnectionFactory;
 import edu.hm.dako.chat.connection.DecoratingConnectionFactory;
+import edu.hm.dako.chat.loopback.LoopbackConnectionFactory;
 import edu.hm.dako.chat.tcp.TcpChatAdvancedClientImpl;
 import edu.hm.dako.chat.tcp.TcpConnectionFactory;
+import edu.hm.dako.chat.udp.UdpClientConnectionFactory;
+import edu.hm.dako.chat.udp.UdpSession;
 import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters;
 
 /**
@@ -18,24 +21,31 @@ public final class ClientFactory {
 	private ClientFactory() {
 	}
 
-	public static Runnable getClient(ChatClientUserInterface userInterface, UserInterfaceInputParameters param, int numberOfClient, SharedClientStatistics sharedData) {
+	public static AbstractClient getClient(ChatClientUserInterface userInterface, UserInterfaceInputParameters param, int numberOfClient, SharedClientStatistics sharedData) {
 		try {
 			switch (param.getImplementationType()) {
 				case TCPImplementation:
-					return new TcpChatAdvancedClientImpl(userInterface, param.getRemoteServerPort(),
-							param.getRemoteServerAddress(), numberOfClient, param.getMessageLength(),
+				case TCPNioImplementation:
+					return new TcpChatAdvancedClientImpl(userInterface, param.getRemoteServerPort(numberOfClient),
+							param.getRemoteServerAddress(numberOfClient), numberOfClient, param.getMessageLength(),
 							param.getNumberOfMessages(), param.getClientThinkTime(),
-							param.getNumberOfRetries(), param.getResponseTimeout(),
-							sharedData, getDecoratedFactory(new TcpConnectionFactory()));
-	            /*
-                 case UDPImplementation:
-                 
-                    return new UdpChatClientImpl(param.getRemoteServerPort(),
-                            param.getRemoteServerAddress(), numberOfClient, param.getMessageLength(),
-                            param.getNumberOfMessages(), param.getClientThinkTime(),
-                            param.getNumberOfRetries(), param.getResponseTimeout(),
-                            sharedData, getDecoratedFactory(new UdpClientConnectionFactory()));
-                */
+							param.getNumberOfRetries(), param.getResponseTimeout(), param.getWindowSize(),
+							param.isOpenLoop(), sharedData, getDecoratedFactory(new TcpConnectionFactory()));
+				case LoopbackImplementation:
+					return new TcpChatAdvancedClientImpl(userInterface, param.getRemoteServerPort(numberOfClient),
+							param.getRemoteServerAddress(numberOfClient), numberOfClient, param.getMessageLength(),
+							param.getNumberOfMessages(), param.getClientThinkTime(),
+							param.getNumberOfRetries(), param.getResponseTimeout(), param.getWindowSize(),
+							param.isOpenLoop(), sharedData, getDecoratedFactory(new LoopbackConnectionFactory()));
+				case UDPImplementation:
+					// Der Client ist unabhaengig vom Transport, die zuverlaessige Uebertragung
+					// leistet die UDP-Verbindung
+					return new TcpChatAdvancedClientImpl(userInterface, param.getRemoteServerPort(numberOfClient),
+							param.getRemoteServerAddress(numberOfClient), numberOfClient, param.getMessageLength(),
+							param.getNumberOfMessages(), param.getClientThinkTime(),
+							param.getNumberOfRetries(), param.getResponseTimeout(), param.getWindowSize(),
+							param.isOpenLoop(), sharedData,
+							getDecoratedFactory(createUdpConnectionFactory(param, numberOfClient, sharedData)));
 
 				default:
 					throw new RuntimeException("Unbekannter Implementierungstyp: " + param.getImplementationType());
@@ -45,6 +55,26 @@ public final class ClientFactory {
 		}
 	}
 
+	/**
+	 * UDP-Verbindungen eines Clients: Wiederholungen werden in dessen Statistik gezaehlt
+	 */
+	private static ConnectionFactory createUdpConnectionFactory(UserInterfaceInputParameters param,
+			final int numberOfClient, final SharedClientStatistics sharedData) {
+		int maxRetransmissions = param.getNumberOfRetries() > 0
+				? param.getNumberOfRetries() : UdpSession.DEFAULT_MAX_RETRANSMISSIONS;
+		return new UdpClientConnectionFactory(maxRetransmissions, new UdpSession.Listener() {
+			@Override
+			public void retransmitted(UdpSession session) {
+				sharedData.incrNumberOfRetries(numberOfClient);
+			}
+
+			@Override
+			public void failed(UdpSession session) {
+				// Der Client erkennt die gescheiterte Session beim naechsten Empfangsversuch
+			}
+		});
+	}
+
 	public static ConnectionFactory getDecoratedFactory(ConnectionFactory connectionFactory) {
 		return new DecoratingConnectionFactory(connectionFactory);
 	}
@@ -0,0 +1,206 @@
+package edu.hm.dako.chat.client;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.CumulativeConfirm;
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.VirtualThreads;
+import edu.hm.dako.chat.connection.Connection;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sammelt die Bestaetigungen empfangener Chat- und Login-Events eines Clients und sendet sie
+ * gemeinsam in einer Event-Confirm-Batch-PDU.
+ * <p>
+ * Je ausloesendem Client und Event-Typ wird nur die hoechste Sequenznummer gefuehrt, sie
+ * bestaetigt kumulativ alle frueheren Events (siehe {@link CumulativeConfirm}). Gesendet wird,
+ * sobald {@value #BATCH_SIZE_PROPERTY} Events gesammelt sind, spaetestens aber
+ * {@value #DELAY_PROPERTY} ms nach dem ersten gesammelten Event. Die Verzoegerung verlaengert
+ * die RTT des ausloesenden Clients entsprechend, dafuer sinkt bei hoher Last die Anzahl der
+ * Bestaetigungen, die der Server empfangen und bearbeiten muss.
+ * <p>
+ * Ein voller Batch wird vom bestaetigenden Thread gesendet, das verzoegerte Senden uebernimmt ein
+ * eigener Thread je Client (virtuell, falls eingeschaltet, siehe {@link VirtualThreads}). Staut
+ * sich das Senden an einer Verbindung, haelt das nur die Bestaetigungen dieses Clients auf.
+ * <p>
+ * Logout-Events werden weiterhin einzeln bestaetigt, vorher muss {@link #flush()} aufgerufen
+ * werden, damit keine frueheren Bestaetigungen zurueckgehalten werden.
+ */
+public class EventConfirmBatcher implements Runnable {
+
+    private static Log log = LogFactory.getLog(EventConfirmBatcher.class);
+
+    public static final String BATCH_SIZE_PROPERTY = "edu.hm.dako.chat.client.confirmBatchSize";
+    public static final String DELAY_PROPERTY = "edu.hm.dako.chat.client.confirmDelay";
+
+    // Anzahl Events je Batch, 1 bedeutet einzelne Bestaetigung jedes Events
+    public static final int DEFAULT_BATCH_SIZE = Integer.getInteger(BATCH_SIZE_PROPERTY, 1);
+
+    // Maximale Verzoegerung einer Bestaetigung in ms
+    public static final int DEFAULT_DELAY = Integer.getInteger(DELAY_PROPERTY, 2);
+
+    private final Connection connection;
+    private final String userName;
+    private final int batchSize;
+    private final long delayNanos;
+
+    // Sperre fuer die gesammelten Bestaetigungen, signalisiert dem Sende-Thread neue Events
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchChanged = lock.newCondition();
+
+    // Hoechste empfangene Sequenznummer je Event-Typ und ausloesendem Client
+    private Map<String, CumulativeConfirm> pending = new LinkedHashMap<String, CumulativeConfirm>();
+
+    // Seit dem letzten Senden gesammelte Events und Empfangszeit des ersten davon
+    private int numberOfEvents = 0;
+    private long firstEventTime;
+    private boolean closed = false;
+
+    /**
+     * Konstruktor
+     *
+     * @param connection Verbindung zum Server
+     * @param userName   Name des bestaetigenden Clients
+     * @param batchSize  Anzahl Events, nach der sofort gesendet wird
+     * @param delay      Maximale Verzoegerung einer Bestaetigung in ms
+     */
+    public EventConfirmBatcher(Connection connection, String userName, int batchSize, long delay) {
+        this.connection = connection;
+        this.userName = userName;
+        this.batchSize = batchSize;
+        this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+
+    /**
+     * Startet den Thread fuer das verzoegerte Senden
+     *
+     * @param threadName Name des Threads
+     */
+    public void start(String threadName) {
+        Thread thread = VirtualThreads.newThread(threadName, this);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Beendet den Thread fuer das verzoegerte Senden, noch gesammelte Bestaetigungen werden
+     * verworfen
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            batchChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true, falls ueber {@value #BATCH_SIZE_PROPERTY} Batches mit mehr als einem Event
+     *         konfiguriert sind
+     */
+    public static boolean isEnabled() {
+        return DEFAULT_BATCH_SIZE > 1;
+    }
+
+    /**
+     * Bestaetigung eines empfangenen Events vormerken
+     *
+     * @param eventType      PDU-Typ des Events
+     * @param eventUserName  Name des Clients, der das Event ausgeloest hat
+     * @param sequenceNumber Sequenznummer des Events
+     */
+    public void confirm(int eventType, String eventUserName, long sequenceNumber) {
+        boolean full;
+        lock.lock();
+        try {
+            String key = eventType + "/" + eventUserName;
+            CumulativeConfirm previous = pending.get(key);
+            if (previous == null || previous.getSequenceNumber() < sequenceNumber) {
+                pending.put(key, new CumulativeConfirm(eventType, eventUserName, sequenceNumber));
+            }
+            if (numberOfEvents == 0) {
+                firstEventTime = System.nanoTime();
+                batchChanged.signal();
+            }
+            numberOfEvents++;
+            full = numberOfEvents >= batchSize;
+        } finally {
+            lock.unlock();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Alle vorgemerkten Bestaetigungen sofort senden
+     */
+    public void flush() {
+        Vector<CumulativeConfirm> confirms;
+        int events;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            confirms = new Vector<CumulativeConfirm>(pending.values());
+            events = numberOfEvents;
+            pending = new LinkedHashMap<String, CumulativeConfirm>();
+            numberOfEvents = 0;
+        } finally {
+            lock.unlock();
+        }
+
+        ChatPDU confirmPdu = new ChatPDU();
+        confirmPdu.setPduType(ChatPDU.EVENT_CONFIRM_BATCH);
+        confirmPdu.setClientStatus(ChatClientConversationStatus.REGISTERED);
+        confirmPdu.setClientThreadName(Thread.currentThread().getName());
+        confirmPdu.setUserName(userName);
+        confirmPdu.setConfirms(confirms);
+        try {
+            connection.send(confirmPdu);
+            log.debug("Event-Confirm-Batch-PDU fuer " + events + " Events von Client " + userName
+                    + " an Server gesendet");
+        } catch (Exception e) {
+            ExceptionHandler.logException(e);
+        }
+    }
+
+    /**
+     * Sendet gesammelte Bestaetigungen, sobald das erste davon die maximale Verzoegerung erreicht
+     */
+    @Override
+    public void run() {
+        while (true) {
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    batchChanged.await();
+                }
+                long remaining;
+                while (!pending.isEmpty() && !closed
+                        && (remaining = firstEventTime + delayNanos - System.nanoTime()) > 0) {
+                    batchChanged.awaitNanos(remaining);
+                }
+                if (closed) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            flush();
+        }
+    }
+}
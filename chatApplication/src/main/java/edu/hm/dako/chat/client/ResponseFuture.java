@@ -0,0 +1,80 @@
+package edu.hm.dako.chat.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import edu.hm.dako.chat.common.ChatPDU;
+
+/**
+ * Erwartete Response des Servers auf einen Request.
+ * <p>
+ * Der sendende Thread wartet mit {@link #await(long)} auf die Response, der Listener-Thread
+ * uebergibt sie mit {@link #complete(ChatPDU)}. Der Wartende wird damit sofort beim Empfang
+ * geweckt und nicht erst nach Ablauf eines Polling-Intervalls, gemessene RTTs enthalten daher
+ * keine Wartezeit des Clients.
+ */
+public class ResponseFuture {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile ChatPDU response;
+
+    // Zeitpunkt, zu dem der Request gesendet wurde (Beginn der RTT)
+    private final long sendTime;
+
+    /**
+     * Erwartete Response eines jetzt gesendeten Requests
+     */
+    public ResponseFuture() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * Erwartete Response eines Requests mit vorgegebenem Beginn der RTT
+     *
+     * @param sendTime Geplanter Sendezeitpunkt in ns (System.nanoTime)
+     */
+    public ResponseFuture(long sendTime) {
+        this.sendTime = sendTime;
+    }
+
+    /**
+     * Uebergibt die empfangene Response und weckt den wartenden Thread
+     *
+     * @param pdu Empfangene Response
+     */
+    public void complete(ChatPDU pdu) {
+        response = pdu;
+        latch.countDown();
+    }
+
+    /**
+     * Wartet auf die Response
+     *
+     * @param timeout Maximale Wartezeit in ms, bei 0 oder weniger wird ohne Begrenzung gewartet
+     * @return Empfangene Response oder null, wenn sie nicht rechtzeitig eingetroffen ist
+     * @throws InterruptedException Warten wurde unterbrochen
+     */
+    public ChatPDU await(long timeout) throws InterruptedException {
+        if (timeout > 0) {
+            latch.await(timeout, TimeUnit.MILLISECONDS);
+        } else {
+            latch.await();
+        }
+        return response;
+    }
+
+    /**
+     * @return Beginn der RTT in ns (System.nanoTime): Erzeugung vor dem Senden des Requests
+     *         oder geplanter Sendezeitpunkt im Open-Loop-Betrieb
+     */
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return true, wenn die Response bereits eingetroffen ist
+     */
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+}
@@ -0,0 +1,50 @@
+package edu.hm.dako.chat.cluster;
+
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.server.ChatServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Chat-Server als Knoten eines Clusters: Startet und stoppt mit dem eigentlichen Server die
+ * Verbindungen zu den anderen Knoten, siehe {@link ClusterNode}.
+ */
+public class ClusterChatServer implements ChatServer {
+
+    private static Log log = LogFactory.getLog(ClusterChatServer.class);
+
+    private final ChatServer server;
+    private final ClusterNode node;
+
+    /**
+     * Konstruktor
+     *
+     * @param server Server, der die Clients dieses Knotens bedient
+     * @param node   Verbindungen zu den anderen Knoten
+     */
+    public ClusterChatServer(ChatServer server, ClusterNode node) {
+        this.server = server;
+        this.node = node;
+    }
+
+    @Override
+    public void start() {
+        try {
+            node.start();
+        } catch (Exception e) {
+            log.error("Serverknoten " + node.getNodeName() + " konnte nicht gestartet werden: " + e);
+            ExceptionHandler.logExceptionAndTerminate(e);
+        }
+        server.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        node.stop();
+        server.stop();
+    }
+
+    public ClusterNode getNode() {
+        return node;
+    }
+}
@@ -0,0 +1,291 @@
+package edu.hm.dako.chat.cluster;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatClientListEntry;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.server.AbstractChatWorker;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Vector;
+
+/**
+ * Bedienung der Verbindung zu einem anderen Serverknoten.
+ * <p>
+ * Nach dem Austausch der Knotennamen wird die Verbindung als Relay "@Knoten" in die Clientliste
+ * eingetragen (siehe {@link edu.hm.dako.chat.common.SharedChatClientList}). Events lokaler
+ * Clients erreichen den anderen Knoten damit ueber den normalen Versand an die Empfaenger der
+ * Warteliste. Vom anderen Knoten empfangene Events werden wie Events eines lokalen Clients an
+ * die Mitglieder des Raums verteilt, ausloesender Client ist ein Stellvertreter mit der
+ * Ausgangswarteschlange dieser Verbindung. Sind alle lokalen Empfaenger fertig, sendet der
+ * {@link edu.hm.dako.chat.server.EventConfirmHandler} statt einer Response eine Bestaetigung an
+ * den anderen Knoten. Bestaetigungen des anderen Knotens werden als Bestaetigung des Relays
+ * bearbeitet.
+ * <p>
+ * Bricht die Verbindung ab, werden das Relay und alle Stellvertreter des anderen Knotens
+ * entfernt, Events, die nur noch auf den anderen Knoten gewartet haben, werden beantwortet.
+ */
+class ClusterLink extends AbstractChatWorker {
+
+    private static Log log = LogFactory.getLog(ClusterLink.class);
+
+    private final ClusterNode node;
+
+    // Verbindung wurde von diesem Knoten aufgebaut
+    private final boolean initiator;
+
+    // Verbindung zum anderen Knoten, ueber die der Link empfaengt
+    private final Connection linkConnection;
+
+    ClusterLink(ClusterNode node, Connection con, boolean initiator) {
+        super(con, node.getClients(), node.getLinkDispatcher());
+        this.linkConnection = con;
+        this.node = node;
+        this.initiator = initiator;
+    }
+
+    /**
+     * Bedient die Verbindung bis zu ihrem Abbruch
+     */
+    void run() {
+        String peerName;
+        try {
+            peerName = exchangeNodeNames();
+        } catch (Exception e) {
+            log.error("Verbindungsaufbau zu einem Serverknoten fehlgeschlagen: " + e);
+            close();
+            return;
+        }
+        if (peerName == null || peerName.equals(node.getNodeName())) {
+            log.error("Serverknoten mit ungueltigem Namen " + peerName + " abgewiesen");
+            close();
+            return;
+        }
+
+        String relayName = "@" + peerName;
+        outboundQueue = outboundDispatcher.createQueue(relayName, connection);
+        if (!clients.createRelay(relayName, new ChatClientListEntry(relayName, connection, outboundQueue))) {
+            log.error("Verbindung zu Serverknoten " + peerName + " besteht bereits");
+            closeOutbound();
+            return;
+        }
+        userName = relayName;
+        Thread.currentThread().setName("ClusterLink-" + peerName);
+        System.out.println("Verbindung zu Serverknoten " + peerName + " aufgebaut");
+
+        while (true) {
+            ChatPDU receivedPdu;
+            try {
+                receivedPdu = (ChatPDU) linkConnection.receive();
+            } catch (Exception e) {
+                log.debug("Empfang von Serverknoten " + peerName + " beendet: " + e);
+                break;
+            }
+            if (receivedPdu == null) {
+                break;
+            }
+            try {
+                handleRelayedPdu(receivedPdu);
+            } catch (Exception e) {
+                log.error("Exception bei der Bearbeitung einer PDU von Serverknoten " + peerName);
+                ExceptionHandler.logException(e);
+            }
+        }
+
+        System.out.println("Verbindung zu Serverknoten " + peerName + " abgebaut");
+        handleLinkLost();
+        closeOutbound();
+    }
+
+    /**
+     * Verbindung schliessen, der Empfang in {@link #run()} endet daraufhin
+     */
+    void close() {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            log.debug("Verbindung zu Serverknoten konnte nicht geschlossen werden: " + e);
+        }
+    }
+
+    /**
+     * Austausch der Knotennamen: Der aufbauende Knoten sendet zuerst
+     *
+     * @return Name des anderen Knotens
+     */
+    private String exchangeNodeNames() throws Exception {
+        ChatPDU hello = new ChatPDU();
+        hello.setPduType(ChatPDU.CLUSTER_HELLO);
+        hello.setUserName(node.getNodeName());
+        if (initiator) {
+            connection.send(hello);
+        }
+        Serializable received = linkConnection.receive();
+        if (!(received instanceof ChatPDU) || ((ChatPDU) received).getPduType() != ChatPDU.CLUSTER_HELLO) {
+            throw new IOException("Unerwartete PDU beim Verbindungsaufbau zwischen Serverknoten");
+        }
+        if (!initiator) {
+            connection.send(hello);
+        }
+        return ((ChatPDU) received).getUserName();
+    }
+
+    /**
+     * Verarbeitung einer PDU des anderen Knotens
+     *
+     * @param receivedPdu Empfangene PDU
+     */
+    private void handleRelayedPdu(ChatPDU receivedPdu) throws Exception {
+        switch (receivedPdu.getPduType()) {
+
+            case ChatPDU.LOGIN_EVENT:
+                handleRemoteLogin(receivedPdu);
+                break;
+
+            case ChatPDU.LOGOUT_EVENT:
+                handleRemoteLogout(receivedPdu);
+                break;
+
+            case ChatPDU.CHAT_MESSAGE_EVENT:
+                handleRemoteChatMessage(receivedPdu);
+                break;
+
+            case ChatPDU.ROOM_EVENT:
+                handleRemoteRoomChange(receivedPdu);
+                break;
+
+            case ChatPDU.LOGIN_EVENT_CONFIRM:
+                // Alle Clients des anderen Knotens haben das Login-Event bestaetigt
+                confirmHandler.handleLoginEventConfirm(receivedPdu, userName);
+                break;
+
+            case ChatPDU.LOGOUT_EVENT_CONFIRM:
+                confirmHandler.handleLogoutEventConfirm(receivedPdu, userName);
+                break;
+
+            case ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM:
+                // Alle Clients des anderen Knotens haben die Chat-Nachricht bestaetigt
+                confirmHandler.handleChatMessageEventConfirm(receivedPdu, userName);
+                break;
+
+            default:
+                log.debug("Falsche PDU von Serverknoten " + userName + " empfangen, PduType: "
+                        + receivedPdu.getPduType());
+                break;
+        }
+    }
+
+    /**
+     * Login eines Clients am anderen Knoten: Stellvertreter anlegen und Login-Event an die
+     * lokalen Mitglieder des Raums verteilen
+     */
+    private void handleRemoteLogin(ChatPDU receivedPdu) {
+        String remoteUser = receivedPdu.getEventUserName();
+        String room = receivedPdu.getRoom() != null ? receivedPdu.getRoom() : ChatPDU.DEFAULT_ROOM;
+        if (!createRemoteClient(remoteUser, room)) {
+            // Name ist an diesem Knoten bereits vergeben, Event nicht verteilen
+            confirmHandler.forwardConfirm(outboundQueue, ChatPDU.LOGIN_EVENT_CONFIRM, receivedPdu);
+            return;
+        }
+        Vector<String> recipients = clients.createWaitList(remoteUser, ChatPDU.LOGIN_EVENT,
+                receivedPdu.getSequenceNumber());
+        sendLoginListUpdateEvent(receivedPdu, recipients);
+        if (recipients.isEmpty()) {
+            confirmHandler.forwardConfirm(outboundQueue, ChatPDU.LOGIN_EVENT_CONFIRM, receivedPdu);
+        }
+    }
+
+    /**
+     * Logout eines Clients am anderen Knoten: Logout-Event an die lokalen Mitglieder des Raums
+     * verteilen und Stellvertreter entfernen. Der andere Knoten wartet nicht auf die lokalen
+     * Bestaetigungen, er erhaelt sofort eine Bestaetigung.
+     */
+    private void handleRemoteLogout(ChatPDU receivedPdu) {
+        String remoteUser = receivedPdu.getEventUserName();
+        ChatClientListEntry client = clients.getClient(remoteUser);
+        if (client == null || !userName.equals(client.getNode())) {
+            log.debug("Logout-Event fuer unbekannten Client " + remoteUser + " von " + userName);
+            return;
+        }
+        clients.changeClientStatus(remoteUser, ChatClientConversationStatus.UNREGISTERING);
+        sendLoginListUpdateEvent(receivedPdu, clients.getRoomMemberList(client.getRoom()));
+        confirmHandler.removeClient(remoteUser);
+        confirmHandler.forwardConfirm(outboundQueue, ChatPDU.LOGOUT_EVENT_CONFIRM, receivedPdu);
+    }
+
+    /**
+     * Chat-Nachricht eines Clients am anderen Knoten an die lokalen Mitglieder des Raums verteilen
+     */
+    private void handleRemoteChatMessage(ChatPDU receivedPdu) {
+        Vector<String> recipients = clients.createWaitList(receivedPdu.getEventUserName(),
+                ChatPDU.CHAT_MESSAGE_EVENT, receivedPdu.getSequenceNumber());
+        sendPduToRoom(receivedPdu, recipients);
+        if (recipients.isEmpty()) {
+            confirmHandler.forwardConfirm(outboundQueue, ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM, receivedPdu);
+        }
+    }
+
+    /**
+     * Raumwechsel eines Clients am anderen Knoten. Nach dem Aufbau der Verbindung meldet der
+     * andere Knoten so auch seine bereits angemeldeten Clients.
+     */
+    private void handleRemoteRoomChange(ChatPDU receivedPdu) {
+        String remoteUser = receivedPdu.getEventUserName();
+        String room = receivedPdu.getRoom() != null ? receivedPdu.getRoom() : ChatPDU.DEFAULT_ROOM;
+        ChatClientListEntry client = clients.getClient(remoteUser);
+        if (client == null) {
+            if (createRemoteClient(remoteUser, room)) {
+                sendRoomEvent(room, remoteUser, ChatPDU.USER_ADDED);
+            }
+            return;
+        }
+        if (!userName.equals(client.getNode())) {
+            log.debug("Raum-Event fuer " + remoteUser + " von " + userName + " verworfen");
+            return;
+        }
+        String oldRoom = clients.changeRoom(remoteUser, room);
+        if (oldRoom != null && !oldRoom.equals(room)) {
+            sendRoomEvent(oldRoom, remoteUser, ChatPDU.USER_REMOVED);
+            sendRoomEvent(room, remoteUser, ChatPDU.USER_ADDED);
+        }
+    }
+
+    /**
+     * Stellvertreter fuer einen Client des anderen Knotens anlegen, falls noch nicht vorhanden
+     *
+     * @return false, falls der Name bereits von einem lokalen Client oder einem anderen Knoten
+     *         verwendet wird
+     */
+    private boolean createRemoteClient(String remoteUser, String room) {
+        ChatClientListEntry client = clients.getClient(remoteUser);
+        if (client != null) {
+            return userName.equals(client.getNode());
+        }
+        client = new ChatClientListEntry(remoteUser, connection, outboundQueue);
+        client.setLoginTime(System.nanoTime());
+        client.setStatus(ChatClientConversationStatus.REGISTERED);
+        if (!clients.createRemoteClient(remoteUser, client, userName, room)) {
+            log.error("Client " + remoteUser + " von " + userName + " ist bereits angemeldet");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Verbindung abgebrochen: Events, die noch auf den anderen Knoten warten, werden
+     * beantwortet und seine Clients aus allen Listen entfernt. Die Mitglieder der betroffenen
+     * Raeume erhalten dabei je Client ein Raum-Event, das ihn aus ihrer Userliste entfernt.
+     */
+    private void handleLinkLost() {
+        Vector<String> remoteUsers = clients.getRemoteClientList(userName);
+        confirmHandler.removeClient(userName);
+        for (String remoteUser : remoteUsers) {
+            confirmHandler.removeClient(remoteUser);
+        }
+        log.debug(remoteUsers.size() + " Clients von " + userName + " entfernt");
+    }
+}
@@ -0,0 +1,271 @@
+package edu.hm.dako.chat.cluster;
+
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.OutboundQueue;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.PduCodecs;
+import edu.hm.dako.chat.server.EventConfirmHandler;
+import edu.hm.dako.chat.tcp.TcpConnection;
+import edu.hm.dako.chat.tcp.TcpServerSocket;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Serverknoten eines Clusters aus mehreren Chat-Server-Prozessen.
+ * <p>
+ * Jeder Knoten bedient nur die bei ihm angemeldeten Clients. Die Knoten sind paarweise ueber
+ * eigene TCP-Verbindungen verbunden, ueber die Login-, Logout-, Chat- und Raum-Events ihrer
+ * Clients und die Bestaetigungen dazu laufen (siehe {@link ClusterLink}). Fuer die Clients
+ * ergibt sich so ein einziger logischer Chat. Ein Event geht je Knoten nur einmal ueber die
+ * Verbindung, der empfangende Knoten verteilt es an seine Clients und bestaetigt es mit einer
+ * einzigen Bestaetigung, sobald alle seine Clients bestaetigt haben. Der Aufwand eines Knotens
+ * waechst damit mit der Anzahl seiner eigenen Clients und der Anzahl der Knoten, nicht mit der
+ * Anzahl aller Clients.
+ * <p>
+ * Jede Verbindung wird von einer Seite aufgebaut: Ein Knoten verbindet sich mit allen in
+ * {@value #PEERS_PROPERTY} angegebenen Knoten und nimmt die Verbindungen der uebrigen an seinem
+ * Cluster-Port an. Bricht eine selbst aufgebaute Verbindung ab, wird sie erneut aufgebaut.
+ * <p>
+ * Konfiguration ueber System-Properties: {@value #PORT_PROPERTY} (Port fuer Verbindungen anderer
+ * Knoten, ohne diese Property laeuft der Server allein), {@value #PEERS_PROPERTY} (host:port der
+ * Knoten, zu denen dieser Knoten die Verbindung aufbaut, durch Komma getrennt) und
+ * {@value #NAME_PROPERTY} (im Cluster eindeutiger Name, Default: node-Cluster-Port).
+ * <p>
+ * Beispiel fuer drei Knoten auf einem Rechner (jeweils zusaetzlich zu edu.hm.dako.chat.serverPort):
+ * <pre>
+ * -Dedu.hm.dako.chat.cluster.port=51000
+ * -Dedu.hm.dako.chat.cluster.port=51001 -Dedu.hm.dako.chat.cluster.peers=localhost:51000
+ * -Dedu.hm.dako.chat.cluster.port=51002 -Dedu.hm.dako.chat.cluster.peers=localhost:51000,localhost:51001
+ * </pre>
+ */
+public class ClusterNode {
+
+    private static Log log = LogFactory.getLog(ClusterNode.class);
+
+    public static final String PORT_PROPERTY = "edu.hm.dako.chat.cluster.port";
+    public static final String PEERS_PROPERTY = "edu.hm.dako.chat.cluster.peers";
+    public static final String NAME_PROPERTY = "edu.hm.dako.chat.cluster.name";
+
+    // Wartezeit zwischen zwei Versuchen, die Verbindung zu einem anderen Knoten aufzubauen, in ms
+    private static final long RECONNECT_INTERVAL = 1000;
+
+    // Ueber eine Verbindung laufen die Events aller Clients eines Knotens
+    private static final int LINK_BUFFER_SIZE = 1000000;
+    private static final int LINK_QUEUE_CAPACITY =
+            Integer.getInteger("edu.hm.dako.chat.cluster.queueCapacity", 100000);
+
+    private final String nodeName;
+    private final int port;
+    private final List<InetSocketAddress> peers;
+
+    // Ausgangswarteschlangen der Verbindungen zu anderen Knoten, bei Ueberlauf wird gewartet
+    private final OutboundDispatcher linkDispatcher;
+
+    private final Set<ClusterLink> links =
+            Collections.newSetFromMap(new ConcurrentHashMap<ClusterLink, Boolean>());
+
+    private SharedChatClientList clients;
+    private TcpServerSocket serverSocket;
+    private volatile boolean running = false;
+
+    /**
+     * Konstruktor
+     *
+     * @param nodeName Im Cluster eindeutiger Name des Knotens
+     * @param port     Port fuer Verbindungen anderer Knoten
+     * @param peers    Knoten, zu denen dieser Knoten die Verbindung aufbaut
+     */
+    public ClusterNode(String nodeName, int port, List<InetSocketAddress> peers) {
+        this.nodeName = nodeName;
+        this.port = port;
+        this.peers = peers;
+        this.linkDispatcher = new OutboundDispatcher(LINK_QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @return true, falls ueber System-Properties ein Cluster konfiguriert ist
+     */
+    public static boolean isConfigured() {
+        return System.getProperty(PORT_PROPERTY) != null;
+    }
+
+    /**
+     * Erzeugt einen Knoten aus den System-Properties
+     *
+     * @return Knoten, noch nicht gestartet
+     */
+    public static ClusterNode fromSystemProperties() {
+        int port = Integer.getInteger(PORT_PROPERTY);
+        String name = System.getProperty(NAME_PROPERTY, "node-" + port);
+        List<InetSocketAddress> peers = new ArrayList<InetSocketAddress>();
+        String peerList = System.getProperty(PEERS_PROPERTY, "");
+        for (String peer : peerList.split(",")) {
+            peer = peer.trim();
+            if (peer.length() == 0) {
+                continue;
+            }
+            int colon = peer.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(PEERS_PROPERTY + ": Port fehlt in " + peer);
+            }
+            peers.add(InetSocketAddress.createUnresolved(peer.substring(0, colon),
+                    Integer.parseInt(peer.substring(colon + 1))));
+        }
+        return new ClusterNode(name, port, peers);
+    }
+
+    /**
+     * Oeffnet den Cluster-Port und baut die Verbindungen zu den angegebenen Knoten auf. Die
+     * Verbindungen werden in eigenen Threads bedient, der Aufruf kehrt sofort zurueck.
+     *
+     * @throws IOException Cluster-Port kann nicht geoeffnet werden
+     */
+    public void start() throws IOException {
+        clients = SharedChatClientList.getInstance();
+        linkDispatcher.setListener(new EventConfirmHandler(clients));
+        serverSocket = new TcpServerSocket(port, LINK_BUFFER_SIZE, LINK_BUFFER_SIZE);
+        running = true;
+        System.out.println("Serverknoten " + nodeName + " wartet an Port " + port
+                + " auf Verbindungen anderer Knoten");
+
+        startThread("ClusterAcceptor", new Runnable() {
+            @Override
+            public void run() {
+                acceptLinks();
+            }
+        });
+        for (final InetSocketAddress peer : peers) {
+            startThread("ClusterConnector-" + peer, new Runnable() {
+                @Override
+                public void run() {
+                    connectLink(peer);
+                }
+            });
+        }
+    }
+
+    /**
+     * Baut alle Verbindungen zu anderen Knoten ab
+     */
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            ExceptionHandler.logException(e);
+        }
+        for (ClusterLink link : links) {
+            link.close();
+        }
+        linkDispatcher.shutdown();
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return Anzahl der bestehenden Verbindungen zu anderen Knoten
+     */
+    public int getNumberOfLinks() {
+        return links.size();
+    }
+
+    SharedChatClientList getClients() {
+        return clients;
+    }
+
+    OutboundDispatcher getLinkDispatcher() {
+        return linkDispatcher;
+    }
+
+    /**
+     * Nimmt Verbindungen anderer Knoten an, jede wird in einem eigenen Thread bedient
+     */
+    private void acceptLinks() {
+        while (running && !serverSocket.isClosed()) {
+            try {
+                Connection connection = serverSocket.accept();
+                final ClusterLink link = new ClusterLink(this, connection, false);
+                startThread("ClusterLink", new Runnable() {
+                    @Override
+                    public void run() {
+                        runLink(link);
+                    }
+                });
+            } catch (Exception e) {
+                if (running) {
+                    log.error("Exception beim Entgegennehmen einer Verbindung eines Serverknotens: " + e);
+                    ExceptionHandler.logException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Baut die Verbindung zu einem anderen Knoten auf und nach einem Abbruch erneut auf
+     *
+     * @param peer Adresse des anderen Knotens
+     */
+    private void connectLink(InetSocketAddress peer) {
+        while (running) {
+            TcpConnection connection = null;
+            try {
+                connection = new TcpConnection(new Socket(peer.getHostString(), peer.getPort()),
+                        LINK_BUFFER_SIZE, LINK_BUFFER_SIZE, false, true);
+                connection.negotiateCodec(PduCodecs.getPreferred());
+            } catch (Exception e) {
+                log.debug("Verbindung zu Serverknoten " + peer + " nicht moeglich: " + e);
+                closeQuietly(connection);
+                connection = null;
+            }
+            if (connection != null) {
+                runLink(new ClusterLink(this, connection, true));
+            }
+            try {
+                Thread.sleep(RECONNECT_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void runLink(ClusterLink link) {
+        links.add(link);
+        try {
+            link.run();
+        } finally {
+            links.remove(link);
+        }
+    }
+
+    private static void startThread(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (Exception e) {
+            log.debug("Verbindung zu Serverknoten konnte nicht geschlossen werden: " + e);
+        }
+    }
+}
@@ -1,50 +1,50 @@
 package edu.hm.dako.chat.common;
 
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.PduSender;
 
 /**
  * Eintrag in der serverseitigen Clientliste zur Verwaltung der angemeldeten User
  * inkl. des Conversation-Status.
  *
+ * Der Eintrag ist ohne Sperren threadsicher: Zaehler sind atomar, Status und Kennzeichen
+ * volatile. Die Wartelisten fuer Event-Bestaetigungen werden nicht hier, sondern je Event in
+ * {@link PendingAcks} gefuehrt.
+ *
  * @author Peter Mandl
  *
  */
 public class ChatClientListEntry {
 	private static Log log = LogFactory.getLog(ChatClientListEntry.class);
 	private String userName;                       	// Login-Name des Clients
-	private Connection con;                        	// Verbindungs-Handle fuer Transportverbindung zum Client
-	boolean finished; 								// Kennzeichen zum Beenden des Worker-Threads
-	private long loginTime;                        	// Login-Zeitpunkt
-	private long startTime;                        	// Ankunftszeit einer Chat-Message fuer die Serverzeit-Messung
-	private ChatClientConversationStatus status;   	// Conversation-Status des Clients
-	private long numberOfReceivedChatMessages;     	// Anzahl der verarbeiteten Chat-Nachrichten des Clients (Sequenznummer)
-	private long numberOfSentEvents; 			   	// Anzahl gesendeter Event-Bestaetigungen an andere Clients
-	private long numberOfReceivedEventConfirms;    	// Anzahl empfangener Event-Bestaetigungen anderer Clients
-	private long numberOfLostEventConfirms;        	// Anzahl nicht erhaltener Bestaetigungen (derzeit nicht genutzt)
-	private long numberOfRetries;                  	// Anzahl an Nachrichtenwiederholungen (derzeit nicht genutzt)
-													// Liste, die auf alle Clients verweis, die noch kein Event-Confirm 
-													// gesendet haben
-	private Vector<String> waitList; 
+	private PduSender con;                         	// Verbindungs-Handle fuer Transportverbindung zum Client
+	private OutboundQueue outboundQueue;           	// Ausgangswarteschlange fuer alle Nachrichten an den Client
+	volatile boolean finished; 						// Kennzeichen zum Beenden des Worker-Threads
+	private volatile long loginTime;               	// Login-Zeitpunkt
+	private volatile long startTime;               	// Ankunftszeit einer Chat-Message fuer die Serverzeit-Messung
+	private volatile ChatClientConversationStatus status; // Conversation-Status des Clients
+	private volatile String room;                  	// Aktueller Chat-Raum, Wechsel nur ueber SharedChatClientList
+	private volatile String node;                  	// Verbindung zum Serverknoten eines entfernten Clients, null fuer lokale Clients
+	private final AtomicLong numberOfReceivedChatMessages = new AtomicLong(); // Anzahl der verarbeiteten Chat-Nachrichten des Clients (Sequenznummer)
+	private final AtomicLong numberOfSentEvents = new AtomicLong(); 		   // Anzahl gesendeter Event-Bestaetigungen an andere Clients
+	private final AtomicLong numberOfReceivedEventConfirms = new AtomicLong(); // Anzahl empfangener Event-Bestaetigungen anderer Clients
+	private final AtomicLong numberOfLostEventConfirms = new AtomicLong();     // Anzahl nicht erhaltener Bestaetigungen
+	private final AtomicLong numberOfRetries = new AtomicLong();               // Anzahl an Nachrichtenwiederholungen (derzeit nicht genutzt)
 											
 	
-	public ChatClientListEntry(String userName, Connection con) { ///Konstruktor
+	public ChatClientListEntry(String userName, PduSender con, OutboundQueue outboundQueue) { ///Konstruktor
 		this.userName = userName;
 		this.con = con;
+		this.outboundQueue = outboundQueue;
 		finished = false;
 		this.loginTime = 0;
 		this.startTime = 0;
 		this.status = ChatClientConversationStatus.UNREGISTERED;
-		this.numberOfReceivedChatMessages = 0;
-		this.numberOfSentEvents = 0;
-		this.numberOfReceivedEventConfirms = 0;
-		this.numberOfLostEventConfirms = 0;
-		this.numberOfRetries = 0;
-		this.waitList = new Vector<String>();
+		this.room = ChatPDU.DEFAULT_ROOM;
 	}
 
     @Override
@@ -71,14 +71,51 @@ public class ChatClientListEntry {
         return userName;
     }
 
-    public void setConnection(Connection con) {
+    public void setConnection(PduSender con) {
         this.con = con;
     }
 
-    public Connection getConnection() {
+    public PduSender getConnection() {
         return (con);
     }
 
+    /**
+     * Liefert die Ausgangswarteschlange des Clients. Nachrichten an den Client werden
+     * ausschliesslich ueber diese Warteschlange gesendet, damit ihre Reihenfolge erhalten bleibt.
+     *
+     * @return Ausgangswarteschlange
+     */
+    public OutboundQueue getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    void setRoom(String room) {
+        this.room = room;
+    }
+
+    /**
+     * @return Name der Verbindung zu dem Serverknoten, an dem der Client angemeldet ist, null
+     *         fuer Clients dieses Knotens
+     */
+    public String getNode() {
+        return node;
+    }
+
+    void setNode(String node) {
+        this.node = node;
+    }
+
+    /**
+     * @return true fuer Clients und Verbindungen anderer Serverknoten eines Clusters
+     */
+    public boolean isRemote() {
+        return node != null;
+    }
+
     public void setLoginTime(long time) {
        this.loginTime = time;
     }
@@ -96,43 +133,43 @@ public class ChatClientListEntry {
     }
     
     public void setNumberOfReceivedChatMessages(long nr) {
-        this.numberOfReceivedChatMessages = nr;
+        this.numberOfReceivedChatMessages.set(nr);
     }
 
     public long getNumberOfReceivedChatMessages() {
-         return (numberOfReceivedChatMessages);
+         return numberOfReceivedChatMessages.get();
     }
 
      public void setNumberOfSentEvents(long nr) {
-         this.numberOfSentEvents = nr;
+         this.numberOfSentEvents.set(nr);
      }
 
      public long getNumberOfSentEvents() {
-          return (numberOfSentEvents);
+          return numberOfSentEvents.get();
      }
      
      public void setNumberOfReceivedEventConfirms(long nr) {
-         this.numberOfReceivedEventConfirms = nr;
+         this.numberOfReceivedEventConfirms.set(nr);
      }
 
      public long getNumberOfReceivedEventConfirms() {
-          return (numberOfReceivedEventConfirms);
+          return numberOfReceivedEventConfirms.get();
      }
 
      public void setNumberOfLostEventConfirms(long nr) {
-         this.numberOfLostEventConfirms = nr;
+         this.numberOfLostEventConfirms.set(nr);
      }
 
      public long getNumberOfLostEventConfirms() {
-          return (numberOfLostEventConfirms);
+          return numberOfLostEventConfirms.get();
      }
 
      public void setNumberOfRetries(long nr) {
-         this.numberOfRetries = nr;
+         this.numberOfRetries.set(nr);
      }
 
      public long getNumberOfRetries() {
-          return (numberOfRetries);
+          return numberOfRetries.get();
      }
      
      public ChatClientConversationStatus getStatus() {
@@ -153,40 +190,22 @@ public class ChatClientListEntry {
 
 
      public void incrNumberOfSentEvents() {
-    	 this.numberOfSentEvents++;
+    	 this.numberOfSentEvents.incrementAndGet();
      }
 
      public void incrNumberOfReceivedEventConfirms() {
-    	 this.numberOfReceivedEventConfirms++;
+    	 this.numberOfReceivedEventConfirms.incrementAndGet();
      }
 
      public void incrNumberOfLostEventConfirms() {
-    	 this.numberOfLostEventConfirms++;
+    	 this.numberOfLostEventConfirms.incrementAndGet();
      }
 
      public void incrNumberOfReceivedChatMessages() {
-    	 this.numberOfReceivedChatMessages++;
+    	 this.numberOfReceivedChatMessages.incrementAndGet();
      }
 
      public void incrNumberOfRetries() {
-    	 this.numberOfRetries++;
-     }
-    	 
-     public void setWaitList(Vector<String> list) {
-    	 this.waitList= list;
-    	 log.debug("Warteliste von " + this.userName + ": " + waitList);
-     }
-
-    public void addWaitListEntry(String userName) {
-        this.waitList.add(userName);
-        log.debug("Warteliste von " + this.userName + " ergaenzt um " + userName);
-    }
-
-    public Vector<String> getWaitList() {
-    	 return waitList;
+    	 this.numberOfRetries.incrementAndGet();
      }
-
-    public void clearWaitList() {
-        waitList.clear();
-    }
 }
@@ -12,7 +12,7 @@ import org.apache.commons.logging.LogFactory;
  *
  * @author Mandl
  */
-public class ChatPDU implements Serializable {
+public class ChatPDU implements Serializable, Cloneable {
     private static final long serialVersionUID = -6172619032079227585L;
     private static Log log = LogFactory.getLog(ChatPDU.class);
 
@@ -32,6 +32,22 @@ public class ChatPDU implements Serializable {
     public final static int CHAT_MESSAGE_EVENT_CONFIRM = 10;
     public final static int LOGIN_EVENT_CONFIRM = 11;
     public final static int LOGOUT_EVENT_CONFIRM = 12;
+    public final static int ROOM_JOIN_REQUEST = 13;   // Wechsel in den Raum room
+    public final static int ROOM_JOIN_RESPONSE = 14;  // Raum und dessen Mitgliederliste
+    public final static int ROOM_LEAVE_REQUEST = 15;  // Rueckkehr in den Standardraum
+    public final static int ROOM_LEAVE_RESPONSE = 16; // Standardraum und dessen Mitgliederliste
+    public final static int ROOM_EVENT = 17;          // Mitgliederliste eines Raums hat sich geaendert,
+                                                      // wird nicht bestaetigt
+    public final static int CLUSTER_HELLO = 18;       // Knotenname beim Aufbau einer Verbindung
+                                                      // zwischen zwei Serverknoten
+    public final static int USER_LIST_REQUEST = 19;   // Client hat eine Luecke in den Aenderungen
+                                                      // seiner Userliste erkannt
+    public final static int USER_LIST_RESPONSE = 20;  // Vollstaendige Userliste des eigenen Raums
+    public final static int EVENT_CONFIRM_BATCH = 21; // Kumulative Bestaetigung mehrerer Chat- und
+                                                      // Login-Events in einer PDU
+
+    // Raum, in dem sich jeder Client nach dem Login befindet
+    public final static String DEFAULT_ROOM = "Lobby";
 
 
 
@@ -42,7 +58,15 @@ public class ChatPDU implements Serializable {
     private long sequenceNumber;	 	// Zaehlt die uebertragenen Nachrichten eines Clients, 
     								 	// optional nutzbar fuer unsichere Transportmechanismen
     private String message;          	// Nutzdaten (eigentliche Chat-Nachricht in Textform)
-    private Vector<String> clients;	 	// Liste aller angemeldeten User
+    private Vector<String> clients;	 	// Liste aller angemeldeten User im Raum des Empfaengers
+    private String room;				// Name des Chat-Raums bei Raum-PDUs
+    private long listVersion;			// Version der Userliste des Raums nach dieser Aenderung
+    									// bzw. Version der mitgesendeten vollstaendigen Userliste
+    private int listChange;				// Aenderung der Userliste durch ein Login-, Logout- oder
+    									// Raum-Event, betroffen ist eventUserName:
+    public final static int USER_ADDED = 1;
+    public final static int USER_REMOVED = 2;
+    private Vector<CumulativeConfirm> confirms; // Bestaetigungen einer Event-Confirm-Batch-PDU
     private long serverTime; 		 	// Zeit in Nanosekunden, die der Server fuer die komplette Bearbeitung einer 
     								 	// Chat-Nachricht benoetigt (inkl. kompletter Verteilung an alle angemeldeten User) 
     								 	// Diese Zeit wird vom Server vor dem Absenden der Response eingetragen
@@ -75,6 +99,10 @@ public class ChatPDU implements Serializable {
         message = null;
         serverTime = 0;
         clients = null;
+        room = null;
+        listVersion = 0;
+        listChange = 0;
+        confirms = null;
         clientStatus = ChatClientConversationStatus.UNREGISTERED;
         numberOfReceivedChatMessages = 0;
         numberOfSentEvents = 0;
@@ -127,6 +155,12 @@ public class ChatPDU implements Serializable {
         stringBuilder.append("\n");
         stringBuilder.append("clients (Userliste): " + this.clients + ", ");
         stringBuilder.append("\n");
+        stringBuilder.append("room: " + this.room + ", ");
+        stringBuilder.append("\n");
+        stringBuilder.append("listVersion: " + this.listVersion + ", listChange: " + this.listChange + ", ");
+        stringBuilder.append("\n");
+        stringBuilder.append("confirms: " + this.confirms + ", ");
+        stringBuilder.append("\n");
         stringBuilder.append("message: " + this.message);
         stringBuilder.append("\n");
         stringBuilder.append("**************************************************************************************************** ChatPdu");
@@ -134,6 +168,21 @@ public class ChatPDU implements Serializable {
         return stringBuilder.toString();
     }
 
+    /**
+     * Flache Kopie der PDU, z.B. um dasselbe Event einem Empfaenger mit vollstaendiger
+     * Userliste zu senden
+     *
+     * @return Kopie der PDU
+     */
+    @Override
+    public ChatPDU clone() {
+        try {
+            return (ChatPDU) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     public static void printPdu(ChatPDU pdu) {
         //System.out.println(pdu);
     	log.debug(pdu);
@@ -143,6 +192,22 @@ public class ChatPDU implements Serializable {
         this.clients = clients;
     }
         
+    public void setRoom(String room) {
+        this.room = room;
+    }
+
+    public void setConfirms(Vector<CumulativeConfirm> confirms) {
+        this.confirms = confirms;
+    }
+
+    public void setListVersion(long listVersion) {
+        this.listVersion = listVersion;
+    }
+
+    public void setListChange(int listChange) {
+        this.listChange = listChange;
+    }
+
     public void setPduType(int pduType) {
         this.pduType = pduType;
     }
@@ -178,9 +243,25 @@ public class ChatPDU implements Serializable {
       return pduType;
     }
     
+    public Vector<CumulativeConfirm> getConfirms() {
+        return confirms;
+    }
+
+    public long getListVersion() {
+        return listVersion;
+    }
+
+    public int getListChange() {
+        return listChange;
+    }
+
     public Vector<String> getClients() {
         return clients;
     }
+
+    public String getRoom() {
+        return room;
+    }
     
     public String getUserName() {
         return userName;
@@ -0,0 +1,50 @@
+package edu.hm.dako.chat.common;
+
+import java.io.Serializable;
+
+/**
+ * Kumulative Bestaetigung in einer Event-Confirm-Batch-PDU: Bestaetigt alle Events eines Typs,
+ * die ein Client ausgeloest hat, bis einschliesslich einer Sequenznummer.
+ * <p>
+ * Die Events eines Clients erreichen jeden Empfaenger in der Reihenfolge ihrer Sequenznummern,
+ * ein Empfaenger muss je ausloesendem Client und Event-Typ also nur die hoechste empfangene
+ * Sequenznummer melden.
+ */
+public final class CumulativeConfirm implements Serializable {
+
+    private static final long serialVersionUID = 4807151734921863201L;
+
+    private final int eventType;
+    private final String eventUserName;
+    private final long sequenceNumber;
+
+    /**
+     * Konstruktor
+     *
+     * @param eventType      PDU-Typ der bestaetigten Events
+     * @param eventUserName  Name des Clients, der die Events ausgeloest hat
+     * @param sequenceNumber Hoechste bestaetigte Sequenznummer
+     */
+    public CumulativeConfirm(int eventType, String eventUserName, long sequenceNumber) {
+        this.eventType = eventType;
+        this.eventUserName = eventUserName;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    public int getEventType() {
+        return eventType;
+    }
+
+    public String getEventUserName() {
+        return eventUserName;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    @Override
+    public String toString() {
+        return eventUserName + "/" + eventType + "/<=" + sequenceNumber;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.hm.dako.chat.common;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Ermitteln der maximalen Heap-Belegung eines Prozesses waehrend eines Testlaufs.
+ * <p>
+ * Ein Daemon-Thread liest die Heap-Belegung in einem festen Intervall und merkt sich das
+ * Maximum. Die Client-Threads muessen dafuer nicht bei jeder Nachricht Runtime.totalMemory()
+ * und Runtime.freeMemory() aufrufen.
+ */
+public class HeapUsageSampler implements Runnable {
+
+    private static Log log = LogFactory.getLog(HeapUsageSampler.class);
+
+    private final long intervalMillis;
+    private volatile long maxUsedHeap;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Konstruktor
+     *
+     * @param intervalMillis Abtastintervall in ms
+     */
+    public HeapUsageSampler(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Startet die Abtastung
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "HeapUsageSampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Beendet die Abtastung nach einer letzten Messung
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(intervalMillis * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        sample();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            sample();
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                log.debug("Heap-Abtastung beendet");
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Maximale bisher gemessene Heap-Belegung in Bytes
+     */
+    public long getMaxUsedHeap() {
+        return maxUsedHeap;
+    }
+
+    private void sample() {
+        Runtime r = Runtime.getRuntime();
+        long used = r.totalMemory() - r.freeMemory();
+        if (used > maxUsedHeap) {
+            maxUsedHeap = used;
+        }
+    }
+}
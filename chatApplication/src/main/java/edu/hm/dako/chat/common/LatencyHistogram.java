@@ -0,0 +1,160 @@
+package edu.hm.dako.chat.common;
+
+import java.util.Arrays;
+
+/**
+ * Log-lineares Histogramm fuer Latenzen in ns (nach dem Vorbild von HdrHistogram).
+ * <p>
+ * Werte unter 2^SUB_BUCKET_BITS werden exakt gezaehlt. Jede hoehere Zweierpotenz wird in
+ * SUB_BUCKET_COUNT / 2 gleich breite Teilbereiche zerlegt, der relative Fehler eines
+ * ausgegebenen Perzentils liegt damit unter 2 / SUB_BUCKET_COUNT (ca. 1,6 %). Das Zaehlerfeld
+ * wird einmal angelegt, das Erfassen eines Wertes erzeugt keine Objekte.
+ * <p>
+ * Die Klasse ist nicht threadsicher: Jeder Client-Thread fuehrt ein eigenes Histogramm, die
+ * Histogramme werden am Ende eines Laufs mit {@link #add(LatencyHistogram)} zusammengefuehrt.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+    // Zweierpotenzen oberhalb des exakten Bereichs bis einschliesslich 2^62
+    private static final int BUCKET_COUNT = 63 - SUB_BUCKET_BITS + 1;
+
+    private final long[] counts = new long[SUB_BUCKET_COUNT + BUCKET_COUNT * SUB_BUCKET_HALF];
+    private long totalCount;
+    private long minValue = Long.MAX_VALUE;
+    private long maxValue;
+
+    /**
+     * Erfasst einen Wert
+     *
+     * @param value Wert in ns, negative Werte werden als 0 erfasst
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        if (value < minValue) {
+            minValue = value;
+        }
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * Addiert die Werte eines anderen Histogramms zu diesem
+     *
+     * @param other Anderes Histogramm
+     */
+    public void add(LatencyHistogram other) {
+        if (other.totalCount == 0) {
+            return;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        minValue = Math.min(minValue, other.minValue);
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Setzt das Histogramm zurueck
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    /**
+     * Ermittelt den Wert, den der angegebene Anteil aller erfassten Werte nicht ueberschreitet
+     *
+     * @param percentile Perzentil in Prozent, z.B. 99.9
+     * @return Obergrenze des Teilbereichs, in dem das Perzentil liegt, hoechstens das Maximum;
+     *         0, wenn keine Werte erfasst wurden
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        long target = Math.max(1, (long) Math.ceil(p / 100.0 * totalCount));
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += counts[i];
+            if (sum >= target) {
+                return Math.min(highestValueAt(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * @return Anzahl erfasster Werte
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * @return Kleinster erfasster Wert, 0 wenn keine Werte erfasst wurden
+     */
+    public long getMinValue() {
+        return totalCount == 0 ? 0 : minValue;
+    }
+
+    /**
+     * @return Groesster erfasster Wert
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Liefert alle belegten Teilbereiche, z.B. zum Speichern des vollstaendigen Histogramms
+     *
+     * @return Je belegtem Teilbereich ein Paar aus Obergrenze in ns und Anzahl, aufsteigend
+     */
+    public long[][] getRecordedBuckets() {
+        int n = 0;
+        for (long count : counts) {
+            if (count > 0) {
+                n++;
+            }
+        }
+        long[][] buckets = new long[n][];
+        int j = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                buckets[j++] = new long[] {highestValueAt(i), counts[i]};
+            }
+        }
+        return buckets;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Die obersten SUB_BUCKET_BITS Bits des Wertes bestimmen den Teilbereich
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + subBucket;
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
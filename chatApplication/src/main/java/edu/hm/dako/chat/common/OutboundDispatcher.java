@@ -0,0 +1,229 @@
+package edu.hm.dako.chat.common;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.chat.connection.PduSender;
+
+/**
+ * Serverweite Verwaltung der Ausgangswarteschlangen aller Clients.
+ * <p>
+ * Enthaelt die Konfiguration (Kapazitaet, Ueberlaufpolitik), den Threadpool der Writer-Threads,
+ * die die Warteschlangen abarbeiten, und die ueber alle Warteschlangen summierten Messwerte.
+ * Nach dem Abbau der Senderichtung (siehe {@link OutboundQueue#shutdownOutput()}) schliesst ein
+ * Timer-Thread Verbindungen, die der Client nicht innerhalb von {@link #LINGER_TIME} ms abbaut.
+ * Je Warteschlange ist hoechstens ein Writer-Auftrag aktiv, die Reihenfolge der Nachrichten an
+ * einen Client bleibt damit erhalten.
+ * <p>
+ * Die Anzahl der Writer-Threads kann begrenzt werden, weitere Writer-Auftraege warten dann auf
+ * einen freien Thread (hoechstens einer je Warteschlange). Bei der Politik BLOCK bleibt der
+ * Threadpool unbegrenzt: Ein Worker, der auf Platz in einer Warteschlange wartet, liest keine
+ * Bestaetigungen seines Clients mehr, dessen Empfang stockt und der Writer-Thread fuer diesen
+ * Client blockiert beim Senden. Sind so alle Writer-Threads belegt, wird die Warteschlange, auf
+ * die der Worker wartet, nie mehr abgearbeitet.
+ */
+public class OutboundDispatcher {
+
+    private static Log log = LogFactory.getLog(OutboundDispatcher.class);
+
+    // Nachlaufzeit in ms nach dem Abbau der Senderichtung, danach wird die Verbindung geschlossen
+    public static final int LINGER_TIME = Integer.getInteger("edu.hm.dako.chat.outboundLingerTime", 5000);
+
+    private final int capacity;
+    private final OutboundQueue.OverflowPolicy policy;
+    private final int maxWriters;
+    private final ExecutorService writerExecutor;
+    // Schliesst Verbindungen nach Ablauf der Nachlaufzeit, der Thread startet erst bei Bedarf
+    private final ScheduledExecutorService lingerTimer;
+    private volatile OutboundQueue.Listener listener;
+
+    // Ueber alle Warteschlangen summierte Messwerte
+    private final AtomicLong numberOfEnqueued = new AtomicLong();
+    private final AtomicLong numberOfDropped = new AtomicLong();
+    private final AtomicLong numberOfDisconnects = new AtomicLong();
+    private final AtomicLong numberOfWrites = new AtomicLong();
+    private final AtomicLong writeTimeNanos = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Konstruktor mit unbegrenzter Anzahl Writer-Threads
+     *
+     * @param capacity Maximale Anzahl wartender Nachrichten je Client
+     * @param policy   Verhalten bei voller Warteschlange
+     */
+    public OutboundDispatcher(int capacity, OutboundQueue.OverflowPolicy policy) {
+        this(capacity, policy, 0);
+    }
+
+    /**
+     * Konstruktor
+     *
+     * @param capacity   Maximale Anzahl wartender Nachrichten je Client
+     * @param policy     Verhalten bei voller Warteschlange
+     * @param maxWriters Maximale Anzahl Writer-Threads, 0 oder weniger fuer unbegrenzt. Bei der
+     *                   Politik BLOCK wird nicht begrenzt.
+     */
+    public OutboundDispatcher(int capacity, OutboundQueue.OverflowPolicy policy, int maxWriters) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Kapazitaet der Ausgangswarteschlangen muss positiv sein: " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        if (maxWriters > 0 && policy != OutboundQueue.OverflowPolicy.BLOCK) {
+            this.maxWriters = maxWriters;
+            ThreadPoolExecutor writers = new ThreadPoolExecutor(maxWriters, maxWriters, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), VirtualThreads.newThreadFactory("OutboundWriter", true));
+            writers.allowCoreThreadTimeOut(true);
+            this.writerExecutor = writers;
+        } else {
+            this.maxWriters = 0;
+            this.writerExecutor = Executors.newCachedThreadPool(VirtualThreads.newThreadFactory("OutboundWriter", true));
+        }
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(VirtualThreads.newThreadFactory("OutboundLinger", true));
+        log.debug("Ausgangswarteschlangen mit Kapazitaet " + capacity + " und Ueberlaufpolitik " + policy
+                + ", Writer-Threads: " + (this.maxWriters > 0 ? "maximal " + this.maxWriters : "unbegrenzt"));
+    }
+
+    /**
+     * Legt die Ausgangswarteschlange fuer einen Client an
+     *
+     * @param userName   Name des Clients
+     * @param connection Verbindung zum Client
+     * @return Neue Warteschlange
+     */
+    public OutboundQueue createQueue(String userName, PduSender connection) {
+        return new OutboundQueue(userName, connection, this);
+    }
+
+    /**
+     * Setzt den Empfaenger fuer Meldungen ueber verworfene Nachrichten
+     *
+     * @param listener Listener
+     */
+    public void setListener(OutboundQueue.Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Beendet die Writer-Threads, Verbindungen in der Nachlaufzeit werden sofort geschlossen
+     */
+    public void shutdown() {
+        writerExecutor.shutdown();
+        for (Runnable pendingClose : lingerTimer.shutdownNow()) {
+            pendingClose.run();
+        }
+        log.debug(this);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OutboundQueue.OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return Maximale Anzahl Writer-Threads, 0 fuer unbegrenzt
+     */
+    public int getMaxWriters() {
+        return maxWriters;
+    }
+
+    void execute(Runnable drainTask) {
+        writerExecutor.execute(drainTask);
+    }
+
+    /**
+     * Schliesst die Verbindung einer Warteschlange nach Ablauf der Nachlaufzeit, falls sie bis
+     * dahin nicht ohnehin geschlossen wurde
+     *
+     * @param queue Warteschlange, deren Senderichtung abgebaut wurde
+     */
+    void closeAfterLinger(final OutboundQueue queue) {
+        Runnable closeTask = new Runnable() {
+            @Override
+            public void run() {
+                queue.close();
+            }
+        };
+        try {
+            lingerTimer.schedule(closeTask, LINGER_TIME, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Dispatcher ist bereits beendet
+            closeTask.run();
+        }
+    }
+
+    void enqueued(int count, int depth) {
+        numberOfEnqueued.addAndGet(count);
+        int max = maxDepth.get();
+        while (depth > max && !maxDepth.compareAndSet(max, depth)) {
+            max = maxDepth.get();
+        }
+    }
+
+    void written(long durationNanos) {
+        numberOfWrites.incrementAndGet();
+        writeTimeNanos.addAndGet(durationNanos);
+    }
+
+    void dropped(String recipient, ChatPDU pdu) {
+        numberOfDropped.incrementAndGet();
+        OutboundQueue.Listener l = listener;
+        if (l != null) {
+            l.messageDropped(recipient, pdu);
+        }
+    }
+
+    void disconnected(String recipient) {
+        numberOfDisconnects.incrementAndGet();
+        OutboundQueue.Listener l = listener;
+        if (l != null) {
+            l.recipientDisconnected(recipient);
+        }
+    }
+
+    public long getNumberOfEnqueued() {
+        return numberOfEnqueued.get();
+    }
+
+    public long getNumberOfDropped() {
+        return numberOfDropped.get();
+    }
+
+    public long getNumberOfDisconnects() {
+        return numberOfDisconnects.get();
+    }
+
+    public long getNumberOfWrites() {
+        return numberOfWrites.get();
+    }
+
+    public long getWriteTimeNanos() {
+        return writeTimeNanos.get();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        long writes = numberOfWrites.get();
+        return "Ausgangswarteschlangen (" + policy + ", Kapazitaet " + capacity + "): eingereiht "
+                + numberOfEnqueued.get() + ", gesendet " + writes + ", verworfen " + numberOfDropped.get()
+                + ", getrennte Clients " + numberOfDisconnects.get() + ", max. Tiefe " + maxDepth.get()
+                + ", mittlere Schreibzeit " + (writes == 0 ? 0 : writeTimeNanos.get() / writes) + " ns";
+    }
+}
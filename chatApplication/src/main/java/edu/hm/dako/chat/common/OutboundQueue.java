@@ -0,0 +1,443 @@
+package edu.hm.dako.chat.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduSender;
+
+/**
+ * Begrenzte Ausgangswarteschlange fuer einen angemeldeten Client.
+ * <p>
+ * Alle Nachrichten des Servers an einen Client werden hier eingereiht und von einem
+ * Writer-Thread des {@link OutboundDispatcher} in der Reihenfolge des Einreihens gesendet.
+ * Ein Worker, der ein Event an viele Clients verteilt, wartet damit nicht mehr auf das Senden
+ * an langsame Clients. Ist die Warteschlange voll, greift die eingestellte
+ * {@link OverflowPolicy}. Bei DROP_OLDEST werden nur Chat-Events verworfen, Responses und
+ * Login-/Logout-Events duerfen nicht verloren gehen. Enthaelt eine volle Warteschlange kein
+ * Chat-Event mehr, wird der Client wie bei DISCONNECT getrennt, die Kapazitaet wird also
+ * auch dann nicht ueberschritten.
+ * <p>
+ * Die Sperre ist eine {@link ReentrantLock}, da bei der Politik BLOCK unter der Sperre gewartet
+ * wird und ein virtueller Thread dabei seinen Traeger-Thread freigeben soll.
+ */
+public class OutboundQueue {
+
+    private static Log log = LogFactory.getLog(OutboundQueue.class);
+
+    /**
+     * Verhalten bei voller Warteschlange
+     */
+    public enum OverflowPolicy {
+        BLOCK,       // Einreihender Thread wartet, bis wieder Platz ist
+        DROP_OLDEST, // Aelteste Chat-Event-PDU wird verworfen, ohne Chat-Event wie DISCONNECT
+        DISCONNECT   // Client wird getrennt, alle wartenden Nachrichten werden verworfen
+    }
+
+    /**
+     * Wird informiert, wenn Nachrichten nicht zugestellt werden
+     */
+    public interface Listener {
+
+        /**
+         * Eine Nachricht an einen Client wurde verworfen
+         *
+         * @param recipient Name des Empfaengers
+         * @param pdu       Verworfene Nachricht
+         */
+        void messageDropped(String recipient, ChatPDU pdu);
+
+        /**
+         * Ein Client wurde wegen Ueberlauf seiner Warteschlange getrennt
+         *
+         * @param recipient Name des Empfaengers
+         */
+        void recipientDisconnected(String recipient);
+    }
+
+    // Threads, die beim Einreihen nie warten duerfen (z.B. Event-Loops des NIO-Servers)
+    private static final ThreadLocal<Boolean> nonBlockingThread = new ThreadLocal<Boolean>();
+
+    private final String userName;
+    private final PduSender connection;
+    private final OutboundDispatcher dispatcher;
+
+    // Sperre fuer Warteschlange, Zustand und Messwerte
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalisiert wartenden Einreihern freien Platz oder das Schliessen
+    private final Condition spaceAvailable = lock.newCondition();
+
+    // Wartende Nachrichten, Zugriff nur unter lock
+    private final LinkedList<EncodedPdu> queue = new LinkedList<EncodedPdu>();
+    private boolean scheduled = false;     // Writer-Auftrag ist eingeplant oder laeuft
+    private boolean closeRequested = false; // Verbindung nach dem Senden aller Nachrichten schliessen
+    private boolean shutdownRequested = false; // Senderichtung nach dem Senden aller Nachrichten abbauen
+    private boolean closed = false;
+
+    // Messwerte
+    private int maxDepth = 0;
+    private long numberOfEnqueued = 0;
+    private long numberOfDropped = 0;
+    private long numberOfWrites = 0;
+    private long writeTimeNanos = 0;
+    private long blockedTimeNanos = 0;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    OutboundQueue(String userName, PduSender connection, OutboundDispatcher dispatcher) {
+        this.userName = userName;
+        this.connection = connection;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Kennzeichnet den aktuellen Thread als nicht blockierend: Bei der Politik BLOCK wird eine
+     * Nachricht dann auch bei voller Warteschlange eingereiht, anstatt zu warten.
+     */
+    public static void markNonBlockingThread() {
+        nonBlockingThread.set(Boolean.TRUE);
+    }
+
+    /**
+     * Reiht eine Nachricht zum Senden ein
+     *
+     * @param pdu Zu sendende Nachricht
+     */
+    public void send(ChatPDU pdu) {
+        send(new EncodedPdu(pdu));
+    }
+
+    /**
+     * Reiht eine bereits (ggf. fuer mehrere Empfaenger) codierte Nachricht zum Senden ein
+     *
+     * @param pdu Zu sendende Nachricht
+     */
+    public void send(EncodedPdu pdu) {
+        send(pdu, true);
+    }
+
+    /**
+     * Reiht eine Nachricht ein, ohne bei der Politik BLOCK auf freien Platz zu warten. Fuer
+     * Aufrufer, die dabei eine gemeinsame Sperre halten: Ein einzelner Client mit voller
+     * Warteschlange darf sie nicht fuer alle anderen blockieren.
+     *
+     * @param pdu Zu sendende Nachricht
+     */
+    public void sendWithoutBlocking(EncodedPdu pdu) {
+        send(pdu, false);
+    }
+
+    private void send(EncodedPdu pdu, boolean mayBlock) {
+        List<EncodedPdu> dropped = null;
+        boolean disconnect = false;
+        boolean schedule = false;
+
+        lock.lock();
+        try {
+            if (closed || closeRequested || shutdownRequested) {
+                log.debug("Nachricht an " + userName + " verworfen, Warteschlange ist geschlossen");
+                return;
+            }
+            if (queue.size() >= dispatcher.getCapacity()) {
+                switch (dispatcher.getPolicy()) {
+                    case BLOCK:
+                        if (mayBlock && nonBlockingThread.get() == null) {
+                            long waitStart = System.nanoTime();
+                            try {
+                                while (queue.size() >= dispatcher.getCapacity() && !closed) {
+                                    spaceAvailable.await();
+                                }
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                log.debug("Warten auf Platz in der Warteschlange von " + userName + " unterbrochen");
+                                return;
+                            } finally {
+                                blockedTimeNanos += System.nanoTime() - waitStart;
+                            }
+                            if (closed) {
+                                return;
+                            }
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        EncodedPdu oldest = removeOldestDroppable();
+                        if (oldest != null) {
+                            dropped = new ArrayList<EncodedPdu>(1);
+                            dropped.add(oldest);
+                            break;
+                        }
+                        // Nur Responses und Login-/Logout-Events eingereiht, die nicht verloren
+                        // gehen duerfen: Client wird wie bei DISCONNECT getrennt
+                        log.debug("Warteschlange von " + userName + " enthaelt kein verwerfbares Chat-Event");
+                        // Weiter wie bei DISCONNECT
+                    case DISCONNECT:
+                        dropped = new ArrayList<EncodedPdu>(queue);
+                        dropped.add(pdu);
+                        queue.clear();
+                        closed = true;
+                        disconnect = true;
+                        spaceAvailable.signalAll();
+                        break;
+                }
+            }
+            if (!disconnect) {
+                queue.add(pdu);
+                numberOfEnqueued++;
+                if (queue.size() > maxDepth) {
+                    maxDepth = queue.size();
+                }
+                if (!scheduled) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            }
+            if (dropped != null) {
+                numberOfDropped += dropped.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Benachrichtigungen ausserhalb der Sperre, da dabei weitere Nachrichten eingereiht werden
+        dispatcher.enqueued(disconnect ? 0 : 1, depth());
+        if (schedule) {
+            dispatcher.execute(drainTask);
+        }
+        if (dropped != null) {
+            for (EncodedPdu d : dropped) {
+                dispatcher.dropped(userName, (ChatPDU) d.getMessage());
+            }
+        }
+        if (disconnect) {
+            log.debug("Warteschlange von " + userName + " uebergelaufen, Client wird getrennt");
+            closeConnection();
+            dispatcher.disconnected(userName);
+        }
+    }
+
+    /**
+     * Entfernt die aelteste Chat-Event-PDU aus der Warteschlange
+     *
+     * @return Entfernte Nachricht oder null, falls keine verworfen werden darf
+     */
+    private EncodedPdu removeOldestDroppable() {
+        Iterator<EncodedPdu> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            EncodedPdu candidate = iterator.next();
+            if (((ChatPDU) candidate.getMessage()).getPduType() == ChatPDU.CHAT_MESSAGE_EVENT) {
+                iterator.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sendet alle eingereihten Nachrichten, laeuft in einem Writer-Thread
+     */
+    private void drain() {
+        boolean closeAfterDrain = false;
+        boolean shutdownAfterDrain = false;
+        while (true) {
+            EncodedPdu next;
+            lock.lock();
+            try {
+                next = queue.poll();
+                if (next == null) {
+                    scheduled = false;
+                    if (closeRequested && !closed) {
+                        closed = true;
+                        closeAfterDrain = true;
+                    } else if (shutdownRequested && !closed) {
+                        shutdownAfterDrain = true;
+                    }
+                    break;
+                }
+                // Wartende Einreiher informieren, dass wieder Platz ist
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            try {
+                connection.sendEncoded(next);
+            } catch (Exception e) {
+                log.debug("Senden an " + userName + " nicht moeglich: " + e.getMessage());
+            }
+            long duration = System.nanoTime() - start;
+            lock.lock();
+            try {
+                numberOfWrites++;
+                writeTimeNanos += duration;
+            } finally {
+                lock.unlock();
+            }
+            dispatcher.written(duration);
+        }
+
+        if (closeAfterDrain) {
+            closeConnection();
+        } else if (shutdownAfterDrain) {
+            shutdownConnectionOutput();
+        }
+    }
+
+    /**
+     * Baut die Senderichtung der Verbindung ab, sobald alle eingereihten Nachrichten gesendet
+     * sind, weitere Nachrichten werden verworfen. Der Client erhaelt nach der letzten Nachricht
+     * das Verbindungsende und kann noch ausstehende Nachrichten senden, bevor er die Verbindung
+     * abbaut. Tut er das nicht, wird sie nach {@link OutboundDispatcher#LINGER_TIME} ms
+     * geschlossen.
+     */
+    public void shutdownOutput() {
+        boolean shutdownNow = false;
+        lock.lock();
+        try {
+            if (closed || closeRequested || shutdownRequested) {
+                return;
+            }
+            shutdownRequested = true;
+            if (!scheduled) {
+                shutdownNow = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (shutdownNow) {
+            shutdownConnectionOutput();
+        }
+    }
+
+    /**
+     * Schliesst die Verbindung, sobald alle eingereihten Nachrichten gesendet sind
+     */
+    public void close() {
+        boolean closeNow = false;
+        lock.lock();
+        try {
+            if (closed || closeRequested) {
+                return;
+            }
+            closeRequested = true;
+            if (!scheduled) {
+                closed = true;
+                closeNow = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (closeNow) {
+            closeConnection();
+        }
+    }
+
+    private void shutdownConnectionOutput() {
+        try {
+            connection.shutdownOutput();
+        } catch (Exception e) {
+            log.debug("Abbau der Senderichtung zu " + userName + " nicht moeglich: " + e.getMessage());
+        }
+        dispatcher.closeAfterLinger(this);
+    }
+
+    private void closeConnection() {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            ExceptionHandler.logException(e);
+        }
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxDepth() {
+        lock.lock();
+        try {
+            return maxDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getNumberOfEnqueued() {
+        lock.lock();
+        try {
+            return numberOfEnqueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getNumberOfDropped() {
+        lock.lock();
+        try {
+            return numberOfDropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getNumberOfWrites() {
+        lock.lock();
+        try {
+            return numberOfWrites;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWriteTimeNanos() {
+        lock.lock();
+        try {
+            return writeTimeNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBlockedTimeNanos() {
+        lock.lock();
+        try {
+            return blockedTimeNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "OutboundQueue " + userName + ": Tiefe " + queue.size() + ", max. Tiefe " + maxDepth
+                    + ", eingereiht " + numberOfEnqueued + ", verworfen " + numberOfDropped
+                    + ", gesendet " + numberOfWrites + ", Schreibzeit " + writeTimeNanos + " ns"
+                    + ", Wartezeit " + blockedTimeNanos + " ns";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
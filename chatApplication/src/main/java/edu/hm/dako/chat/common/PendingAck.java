@@ -0,0 +1,132 @@
+package edu.hm.dako.chat.common;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ausstehende Bestaetigungen fuer ein einzelnes Event eines Clients.
+ * <p>
+ * Ein Event ist eindeutig durch den ausloesenden Client, den Event-Typ und die Sequenznummer
+ * bestimmt. Die Menge der Empfaenger, die noch nicht bestaetigt haben, wird zusammen mit einem
+ * Zaehler gefuehrt: Genau der Aufruf, der den Zaehler auf 0 bringt, erfaehrt davon, dass das
+ * Event vollstaendig bestaetigt ist.
+ */
+public final class PendingAck {
+
+    private final String sender;
+    private final int eventType;
+    private final long sequenceNumber;
+
+    private final Set<String> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger remaining = new AtomicInteger();
+
+    PendingAck(String sender, int eventType, long sequenceNumber) {
+        this.sender = sender;
+        this.eventType = eventType;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Traegt einen Empfaenger ein, der das Event bestaetigen muss
+     *
+     * @param recipient Name des Empfaengers
+     * @return true, wenn der Empfaenger neu eingetragen wurde
+     */
+    boolean addRecipient(String recipient) {
+        if (outstanding.add(recipient)) {
+            remaining.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Traegt die Bestaetigung eines Empfaengers aus
+     *
+     * @param recipient Name des Empfaengers
+     * @return true, wenn genau dieser Aufruf die letzte ausstehende Bestaetigung ausgetragen hat
+     */
+    boolean confirm(String recipient) {
+        if (outstanding.remove(recipient)) {
+            return remaining.decrementAndGet() == 0;
+        }
+        return false;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public int getEventType() {
+        return eventType;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return Anzahl der noch ausstehenden Bestaetigungen
+     */
+    public int getRemaining() {
+        return remaining.get();
+    }
+
+    /**
+     * @return Kopie der Empfaenger, die das Event noch bestaetigen muessen
+     */
+    Set<String> getOutstanding() {
+        return new HashSet<String>(outstanding);
+    }
+
+    /**
+     * @return true, wenn der Empfaenger das Event noch bestaetigen muss
+     */
+    public boolean isOutstanding(String recipient) {
+        return outstanding.contains(recipient);
+    }
+
+    @Override
+    public String toString() {
+        return "PendingAck " + sender + "/" + eventType + "/" + sequenceNumber + ": " + outstanding;
+    }
+
+    /**
+     * Schluessel eines Events: ausloesender Client, Event-Typ und Sequenznummer
+     */
+    static final class Key {
+        private final String sender;
+        private final int eventType;
+        private final long sequenceNumber;
+
+        Key(String sender, int eventType, long sequenceNumber) {
+            this.sender = sender;
+            this.eventType = eventType;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return eventType == other.eventType && sequenceNumber == other.sequenceNumber
+                    && sender.equals(other.sender);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = sender.hashCode();
+            result = 31 * result + eventType;
+            result = 31 * result + (int) (sequenceNumber ^ (sequenceNumber >>> 32));
+            return result;
+        }
+    }
+}
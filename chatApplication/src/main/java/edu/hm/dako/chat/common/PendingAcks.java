@@ -0,0 +1,305 @@
+package edu.hm.dako.chat.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Verwaltung aller ausstehenden Event-Bestaetigungen im Server.
+ * <p>
+ * Je Event wird ein {@link PendingAck} gefuehrt, Schluessel ist (ausloesender Client, Event-Typ,
+ * Sequenznummer). Damit lassen sich mehrere ausstehende Nachrichten desselben Clients
+ * unterscheiden. Zusaetzlich wird je Client ein Rueckwaertsindex auf die Events gefuehrt, die er
+ * noch bestaetigen muss, und einer auf die Events, die er selbst ausgeloest hat. Eine
+ * Bestaetigung kostet damit O(1), die Pruefung beim Logout O(1) und das zwangsweise Entfernen
+ * eines Clients O(Anzahl der von ihm geschuldeten Bestaetigungen), unabhaengig von der Anzahl
+ * der angemeldeten Clients. Eine kumulative Bestaetigung mehrerer Events kostet einen Durchlauf
+ * ueber die vom bestaetigenden Client geschuldeten Events.
+ * <p>
+ * Muss ein Client kein Event mehr bestaetigen, wird der {@link Listener} informiert. Darauf
+ * bauen Logout und Abbau einer Session auf, anstatt die Wartelisten periodisch zu pruefen.
+ */
+public class PendingAcks {
+
+    private static Log log = LogFactory.getLog(PendingAcks.class);
+
+    /**
+     * Wird informiert, wenn ein Client keine Bestaetigungen mehr schuldet
+     */
+    public interface Listener {
+
+        /**
+         * Der Client muss kein Event mehr bestaetigen. Wird im Thread aufgerufen, der die letzte
+         * Bestaetigung ausgetragen hat, ggf. auch mehrfach.
+         *
+         * @param recipient Name des Clients
+         */
+        void recipientReleased(String recipient);
+    }
+
+    private final Listener listener;
+
+    private final ConcurrentHashMap<PendingAck.Key, PendingAck> acks =
+            new ConcurrentHashMap<PendingAck.Key, PendingAck>();
+
+    // Ausgeloeste Events je Client
+    private final ConcurrentHashMap<String, Set<PendingAck>> bySender =
+            new ConcurrentHashMap<String, Set<PendingAck>>();
+
+    // Noch zu bestaetigende Events je Client (Rueckwaertsindex)
+    private final ConcurrentHashMap<String, Set<PendingAck>> owedBy =
+            new ConcurrentHashMap<String, Set<PendingAck>>();
+
+    /**
+     * Konstruktor
+     *
+     * @param listener Empfaenger der Meldungen ueber freigegebene Clients
+     */
+    public PendingAcks(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Legt die ausstehenden Bestaetigungen fuer ein Event an. Ist das Event bereits vorhanden,
+     * werden die Empfaenger ergaenzt.
+     *
+     * @param sender         Ausloesender Client
+     * @param eventType      PDU-Typ des Events
+     * @param sequenceNumber Sequenznummer des Events
+     * @param recipients     Empfaenger, die das Event bestaetigen muessen
+     * @return Ausstehende Bestaetigungen des Events
+     */
+    public PendingAck register(String sender, int eventType, long sequenceNumber, Collection<String> recipients) {
+        PendingAck.Key key = new PendingAck.Key(sender, eventType, sequenceNumber);
+        PendingAck ack = new PendingAck(sender, eventType, sequenceNumber);
+        PendingAck existing = acks.putIfAbsent(key, ack);
+        if (existing != null) {
+            log.debug("Event " + existing + " bereits vorhanden, Empfaenger werden ergaenzt");
+            ack = existing;
+        }
+        addToIndex(bySender, sender, ack);
+        for (String recipient : recipients) {
+            if (ack.addRecipient(recipient)) {
+                addToIndex(owedBy, recipient, ack);
+            }
+        }
+        return ack;
+    }
+
+    /**
+     * Traegt die Bestaetigung eines Empfaengers fuer ein Event aus
+     *
+     * @param sender         Ausloesender Client
+     * @param eventType      PDU-Typ des Events
+     * @param sequenceNumber Sequenznummer des Events
+     * @param recipient      Bestaetigender Client
+     * @return Das Event, wenn genau dieser Aufruf die letzte Bestaetigung ausgetragen hat, sonst null
+     */
+    public PendingAck confirm(String sender, int eventType, long sequenceNumber, String recipient) {
+        PendingAck ack = acks.get(new PendingAck.Key(sender, eventType, sequenceNumber));
+        if (ack == null) {
+            log.debug("Bestaetigung von " + recipient + " fuer unbekanntes Event " + sender + "/"
+                    + eventType + "/" + sequenceNumber);
+            return null;
+        }
+        boolean last = ack.confirm(recipient);
+        if (last) {
+            complete(ack);
+        }
+        removeFromIndex(owedBy, recipient, ack);
+        return last ? ack : null;
+    }
+
+    /**
+     * Traegt kumulative Bestaetigungen eines Empfaengers aus. Eine {@link CumulativeConfirm}
+     * bestaetigt alle Events ihres Typs und ausloesenden Clients bis einschliesslich ihrer
+     * Sequenznummer.
+     *
+     * @param recipient Bestaetigender Client
+     * @param confirms  Kumulative Bestaetigungen
+     * @param completed Hier werden die Events eingetragen, deren letzte Bestaetigung dieser
+     *                  Aufruf ausgetragen hat
+     * @return Alle durch diesen Aufruf bestaetigten Events
+     */
+    public List<PendingAck> confirm(String recipient, Collection<CumulativeConfirm> confirms,
+                                    List<PendingAck> completed) {
+        Set<PendingAck> owed = owedBy.get(recipient);
+        if (owed == null || confirms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Hoechste bestaetigte Sequenznummer je ausloesendem Client und Event-Typ
+        Map<PendingAck.Key, Long> upTo = new HashMap<PendingAck.Key, Long>();
+        for (CumulativeConfirm confirm : confirms) {
+            PendingAck.Key key = new PendingAck.Key(confirm.getEventUserName(), confirm.getEventType(), 0);
+            Long seq = upTo.get(key);
+            if (seq == null || seq < confirm.getSequenceNumber()) {
+                upTo.put(key, confirm.getSequenceNumber());
+            }
+        }
+        List<PendingAck> confirmed = new ArrayList<PendingAck>();
+        for (PendingAck ack : owed) {
+            Long seq = upTo.get(new PendingAck.Key(ack.getSender(), ack.getEventType(), 0));
+            if (seq == null || ack.getSequenceNumber() > seq || !ack.isOutstanding(recipient)) {
+                continue;
+            }
+            if (ack.confirm(recipient)) {
+                complete(ack);
+                completed.add(ack);
+            }
+            confirmed.add(ack);
+        }
+        for (PendingAck ack : confirmed) {
+            removeFromIndex(owedBy, recipient, ack);
+        }
+        return confirmed;
+    }
+
+    /**
+     * @param recipient Name des Clients
+     * @return true, wenn der Client noch mindestens ein Event bestaetigen muss
+     */
+    public boolean owesConfirms(String recipient) {
+        Set<PendingAck> owed = owedBy.get(recipient);
+        return owed != null && !owed.isEmpty();
+    }
+
+    /**
+     * @param recipient Name des Clients
+     * @return Anzahl der Events, die der Client noch bestaetigen muss
+     */
+    public int getNumberOfOwedConfirms(String recipient) {
+        Set<PendingAck> owed = owedBy.get(recipient);
+        return owed == null ? 0 : owed.size();
+    }
+
+    /**
+     * @param sender Name des Clients
+     * @return Summe der noch ausstehenden Bestaetigungen aller Events des Clients
+     */
+    public int getNumberOfPendingConfirms(String sender) {
+        Set<PendingAck> sent = bySender.get(sender);
+        if (sent == null) {
+            return 0;
+        }
+        int sum = 0;
+        for (PendingAck ack : sent) {
+            sum += ack.getRemaining();
+        }
+        return sum;
+    }
+
+    /**
+     * Entfernt einen Client als Empfaenger aus allen Events, die er noch bestaetigen muss
+     *
+     * @param recipient Name des Clients
+     * @return Events, die dadurch vollstaendig bestaetigt sind
+     */
+    public List<PendingAck> removeRecipient(String recipient) {
+        Set<PendingAck> owed = owedBy.remove(recipient);
+        if (owed == null) {
+            return Collections.emptyList();
+        }
+        List<PendingAck> completed = new ArrayList<PendingAck>();
+        for (PendingAck ack : owed) {
+            if (ack.confirm(recipient)) {
+                complete(ack);
+                completed.add(ack);
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Verwirft alle Events, die ein Client ausgeloest hat
+     *
+     * @param sender Name des Clients
+     */
+    public void removeSender(String sender) {
+        Set<PendingAck> sent = bySender.remove(sender);
+        if (sent == null) {
+            return;
+        }
+        for (PendingAck ack : sent) {
+            acks.remove(new PendingAck.Key(ack.getSender(), ack.getEventType(), ack.getSequenceNumber()), ack);
+            // Empfaenger muessen das Event nicht mehr bestaetigen
+            for (String recipient : ack.getOutstanding()) {
+                if (ack.confirm(recipient)) {
+                    log.debug("Event " + ack.getSender() + "/" + ack.getEventType() + "/"
+                            + ack.getSequenceNumber() + " verworfen");
+                }
+                removeFromIndex(owedBy, recipient, ack);
+            }
+        }
+    }
+
+    /**
+     * Verwirft alle ausstehenden Bestaetigungen
+     */
+    public void clear() {
+        acks.clear();
+        bySender.clear();
+        owedBy.clear();
+    }
+
+    /**
+     * @param sender Name des Clients
+     * @return Lesbare Darstellung der ausstehenden Events des Clients
+     */
+    public String describe(String sender) {
+        Set<PendingAck> sent = bySender.get(sender);
+        return sent == null ? "[]" : sent.toString();
+    }
+
+    private void complete(PendingAck ack) {
+        acks.remove(new PendingAck.Key(ack.getSender(), ack.getEventType(), ack.getSequenceNumber()), ack);
+        removeFromIndex(bySender, ack.getSender(), ack);
+    }
+
+    /**
+     * Traegt ein Event in den Index eines Clients ein. Eintragen und Entfernen laufen atomar
+     * je Client, ein leerer Index kann daher nicht entfernt werden, waehrend ein Event
+     * eingetragen wird.
+     */
+    private static void addToIndex(ConcurrentHashMap<String, Set<PendingAck>> index, String name,
+                                   final PendingAck ack) {
+        index.compute(name, new BiFunction<String, Set<PendingAck>, Set<PendingAck>>() {
+            @Override
+            public Set<PendingAck> apply(String key, Set<PendingAck> set) {
+                if (set == null) {
+                    set = Collections.newSetFromMap(new ConcurrentHashMap<PendingAck, Boolean>());
+                }
+                set.add(ack);
+                return set;
+            }
+        });
+    }
+
+    /**
+     * Entfernt ein Event aus dem Index eines Clients, ein leer gewordener Index wird entfernt
+     */
+    private void removeFromIndex(ConcurrentHashMap<String, Set<PendingAck>> index, String name,
+                                 final PendingAck ack) {
+        final boolean[] emptied = new boolean[1];
+        index.computeIfPresent(name, new BiFunction<String, Set<PendingAck>, Set<PendingAck>>() {
+            @Override
+            public Set<PendingAck> apply(String key, Set<PendingAck> set) {
+                if (set.remove(ack) && set.isEmpty()) {
+                    emptied[0] = true;
+                }
+                return set.isEmpty() ? null : set;
+            }
+        });
+        if (emptied[0] && index == owedBy && listener != null) {
+            listener.recipientReleased(name);
+        }
+    }
+}
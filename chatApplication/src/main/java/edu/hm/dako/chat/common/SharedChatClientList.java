@@ -3,9 +3,16 @@ package edu.hm.dako.chat.common;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import edu.hm.dako.chat.connection.EncodedPdu;
+
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Liste aller angemeldeten Clients. Diese Liste wird im Server als Singleton verwaltet
@@ -16,6 +23,48 @@ import java.util.concurrent.ConcurrentHashMap;
  * Genereller Hinweis: Zur Umgehung von ConcurrentModificationExceptions wird bei der Iteration durch
  * Listen generell eine Kopie der Liste angelegt.
  *
+ * Sperren: Lesende Zugriffe, Zaehler, Status und das Bestaetigen von Events arbeiten ohne Sperre
+ * direkt auf den threadsicheren Eintraegen (siehe {@link ChatClientListEntry}), damit die
+ * Bearbeitung von Bestaetigungen mit der Anzahl der Worker skaliert. Operationen, die die Menge
+ * der Clients veraendern (Anlegen, Loeschen, Raumwechsel), sind ueber eine gemeinsame Sperre
+ * serialisiert. Das Erzeugen einer Warteliste, also jede Chat-Nachricht, nimmt nur die Sperre
+ * des Raums, in dem sich der ausloesende Client befindet. Unter derselben Sperre wird ein Client
+ * aus seinem Raum entfernt, damit kein Client geloescht wird, waehrend er gerade in eine neue
+ * Warteliste eingetragen wird. Reihenfolge: erst die gemeinsame Sperre, dann Raumsperren, zwei
+ * Raumsperren in der Reihenfolge der Raumnamen. Die Sperren sind ReentrantLocks, damit virtuelle
+ * Worker-Threads (siehe {@link VirtualThreads}) beim Warten ihren Traeger-Thread freigeben.
+ *
+ * Die Wartelisten werden je Event (ausloesender Client, Event-Typ, Sequenznummer) in
+ * {@link PendingAcks} gefuehrt und nicht mehr als eine Namensliste je Client.
+ *
+ * Chat-Raeume: Jeder Client ist in genau einem Raum, nach dem Login im Standardraum
+ * {@link ChatPDU#DEFAULT_ROOM}. Events eines Clients gehen nur an die Mitglieder seines Raums,
+ * und nur diese werden in die Warteliste eingetragen. Der Aufwand je Chat-Nachricht waechst
+ * damit mit der Groesse des Raums, nicht mit der Anzahl angemeldeter Clients. Die
+ * Mitgliederlisten werden unter der gemeinsamen Sperre und der Sperre des Raums veraendert.
+ *
+ * Cluster: Laufen mehrere Serverknoten (siehe {@link edu.hm.dako.chat.cluster.ClusterNode}),
+ * enthaelt die Liste zusaetzlich je verbundenem Knoten einen Eintrag fuer die Verbindung
+ * (Relay, Name "@Knoten") und je Client eines anderen Knotens einen Stellvertreter, dessen
+ * Ausgangswarteschlange die des Relays ist. Events lokaler Clients werden ausser an die
+ * Mitglieder des Raums auch an alle Relays gesendet, ein Relay steht wie ein Client in der
+ * Warteliste und bestaetigt das Event einmal fuer alle Clients seines Knotens. Events von
+ * Stellvertretern gehen nur an die lokalen Mitglieder des Raums. Stellvertreter sind nicht in
+ * den Mitgliederlisten der Raeume enthalten, sondern in eigenen Listen, die nur fuer die
+ * angezeigten Userlisten verwendet werden.
+ *
+ * Userlisten: Ein Client erhaelt die vollstaendige Userliste seines Raums nur beim Login, beim
+ * Raumwechsel und auf Anforderung, danach mit jedem Login-, Logout- und Raum-Event nur den
+ * hinzugekommenen bzw. entfernten User. Jede Aenderung erhoeht die Version der Userliste des
+ * Raums. Versionen werden unter der Sperre des Raums vergeben und in derselben Operation in die
+ * Ausgangswarteschlangen eingereiht, jeder Client erhaelt die Aenderungen eines Raums also in
+ * der Reihenfolge ihrer Versionen und kann an einer Luecke erkennen, dass er eine Aenderung
+ * verpasst hat (z.B. nach einem Verlust bei UDP), und die Liste neu anfordern. Unter der Sperre
+ * wird nicht auf freien Platz in einer Ausgangswarteschlange gewartet, ein Client mit voller
+ * Warteschlange haelt so keine anderen Raeume und keine Worker auf. Wird ein Raum leer, werden
+ * Version und Sperre des Raums entfernt. Ein wieder belegter Raum beginnt mit Version 1, seine
+ * Mitglieder erhalten beim Betreten ohnehin die vollstaendige Liste.
+ *
  * @author mandl
  *
  */
@@ -25,6 +74,23 @@ public class SharedChatClientList {
 	 private static ConcurrentHashMap<String, ChatClientListEntry> clients;  // Liste aller eingeloggten Clients	
 	 //private static HashMap<String, ChatClientListEntry> clients;  // Liste aller eingeloggten Clients		
 	 private static SharedChatClientList instance;
+	 private static PendingAcks pendingAcks;  // Ausstehende Event-Bestaetigungen aller Clients
+	 // Aufrufe, die ausgefuehrt werden, sobald ein Client kein Event mehr bestaetigen muss
+	 private static ConcurrentHashMap<String, Runnable> releaseCallbacks;
+	 // Mitglieder je Chat-Raum, leere Raeume werden mit Userlisten-Version und Sperre entfernt
+	 private static ConcurrentHashMap<String, Set<String>> rooms;
+	 // Stellvertreter der Clients anderer Serverknoten je Chat-Raum
+	 private static ConcurrentHashMap<String, Set<String>> remoteRooms;
+	 // Verbindungen zu anderen Serverknoten (Relays)
+	 private static Set<String> relays;
+	 // Version der Userliste je Chat-Raum, wird mit jeder versendeten Aenderung erhoeht
+	 private static ConcurrentHashMap<String, Long> listVersions;
+	 // Sperre fuer Operationen, die die Menge der Clients veraendern
+	 private final ReentrantLock registryLock = new ReentrantLock();
+	 // Sperren je Chat-Raum fuer Wartelisten, Mitgliederlisten und das Versenden von Userlisten,
+	 // nur ueber lockRoom/unlockRoom zu verwenden
+	 private final ConcurrentHashMap<String, ReentrantLock> roomLocks =
+			 new ConcurrentHashMap<String, ReentrantLock>();
 	    
 	 private SharedChatClientList() {}
 	
@@ -37,6 +103,17 @@ public class SharedChatClientList {
 	         SharedChatClientList.instance = new SharedChatClientList();
 	  		 // Clientliste nur einmal erzeugen
 	         clients = new ConcurrentHashMap<String, ChatClientListEntry>();
+	         releaseCallbacks = new ConcurrentHashMap<String, Runnable>();
+	         rooms = new ConcurrentHashMap<String, Set<String>>();
+	         remoteRooms = new ConcurrentHashMap<String, Set<String>>();
+	         relays = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	         listVersions = new ConcurrentHashMap<String, Long>();
+	         pendingAcks = new PendingAcks(new PendingAcks.Listener() {
+	        	 @Override
+	        	 public void recipientReleased(String recipient) {
+	        		 SharedChatClientList.instance.runReleaseCallback(recipient);
+	        	 }
+	         });
 	    }
 	    return SharedChatClientList.instance;	        
 	}
@@ -46,6 +123,13 @@ public class SharedChatClientList {
 	 */	
 	public void deleteAll() {
 		 clients.clear();
+		 rooms.clear();
+		 remoteRooms.clear();
+		 relays.clear();
+		 listVersions.clear();
+		 roomLocks.clear();
+		 pendingAcks.clear();
+		 releaseCallbacks.clear();
 	}
 	
 	/**
@@ -54,12 +138,13 @@ public class SharedChatClientList {
 	 * @param userName Name des Users (Clients)
 	 * @param newStatus Neuer Status 
 	 */
-	public synchronized void changeClientStatus(String userName, ChatClientConversationStatus newStatus) {
+	public void changeClientStatus(String userName, ChatClientConversationStatus newStatus) {
 		
         ChatClientListEntry client = clients.get(userName);
-      	client.setStatus(newStatus);
-        clients.replace(userName, client);
-        log.debug("User " + userName + " nun in Status: " + newStatus);
+        if (client != null) {
+        	client.setStatus(newStatus);
+        	log.debug("User " + userName + " nun in Status: " + newStatus);
+        }
     }
 	
 	/**
@@ -68,7 +153,7 @@ public class SharedChatClientList {
 	 * @param userName Name des Users (Clients)
 	 * @return Conversation-Status des Clients
 	 */
-	public synchronized ChatClientConversationStatus getClientStatus(String userName) {
+	public ChatClientConversationStatus getClientStatus(String userName) {
 		
 		ChatClientListEntry client = clients.get(userName);
 		if (client != null) {
@@ -84,7 +169,7 @@ public class SharedChatClientList {
 	 * @param userName Name des Clients
 	 * @return Referenz auf den gesuchten Client
 	 */
-	public synchronized ChatClientListEntry getClient(String userName) {
+	public ChatClientListEntry getClient(String userName) {
 		
 		return clients.get(userName);
 	}
@@ -94,7 +179,7 @@ public class SharedChatClientList {
 	 * 
 	 * @return Vektor mit allen Namen der eingetragenen Clients
 	 */
-	public synchronized Vector<String> getClientNameList() {		
+	public Vector<String> getClientNameList() {		
 
 		Vector<String> clientNameList = new Vector<String>();
 		for (String s : new HashSet<String>(clients.keySet())) {
@@ -109,7 +194,7 @@ public class SharedChatClientList {
 	 * @param userName Name des Clients
 	 * @return
 	 */
-	public synchronized boolean existsClient(String userName) {
+	public boolean existsClient(String userName) {
 	
 		if (userName != null) {
 			if (! clients.containsKey(userName)) {
@@ -124,15 +209,130 @@ public class SharedChatClientList {
 	}
     	 
 	/**
-	 * Legt einen neuen Client an
+	 * Legt einen neuen Client an, falls noch kein Client dieses Namens angemeldet ist
 	 * 
 	 * @param userName Name des neuen Clients
 	 * @param client Client-Daten
+	 * @return false, falls bereits ein Client dieses Namens angemeldet ist
 	 */
-	public synchronized void createClient(String userName, ChatClientListEntry client) {
-		
-		//clients.putIfAbsent(userName, client);
-		clients.put(userName, client);
+	public boolean createClient(String userName, ChatClientListEntry client) {
+		registryLock.lock();
+		try {
+			if (clients.putIfAbsent(userName, client) != null) {
+				return false;
+			}
+			addRoomMember(rooms, client.getRoom(), userName);
+			return true;
+		} finally {
+			registryLock.unlock();
+		}
+	}
+
+	/**
+	 * Legt einen Stellvertreter fuer einen Client eines anderen Serverknotens an
+	 *
+	 * @param userName Name des Clients
+	 * @param client Client-Daten, die Ausgangswarteschlange ist die des Relays
+	 * @param relayName Name des Relays, ueber das der Client erreichbar ist
+	 * @param room Raum des Clients
+	 * @return false, falls bereits ein Client dieses Namens angemeldet ist
+	 */
+	public boolean createRemoteClient(String userName, ChatClientListEntry client, String relayName, String room) {
+		registryLock.lock();
+		try {
+			client.setNode(relayName);
+			client.setRoom(room);
+			if (clients.putIfAbsent(userName, client) != null) {
+				return false;
+			}
+			addRoomMember(remoteRooms, room, userName);
+			return true;
+		} finally {
+			registryLock.unlock();
+		}
+	}
+
+	/**
+	 * Legt das Relay fuer die Verbindung zu einem anderen Serverknoten an. In derselben atomaren
+	 * Operation wird fuer jeden angemeldeten lokalen Client ein Raum-Event an das Relay gesendet,
+	 * damit der andere Knoten Stellvertreter fuer alle Clients anlegen kann, deren Login-Event er
+	 * nicht mehr erhaelt. Clients, die sich gerade abmelden, werden ausgelassen.
+	 *
+	 * @param relayName Name des Relays
+	 * @param relay Eintrag mit Verbindung und Ausgangswarteschlange zum anderen Knoten
+	 * @return false, falls bereits ein Client oder Relay dieses Namens existiert
+	 */
+	public boolean createRelay(String relayName, ChatClientListEntry relay) {
+		registryLock.lock();
+		try {
+			if (clients.containsKey(relayName)) {
+				return false;
+			}
+			relay.setNode(relayName);
+			relay.setStatus(ChatClientConversationStatus.REGISTERED);
+			clients.put(relayName, relay);
+			relays.add(relayName);
+			for (ChatClientListEntry client : clients.values()) {
+				ChatClientConversationStatus status = client.getStatus();
+				if (client.isRemote() || status == ChatClientConversationStatus.UNREGISTERING
+						|| status == ChatClientConversationStatus.UNREGISTERED) {
+					continue;
+				}
+				ChatPDU pdu = new ChatPDU();
+				pdu.setPduType(ChatPDU.ROOM_EVENT);
+				pdu.setEventUserName(client.getUserName());
+				pdu.setRoom(client.getRoom());
+				relay.getOutboundQueue().send(pdu);
+			}
+			log.debug("Relay " + relayName + " angelegt");
+			return true;
+		} finally {
+			registryLock.unlock();
+		}
+	}
+
+	/**
+	 * @return Namen aller Relays zu anderen Serverknoten
+	 */
+	public Vector<String> getRelayList() {
+
+		return new Vector<String>(relays);
+	}
+
+	/**
+	 * Stellt eine Liste aller Stellvertreter bereit, die ueber ein Relay erreichbar sind
+	 *
+	 * @param relayName Name des Relays
+	 * @return Vektor mit den Namen der Clients
+	 */
+	public Vector<String> getRemoteClientList(String relayName) {
+
+		Vector<String> remoteClients = new Vector<String>();
+		for (ChatClientListEntry client : clients.values()) {
+			if (relayName.equals(client.getNode()) && !relays.contains(client.getUserName())) {
+				remoteClients.add(client.getUserName());
+			}
+		}
+		return remoteClients;
+	}
+
+	/**
+	 * Sendet eine PDU, die nicht bestaetigt wird, an alle anderen Serverknoten
+	 *
+	 * @param pdu Zu sendende PDU
+	 */
+	public void sendToRelays(ChatPDU pdu) {
+
+		if (relays.isEmpty()) {
+			return;
+		}
+		EncodedPdu encodedPdu = new EncodedPdu(pdu);
+		for (String relayName : relays) {
+			ChatClientListEntry relay = clients.get(relayName);
+			if (relay != null) {
+				relay.getOutboundQueue().send(encodedPdu);
+			}
+		}
 	}
 	  
 	/**
@@ -141,13 +341,9 @@ public class SharedChatClientList {
 	 * @param userName Name des Clients
 	 * @param client Client-Daten
 	 */
-	public synchronized void updateClient(String userName, ChatClientListEntry client) {
-		
-		ChatClientListEntry existingClient = (ChatClientListEntry) clients.get(userName);
+	public void updateClient(String userName, ChatClientListEntry client) {
 		
-		if ( existingClient != null) {
-			 clients.put(userName, client);
-		} else {
+		if (clients.replace(userName, client) == null) {
 			log.debug("User nicht in Clientliste: " + userName);
 		}
 	}
@@ -161,166 +357,93 @@ public class SharedChatClientList {
 	 * @return true bei erfolgreichem Loeschen, sonst false
 	 */
 	
-	public synchronized boolean deleteClient(String userName) {
-
-		log.debug("Clientliste vor dem Loeschen von " + userName + ": " + printClientList());
-		log.debug("Logout fuer " + userName + ", Laenge der Clientliste vor deleteClient: " + clients.size());
+	public boolean deleteClient(String userName) {
+		registryLock.lock();
+		try {
+			if (log.isDebugEnabled()) {
+				log.debug("Clientliste vor dem Loeschen von " + userName + ": " + printClientList());
+			}
+			log.debug("Logout fuer " + userName + ", Laenge der Clientliste vor deleteClient: " + clients.size());
 
-		boolean deletedFlag = false;
-		ChatClientListEntry removeCandidateClient = (ChatClientListEntry) clients.get(userName);
-		if ( removeCandidateClient != null) {
+			boolean deletedFlag = false;
+			ChatClientListEntry removeCandidateClient = (ChatClientListEntry) clients.get(userName);
+			if ( removeCandidateClient != null) {
 
-			// Event-Warteliste des Clients leer?
-			log.debug("Laenge der Clientliste " + userName + ": " + clients.size());
-			if ( (removeCandidateClient.getWaitList().size() == 0) && (removeCandidateClient.isFinished()) ) {
+				// Event-Warteliste des Clients leer?
+				log.debug("Laenge der Clientliste " + userName + ": " + clients.size());
+				if (removeCandidateClient.isFinished()) {
 
-				// Warteliste leer, jetzt pruefen, ob er noch in anderen Wartelisten ist
-				log.debug("Warteliste von Client " + removeCandidateClient.getUserName() +
-						" ist leer und Client ist zum Beenden vorgemerkt");
+					// Client ist zum Beenden vorgemerkt, jetzt pruefen, ob er noch in Wartelisten ist
+					log.debug("Client " + removeCandidateClient.getUserName() + " ist zum Beenden vorgemerkt");
 
-				for (String s : new HashSet<String>(clients.keySet())) {
-					ChatClientListEntry client = (ChatClientListEntry) clients.get(s);
-					if (client.getWaitList().contains(userName)) { ///früher: ...getWaitList().size() != 0
-						log.debug("Loeschen nicht moeglich, da Client " + s + " noch in der Warteliste von " +
-								client.getUserName() + " ist" );
+					if (!removeReleasedClient(removeCandidateClient)) {
+						log.debug("Loeschen nicht moeglich, da Client " + userName + " noch " +
+								pendingAcks.getNumberOfOwedConfirms(userName) + " Events bestaetigen muss");
 						return deletedFlag;
 					}
+					deletedFlag = true;
 				}
-
-				// Client kann entfernt werden, sofern er auch zum Beenden vorgemerkt ist.
-				clients.remove(userName);
-				deletedFlag = true;
 			}
-		}
-
-		log.debug("Logout: Laenge der Clientliste nach deleteClient fuer: " + userName + ": " + clients.size());
-		log.debug("Clientliste nach dem Loeschen von " + userName + ": " + printClientList());
-		return deletedFlag;
-	}
 
-	public synchronized boolean forceDeleteClient(String userName) { ///selbstdefinierte Methode
-
-		log.debug("Clientliste vor dem Loeschen von " + userName + ": " + printClientList());
-		log.debug("Logout fuer " + userName + ", Laenge der Clientliste vor deleteClient: " + clients.size());
-
-		boolean deletedFlag = false;
-		ChatClientListEntry removeCandidateClient = (ChatClientListEntry) clients.get(userName);
-		if ( removeCandidateClient != null) {
-
-			// Event-Warteliste des Clients leer?
-			log.debug("Laenge der Clientliste " + userName + ": " + clients.size());
-			if ( (removeCandidateClient.getWaitList().size() == 0) && (removeCandidateClient.isFinished()) ) {
-
-				// Warteliste leer, jetzt pruefen, ob er noch in anderen Wartelisten ist
-				log.debug("Warteliste von Client " + removeCandidateClient.getUserName() +
-						" ist leer und Client ist zum Beenden vorgemerkt");
-
-				for (String s : new HashSet<String>(clients.keySet())) {
-					ChatClientListEntry client = (ChatClientListEntry) clients.get(s);
-					if (client.getWaitList().contains(userName)) { ///statement ändern!!!
-						log.debug("Loeschen des Clients " + s + " von der Warteliste von " +
-								client.getUserName() + " wird mit Gewalt durchgeführt" );
-
-						client.getWaitList().removeElement(userName);
-
-					}
-				}
-
-				// Client kann entfernt werden, sofern er auch zum Beenden vorgemerkt ist.
-				clients.remove(userName);
-				deletedFlag = true;
+			log.debug("Logout: Laenge der Clientliste nach deleteClient fuer: " + userName + ": " + clients.size());
+			if (log.isDebugEnabled()) {
+				log.debug("Clientliste nach dem Loeschen von " + userName + ": " + printClientList());
 			}
+			return deletedFlag;
+		} finally {
+			registryLock.unlock();
 		}
-
-		log.debug("Logout: Laenge der Clientliste nach deleteClient fuer: " + userName + ": " + clients.size());
-		log.debug("Clientliste nach dem Loeschen von " + userName + ": " + printClientList());
-		return deletedFlag;
 	}
 
-
 	/**
 	 * Loescht einen Client zwangsweise inkl. aller Einträge in Wartelisten.
 	 *
 	 * @param userName Name des Clients
+	 * @return Events anderer Clients, die durch das Entfernen vollstaendig bestaetigt sind und
+	 *         deren Response noch gesendet werden muss
 	 */
-	public synchronized void deleteClientWithoutCondition(String userName) {
-		log.debug("Client  " + userName + " zwangsweise aus allen Listen entfernen");
-		for (String s : new HashSet<String>(clients.keySet())) {
-			ChatClientListEntry client = (ChatClientListEntry) clients.get(s);
-			if (client.getWaitList().contains(userName)) {
-				client.getWaitList().remove(userName);
-			}
+	public List<PendingAck> deleteClientWithoutCondition(String userName) {
+		registryLock.lock();
+		try {
+			log.debug("Client  " + userName + " zwangsweise aus allen Listen entfernen");
+			// Erst aus dem Raum entfernen, danach wird der Client in keine neue Warteliste
+			// mehr eingetragen und kann aus allen Wartelisten entfernt werden
+			removeClientEntry(userName);
+			releaseCallbacks.remove(userName);
+			List<PendingAck> completed = pendingAcks.removeRecipient(userName);
+			pendingAcks.removeSender(userName);
+			log.debug("Client  " + userName + " vollstaendig aus allen Wartelisten entfernt");
+			return completed;
+		} finally {
+			registryLock.unlock();
 		}
-
-		// Client kann nun entfernt werden
-		clients.remove(userName);
-		log.debug("Client  " + userName + " vollstaendig aus allen Wartelisten entfernt");
 	}
 
 
 
-	public synchronized boolean isClientFinished(String userName) { /// selbstdefinierte Methode
-
-		log.debug("Checking if Client " + userName + "is finished for logging out");
-
-		ChatClientListEntry logoutCandidateClient = (ChatClientListEntry) clients.get(userName);
-		if (logoutCandidateClient != null) {
-
-			// Event-Warteliste des Clients leer?
-			log.debug("Laenge der Clientliste " + userName + ": " + clients.size());
-			if ( (logoutCandidateClient.getWaitList().size() == 0) && (logoutCandidateClient.isFinished()) ) {
-
-				// Warteliste leer, jetzt pruefen, ob er noch in anderen Wartelisten ist
-				log.debug("Warteliste von Client " + logoutCandidateClient.getUserName() +
-						" ist leer und Client ist zum Beenden vorgemerkt");
-
-				for (String s : new HashSet<String>(clients.keySet())) {
-					ChatClientListEntry client = (ChatClientListEntry) clients.get(s);
-					if (client.getWaitList().contains(userName)) {
-						log.debug("Vorbereitung zum Logout nicht moeglich, da Client " + s + " noch in der Warteliste von " +
-								client.getUserName() + " ist" );
-						return false;
-					}
-				}
-			}
-		}
-
-		log.debug("Client " + userName + "Kann sich ausloggen ");
-		return true;
-	}
-
 	/**
 	 * Garbage Collector der Clientliste bereinigt nicht mehr benoetigte Clients
 	 *
 	 * @return Namensliste aller entfernten Clients
 	 */
-	public synchronized Vector<String> gcClientList() {
-
-		Vector<String> deletedClients = new Vector<String>();
-
-		for (String s1 : new Vector<String>(clients.keySet())) {
-			boolean clientUsed = true;
-			ChatClientListEntry client1 = (ChatClientListEntry) clients.get(s1);
-			if ( (client1.getWaitList().size() == 0) && (client1.isFinished()) ) {
-
-				// Eigene Warteliste leer, jetzt pruefen, ob auch alle anderen Wartelisten
-				// diesen Client nicht enthalten
-				clientUsed = false;
-				for (String s2 : new Vector<String>(clients.keySet())) {
-					ChatClientListEntry client2 = (ChatClientListEntry) clients.get(s2);
-					if (client2.getWaitList().contains(s1)) {
-						// Client noch in einer Warteliste
-						clientUsed = true;
-					}
+	public Vector<String> gcClientList() {
+		registryLock.lock();
+		try {
+			Vector<String> deletedClients = new Vector<String>();
+
+			for (String s1 : new Vector<String>(clients.keySet())) {
+				ChatClientListEntry client1 = (ChatClientListEntry) clients.get(s1);
+				// Eigene Warteliste leer und Client in keiner anderen Warteliste mehr enthalten
+				if (client1 != null && client1.isFinished() && (pendingAcks.getNumberOfPendingConfirms(s1) == 0)
+						&& removeReleasedClient(client1)) {
+					log.debug("Garbace Collection: Client " + client1.getUserName() + " wurde aus ClientListe entfernt" );
+					deletedClients.add(s1);
 				}
 			}
-			if (!clientUsed) {
-				log.debug("Garbace Collection: Client " + client1.getUserName() + " wird aus ClientListe entfernt" );
-				deletedClients.add(s1);
-				clients.remove(s1);
-			}
+			return deletedClients;
+		} finally {
+			registryLock.unlock();
 		}
-		return deletedClients;
 	}
    
 	/**
@@ -328,7 +451,7 @@ public class SharedChatClientList {
 	 * 
 	 * @return Laenge der Liste
 	 */
-	public synchronized long size() {
+	public long size() {
 		
 	   return clients.size();
 	}
@@ -338,7 +461,7 @@ public class SharedChatClientList {
 	 * 
 	 * @param userName Name des Clients
 	 */
-	public synchronized void incrNumberOfReceivedChatEventConfirms(String userName) {
+	public void incrNumberOfReceivedChatEventConfirms(String userName) {
 		
 		 ChatClientListEntry client = clients.get(userName);
 		 if ( client != null) {
@@ -346,12 +469,25 @@ public class SharedChatClientList {
 		 }
 	}
 	
+	/**
+	 * Erhoeht den Zaehler fuer nicht zugestellte Events (verlorene Bestaetigungen) eines Clients
+	 * 
+	 * @param userName Name des Clients
+	 */
+	public void incrNumberOfLostEventConfirms(String userName) {
+		
+		 ChatClientListEntry client = clients.get(userName);
+		 if ( client != null) {
+			 client.incrNumberOfLostEventConfirms();
+		 }
+	}
+	
 	/**
 	 * Erhoeht den Zaehler fuer gesendete Chat-Event-PDUs fuer einen Client
 	 * 
 	 * @param userName Name des Clients
 	 */
-	public synchronized void incrNumberOfSentChatEvents(String userName) {
+	public void incrNumberOfSentChatEvents(String userName) {
 		
 		 ChatClientListEntry client = clients.get(userName);
 		 if ( client != null) {
@@ -364,7 +500,7 @@ public class SharedChatClientList {
 	 * 
 	 * @param userName Name des Clients
 	 */
-	public synchronized void incrNumberOfReceivedChatMessages(String userName) {
+	public void incrNumberOfReceivedChatMessages(String userName) {
 		
 		 ChatClientListEntry client = clients.get(userName);
 		 if ( client != null) {
@@ -378,7 +514,7 @@ public class SharedChatClientList {
 	 * @param userName Name des Clients
 	 */
 	
-	public synchronized void setRequestStartTime(String userName, long startTime) {
+	public void setRequestStartTime(String userName, long startTime) {
 		
 		ChatClientListEntry client = clients.get(userName);
 	 	if (client != null) {
@@ -392,7 +528,7 @@ public class SharedChatClientList {
 	 * @param userName  Name des Clients
 	 * @return Ankunftszeit des Requests in ns
 	 */	
-	public synchronized long getRequestStartTime(String userName) {
+	public long getRequestStartTime(String userName) {
 		
 		ChatClientListEntry client = clients.get(userName);
 	 	if ( client != null) {
@@ -404,83 +540,440 @@ public class SharedChatClientList {
 	}
 
 	/**
-	 * Erstellt eine Liste aller Clients, die noch ein Event bestaetigen muessen
+	 * Erstellt eine Liste aller Clients, die ein Event noch bestaetigen muessen. Eingetragen
+	 * werden alle Mitglieder des Raums, in dem sich der ausloesende Client befindet, bei lokalen
+	 * Clients zusaetzlich alle Relays zu anderen Serverknoten. Ohne Empfaenger wird keine
+	 * Warteliste angelegt.
 	 * 
 	 * @param userName Name des Clients, fuer den die Liste erstellt werden soll
+	 * @param eventType PDU-Typ des Events
+	 * @param sequenceNumber Sequenznummer des Events
+	 * @return Eingetragene Clients, genau an diese muss das Event gesendet werden
 	 */
-	public synchronized void createWaitList(String userName) {
-	
-		 ChatClientListEntry client = clients.get(userName);
-		 if (client != null) {
-			 for (String s : new HashSet<String> (clients.keySet())) {
-				 client.addWaitListEntry(s);
-	        }
-			log.debug("Warteliste fuer " + userName + " erzeugt");
-		 } else {
-				log.debug("Warteliste fuer " + userName + " konnte nicht erzeugt werden");
-		 }
+	public Vector<String> createWaitList(String userName, int eventType, long sequenceNumber) {
+		ChatClientListEntry client = clients.get(userName);
+		while (client != null) {
+			String room = client.getRoom();
+			ReentrantLock roomLock = lockRoom(room);
+			try {
+				if (clients.get(userName) != client) {
+					// Client wurde inzwischen entfernt
+					break;
+				}
+				if (!room.equals(client.getRoom())) {
+					// Client hat inzwischen den Raum gewechselt
+					continue;
+				}
+				Vector<String> recipients = getRoomMemberList(room);
+				if (!client.isRemote()) {
+					recipients.addAll(relays);
+				}
+				if (recipients.isEmpty()) {
+					return recipients;
+				}
+				pendingAcks.register(userName, eventType, sequenceNumber, recipients);
+				log.debug("Warteliste fuer " + userName + " im Raum " + room + " erzeugt");
+				return recipients;
+			} finally {
+				unlockRoom(room, roomLock);
+			}
+		}
+		log.debug("Warteliste fuer " + userName + " konnte nicht erzeugt werden");
+		return new Vector<String>();
+	}
+
+	/**
+	 * Liefert den aktuellen Raum eines Clients
+	 *
+	 * @param userName Name des Clients
+	 * @return Name des Raums oder null, falls der Client nicht angemeldet ist
+	 */
+	public String getRoom(String userName) {
+
+		ChatClientListEntry client = clients.get(userName);
+		return client != null ? client.getRoom() : null;
+	}
+
+	/**
+	 * Stellt eine Liste aller Mitglieder eines Raums bereit
+	 *
+	 * @param room Name des Raums
+	 * @return Vektor mit den Namen aller Mitglieder, leer fuer unbekannte Raeume
+	 */
+	public Vector<String> getRoomMemberList(String room) {
+
+		Set<String> members = rooms.get(room);
+		return members != null ? new Vector<String>(members) : new Vector<String>();
+	}
+
+	/**
+	 * Stellt die Userliste eines Raums fuer die Anzeige bereit: Mitglieder des Raums und
+	 * Clients anderer Serverknoten im selben Raum. Clients, die sich gerade abmelden, sind nicht
+	 * enthalten, ihr Logout-Event wurde bereits versendet.
+	 *
+	 * @param room Name des Raums
+	 * @return Vektor mit den Namen aller Clients im Raum
+	 */
+	public Vector<String> getRoomUserList(String room) {
+
+		Vector<String> users = new Vector<String>();
+		addActiveUsers(users, rooms.get(room));
+		addActiveUsers(users, remoteRooms.get(room));
+		return users;
+	}
+
+	private void addActiveUsers(Vector<String> users, Set<String> members) {
+		if (members == null) {
+			return;
+		}
+		for (String s : members) {
+			ChatClientConversationStatus status = getClientStatus(s);
+			if (status != ChatClientConversationStatus.UNREGISTERING
+					&& status != ChatClientConversationStatus.UNREGISTERED) {
+				users.add(s);
+			}
+		}
+	}
+
+	/**
+	 * Sendet eine Aenderung der Userliste eines Raums an die Empfaenger. Die PDU erhaelt die
+	 * naechste Version der Userliste des Raums und wird nur einmal codiert. Ein Empfaenger, der
+	 * die Liste noch nicht kennt (der sich gerade anmeldende Client), erhaelt stattdessen eine
+	 * Kopie mit der vollstaendigen Userliste derselben Version.
+	 *
+	 * @param pdu Login-, Logout- oder Raum-Event mit Raum und betroffenem User (eventUserName)
+	 * @param change {@link ChatPDU#USER_ADDED} oder {@link ChatPDU#USER_REMOVED}
+	 * @param recipients Empfaenger der Aenderung
+	 * @param snapshotRecipient Empfaenger der vollstaendigen Liste oder null
+	 */
+	public void sendUserListChange(ChatPDU pdu, int change, Collection<String> recipients,
+			String snapshotRecipient) {
+		String room = pdu.getRoom();
+		ReentrantLock listLock = lockRoom(room);
+		try {
+			Long version = listVersions.get(room);
+			version = (version == null) ? 1 : version + 1;
+			listVersions.put(room, version);
+			pdu.setListVersion(version);
+			pdu.setListChange(change);
+
+			EncodedPdu encodedPdu = new EncodedPdu(pdu);
+			for (String s : recipients) {
+				ChatClientListEntry client = clients.get(s);
+				if (client == null) {
+					continue;
+				}
+				try {
+					if (s.equals(snapshotRecipient)) {
+						ChatPDU snapshot = pdu.clone();
+						snapshot.setClients(getRoomUserList(room));
+						client.getOutboundQueue().sendWithoutBlocking(new EncodedPdu(snapshot));
+					} else {
+						client.getOutboundQueue().sendWithoutBlocking(encodedPdu);
+					}
+				} catch (Exception e) {
+					log.debug("Senden einer Aenderung der Userliste an " + s + " nicht moeglich");
+					ExceptionHandler.logException(e);
+				}
+			}
+			log.debug("Userliste von Raum " + room + " in Version " + version + ": "
+					+ pdu.getEventUserName() + (change == ChatPDU.USER_ADDED ? " hinzugekommen" : " entfernt"));
+		} finally {
+			unlockRoom(room, listLock);
+		}
+	}
+
+	/**
+	 * Sendet die vollstaendige Userliste eines Raums mit ihrer aktuellen Version an einen Client
+	 *
+	 * @param pdu Zu sendende PDU mit dem Raum, Userliste und Version werden eingetragen
+	 * @param recipient Empfaenger
+	 */
+	public void sendUserList(ChatPDU pdu, String recipient) {
+		String room = pdu.getRoom();
+		ReentrantLock listLock = lockRoom(room);
+		try {
+			ChatClientListEntry client = clients.get(recipient);
+			if (client == null) {
+				return;
+			}
+			Long version = listVersions.get(room);
+			pdu.setListVersion(version == null ? 0 : version);
+			pdu.setClients(getRoomUserList(room));
+			client.getOutboundQueue().sendWithoutBlocking(new EncodedPdu(pdu));
+		} finally {
+			unlockRoom(room, listLock);
+		}
+	}
+
+	/**
+	 * Sperrt einen Chat-Raum fuer Warteliste, Mitgliederliste und Userliste
+	 *
+	 * @param room Name des Chat-Raums
+	 * @return Gesperrte Sperre des Raums, freizugeben mit {@link #unlockRoom(String, ReentrantLock)}
+	 */
+	private ReentrantLock lockRoom(String room) {
+		while (true) {
+			ReentrantLock lock = roomLocks.get(room);
+			if (lock == null) {
+				ReentrantLock newLock = new ReentrantLock();
+				lock = roomLocks.putIfAbsent(room, newLock);
+				if (lock == null) {
+					lock = newLock;
+				}
+			}
+			lock.lock();
+			if (roomLocks.get(room) == lock) {
+				return lock;
+			}
+			// Sperre wurde inzwischen mit dem leeren Raum entfernt
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gibt die Sperre eines Chat-Raums frei. Ist der Raum leer, werden beim Freigeben der
+	 * aeussersten Sperrung auch Version der Userliste und Sperre des Raums entfernt.
+	 *
+	 * @param room Name des Chat-Raums
+	 * @param lock Mit {@link #lockRoom(String)} gesperrte Sperre des Raums
+	 */
+	private void unlockRoom(String room, ReentrantLock lock) {
+		try {
+			if (lock.getHoldCount() == 1 && !rooms.containsKey(room) && !remoteRooms.containsKey(room)) {
+				listVersions.remove(room);
+				roomLocks.remove(room, lock);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wechselt den Raum eines Clients
+	 *
+	 * @param userName Name des Clients
+	 * @param room Name des neuen Raums
+	 * @return Name des bisherigen Raums oder null, falls der Client nicht angemeldet ist
+	 */
+	public String changeRoom(String userName, String room) {
+		registryLock.lock();
+		try {
+			ChatClientListEntry client = clients.get(userName);
+			if (client == null) {
+				return null;
+			}
+			String oldRoom = client.getRoom();
+			if (!oldRoom.equals(room)) {
+				ConcurrentHashMap<String, Set<String>> roomMap = client.isRemote() ? remoteRooms : rooms;
+				// Beide Raeume in fester Reihenfolge sperren
+				String firstRoom = oldRoom.compareTo(room) < 0 ? oldRoom : room;
+				String secondRoom = oldRoom.compareTo(room) < 0 ? room : oldRoom;
+				ReentrantLock firstLock = lockRoom(firstRoom);
+				ReentrantLock secondLock = lockRoom(secondRoom);
+				try {
+					removeRoomMember(roomMap, oldRoom, userName);
+					client.setRoom(room);
+					addRoomMember(roomMap, room, userName);
+				} finally {
+					unlockRoom(secondRoom, secondLock);
+					unlockRoom(firstRoom, firstLock);
+				}
+				log.debug("User " + userName + " wechselt von Raum " + oldRoom + " in Raum " + room);
+			}
+			return oldRoom;
+		} finally {
+			registryLock.unlock();
+		}
+	}
+
+	/*
+	 * Die folgenden Methoden duerfen nur unter registryLock aufgerufen werden, die Mitgliederlisten
+	 * werden zusaetzlich unter der Sperre des Raums veraendert
+	 */
+
+	private void addRoomMember(ConcurrentHashMap<String, Set<String>> roomMap, String room, String userName) {
+		ReentrantLock roomLock = lockRoom(room);
+		try {
+			Set<String> members = roomMap.get(room);
+			if (members == null) {
+				members = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				roomMap.put(room, members);
+			}
+			members.add(userName);
+		} finally {
+			unlockRoom(room, roomLock);
+		}
+	}
+
+	private void removeRoomMember(ConcurrentHashMap<String, Set<String>> roomMap, String room, String userName) {
+		ReentrantLock roomLock = lockRoom(room);
+		try {
+			Set<String> members = roomMap.get(room);
+			if (members != null) {
+				members.remove(userName);
+				if (members.isEmpty()) {
+					roomMap.remove(room);
+				}
+			}
+		} finally {
+			unlockRoom(room, roomLock);
+		}
+	}
+
+	/**
+	 * Entfernt einen Client, der kein Event mehr bestaetigen muss. Pruefung und Entfernen aus dem
+	 * Raum erfolgen unter der Sperre des Raums, danach wird er in keine Warteliste mehr eingetragen.
+	 *
+	 * @param client Zu entfernender Client
+	 * @return false, falls der Client noch mindestens ein Event bestaetigen muss
+	 */
+	private boolean removeReleasedClient(ChatClientListEntry client) {
+		String userName = client.getUserName();
+		String room = client.getRoom();
+		ReentrantLock roomLock = lockRoom(room);
+		try {
+			if (pendingAcks.owesConfirms(userName)) {
+				return false;
+			}
+			// Bestaetigungen fuer die eigenen Events des Clients werden nicht mehr benoetigt
+			pendingAcks.removeSender(userName);
+			releaseCallbacks.remove(userName);
+			removeClientEntry(userName);
+			return true;
+		} finally {
+			unlockRoom(room, roomLock);
+		}
+	}
+
+	private void removeClientEntry(String userName) {
+		ChatClientListEntry client = clients.remove(userName);
+		if (client != null) {
+			if (relays.remove(userName)) {
+				// Relays werden ohne Raumsperre in Wartelisten eingetragen: Warten, bis jede
+				// gerade erzeugte Warteliste fertig ist, spaetere enthalten das Relay nicht mehr
+				for (ReentrantLock roomLock : roomLocks.values()) {
+					roomLock.lock();
+					roomLock.unlock();
+				}
+				return;
+			}
+			removeRoomMember(client.isRemote() ? remoteRooms : rooms, client.getRoom(), userName);
+		}
 	}
 	
 	/**
-	 * Loescht eine Event-Warteliste fuer einen Client
+	 * Loescht alle Event-Wartelisten fuer einen Client
 	 * 
-	 * @param userName Name des Clients, fuer den die Liste geloesccht werden soll
+	 * @param userName Name des Clients, fuer den die Listen geloescht werden sollen
 	 */
-	public synchronized void deleteWaitList(String userName) {
+	public void deleteWaitList(String userName) {
 		
-		 ChatClientListEntry client = clients.get(userName);
-		 if ( client != null) {
-			 client.clearWaitList();
-		 }
+		 pendingAcks.removeSender(userName);
 	}	
 	
 	/**
-	 * Loescht einen Eintrag aus der Event-Warteliste
+	 * Loescht einen Eintrag aus der Event-Warteliste und prueft in derselben atomaren Operation,
+	 * ob die Warteliste damit leer ist. Bestaetigen mehrere Clients gleichzeitig, liefert genau
+	 * ein Aufruf true, nur dieser darf die Response an den ausloesenden Client senden.
 	 * 
-	 * @param userName Name des Clients, fuer den ein Listeneintrag geloescht werden soll
-	 * @param entryName name des Clients, der aus der Event-Warteliste geloescht werden soll
-	 * @return Anzahl der noch vorhandenen Eintraege in der Liste
+	 * @param userName Name des Clients, der das Event ausgeloest hat
+	 * @param eventType PDU-Typ des Events
+	 * @param sequenceNumber Sequenznummer des Events
+	 * @param entryName Name des Clients, der aus der Event-Warteliste geloescht werden soll
+	 * @return true, wenn dieser Aufruf den letzten Eintrag geloescht hat
 	 */
-	public synchronized void deleteWaitListEntry(String userName, String entryName) throws Exception {
+	public boolean confirmWaitListEntry(String userName, int eventType, long sequenceNumber, String entryName) {
 
-		log.debug("Client: " + userName + ", aus Warteliste von " + entryName + " loeschen ");
-		 
-		 ChatClientListEntry client = clients.get(userName);
+		log.debug("Client: " + entryName + ", aus Warteliste von " + userName + " loeschen ");
 		 
-		 if (client == null) {
+		 if (!clients.containsKey(userName)) {
+			// Ausloesender Client wurde bereits entfernt, die Bestaetigung kommt zu spaet
 			log.debug("Kein Eintrag fuer " + userName + " in der Clientliste vorhanden");
-			Exception e = new Exception();
-			throw new Exception(e);
-		 } else if (client.getWaitList().size() == 0) {
-			log.debug("Warteliste fuer " + userName + " war vorher schon leer");
-	        return;	
-		 } else {
-			 client.getWaitList().remove(entryName);
-			 log.debug("Eintrag fuer " + entryName + " aus der Warteliste von " + client.getUserName() + " geloescht");
+			return false;
 		 }
+		 boolean lastEntry = pendingAcks.confirm(userName, eventType, sequenceNumber, entryName) != null;
+		 log.debug("Eintrag fuer " + entryName + " aus der Warteliste von " + userName + " geloescht");
+		 return lastEntry;
+	}
+
+	/**
+	 * Traegt kumulative Bestaetigungen eines Clients in einem Durchlauf ueber die von ihm
+	 * geschuldeten Events aus, siehe {@link PendingAcks#confirm(String, Collection, List)}.
+	 * Wie bei {@link #confirmWaitListEntry} wird jedes vollstaendig bestaetigte Event genau
+	 * einem Aufrufer geliefert.
+	 *
+	 * @param entryName Name des bestaetigenden Clients
+	 * @param confirms Kumulative Bestaetigungen
+	 * @param completed Hier werden die Events eingetragen, deren letzte Bestaetigung dieser Aufruf
+	 *          ausgetragen hat
+	 * @return Alle durch diesen Aufruf bestaetigten Events
+	 */
+	public List<PendingAck> confirmWaitListEntries(String entryName, Collection<CumulativeConfirm> confirms,
+			List<PendingAck> completed) {
+		List<PendingAck> confirmed = pendingAcks.confirm(entryName, confirms, completed);
+		log.debug(confirmed.size() + " Eintraege fuer " + entryName + " aus Wartelisten geloescht");
+		return confirmed;
 	}
 	
 	/**
-	 * Liefert die Laenge der Event-Warteliste fuer einen Client
+	 * Liefert die Anzahl der noch ausstehenden Bestaetigungen fuer alle Events eines Clients
 	 * 
 	 * @param userName Name des Clients
-	 * @return Anzahl der noch vorhandenen Eintraege in der Liste
+	 * @return Anzahl der noch vorhandenen Eintraege in den Wartelisten
 	 */
-	public synchronized int getWaitListSize(String userName) {
+	public int getWaitListSize(String userName) {
 		
-		 ChatClientListEntry client = clients.get(userName);		 
-		 if (client != null) {
-			 	return client.getWaitList().size();
-		 }
-	     return 0;
+		 return pendingAcks.getNumberOfPendingConfirms(userName);
 	}	
 	
+	/**
+	 * Prueft, ob ein Client noch in der Warteliste eines Events (auch eines eigenen) enthalten ist
+	 * 
+	 * @param userName Name des Clients
+	 * @return true, wenn der Client noch mindestens ein Event bestaetigen muss
+	 */
+	public boolean isContainedInWaitList(String userName) {
+		
+		 return pendingAcks.owesConfirms(userName);
+	}
+	
+	/**
+	 * Fuehrt einen Aufruf genau einmal aus, sobald der Client in keiner Warteliste mehr enthalten
+	 * ist. Ist das bereits der Fall, wird er sofort im aufrufenden Thread ausgefuehrt, sonst im
+	 * Thread, der die letzte Bestaetigung des Clients bearbeitet. Je Client ist hoechstens ein
+	 * Aufruf vorgemerkt, ein neuer ersetzt den bisherigen.
+	 * 
+	 * @param userName Name des Clients
+	 * @param callback Auszufuehrender Aufruf
+	 */
+	public void whenReleasedFromWaitLists(String userName, Runnable callback) {
+		
+		 releaseCallbacks.put(userName, callback);
+		 runReleaseCallback(userName);
+	}
+	
+	private void runReleaseCallback(String userName) {
+		
+		 Runnable callback = releaseCallbacks.get(userName);
+		 // Erneut pruefen, da inzwischen neue Events hinzugekommen sein koennen
+		 if (callback != null && !pendingAcks.owesConfirms(userName)
+				 && releaseCallbacks.remove(userName, callback)) {
+			 log.debug(userName + " ist in keiner Warteliste mehr enthalten");
+			 try {
+				 callback.run();
+			 } catch (Exception e) {
+				 ExceptionHandler.logException(e);
+			 }
+		 }
+	}
+	
 	/**
 	 * Setzt Kennzeichen, das die Arbeit fuer einen User eingestellt werden kann
 	 * 
 	 * @param userName Name des Clients 
 	 */
-	public synchronized void finish(String userName) {
+	public void finish(String userName) {
 
 		ChatClientListEntry client = clients.get(userName);		 
 		 if (client != null) {
@@ -504,7 +997,7 @@ public class SharedChatClientList {
 			for (String s : new HashSet<String> (clients.keySet())) {
 				ChatClientListEntry client = clients.get(s);
 				stringBuilder.append(client.getUserName() + ", ");
-				stringBuilder.append(client.getWaitList() + "\n");
+				stringBuilder.append(pendingAcks.describe(s) + "\n");
 			}
 		}
 		return stringBuilder.toString();
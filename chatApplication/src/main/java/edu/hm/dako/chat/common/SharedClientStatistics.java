@@ -3,10 +3,6 @@ package edu.hm.dako.chat.common;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.text.NumberFormat;
 import java.util.concurrent.CountDownLatch;
 
@@ -17,6 +13,14 @@ import java.util.concurrent.CountDownLatch;
  * Die Daten werden in einem Array gesammelt, das einen Eintrag fuer jeden Client
  * enthaelt. Jeder Client erhaelt eine Nummer, die als Zugriffsindex auf das Array verwendet
  * wird.
+ * <p/>
+ * Jeder Eintrag wird waehrend eines Laufs nur von einem Thread geschrieben: Zaehler fuer
+ * gesendete Requests vom Client-Thread (im Open-Loop-Betrieb vom Lastgenerator), Zaehler
+ * und Histogramme fuer empfangene Responses vom Thread, der die Responses verarbeitet. Die Erfassung kommt daher ohne Sperren aus,
+ * die Felder sind volatile, damit Zwischenstaende ohne Sperre gelesen werden koennen.
+ * Summen und Histogramme ueber alle Clients werden erst beim Lesen gebildet und sind nach
+ * dem Ende aller Client-Threads exakt. Die Heap-Belegung wird nicht je Nachricht, sondern
+ * periodisch durch einen {@link HeapUsageSampler} gemessen.
  *
  * @author Mandl
  */
@@ -48,19 +52,26 @@ public class SharedClientStatistics {
     // Chat-Messages von allen Clients versendet wurden
     private CountDownLatch logoutSignal;
 
+    // Abtastintervall der Heap-Belegung in ms
+    private static final long HEAP_SAMPLE_INTERVAL = 100;
+
+    // Periodische Messung der Heap-Belegung waehrend eines Laufs
+    private final HeapUsageSampler heapUsageSampler = new HeapUsageSampler(HEAP_SAMPLE_INTERVAL);
+
     // Statistikdaten eines Clients
     private class ClientStatistics {
-        int sentRequests;         			// Anzahl gesendeter Nachrichten
-        int receivedResponses;    			// Anzahl empfangener Antworten
-        int numberOfRetries;	  			// Anzahl an Uebertragungswiederholungen (fuer unzuverlaessige Verbindungen wie UDP)
-        long numberOfSentEventMessages; 	// Anzahl gesendeter Events fuer den Client
-        long numberOfReceivedConfirmEvents;	// Anzahl empfangener Responses fuer den Client
-        long numberOfLostConfirmEvents; 	// Anzahl verlorender Event-Bestaetigungen fuer den Client
-        long numberOfRetriedEvents; 		// Anzahl von wiederholten Events fuer den Client (fuer unzuverlaessige Verbindungen wie UDP)
-        long averageRTT;          			// Durchschnittliche Round Trip Time in ns
-        long sumRTT;              			// Summe aller RTTs in ns
-        long sumServerTime;       			// Zeit, die der Server insgesamt fuer alle Requests benoetigt in ns
-        long maxHeapSize;         			// Maximale Heap-Groesse in Bytes waehrend eines Testlaufs
+        volatile int sentRequests;         		// Anzahl gesendeter Nachrichten
+        volatile int receivedResponses;    		// Anzahl empfangener Antworten
+        volatile int numberOfRetries;	  		// Anzahl an Uebertragungswiederholungen (fuer unzuverlaessige Verbindungen wie UDP)
+        volatile int lostResponses;			// Anzahl nach Ablauf der Response-Wartezeit verworfener Requests
+        volatile long numberOfSentEventMessages; 	// Anzahl gesendeter Events fuer den Client
+        volatile long numberOfReceivedConfirmEvents;	// Anzahl empfangener Responses fuer den Client
+        volatile long numberOfLostConfirmEvents; 	// Anzahl verlorender Event-Bestaetigungen fuer den Client
+        volatile long numberOfRetriedEvents; 		// Anzahl von wiederholten Events fuer den Client (fuer unzuverlaessige Verbindungen wie UDP)
+        volatile long sumRTT;              		// Summe aller RTTs in ns
+        volatile long sumServerTime;       		// Zeit, die der Server insgesamt fuer alle Requests benoetigt in ns
+        LatencyHistogram rttHistogram = new LatencyHistogram();        // Verteilung der RTTs in ns
+        LatencyHistogram serverTimeHistogram = new LatencyHistogram(); // Verteilung der Serverzeiten in ns
     }
 
     private ClientStatistics clientStatistics[];
@@ -96,14 +107,13 @@ public class SharedClientStatistics {
             clientStatistics[i].receivedResponses = 0;
             clientStatistics[i].sentRequests = 0;
             clientStatistics[i].numberOfRetries = 0;
+            clientStatistics[i].lostResponses = 0;
             clientStatistics[i].numberOfSentEventMessages = 0;
             clientStatistics[i].numberOfReceivedConfirmEvents = 0;	
             clientStatistics[i].numberOfLostConfirmEvents = 0; 	
             clientStatistics[i].numberOfRetriedEvents = 0; 	
-            clientStatistics[i].averageRTT = 0;
             clientStatistics[i].sumRTT = 0;
             clientStatistics[i].sumServerTime = 0;
-            clientStatistics[i].maxHeapSize = 0;
         }
     }
 
@@ -130,7 +140,7 @@ public class SharedClientStatistics {
      *
      * @param i Client-Id
      */
-    public synchronized void incrSentMsgCounter(int i) {
+    public void incrSentMsgCounter(int i) {
         if (!inRange(i)) return;
         clientStatistics[i].sentRequests++;
     }
@@ -138,7 +148,7 @@ public class SharedClientStatistics {
     /**
      * Anzahl der gesendeten Events setzen
      */
-    public synchronized void setNumberOfSentEventMessages(int i, long nr) {
+    public void setNumberOfSentEventMessages(int i, long nr) {
         if (!inRange(i)) return;
         clientStatistics[i].numberOfSentEventMessages = nr;
     }
@@ -154,7 +164,7 @@ public class SharedClientStatistics {
     /**
      * Anzahl der verlorenen Event-Bestaetigungen setzen
      */
-    public synchronized void setNumberOfLostConfirmEvents(int i, long nr) {
+    public void setNumberOfLostConfirmEvents(int i, long nr) {
         if (!inRange(i)) return;
         clientStatistics[i].numberOfLostConfirmEvents = nr;
     }
@@ -171,7 +181,7 @@ public class SharedClientStatistics {
     /**
      * Anzahl der empfangenen Event-Bestaetigungen setzen
      */
-    public synchronized void setNumberOfReceivedConfirmEvents(int i, long nr) {
+    public void setNumberOfReceivedConfirmEvents(int i, long nr) {
         if (!inRange(i)) return;
         clientStatistics[i].numberOfReceivedConfirmEvents = nr;
     }
@@ -187,7 +197,7 @@ public class SharedClientStatistics {
     /**
      * Anzahl der Event-Wiederholungen setzen
      */
-    public synchronized void setNumberOfRetriedEvents(int i, long nr) {
+    public void setNumberOfRetriedEvents(int i, long nr) {
         if (!inRange(i)) return;
         clientStatistics[i].numberOfRetriedEvents = nr;
     }
@@ -203,10 +213,21 @@ public class SharedClientStatistics {
     /**
      * Anzahl der Uebrtragungswiederholungen erhoehen
      */
-    public synchronized void incrNumberOfRetries(int i) {
+    public void incrNumberOfRetries(int i) {
         if (!inRange(i)) return;
         clientStatistics[i].numberOfRetries++;
     }
+
+    /**
+     * Anzahl der verlorenen Responses eines Clients erhoehen: Der Client hat die Response
+     * nicht innerhalb der Response-Wartezeit erhalten und den Request verworfen
+     *
+     * @param i Client-Id
+     */
+    public void incrLostResponseCounter(int i) {
+        if (!inRange(i)) return;
+        clientStatistics[i].lostResponses++;
+    }
     /**
      * Anzahl der empfangenen Nachrichten eines Clients erhoehen
      *
@@ -214,15 +235,14 @@ public class SharedClientStatistics {
      * @param rtt        RoundTrip Time
      * @param serverTime Die Zeit, die der Server bentigt hat
      */
-    public synchronized void incrReceivedMsgCounter(int i, long rtt, long serverTime) {
+    public void incrReceivedMsgCounter(int i, long rtt, long serverTime) {
         if (!inRange(i)) return;
-        clientStatistics[i].receivedResponses++;
-        clientStatistics[i].sumRTT = clientStatistics[i].sumRTT + rtt;
-        clientStatistics[i].averageRTT = clientStatistics[i].sumRTT / clientStatistics[i].receivedResponses;
-        clientStatistics[i].sumServerTime = clientStatistics[i].sumServerTime + serverTime;
-        if (clientStatistics[i].maxHeapSize < usedMemory()) {
-            clientStatistics[i].maxHeapSize = usedMemory();
-        }
+        ClientStatistics stats = clientStatistics[i];
+        stats.rttHistogram.record(rtt);
+        stats.serverTimeHistogram.record(serverTime);
+        stats.sumRTT = stats.sumRTT + rtt;
+        stats.sumServerTime = stats.sumServerTime + serverTime;
+        stats.receivedResponses++;
     }
 
     /**
@@ -351,7 +371,7 @@ public class SharedClientStatistics {
         for (int i = 0; i < numberOfClients; i++) {
             // Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
             if (clientStatistics[i].receivedResponses > 0) {
-                sum = sum + clientStatistics[i].averageRTT;
+                sum = sum + getAverageRTT(i);
                 nrClients++;
             }
         }
@@ -363,52 +383,52 @@ public class SharedClientStatistics {
     }
 
     public long getAverageRTT(int i) {
-        return clientStatistics[i].averageRTT;
+        int received = clientStatistics[i].receivedResponses;
+        return received == 0 ? 0 : clientStatistics[i].sumRTT / received;
     }
 
     /**
-     * Minimale RTT ueber alle Clients ermitteln
+     * Minimale RTT eines einzelnen Requests ueber alle Clients ermitteln
      *
      * @return Minimale RTT
      */
     public synchronized long getMinimumRTT() {
-        long min = Long.MAX_VALUE;
-        for (int i = 0; i < numberOfClients; i++) {
-            // Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
-            if (clientStatistics[i].receivedResponses > 0) {
-                min = Math.min(clientStatistics[i].averageRTT, min);
-            }
-        }
-
-        if (min == Long.MAX_VALUE){
-        	return 0;
-        } else {       	
-        	return min;
-        }
+        return getRttHistogram().getMinValue();
     }
 
     /**
-     * Maximale RTT ueber alle Clients ermitteln
+     * Maximale RTT eines einzelnen Requests ueber alle Clients ermitteln
      *
      * @return Maximale RTT
      */
     public synchronized long getMaximumRTT() {
-        long max = -1;
+        return getRttHistogram().getMaxValue();
+    }
 
+    /**
+     * Verteilung der RTTs aller Clients zusammenfuehren
+     *
+     * @return Neues Histogramm mit den RTTs aller Requests in ns
+     */
+    public synchronized LatencyHistogram getRttHistogram() {
+        LatencyHistogram merged = new LatencyHistogram();
         for (int i = 0; i < numberOfClients; i++) {
-            // Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
-            if (clientStatistics[i].receivedResponses > 0) {
-                if (clientStatistics[i].averageRTT > max) {
-                    max = clientStatistics[i].averageRTT;
-                }
-            }
+            merged.add(clientStatistics[i].rttHistogram);
         }
+        return merged;
+    }
 
-        if (max == -1){
-        	return 0;
-        } else {       	
-        	return max;
+    /**
+     * Verteilung der vom Server gemeldeten Bearbeitungszeiten aller Clients zusammenfuehren
+     *
+     * @return Neues Histogramm mit den Serverzeiten aller Requests in ns
+     */
+    public synchronized LatencyHistogram getServerTimeHistogram() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (int i = 0; i < numberOfClients; i++) {
+            merged.add(clientStatistics[i].serverTimeHistogram);
         }
+        return merged;
     }
 
     /**
@@ -472,10 +492,10 @@ public class SharedClientStatistics {
         int sum = 0;
 
         for (int i = 0; i < numberOfClients; i++) {
-            sum += clientStatistics[i].sentRequests;
+            sum += clientStatistics[i].lostResponses;
         }
 
-        return sum - getNumberOfReceivedResponses();
+        return sum;
     }
 
     /**
@@ -486,7 +506,7 @@ public class SharedClientStatistics {
      */
     public synchronized int getNumberOfLostResponses(int i) {
         if (!inRange(i)) return (-1);
-        return clientStatistics[i].sentRequests - getNumberOfReceivedResponses(i);
+        return clientStatistics[i].lostResponses;
     }
 
     /**
@@ -574,23 +594,26 @@ public class SharedClientStatistics {
     }
 
     /**
-     * Maximale Heap-Groesse ueber alle Clients ermitteln
-     *
-     * @return Maximale Heap-Groesse
+     * Periodische Messung der Heap-Belegung zu Beginn eines Laufs starten
      */
-    public synchronized long getMaxHeapSize() {
-        long max = -1;
+    public void startHeapUsageSampling() {
+        heapUsageSampler.start();
+    }
 
-        for (int i = 0; i < numberOfClients; i++) {
-            // Nur Threads, die mindestens eine Antwort bekommen haben, verwenden
-            if (clientStatistics[i].receivedResponses > 0) {
-                if (clientStatistics[i].maxHeapSize > max) {
-                    max = clientStatistics[i].maxHeapSize;
-                }
-            }
-        }
+    /**
+     * Periodische Messung der Heap-Belegung am Ende eines Laufs beenden
+     */
+    public void stopHeapUsageSampling() {
+        heapUsageSampler.stop();
+    }
 
-        return max;
+    /**
+     * Maximale Heap-Groesse waehrend des Laufs ermitteln
+     *
+     * @return Maximale Heap-Groesse in Bytes
+     */
+    public long getMaxHeapSize() {
+        return heapUsageSampler.getMaxUsedHeap();
     }
 
     /**
@@ -626,7 +649,9 @@ public class SharedClientStatistics {
 
         NumberFormat n = NumberFormat.getInstance();
         //n.setMaximumFractionDigits(2);
-        String usedMemoryAsString = n.format(usedMemory() / (1024 * 1024));
+        String usedMemoryAsString = n.format(getMaxHeapSize() / (1024 * 1024));
+        LatencyHistogram rtt = getRttHistogram();
+        LatencyHistogram serverTime = getServerTimeHistogram();
 
         System.out.println("*********************************************************************"
                 + "\n" + "***************************** Statistik *****************************"
@@ -652,6 +677,9 @@ public class SharedClientStatistics {
                 + "\n" + "RTT: " + this.getAverageRTT() + " ns (" + this.getAverageRTT() / 1000000 + " ms)"
                 + "\n" + "Minimum RTT: " + this.getMinimumRTT() + " ns (" + this.getMinimumRTT() / 1000000 + " ms)"
                 + "\n" + "Maximum RTT: " + this.getMaximumRTT() + " ns (" + this.getMaximumRTT() / 1000000 + " ms)"
+                + "\n" + "RTT-Perzentile 50/90/99/99,9 %: " + formatPercentiles(rtt) + " ms"
+                + "\n" + "Serverzeit-Perzentile 50/90/99/99,9 %, Maximum: " + formatPercentiles(serverTime) + ", "
+                + serverTime.getMaxValue() / 1000000 + " ms"
                 + "\n" + "Reine Serverzeit: " + this.getAverageServerTime() / numberOfClients + " ns (" +
                 (this.getAverageServerTime() / numberOfClients) / 1000000 + " ms)"
                 + "\n" + "Maximal erreichte Heap-Belegung: " + usedMemoryAsString + " MByte"
@@ -661,117 +689,15 @@ public class SharedClientStatistics {
     }
 
     /**
-     * Ausgabe eines Auswertungssatzes fuer eine Messung (einen Benchmark-Lauf)
-     * in eine Datei im CSV-Dateiformat in folgender Form:
-     * <p/>
-     * 
-     * 01 Messungstyp als String
-     * <p/>
-     *  02 Implementierungstyp als String
-     * <p/>
-     * 03 Anzahl Client-Threads
-     * <p/>
-     * 04 Anzahl (geplante) Nachrichten je Client
-     * <p/>
-     * 05 Durchschnittliche RTT
-     * <p/>
-     * 06 Maximale RTT
-     * <p/>
-     * 07 Minimale RTT
-     * <p/>
-     * 08 Durchschnittliche Serverbearbeitungszeit
-     * <p/>
-     * 09 Anzahl geplanter Requests/Responses
-     * <p/>
-     * 10 Anzahl gesendeter Requests
-     * <p/>
-     * 11 Anzahl empfangener Responses
-     * <p/>
-     * 12 Anzahl verlorener Echo Responses
-     * <p/>
-     * 13 Anzahl aller Uebertragungswiederholungen (nur fuer UDP relevant)
-     * <p/>
-     * 14 Anzahl aller vom Server gesendete Events-Nachrichten
-     * <p/>
-	 * 15 Anzahl aller vom Server empfangenen Event-Bestaetigungen (Confirm-Event)
-	 * <p/>
-	 * 16 Anzahl aller vom Server nicht erhaltenen Event-Bestaetigungen
-	 * <p/>
-	 * 17 Anzahl aller Wiederholungen von Events (fuer unzuverlaessige Verbindungen wie UDP)
-	 * <p/>
-     * 18 Maximale Heap-Size des Clients
-     * <p/>
-     * 19 Startzeit der Messung
-     * <p/>
-     * 20 Endezeit der Messung
-     * <p/>
-     * Der Satz wird an das Ende einer bestehenden Datei angehaengt.
-     * <p/>
-     * Die Datei kann zur Testauswertung in Excel weiterverarbeitet werden.
-     *
-     * @param fileName    Name der Datei
-     * @param implType    Typ der Implementierung
-     * @param measureType Typ der Messung
-     * @param startTime   der Messung
-     * @param endTime     der Messung
-     */
-
-    public synchronized void writeStatisticSet
-    (String fileName, String implType, String measureType, String startTime, String endTime) {
-        File file = new File(fileName);
-        final String newLine = "\r\n";
-
-        try {
-            boolean exist = file.createNewFile();
-            if (!exist) {
-                log.debug("Datei " + fileName + " existierte bereits");
-            } else {
-                log.debug("Datei " + fileName + " erfolgreich angelegt");
-            }
-
-            // Datei zum Erweitern oeffnen
-            FileWriter fstream = new FileWriter(fileName, true);
-            BufferedWriter out = new BufferedWriter(fstream);
-
-            out.write(measureType + ", " +
-                    implType + ", " +
-                    numberOfClients + ", " +
-                    numberOfMessages + ", " +
-                    this.getAverageRTT() / 1000000 + ", " +
-                    this.getMaximumRTT() / 1000000 + ", " +
-                    this.getMinimumRTT() / 1000000 + ", " +
-                    this.getAverageServerTime() / 1000000 + ", " +
-                    numberOfAllMessages + ", " +
-                    this.getNumberOfSentRequests() + ", " +
-                    this.getNumberOfReceivedResponses() + ", " +              
-                    this.getNumberOfLostResponses() + ", " +                  
-                    this.getSumOfAllRetries() + ", " +                    
- 					this.getSumOfAllSentEventMessages() + ", " +
- 					this.getSumOfAllReceivedConfirmEvents() + ", " +
- 					this.getSumOfAllLostConfirmEvents() + ", " +
- 					this.getSumOfAllRetriedEvents() + ", " +                   
-                    this.getMaxHeapSize() / (1024 * 1024) + ", " +
-                    startTime + ", " +
-                    endTime +
-                    newLine);
-            
-            System.out.println("Auswertungssatz in Datei " + fileName + " geschrieben");
-
-            out.flush();
-            out.close();
-
-        } catch (IOException e) {
-            log.error("Fehler beim Schreiben des Auswertungssatzes in Datei " + fileName);
-        }
-    }
-
-    /**
-     * Berechnet den tatsaechlich benutzten Heap-Speicher
-     * Heap-Groesse in MByte
-     */
-    private long usedMemory() {
-        Runtime r = Runtime.getRuntime();
-        long usedMemory = (r.totalMemory() - r.freeMemory());
-        return (usedMemory);
+     * Perzentile 50 %, 90 %, 99 % und 99,9 % eines Histogramms in ms, durch Kommata getrennt
+     *
+     * @param histogram Histogramm mit Werten in ns
+     * @return Perzentile als String
+     */
+    private static String formatPercentiles(LatencyHistogram histogram) {
+        return histogram.getValueAtPercentile(50.0) / 1000000 + ", "
+                + histogram.getValueAtPercentile(90.0) / 1000000 + ", "
+                + histogram.getValueAtPercentile(99.0) / 1000000 + ", "
+                + histogram.getValueAtPercentile(99.9) / 1000000;
     }
 }
\ No newline at end of file
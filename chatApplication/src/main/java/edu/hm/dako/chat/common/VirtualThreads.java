@@ -0,0 +1,135 @@
+package edu.hm.dako.chat.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Erzeugung der Threads fuer Worker, Writer und simulierte Clients.
+ * <p>
+ * Ist die System-Property {@value #VIRTUAL_THREADS_PROPERTY} auf true gesetzt und bietet die
+ * Java-Laufzeitumgebung virtuelle Threads (ab Java 21), werden virtuelle Threads erzeugt,
+ * ansonsten Plattform-Threads. Virtuelle Threads werden beim blockierenden Lesen aus einem
+ * Socket von ihrem Traeger-Thread geloest, eine Sitzung je Thread kostet dann nur noch einen
+ * kleinen Stack auf dem Heap und der blockierende Zustandsautomat bleibt unveraendert.
+ * <p>
+ * Virtuelle Threads werden ueber Reflection erzeugt, damit der Code auch mit aelteren
+ * Java-Versionen uebersetzt und ausgefuehrt werden kann. Beim Warten innerhalb eines
+ * synchronized-Blocks bleibt ein virtueller Thread an seinen Traeger gebunden (Pinning),
+ * Sperren, unter denen blockiert wird, sind daher als {@link java.util.concurrent.locks.ReentrantLock}
+ * ausgefuehrt.
+ */
+public final class VirtualThreads {
+
+    private static Log log = LogFactory.getLog(VirtualThreads.class);
+
+    public static final String VIRTUAL_THREADS_PROPERTY = "edu.hm.dako.chat.virtualThreads";
+
+    // Thread.ofVirtual() und Methoden von Thread.Builder, null ohne virtuelle Threads
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_NAME_COUNTER;
+    private static final Method BUILDER_FACTORY;
+    private static final Method BUILDER_UNSTARTED;
+
+    private static final boolean ENABLED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method nameCounter = null;
+        Method factory = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            nameCounter = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (Exception e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_NAME_COUNTER = nameCounter;
+        BUILDER_FACTORY = factory;
+        BUILDER_UNSTARTED = unstarted;
+
+        boolean requested = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+        ENABLED = requested && OF_VIRTUAL != null;
+        if (requested && !ENABLED) {
+            log.warn("Virtuelle Threads werden von Java " + System.getProperty("java.version")
+                    + " nicht unterstuetzt, es werden Plattform-Threads verwendet");
+        }
+    }
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true, falls die Java-Laufzeitumgebung virtuelle Threads unterstuetzt
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return true, falls virtuelle Threads verwendet werden
+     */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * Erzeugt eine ThreadFactory, deren Threads name-1, name-2, ... heissen
+     *
+     * @param name   Praefix der Threadnamen
+     * @param daemon Plattform-Threads als Daemon-Threads erzeugen (virtuelle Threads sind es immer)
+     * @return ThreadFactory fuer virtuelle oder Plattform-Threads
+     */
+    public static ThreadFactory newThreadFactory(final String name, final boolean daemon) {
+        if (ENABLED) {
+            try {
+                Object builder = BUILDER_NAME_COUNTER.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+                return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+            } catch (Exception e) {
+                log.error("Virtueller Thread konnte nicht erzeugt werden: " + e);
+            }
+        }
+        return new ThreadFactory() {
+            private final AtomicInteger threadCounter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + threadCounter.incrementAndGet());
+                if (daemon) {
+                    thread.setDaemon(true);
+                }
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Erzeugt einen einzelnen, noch nicht gestarteten Thread
+     *
+     * @param name Name des Threads
+     * @param task Auszufuehrende Aufgabe
+     * @return Virtueller oder Plattform-Thread
+     */
+    public static Thread newThread(String name, Runnable task) {
+        if (ENABLED) {
+            try {
+                Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+            } catch (Exception e) {
+                log.error("Virtueller Thread konnte nicht erzeugt werden: " + e);
+            }
+        }
+        return new Thread(task, name);
+    }
+}
@@ -0,0 +1,290 @@
+package edu.hm.dako.chat.connection;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Vector;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.CumulativeConfirm;
+
+/**
+ * Kompakte binaere Codierung einer {@link ChatPDU}.
+ * <p>
+ * Aufbau einer codierten PDU:
+ * <ul>
+ * <li>1 Byte PDU-Typ</li>
+ * <li>Bitmap (Varint), welche der optionalen Felder enthalten sind</li>
+ * <li>die enthaltenen Felder in der Reihenfolge der Bits</li>
+ * </ul>
+ * Zahlen werden als Varint (7 Bit je Byte) uebertragen, Strings als Varint-Laenge mit
+ * nachfolgenden UTF-8-Bytes. Nicht gesetzte Strings und Zaehler mit dem Wert 0 belegen
+ * keinen Platz.
+ */
+public class BinaryPduCodec implements PduCodec {
+
+    public static final byte ID = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Bits der optionalen Felder in der Bitmap
+    private static final int USER_NAME = 1;
+    private static final int EVENT_USER_NAME = 1 << 1;
+    private static final int CLIENT_THREAD_NAME = 1 << 2;
+    private static final int SERVER_THREAD_NAME = 1 << 3;
+    private static final int MESSAGE = 1 << 4;
+    private static final int CLIENTS = 1 << 5;
+    private static final int CLIENT_STATUS = 1 << 6;
+    private static final int SEQUENCE_NUMBER = 1 << 7;
+    private static final int SERVER_TIME = 1 << 8;
+    private static final int ERROR_CODE = 1 << 9;
+    private static final int RECEIVED_CHAT_MESSAGES = 1 << 10;
+    private static final int SENT_EVENTS = 1 << 11;
+    private static final int RECEIVED_CONFIRMS = 1 << 12;
+    private static final int LOST_CONFIRMS = 1 << 13;
+    private static final int RETRIES = 1 << 14;
+    private static final int ROOM = 1 << 15;
+    private static final int LIST_VERSION = 1 << 16;
+    private static final int LIST_CHANGE = 1 << 17;
+    private static final int CONFIRMS = 1 << 18;
+
+    private static final ChatClientConversationStatus[] STATUS_VALUES = ChatClientConversationStatus.values();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "Binary";
+    }
+
+    @Override
+    public byte[] encode(Serializable message) throws IOException {
+        if (!(message instanceof ChatPDU)) {
+            throw new IOException("Binaere Codierung nur fuer ChatPDU moeglich: " + message.getClass().getName());
+        }
+        ChatPDU pdu = (ChatPDU) message;
+        if (pdu.getPduType() < 0 || pdu.getPduType() > 0xFF) {
+            throw new IOException("PDU-Typ nicht binaer codierbar: " + pdu.getPduType());
+        }
+
+        int fields = 0;
+        if (pdu.getUserName() != null) fields |= USER_NAME;
+        if (pdu.getEventUserName() != null) fields |= EVENT_USER_NAME;
+        if (pdu.getClientThreadName() != null) fields |= CLIENT_THREAD_NAME;
+        if (pdu.getServerThreadName() != null) fields |= SERVER_THREAD_NAME;
+        if (pdu.getMessage() != null) fields |= MESSAGE;
+        if (pdu.getClients() != null) fields |= CLIENTS;
+        if (pdu.getClientStatus() != null) fields |= CLIENT_STATUS;
+        if (pdu.getSequenceNumber() != 0) fields |= SEQUENCE_NUMBER;
+        if (pdu.getServerTime() != 0) fields |= SERVER_TIME;
+        if (pdu.getErrorCode() != 0) fields |= ERROR_CODE;
+        if (pdu.getNumberOfReceivedChatMessages() != 0) fields |= RECEIVED_CHAT_MESSAGES;
+        if (pdu.getNumberOfSentEvents() != 0) fields |= SENT_EVENTS;
+        if (pdu.getNumberOfReceivedConfirms() != 0) fields |= RECEIVED_CONFIRMS;
+        if (pdu.getNumberOfLostConfirms() != 0) fields |= LOST_CONFIRMS;
+        if (pdu.getNumberOfRetries() != 0) fields |= RETRIES;
+        if (pdu.getRoom() != null) fields |= ROOM;
+        if (pdu.getListVersion() != 0) fields |= LIST_VERSION;
+        if (pdu.getListChange() != 0) fields |= LIST_CHANGE;
+        if (pdu.getConfirms() != null) fields |= CONFIRMS;
+
+        Writer out = new Writer(64 + (pdu.getMessage() != null ? pdu.getMessage().length() : 0));
+        out.writeByte(pdu.getPduType());
+        out.writeVarLong(fields);
+        if ((fields & USER_NAME) != 0) out.writeString(pdu.getUserName());
+        if ((fields & EVENT_USER_NAME) != 0) out.writeString(pdu.getEventUserName());
+        if ((fields & CLIENT_THREAD_NAME) != 0) out.writeString(pdu.getClientThreadName());
+        if ((fields & SERVER_THREAD_NAME) != 0) out.writeString(pdu.getServerThreadName());
+        if ((fields & MESSAGE) != 0) out.writeString(pdu.getMessage());
+        if ((fields & CLIENTS) != 0) {
+            Vector<String> clients = pdu.getClients();
+            synchronized (clients) {
+                out.writeVarLong(clients.size());
+                for (String client : clients) {
+                    out.writeString(client);
+                }
+            }
+        }
+        if ((fields & CLIENT_STATUS) != 0) out.writeByte(pdu.getClientStatus().ordinal());
+        if ((fields & SEQUENCE_NUMBER) != 0) out.writeVarLong(pdu.getSequenceNumber());
+        if ((fields & SERVER_TIME) != 0) out.writeVarLong(pdu.getServerTime());
+        if ((fields & ERROR_CODE) != 0) out.writeVarLong(pdu.getErrorCode());
+        if ((fields & RECEIVED_CHAT_MESSAGES) != 0) out.writeVarLong(pdu.getNumberOfReceivedChatMessages());
+        if ((fields & SENT_EVENTS) != 0) out.writeVarLong(pdu.getNumberOfSentEvents());
+        if ((fields & RECEIVED_CONFIRMS) != 0) out.writeVarLong(pdu.getNumberOfReceivedConfirms());
+        if ((fields & LOST_CONFIRMS) != 0) out.writeVarLong(pdu.getNumberOfLostConfirms());
+        if ((fields & RETRIES) != 0) out.writeVarLong(pdu.getNumberOfRetries());
+        if ((fields & ROOM) != 0) out.writeString(pdu.getRoom());
+        if ((fields & LIST_VERSION) != 0) out.writeVarLong(pdu.getListVersion());
+        if ((fields & LIST_CHANGE) != 0) out.writeVarLong(pdu.getListChange());
+        if ((fields & CONFIRMS) != 0) {
+            Vector<CumulativeConfirm> confirms = pdu.getConfirms();
+            synchronized (confirms) {
+                out.writeVarLong(confirms.size());
+                for (CumulativeConfirm confirm : confirms) {
+                    out.writeByte(confirm.getEventType());
+                    out.writeString(confirm.getEventUserName());
+                    out.writeVarLong(confirm.getSequenceNumber());
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Serializable decode(byte[] data, int offset, int length) throws IOException {
+        Reader in = new Reader(data, offset, length);
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(in.readByte());
+        long fields = in.readVarLong();
+
+        if ((fields & USER_NAME) != 0) pdu.setUserName(in.readString());
+        if ((fields & EVENT_USER_NAME) != 0) pdu.setEventUserName(in.readString());
+        if ((fields & CLIENT_THREAD_NAME) != 0) pdu.setClientThreadName(in.readString());
+        if ((fields & SERVER_THREAD_NAME) != 0) pdu.setServerThreadName(in.readString());
+        if ((fields & MESSAGE) != 0) pdu.setMessage(in.readString());
+        if ((fields & CLIENTS) != 0) {
+            int size = in.readLength();
+            Vector<String> clients = new Vector<String>(size);
+            for (int i = 0; i < size; i++) {
+                clients.add(in.readString());
+            }
+            pdu.setClients(clients);
+        }
+        if ((fields & CLIENT_STATUS) != 0) {
+            int status = in.readByte();
+            if (status >= STATUS_VALUES.length) {
+                throw new IOException("Ungueltiger Client-Status: " + status);
+            }
+            pdu.setClientStatus(STATUS_VALUES[status]);
+        } else {
+            pdu.setClientStatus(null);
+        }
+        if ((fields & SEQUENCE_NUMBER) != 0) pdu.setSequenceNumber(in.readVarLong());
+        if ((fields & SERVER_TIME) != 0) pdu.setServerTime(in.readVarLong());
+        if ((fields & ERROR_CODE) != 0) pdu.setErrorCode((int) in.readVarLong());
+        if ((fields & RECEIVED_CHAT_MESSAGES) != 0) pdu.setNumberOfReceivedChatMessages(in.readVarLong());
+        if ((fields & SENT_EVENTS) != 0) pdu.setNumberOfSentEvents(in.readVarLong());
+        if ((fields & RECEIVED_CONFIRMS) != 0) pdu.setNumberOfEventReceivedConfirms(in.readVarLong());
+        if ((fields & LOST_CONFIRMS) != 0) pdu.setNumberOfLostEventConfirms(in.readVarLong());
+        if ((fields & RETRIES) != 0) pdu.setNumberOfRetries(in.readVarLong());
+        if ((fields & ROOM) != 0) pdu.setRoom(in.readString());
+        if ((fields & LIST_VERSION) != 0) pdu.setListVersion(in.readVarLong());
+        if ((fields & LIST_CHANGE) != 0) pdu.setListChange((int) in.readVarLong());
+        if ((fields & CONFIRMS) != 0) {
+            int size = in.readLength();
+            Vector<CumulativeConfirm> confirms = new Vector<CumulativeConfirm>(size);
+            for (int i = 0; i < size; i++) {
+                int eventType = in.readByte();
+                String eventUserName = in.readString();
+                confirms.add(new CumulativeConfirm(eventType, eventUserName, in.readVarLong()));
+            }
+            pdu.setConfirms(confirms);
+        }
+        return pdu;
+    }
+
+    /**
+     * Wachsender Ausgabepuffer
+     */
+    private static final class Writer {
+
+        private byte[] buffer;
+        private int position = 0;
+
+        Writer(int initialSize) {
+            buffer = new byte[initialSize];
+        }
+
+        private void ensure(int additional) {
+            if (position + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additional));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+    }
+
+    /**
+     * Leser ueber einen Ausschnitt eines Byte-Arrays mit Bereichspruefung
+     */
+    private static final class Reader {
+
+        private final byte[] data;
+        private int position;
+        private final int limit;
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        private void require(int n) throws IOException {
+            if (n < 0 || limit - position < n) {
+                throw new IOException("Binaer codierte PDU ist unvollstaendig");
+            }
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return data[position++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Fehlerhafter Varint in binaer codierter PDU");
+        }
+
+        int readLength() throws IOException {
+            long length = readVarLong();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Ungueltige Laenge in binaer codierter PDU: " + length);
+            }
+            return (int) length;
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            String value = new String(data, position, length, UTF8);
+            position += length;
+            return value;
+        }
+    }
+}
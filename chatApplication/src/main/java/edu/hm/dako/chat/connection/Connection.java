@@ -5,8 +5,9 @@ import java.io.Serializable;
 
 /**
  * Wird vom Client und vom Server zur Kommunikation verwendet.
+ * Die sendende Seite ist in {@link PduSender} beschrieben.
  */
-public interface Connection {  ///Implementiert von LoggingConnectionDecorateor
+public interface Connection extends PduSender {  ///Implementiert von LoggingConnectionDecorateor
 
 	/**
 	 * Blockiert maximal eine angegebene Zeit in ms bis eine serialisierte Nachricht als Java-Objekt eintrifft. 
@@ -24,19 +25,4 @@ public interface Connection {  ///Implementiert von LoggingConnectionDecorateor
 	 * @throws Exception
 	 */
 	public Serializable receive() throws Exception;
-
-	/**
-	 * Sendet eine Nachricht an den Kommunikationspartner.
-	 *
-	 * @param message Die zu sendende Nachricht.
-	 * @throws Exception
-	 */
-	public void send(Serializable message) throws Exception;
-
-	/**
-	 * Baut die Verbindung zum Kommunikationspartner ab.
-	 *
-	 * @throws Exception
-	 */
-	public void close() throws Exception;
 }
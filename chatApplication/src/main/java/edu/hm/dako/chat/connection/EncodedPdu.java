@@ -0,0 +1,52 @@
+package edu.hm.dako.chat.connection;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Nachricht, die an viele Empfaenger gesendet wird (z.B. Chat- oder Login-Events).
+ * <p>
+ * Die Nachricht wird je Codec nur einmal codiert und als fertiger Rahmen (Laengenfeld und
+ * codierte Nachricht) zwischengespeichert. Alle Verbindungen mit demselben Codec senden
+ * anschliessend denselben Rahmen. Die Nachricht darf daher nach dem Erzeugen nicht mehr
+ * veraendert werden.
+ */
+public final class EncodedPdu {
+
+    private final Serializable message;
+
+    // Fertige Rahmen, Index ist die Kennung des Codecs
+    private byte[][] frames = new byte[2][];
+
+    public EncodedPdu(Serializable message) {
+        this.message = message;
+    }
+
+    /**
+     * @return Die urspruengliche Nachricht, z.B. fuer Log-Ausgaben oder Verbindungen ohne Codec
+     */
+    public Serializable getMessage() {
+        return message;
+    }
+
+    /**
+     * Liefert den Rahmen fuer einen Codec, beim ersten Aufruf je Codec wird die Nachricht codiert.
+     * Der gelieferte Puffer wird von allen Empfaengern gemeinsam verwendet und darf nicht
+     * veraendert werden.
+     *
+     * @param codec Codec der sendenden Verbindung
+     * @return Rahmen aus Laengenfeld und codierter Nachricht
+     * @throws IOException Nachricht kann nicht codiert werden
+     */
+    public synchronized byte[] getFrame(PduCodec codec) throws IOException {
+        int id = codec.getId();
+        if (id >= frames.length) {
+            frames = Arrays.copyOf(frames, id + 1);
+        }
+        if (frames[id] == null) {
+            frames[id] = PduFrames.toBuffer(codec.encode(message)).array();
+        }
+        return frames[id];
+    }
+}
@@ -12,28 +12,21 @@ import edu.hm.dako.chat.common.ChatPDU;
  * Umschliesst eine beliebige Connection-Instanz und bietet dieselbe Schnittstelle an.
  * Beim Aufruf einer Methode wird zunaechst eine Log-Ausgabe getaetigt und
  * danach die Methode der umschlossenen Connection aufgerufen.
- * Anschliessend erfolgt eine weitere Log-Ausgabe.
+ * Anschliessend erfolgt eine weitere Log-Ausgabe. Das Senden protokolliert
+ * {@link LoggingPduSenderDecorator}.
  *
  */
-public class LoggingConnectionDecorator implements Connection {
+public class LoggingConnectionDecorator extends LoggingPduSenderDecorator implements Connection {
 
     private static Log log = LogFactory.getLog(LoggingConnectionDecorator.class);
 
     private Connection wrappedConnection;
 
     public LoggingConnectionDecorator(Connection wrappedConnection) {
+        super(wrappedConnection);
         this.wrappedConnection = wrappedConnection;
     }
 
-    @Override
-    public synchronized void send(Serializable message) throws Exception {
-        ChatPDU pdu = (ChatPDU) message;
-        log.debug("Sende Nachricht, Chat-Inhalt: " + pdu.getMessage() + ", Chat-User: " + pdu.getUserName());
-        wrappedConnection.send(message);
-        log.trace(pdu);
-        log.debug("Nachricht gesendet");
-    }
-
     @Override
     public Serializable receive() throws Exception {
         log.debug("Empfange Nachricht...");
@@ -51,11 +44,4 @@ public class LoggingConnectionDecorator implements Connection {
         log.trace(pdu);
         return pdu;
     }
-
-    @Override
-    public void close() throws Exception {
-        log.debug("Schliesse Connection...");
-        wrappedConnection.close();
-        log.debug("Connection geschlossen!");
-    }
 }
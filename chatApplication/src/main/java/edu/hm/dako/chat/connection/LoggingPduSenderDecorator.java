@@ -0,0 +1,56 @@
+package edu.hm.dako.chat.connection;
+
+import java.io.Serializable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.chat.common.ChatPDU;
+
+/**
+ * Stattet ein {@link PduSender} Objekt mit automatischem Logging aus, wie
+ * {@link LoggingConnectionDecorator} fuer die sendende Seite einer Verbindung.
+ *
+ */
+public class LoggingPduSenderDecorator implements PduSender {
+
+    private static Log log = LogFactory.getLog(LoggingPduSenderDecorator.class);
+
+    private PduSender wrappedSender;
+
+    public LoggingPduSenderDecorator(PduSender wrappedSender) {
+        this.wrappedSender = wrappedSender;
+    }
+
+    @Override
+    public void send(Serializable message) throws Exception {
+        ChatPDU pdu = (ChatPDU) message;
+        log.debug("Sende Nachricht, Chat-Inhalt: " + pdu.getMessage() + ", Chat-User: " + pdu.getUserName());
+        wrappedSender.send(message);
+        log.trace(pdu);
+        log.debug("Nachricht gesendet");
+    }
+
+    @Override
+    public void sendEncoded(EncodedPdu encodedPdu) throws Exception {
+        ChatPDU pdu = (ChatPDU) encodedPdu.getMessage();
+        log.debug("Sende codierte Nachricht, Chat-Inhalt: " + pdu.getMessage() + ", Chat-User: " + pdu.getUserName());
+        wrappedSender.sendEncoded(encodedPdu);
+        log.trace(pdu);
+        log.debug("Nachricht gesendet");
+    }
+
+    @Override
+    public void shutdownOutput() throws Exception {
+        log.debug("Baue Senderichtung der Connection ab...");
+        wrappedSender.shutdownOutput();
+        log.debug("Senderichtung abgebaut!");
+    }
+
+    @Override
+    public void close() throws Exception {
+        log.debug("Schliesse Connection...");
+        wrappedSender.close();
+        log.debug("Connection geschlossen!");
+    }
+}
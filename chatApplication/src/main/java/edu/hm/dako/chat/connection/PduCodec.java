@@ -0,0 +1,47 @@
+package edu.hm.dako.chat.connection;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Codierung einer Nachricht fuer die Uebertragung.
+ * <p>
+ * Welcher Codec fuer eine Verbindung verwendet wird, handeln Client und Server beim
+ * Verbindungsaufbau aus, siehe {@link PduCodecs}.
+ */
+public interface PduCodec {
+
+	/**
+	 * Liefert die Kennung des Codecs, die beim Verbindungsaufbau uebertragen wird.
+	 *
+	 * @return Kennung des Codecs
+	 */
+	public byte getId();
+
+	/**
+	 * Liefert den Namen des Codecs fuer Log-Ausgaben.
+	 *
+	 * @return Name des Codecs
+	 */
+	public String getName();
+
+	/**
+	 * Codiert eine Nachricht ohne Rahmenkopf.
+	 *
+	 * @param message Zu codierende Nachricht
+	 * @return Codierte Nachricht
+	 * @throws IOException Nachricht kann nicht codiert werden
+	 */
+	public byte[] encode(Serializable message) throws IOException;
+
+	/**
+	 * Decodiert eine Nachricht.
+	 *
+	 * @param data Puffer mit der codierten Nachricht
+	 * @param offset Beginn der Nachricht im Puffer
+	 * @param length Laenge der Nachricht
+	 * @return Decodierte Nachricht
+	 * @throws IOException Nachricht ist fehlerhaft
+	 */
+	public Serializable decode(byte[] data, int offset, int length) throws IOException;
+}
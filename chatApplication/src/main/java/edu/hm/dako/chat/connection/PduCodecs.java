@@ -0,0 +1,62 @@
+package edu.hm.dako.chat.connection;
+
+/**
+ * Verfuegbare Codecs und Aushandlung beim Verbindungsaufbau.
+ * <p>
+ * Der Client sendet direkt nach dem Verbindungsaufbau ein Byte mit der Kennung des gewuenschten
+ * Codecs. Der Server antwortet mit der Kennung des Codecs, der fuer die Verbindung verwendet
+ * wird. Kennt der Server den gewuenschten Codec nicht, wird die Java-Serialisierung verwendet.
+ * <p>
+ * Der vom Client gewuenschte Codec kann ueber die System-Property {@value #CODEC_PROPERTY}
+ * ("binary" oder "serialization") eingestellt werden, Standard ist die binaere Codierung.
+ */
+public final class PduCodecs {
+
+    public static final String CODEC_PROPERTY = "edu.hm.dako.chat.codec";
+
+    public static final PduCodec SERIALIZATION = new SerializationPduCodec();
+    public static final PduCodec BINARY = new BinaryPduCodec();
+
+    private PduCodecs() {
+    }
+
+    /**
+     * Liefert den Codec zu einer Kennung
+     *
+     * @param id Kennung des Codecs
+     * @return Codec oder null, falls die Kennung unbekannt ist
+     */
+    public static PduCodec getById(int id) {
+        if (id == SerializationPduCodec.ID) {
+            return SERIALIZATION;
+        }
+        if (id == BinaryPduCodec.ID) {
+            return BINARY;
+        }
+        return null;
+    }
+
+    /**
+     * Serverseitige Auswahl des Codecs zu einem Vorschlag des Clients
+     *
+     * @param proposedId Vom Client vorgeschlagene Kennung
+     * @return Zu verwendender Codec, bei unbekannter Kennung die Java-Serialisierung
+     */
+    public static PduCodec negotiate(int proposedId) {
+        PduCodec codec = getById(proposedId);
+        return codec != null ? codec : SERIALIZATION;
+    }
+
+    /**
+     * Liefert den Codec, den ein Client beim Verbindungsaufbau vorschlaegt
+     *
+     * @return Gewuenschter Codec
+     */
+    public static PduCodec getPreferred() {
+        String name = System.getProperty(CODEC_PROPERTY, "binary");
+        if (name.equalsIgnoreCase("serialization")) {
+            return SERIALIZATION;
+        }
+        return BINARY;
+    }
+}
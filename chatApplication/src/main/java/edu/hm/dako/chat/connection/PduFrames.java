@@ -0,0 +1,49 @@
+package edu.hm.dako.chat.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Rahmenbildung fuer PDUs auf einem Bytestrom.
+ * <p>
+ * Jede Nachricht wird mit einem {@link PduCodec} einzeln codiert und mit einem 4 Byte langen
+ * Laengenfeld versehen. Damit kann ein Empfaenger die Nachrichtengrenzen erkennen, ohne aus
+ * einem durchgehenden Objektstrom lesen zu muessen.
+ */
+public final class PduFrames {
+
+    // Laenge des Rahmenkopfes (Laengenfeld) in Byte
+    public static final int HEADER_LENGTH = 4;
+
+    // Obergrenze fuer die Laenge einer Nachricht, schuetzt vor fehlerhaften Laengenfeldern
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private PduFrames() {
+    }
+
+    /**
+     * Erzeugt einen sendebereiten Puffer aus Rahmenkopf und Nachricht
+     *
+     * @param payload Codierte Nachricht
+     * @return Puffer, der zum Lesen positioniert ist
+     */
+    public static ByteBuffer toBuffer(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Prueft ein empfangenes Laengenfeld
+     *
+     * @param length Empfangene Laenge
+     * @throws IOException falls die Laenge ungueltig ist
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Ungueltige Nachrichtenlaenge: " + length);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package edu.hm.dako.chat.connection;
+
+
+import java.io.Serializable;
+
+/**
+ * Sendende Seite einer Verbindung. Wird serverseitig fuer die Ausgangswarteschlangen der Clients
+ * verwendet, die Nachrichten nur senden. Verbindungen, deren Nachrichten der Server nicht selbst
+ * ueber receive() abholt (z.B. die NIO-Event-Loop), implementieren nur diese Schnittstelle.
+ */
+public interface PduSender {
+
+	/**
+	 * Sendet eine Nachricht an den Kommunikationspartner.
+	 *
+	 * @param message Die zu sendende Nachricht.
+	 * @throws Exception
+	 */
+	public void send(Serializable message) throws Exception;
+
+	/**
+	 * Sendet eine bereits codierte Nachricht an den Kommunikationspartner.
+	 * Wird fuer Nachrichten an viele Empfaenger verwendet, damit die Nachricht nicht fuer
+	 * jeden Empfaenger erneut codiert werden muss.
+	 *
+	 * @param pdu Die zu sendende, ggf. bereits codierte Nachricht.
+	 * @throws Exception
+	 */
+	public void sendEncoded(EncodedPdu pdu) throws Exception;
+
+	/**
+	 * Baut nur die Senderichtung ab: Der Kommunikationspartner empfaengt noch alle gesendeten
+	 * Nachrichten und danach das Verbindungsende, empfangen kann diese Seite weiterhin.
+	 *
+	 * @throws Exception
+	 */
+	public void shutdownOutput() throws Exception;
+
+	/**
+	 * Baut die Verbindung zum Kommunikationspartner ab.
+	 *
+	 * @throws Exception
+	 */
+	public void close() throws Exception;
+}
@@ -0,0 +1,96 @@
+package edu.hm.dako.chat.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Codierung ueber Java-Objektserialisierung.
+ * <p>
+ * Wird verwendet, wenn sich Client und Server auf keinen anderen Codec einigen koennen.
+ * <p>
+ * Jede codierte PDU muss fuer sich decodierbar sein, da sie fuer mehrere Empfaenger nur einmal
+ * codiert wird (siehe {@link EncodedPdu}). Ein Objektstrom je Verbindung scheidet damit aus.
+ * Damit nicht fuer jede PDU ein neuer Objektstrom mit seinen Puffern angelegt wird, verwendet
+ * jeder Thread seinen Objektstrom wieder: Vor jeder PDU wird er mit reset() zurueckgesetzt,
+ * damit sie keine Rueckverweise auf fruehere PDUs enthaelt, und der Stream-Header wird ihr
+ * vorangestellt.
+ */
+public class SerializationPduCodec implements PduCodec {
+
+    public static final byte ID = 0;
+
+    // Groessere Puffer werden nach dem Codieren nicht im Thread aufbewahrt
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    // Wiederverwendeter Objektstrom je Thread, wird bei Bedarf angelegt
+    private static final ThreadLocal<ReusableOutput> outputs = new ThreadLocal<ReusableOutput>();
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "Serialization";
+    }
+
+    @Override
+    public byte[] encode(Serializable message) throws IOException {
+        ReusableOutput output = outputs.get();
+        if (output == null) {
+            output = new ReusableOutput();
+            outputs.set(output);
+        }
+        boolean reusable = false;
+        try {
+            byte[] data = output.encode(message);
+            reusable = data.length <= MAX_RETAINED_SIZE;
+            return data;
+        } finally {
+            if (!reusable) {
+                // Nach einem Fehler ist der Zustand des Objektstroms undefiniert
+                outputs.remove();
+            }
+        }
+    }
+
+    @Override
+    public Serializable decode(byte[] data, int offset, int length) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length));
+        try {
+            return (Serializable) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Objektstrom eines Threads mit seinem Puffer
+     */
+    private static final class ReusableOutput {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        private final ObjectOutputStream out;
+        private final byte[] header;
+
+        ReusableOutput() throws IOException {
+            out = new ObjectOutputStream(bytes);
+            out.flush();
+            header = bytes.toByteArray();
+        }
+
+        byte[] encode(Serializable message) throws IOException {
+            bytes.reset();
+            bytes.write(header, 0, header.length);
+            out.reset();
+            out.writeObject(message);
+            out.flush();
+            return bytes.toByteArray();
+        }
+    }
+}
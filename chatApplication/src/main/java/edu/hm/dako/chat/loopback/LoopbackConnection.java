@@ -0,0 +1,90 @@
+package edu.hm.dako.chat.loopback;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduFrames;
+
+/**
+ * Verbindung innerhalb einer JVM ohne Netzwerk: je Richtung eine {@link LoopbackPipe}.
+ * <p>
+ * Nachrichten werden wie bei einer TCP-Verbindung mit dem Codec in Rahmen codiert und beim
+ * Empfangen decodiert. Sender und Empfaenger teilen sich damit keine Objekte, und die Kosten
+ * der Codierung bleiben Teil der Messung. Beide Seiten verwenden denselben Codec, eine
+ * Aushandlung ist nicht noetig.
+ */
+public class LoopbackConnection implements Connection {
+
+    private final LoopbackPipe in;
+    private final LoopbackPipe out;
+    private final PduCodec codec;
+
+    LoopbackConnection(LoopbackPipe in, LoopbackPipe out, PduCodec codec) {
+        this.in = in;
+        this.out = out;
+        this.codec = codec;
+    }
+
+    /**
+     * Erzeugt ein Paar verbundener Verbindungen
+     *
+     * @param codec                Codec beider Seiten
+     * @param clientToServerBuffer Puffer fuer Nachrichten an den Server in Byte
+     * @param serverToClientBuffer Puffer fuer Nachrichten an den Client in Byte
+     * @return Clientseitige Verbindung an Index 0, serverseitige Verbindung an Index 1
+     */
+    static LoopbackConnection[] createPair(PduCodec codec, int clientToServerBuffer, int serverToClientBuffer) {
+        LoopbackPipe toServer = new LoopbackPipe(clientToServerBuffer);
+        LoopbackPipe toClient = new LoopbackPipe(serverToClientBuffer);
+        return new LoopbackConnection[]{
+                new LoopbackConnection(toClient, toServer, codec),
+                new LoopbackConnection(toServer, toClient, codec)};
+    }
+
+    @Override
+    public Serializable receive(int timeout) throws Exception {
+        return decode(in.read(timeout));
+    }
+
+    @Override
+    public Serializable receive() throws Exception {
+        return decode(in.read(0));
+    }
+
+    @Override
+    public void send(Serializable message) throws Exception {
+        out.write(PduFrames.toBuffer(codec.encode(message)).array());
+    }
+
+    @Override
+    public void sendEncoded(EncodedPdu pdu) throws Exception {
+        // Der Rahmen wird von allen Empfaengern gemeinsam verwendet und nur gelesen
+        out.write(pdu.getFrame(codec));
+    }
+
+    /**
+     * Baut die Senderichtung ab: Der Partner empfaengt noch alle gesendeten Nachrichten und
+     * danach EOF
+     */
+    @Override
+    public void shutdownOutput() {
+        out.close();
+    }
+
+    /**
+     * Baut die Verbindung ab: Der Partner empfaengt noch alle gesendeten Nachrichten und danach
+     * EOF, ein auf dieser Seite blockierter Empfang endet sofort mit EOF.
+     */
+    @Override
+    public void close() {
+        out.close();
+        in.close();
+    }
+
+    private Serializable decode(byte[] frame) throws IOException {
+        return codec.decode(frame, PduFrames.HEADER_LENGTH, frame.length - PduFrames.HEADER_LENGTH);
+    }
+}
@@ -0,0 +1,30 @@
+package edu.hm.dako.chat.loopback;
+
+import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.ConnectionFactory;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduCodecs;
+
+/**
+ * Verbindungsaufbau zu einem {@link LoopbackServerSocket} im selben Prozess. Die Adresse des
+ * Servers und der lokale Port werden nicht verwendet, der Server wird nur ueber seinen Port
+ * gefunden.
+ */
+public class LoopbackConnectionFactory implements ConnectionFactory {
+
+    private final PduCodec codec;
+
+    public LoopbackConnectionFactory() {
+        this(PduCodecs.getPreferred());
+    }
+
+    public LoopbackConnectionFactory(PduCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public Connection connectToServer(String remoteServerAddress, int serverPort, int localPort,
+                                      int sendBufferSize, int receiveBufferSize) throws Exception {
+        return LoopbackServerSocket.connect(serverPort, codec, sendBufferSize, receiveBufferSize);
+    }
+}
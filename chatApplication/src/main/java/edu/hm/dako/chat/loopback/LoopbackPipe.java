@@ -0,0 +1,109 @@
+package edu.hm.dako.chat.loopback;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Eine Uebertragungsrichtung einer {@link LoopbackConnection}: Warteschlange fertiger Rahmen,
+ * begrenzt wie ein TCP-Puffer auf eine Anzahl Bytes. Ist die Grenze erreicht, blockiert der
+ * Sender, bis der Empfaenger Rahmen abgeholt hat.
+ * <p>
+ * Nach {@link #close()} liefert der Empfaenger noch alle bereits eingereihten Rahmen und danach
+ * EOF, Sender erhalten sofort eine Exception.
+ */
+class LoopbackPipe {
+
+    // Markiert das Ende der Uebertragung in der Warteschlange
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final LinkedBlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+
+    // Freier Platz in Byte
+    private final Semaphore space;
+    private final int capacity;
+    private volatile boolean closed;
+
+    /**
+     * Konstruktor
+     *
+     * @param capacity Maximale Anzahl Bytes, die gesendet, aber noch nicht empfangen sind
+     */
+    LoopbackPipe(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.space = new Semaphore(this.capacity);
+    }
+
+    /**
+     * Reiht einen Rahmen ein, blockiert solange nicht genug Platz frei ist
+     *
+     * @param frame Rahmen, wird nicht kopiert und darf danach nicht mehr veraendert werden
+     * @throws IOException Uebertragungsrichtung ist geschlossen
+     */
+    void write(byte[] frame) throws IOException {
+        if (closed) {
+            throw new SocketException("Verbindung geschlossen");
+        }
+        // Rahmen groesser als der Puffer belegen den ganzen Puffer
+        int size = Math.min(frame.length, capacity);
+        try {
+            space.acquire(size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Senden unterbrochen");
+        }
+        if (closed) {
+            space.release(size);
+            throw new SocketException("Verbindung geschlossen");
+        }
+        frames.add(frame);
+    }
+
+    /**
+     * Holt den naechsten Rahmen ab
+     *
+     * @param timeout Maximale Wartezeit in ms, 0 wartet unbegrenzt
+     * @return Rahmen
+     * @throws IOException Ende der Uebertragung, Wartezeit abgelaufen oder Unterbrechung
+     */
+    byte[] read(int timeout) throws IOException {
+        byte[] frame;
+        try {
+            if (timeout > 0) {
+                frame = frames.poll(timeout, TimeUnit.MILLISECONDS);
+            } else {
+                frame = frames.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Empfangen unterbrochen");
+        }
+        if (frame == null) {
+            throw new SocketTimeoutException("Keine Nachricht innerhalb von " + timeout + " ms empfangen");
+        }
+        if (frame == END_OF_STREAM) {
+            // Auch weitere Empfaenger sehen das Ende
+            frames.add(END_OF_STREAM);
+            throw new EOFException("Verbindung vom Partner abgebaut");
+        }
+        space.release(Math.min(frame.length, capacity));
+        return frame;
+    }
+
+    /**
+     * Schliesst die Uebertragungsrichtung, blockierte Sender werden freigegeben
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frames.add(END_OF_STREAM);
+        space.release(capacity);
+    }
+}
@@ -0,0 +1,107 @@
+package edu.hm.dako.chat.loopback;
+
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.ServerSocket;
+
+/**
+ * Server-Socket innerhalb einer JVM ohne Netzwerk.
+ * <p>
+ * Der Socket meldet sich unter seiner Portnummer in einer prozessweiten Tabelle an, die
+ * {@link LoopbackConnectionFactory} sucht dort den Server zu einem Port. Server und Clients
+ * muessen daher im selben Prozess laufen.
+ */
+public class LoopbackServerSocket implements ServerSocket {
+
+    private static Log log = LogFactory.getLog(LoopbackServerSocket.class);
+
+    // Alle offenen Server-Sockets des Prozesses, Schluessel ist die Portnummer
+    private static final ConcurrentHashMap<Integer, LoopbackServerSocket> listeners =
+            new ConcurrentHashMap<Integer, LoopbackServerSocket>();
+
+    // Weckt ein blockiertes accept() beim Schliessen auf
+    private static final LoopbackConnection CLOSED_MARKER = new LoopbackConnection(null, null, null);
+
+    private final int port;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final LinkedBlockingQueue<LoopbackConnection> pendingConnections =
+            new LinkedBlockingQueue<LoopbackConnection>();
+    private volatile boolean closed;
+
+    /**
+     * Konstruktor
+     *
+     * @param port              Portnummer, unter der Clients den Server finden
+     * @param sendBufferSize    Sendepuffer je Verbindung in Byte
+     * @param receiveBufferSize Empfangspuffer je Verbindung in Byte
+     * @throws BindException Port ist bereits belegt
+     */
+    public LoopbackServerSocket(int port, int sendBufferSize, int receiveBufferSize) throws BindException {
+        this.port = port;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        if (listeners.putIfAbsent(port, this) != null) {
+            throw new BindException("Loopback-Port " + port + " ist bereits belegt");
+        }
+        log.debug("Loopback-Server-Socket fuer Port " + port + " angelegt");
+    }
+
+    /**
+     * Baut eine Verbindung zu dem Server unter einem Port auf
+     *
+     * @param port              Portnummer des Servers
+     * @param codec             Codec der Verbindung
+     * @param sendBufferSize    Sendepuffer des Clients in Byte
+     * @param receiveBufferSize Empfangspuffer des Clients in Byte
+     * @return Clientseitige Verbindung
+     * @throws ConnectException Kein Server unter dem Port
+     */
+    static LoopbackConnection connect(int port, PduCodec codec, int sendBufferSize, int receiveBufferSize)
+            throws ConnectException {
+        LoopbackServerSocket server = listeners.get(port);
+        if (server == null || server.closed) {
+            throw new ConnectException("Kein Loopback-Server an Port " + port);
+        }
+        // Wie bei TCP nimmt eine Richtung den Sende- und den Empfangspuffer auf
+        LoopbackConnection[] pair = LoopbackConnection.createPair(codec,
+                sendBufferSize + server.receiveBufferSize, server.sendBufferSize + receiveBufferSize);
+        server.pendingConnections.add(pair[1]);
+        return pair[0];
+    }
+
+    @Override
+    public Connection accept() throws Exception {
+        LoopbackConnection connection = pendingConnections.take();
+        if (connection == CLOSED_MARKER) {
+            pendingConnections.add(CLOSED_MARKER);
+            throw new SocketException("Socket closed");
+        }
+        return connection;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        listeners.remove(port, this);
+        pendingConnections.add(CLOSED_MARKER);
+        log.debug("Loopback-Server-Socket fuer Port " + port + " geschlossen");
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,126 @@
+package edu.hm.dako.chat.nio;
+
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import edu.hm.dako.chat.server.ChatServer;
+import edu.hm.dako.chat.server.EventConfirmHandler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * <p>
+ * Chat-Server-Implementierung auf Basis von java.nio.
+ * <p>
+ * Anstelle eines Worker-Threads je Client bedient eine kleine, feste Anzahl von Event-Loops
+ * alle Verbindungen. Der aufrufende Thread von {@link #start()} nimmt Verbindungsaufbauwuensche
+ * entgegen und verteilt die neuen Verbindungen reihum auf die Event-Loops. Der Zustandsautomat
+ * ist derselbe wie im TCP-Server, siehe {@link edu.hm.dako.chat.server.AbstractChatWorker}.
+ */
+public class NioChatServerImpl implements ChatServer {
+
+    private static Log log = LogFactory.getLog(NioChatServerImpl.class);
+
+    private final int port;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+
+    // Event-Loops, auf die die Verbindungen verteilt werden
+    private final NioEventLoop[] eventLoops;
+
+    // Listen-Socket, ueber den alle Verbindungsaufbauwuensche der Clients ankommen
+    private ServerSocketChannel serverChannel;
+
+    // Gemeinsam fuer alle Event-Loops verwaltete Liste aller eingeloggten Clients
+    private SharedChatClientList clients;
+
+    // Ausgangswarteschlangen aller Clients inkl. Writer-Threads
+    private final OutboundDispatcher outboundDispatcher;
+
+    /**
+     * Konstruktor fuer den Server
+     *
+     * @param port               Port, an dem der Server horcht
+     * @param sendBufferSize     Groesse des Sendepuffers je Verbindung in Byte
+     * @param receiveBufferSize  Groesse des Empfangspuffers je Verbindung in Byte
+     * @param numberOfEventLoops Anzahl der Event-Loop-Threads
+     * @param outboundDispatcher Verwaltung der Ausgangswarteschlangen
+     * @throws IOException Listen-Socket kann nicht angelegt werden
+     */
+    public NioChatServerImpl(int port, int sendBufferSize, int receiveBufferSize, int numberOfEventLoops,
+                             OutboundDispatcher outboundDispatcher) throws IOException {
+        log.debug("NioChatServerImpl konstruiert, Anzahl Event-Loops: " + numberOfEventLoops);
+        this.port = port;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.clients = SharedChatClientList.getInstance();
+        this.outboundDispatcher = outboundDispatcher;
+        outboundDispatcher.setListener(new EventConfirmHandler(clients));
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReceiveBufferSize(receiveBufferSize);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+
+        eventLoops = new NioEventLoop[numberOfEventLoops];
+        for (int i = 0; i < numberOfEventLoops; i++) {
+            eventLoops[i] = new NioEventLoop("NioEventLoop-" + (i + 1), clients, outboundDispatcher);
+        }
+    }
+
+    @Override
+    public void start() {
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+
+        int next = 0;
+        System.out.println("NioChatServer wartet auf Verbindungsanfragen von Clients an Port " + port + "...");
+        while (!Thread.currentThread().isInterrupted() && serverChannel.isOpen()) {
+            try {
+                // Auf ankommende Verbindungsaufbauwuensche warten
+                SocketChannel channel = serverChannel.accept();
+                log.debug("Neuer Verbindungsaufbauwunsch empfangen");
+                configure(channel);
+
+                // Verbindung reihum einer Event-Loop zuordnen
+                eventLoops[next].register(channel);
+                next = (next + 1) % eventLoops.length;
+            } catch (Exception e) {
+                if (serverChannel.isOpen()) {
+                    log.error("Exception beim Entgegennehmen von Verbindungsaufbauwuenschen: " + e);
+                    ExceptionHandler.logException(e);
+                }
+            }
+        }
+    }
+
+    private void configure(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setSendBufferSize(sendBufferSize);
+        channel.socket().setReceiveBufferSize(receiveBufferSize);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setKeepAlive(false);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        System.out.println("NioChatServer beendet sich");
+        // Loeschen der Userliste
+        clients.deleteAll();
+        serverChannel.close();
+        log.debug("Listen-Socket geschlossen");
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.join();
+        }
+        log.debug("Event-Loops beendet");
+        outboundDispatcher.shutdown();
+    }
+}
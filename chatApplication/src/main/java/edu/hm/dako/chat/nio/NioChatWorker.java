@@ -0,0 +1,44 @@
+package edu.hm.dako.chat.nio;
+
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import edu.hm.dako.chat.connection.LoggingPduSenderDecorator;
+import edu.hm.dako.chat.server.AbstractChatWorker;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Serverseitige Bedienung einer Session mit einem Client im NIO-Server.
+ * <p>
+ * Im Unterschied zum {@code ChatWorker} des TCP-Servers besitzt ein NioChatWorker keinen eigenen
+ * Thread. Er wird von der {@link NioEventLoop} aufgerufen, sobald Nachrichten seines Clients
+ * vorliegen, und darf daher nie blockieren.
+ */
+class NioChatWorker extends AbstractChatWorker {
+
+    private static Log log = LogFactory.getLog(NioChatWorker.class);
+
+    private final NioConnection nioConnection;
+
+    NioChatWorker(NioConnection nioConnection, SharedChatClientList clients, OutboundDispatcher outboundDispatcher) {
+        super(new LoggingPduSenderDecorator(nioConnection), clients, outboundDispatcher);
+        this.nioConnection = nioConnection;
+    }
+
+    NioConnection getNioConnection() {
+        return nioConnection;
+    }
+
+    /**
+     * Verbindung zu einem Client abbauen.
+     * <p>
+     * Steht der Client noch in Wartelisten, kann er diese Events nicht mehr bestaetigen und wird
+     * zwangsweise entfernt, damit die ausloesenden Clients ihre Responses erhalten.
+     */
+    void closeConnection() {
+        log.debug("Schliessen der Chat-Connection zum Client " + userName);
+        finished = true;
+        removeFromClientList();
+        closeOutbound();
+    }
+}
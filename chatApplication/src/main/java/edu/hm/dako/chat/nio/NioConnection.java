@@ -0,0 +1,276 @@
+package edu.hm.dako.chat.nio;
+
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduCodecs;
+import edu.hm.dako.chat.connection.PduFrames;
+import edu.hm.dako.chat.connection.PduSender;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Serverseitige Verbindung ueber einen nicht blockierenden {@link SocketChannel}.
+ * <p>
+ * Gelesen wird ausschliesslich durch die zugeordnete {@link NioEventLoop}, die Verbindung bietet
+ * daher nur die sendende Seite ({@link PduSender}) an. Gesendet werden darf
+ * aus beliebigen Threads: Die Nachricht wird sofort geschrieben, soweit der Sendepuffer des
+ * Sockets das zulaesst. Der Rest wird in einer Warteschlange abgelegt und von der Event-Loop
+ * geschrieben, sobald der Socket wieder schreibbar ist. Die Event-Loop selbst blockiert beim
+ * Senden nie, andere Threads (Writer-Threads der Ausgangswarteschlangen) warten, solange mehr als
+ * {@link #MAX_PENDING_BYTES} Byte auf das Senden warten. So staut sich die Last eines langsamen
+ * Clients in seiner begrenzten Ausgangswarteschlange und nicht unbegrenzt in dieser Verbindung.
+ * Gewartet wird wie in {@link edu.hm.dako.chat.tcp.TcpConnection} unter einer
+ * {@link ReentrantLock}, ein virtueller Writer-Thread gibt dabei seinen Traeger-Thread frei.
+ * <p>
+ * Das erste empfangene Byte ist der Codec-Vorschlag des Clients, siehe {@link PduCodecs}.
+ */
+public class NioConnection implements PduSender {
+
+    private static Log log = LogFactory.getLog(NioConnection.class);
+
+    private static final int INITIAL_READ_BUFFER_SIZE = 8192;
+
+    // Obergrenze fuer zurueckgestellte Daten, ab der sendende Threads warten
+    static final int MAX_PENDING_BYTES = 256 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+
+    // Empfangspuffer, nur von der Event-Loop verwendet
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+    // Noch nicht vollstaendig gesendete Nachrichten, Zugriff nur unter writeLock
+    private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Signalisiert, dass Daten gesendet oder die Verbindung geschlossen wurde
+    private final Condition writeProgress = writeLock.newCondition();
+    private long pendingBytes = 0;
+
+    // Kennzeichen, dass die Verbindung nach dem Senden aller Nachrichten geschlossen werden soll
+    private boolean closeRequested = false;
+
+    // Kennzeichen, dass nach dem Senden aller Nachrichten die Senderichtung abgebaut werden soll
+    private boolean shutdownRequested = false;
+
+    // Ausgehandelter Codec, null solange der Vorschlag des Clients noch nicht empfangen wurde
+    private volatile PduCodec codec;
+
+    NioConnection(SocketChannel channel, NioEventLoop eventLoop) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Liest alle aktuell verfuegbaren Daten vom Socket und liefert die darin
+     * vollstaendig enthaltenen Nachrichten
+     *
+     * @return Empfangene PDUs, ggf. leer
+     * @throws IOException Verbindung abgebaut oder Daten fehlerhaft
+     */
+    List<ChatPDU> read() throws IOException {
+        List<ChatPDU> pdus = new ArrayList<ChatPDU>(1);
+        int n = channel.read(readBuffer);
+        if (n < 0) {
+            throw new EOFException("Verbindung vom Client abgebaut");
+        }
+
+        readBuffer.flip();
+        if (codec == null) {
+            if (!readBuffer.hasRemaining()) {
+                readBuffer.compact();
+                return pdus;
+            }
+            acceptCodec(readBuffer.get());
+        }
+        while (readBuffer.remaining() >= PduFrames.HEADER_LENGTH) {
+            int length = readBuffer.getInt(readBuffer.position());
+            PduFrames.checkLength(length);
+            if (readBuffer.remaining() < PduFrames.HEADER_LENGTH + length) {
+                if (readBuffer.capacity() < PduFrames.HEADER_LENGTH + length) {
+                    // Nachricht passt nicht in den Puffer, Puffer vergroessern
+                    ByteBuffer larger = ByteBuffer.allocate(PduFrames.HEADER_LENGTH + length);
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                    return pdus;
+                }
+                break;
+            }
+            readBuffer.position(readBuffer.position() + PduFrames.HEADER_LENGTH);
+            pdus.add((ChatPDU) codec.decode(readBuffer.array(), readBuffer.position(), length));
+            readBuffer.position(readBuffer.position() + length);
+        }
+        readBuffer.compact();
+        return pdus;
+    }
+
+    /**
+     * Beantwortet den Codec-Vorschlag des Clients
+     *
+     * @param proposedId Vom Client vorgeschlagene Kennung
+     */
+    private void acceptCodec(int proposedId) {
+        PduCodec selected = PduCodecs.negotiate(proposedId);
+        ByteBuffer reply = ByteBuffer.allocate(1);
+        reply.put(selected.getId());
+        reply.flip();
+        codec = selected;
+        log.debug("Codec fuer die Verbindung: " + selected.getName());
+        enqueue(reply);
+    }
+
+    /**
+     * Schreibt zurueckgestellte Nachrichten, wird von der Event-Loop aufgerufen, wenn der Socket
+     * schreibbar ist
+     *
+     * @return true, wenn alle Nachrichten gesendet wurden
+     * @throws IOException
+     */
+    boolean flush() throws IOException {
+        writeLock.lock();
+        try {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer buffer = writeQueue.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return false;
+                }
+                writeQueue.poll();
+                pendingBytes -= buffer.capacity();
+                writeProgress.signalAll();
+            }
+            if (closeRequested) {
+                closeChannel();
+            } else if (shutdownRequested) {
+                shutdownChannelOutput();
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void send(Serializable message) throws Exception {
+        if (codec == null) {
+            log.debug("Sendeversuch vor Abschluss der Codec-Aushandlung");
+            return;
+        }
+        enqueue(PduFrames.toBuffer(codec.encode(message)));
+    }
+
+    @Override
+    public void sendEncoded(EncodedPdu pdu) throws Exception {
+        if (codec == null) {
+            log.debug("Sendeversuch vor Abschluss der Codec-Aushandlung");
+            return;
+        }
+        // Eigener Puffer je Verbindung ueber dem gemeinsam genutzten Rahmen
+        enqueue(ByteBuffer.wrap(pdu.getFrame(codec)));
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        writeLock.lock();
+        try {
+            if (closeRequested || shutdownRequested || !channel.isOpen()) {
+                log.debug("Sendeversuch, obwohl Verbindung nicht mehr steht");
+                return;
+            }
+            if (writeQueue.isEmpty()) {
+                try {
+                    channel.write(buffer);
+                } catch (IOException e) {
+                    log.debug("Exception beim Sendeversuch: " + e.getMessage());
+                    return;
+                }
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            writeQueue.add(buffer);
+            pendingBytes += buffer.capacity();
+        } finally {
+            writeLock.unlock();
+        }
+        // Rest sendet die Event-Loop, sobald der Socket schreibbar ist
+        eventLoop.requestWrite(this);
+
+        if (Thread.currentThread() != eventLoop) {
+            writeLock.lock();
+            try {
+                while (pendingBytes > MAX_PENDING_BYTES && channel.isOpen() && !closeRequested) {
+                    // Zeitbegrenzt, da die Event-Loop den Kanal bei Fehlern direkt schliesst
+                    writeProgress.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+        writeLock.lock();
+        try {
+            shutdownRequested = true;
+            if (writeQueue.isEmpty()) {
+                shutdownChannelOutput();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            closeRequested = true;
+            if (writeQueue.isEmpty()) {
+                closeChannel();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Baut die Senderichtung des Kanals ab, nur unter writeLock aufzurufen. Gelesen wird weiter,
+     * bis der Client die Verbindung abbaut.
+     */
+    private void shutdownChannelOutput() throws IOException {
+        if (channel.isOpen() && !channel.socket().isOutputShutdown()) {
+            log.debug("Senderichtung wird abgebaut, entfernter Port: " + channel.socket().getPort());
+            channel.shutdownOutput();
+        }
+    }
+
+    /**
+     * Schliesst den Kanal, nur unter writeLock aufzurufen
+     */
+    private void closeChannel() throws IOException {
+        writeProgress.signalAll();
+        if (channel.isOpen()) {
+            log.debug("Verbindungssocket wird geschlossen, entfernter Port: " + channel.socket().getPort());
+            channel.close();
+        }
+    }
+}
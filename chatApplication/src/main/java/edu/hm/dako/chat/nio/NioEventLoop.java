@@ -0,0 +1,183 @@
+package edu.hm.dako.chat.nio;
+
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.OutboundQueue;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event-Loop des NIO-Servers.
+ * <p>
+ * Jede Event-Loop bedient mit einem einzigen Thread und einem {@link Selector} eine Teilmenge
+ * aller Verbindungen. Ankommende Nachrichten werden direkt im Thread der Event-Loop durch den
+ * zugehoerigen {@link NioChatWorker} verarbeitet.
+ */
+class NioEventLoop extends Thread {
+
+    private static Log log = LogFactory.getLog(NioEventLoop.class);
+
+    // Maximale Wartezeit im Selector
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final Selector selector;
+    private final SharedChatClientList clients;
+    private final OutboundDispatcher outboundDispatcher;
+
+    // Neu angenommene Verbindungen, die noch beim Selector registriert werden muessen
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+
+    // Verbindungen mit zurueckgestellten Nachrichten
+    private final Queue<NioConnection> writeRequests = new ConcurrentLinkedQueue<NioConnection>();
+
+    private volatile boolean running = true;
+
+    NioEventLoop(String name, SharedChatClientList clients, OutboundDispatcher outboundDispatcher) throws IOException {
+        setName(name);
+        this.selector = Selector.open();
+        this.clients = clients;
+        this.outboundDispatcher = outboundDispatcher;
+    }
+
+    /**
+     * Uebergibt eine neu angenommene Verbindung an die Event-Loop
+     *
+     * @param channel Nicht blockierender Socket-Channel
+     */
+    void register(SocketChannel channel) {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Meldet, dass fuer eine Verbindung Nachrichten zum Senden zurueckgestellt wurden
+     *
+     * @param connection Verbindung
+     */
+    void requestWrite(NioConnection connection) {
+        writeRequests.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Beenden der Event-Loop
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        log.debug(getName() + " gestartet");
+        // Die Event-Loop darf auch bei vollen Ausgangswarteschlangen nie warten
+        OutboundQueue.markNonBlockingThread();
+
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT);
+                registerNewChannels();
+                processWriteRequests();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioChatWorker worker = (NioChatWorker) key.attachment();
+                    if (key.isValid() && key.isWritable()) {
+                        handleWrite(key, worker);
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        handleRead(key, worker);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Exception in der Event-Loop " + getName());
+                ExceptionHandler.logException(e);
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioChatWorker) key.attachment()).closeConnection();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            ExceptionHandler.logException(e);
+        }
+        log.debug(getName() + " beendet sich");
+    }
+
+    private void registerNewChannels() throws IOException {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            NioConnection connection = new NioConnection(channel, this);
+            NioChatWorker worker = new NioChatWorker(connection, clients, outboundDispatcher);
+            channel.register(selector, SelectionKey.OP_READ, worker);
+            log.debug("Neue Verbindung in " + getName() + " registriert");
+        }
+    }
+
+    private void processWriteRequests() {
+        NioConnection connection;
+        while ((connection = writeRequests.poll()) != null) {
+            SelectionKey key = connection.getChannel().keyFor(selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void handleWrite(SelectionKey key, NioChatWorker worker) {
+        try {
+            if (worker.getNioConnection().flush() && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            log.debug("Senden an " + worker.getUserName() + " nicht moeglich: " + e.getMessage());
+            closeSession(key, worker);
+        }
+    }
+
+    private void handleRead(SelectionKey key, NioChatWorker worker) {
+        List<ChatPDU> pdus;
+        try {
+            pdus = worker.getNioConnection().read();
+        } catch (EOFException e) {
+            log.debug("Verbindung von " + worker.getUserName() + " abgebaut");
+            closeSession(key, worker);
+            return;
+        } catch (IOException e) {
+            worker.handleConnectionLost();
+            closeSession(key, worker);
+            return;
+        }
+
+        // Auch nach abgeschlossenem Logout bleibt die Session bestehen, bis der Client die
+        // Verbindung abbaut (EOF), damit keine ungelesenen Daten beim Schliessen ein RST ausloesen.
+        // Die Senderichtung ist dann bereits abgebaut, nach Ablauf der Nachlaufzeit schliesst die
+        // Ausgangswarteschlange die Verbindung.
+        for (ChatPDU pdu : pdus) {
+            worker.handleReceivedPdu(pdu);
+        }
+    }
+
+    private void closeSession(SelectionKey key, NioChatWorker worker) {
+        if (key != null) {
+            key.cancel();
+        }
+        worker.closeConnection();
+    }
+}
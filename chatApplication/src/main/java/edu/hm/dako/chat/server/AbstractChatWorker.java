@@ -0,0 +1,529 @@
+package edu.hm.dako.chat.server;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatClientListEntry;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.OutboundQueue;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduSender;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Vector;
+
+/**
+ * Basis fuer die serverseitige Bedienung einer Session mit einem Client.
+ * <p>
+ * Enthaelt den Zustandsautomaten des Servers (Login, Logout, Chat-Nachricht, Bestaetigungen),
+ * unabhaengig davon, ob eine Session von einem eigenen Worker-Thread mit blockierendem Empfang
+ * ({@link edu.hm.dako.chat.tcp.TcpChatAdvancedServerImpl}) oder von einer Event-Loop
+ * ({@link edu.hm.dako.chat.nio.NioChatServerImpl}) bedient wird.
+ * <p>
+ * Events (Login, Logout, Chat-Nachricht) gehen nur an die Mitglieder des Chat-Raums, in dem
+ * sich der ausloesende Client befindet, siehe {@link SharedChatClientList}. Login-, Logout- und
+ * Raum-Events enthalten nur die Aenderung der Userliste des Raums mit deren Version, die
+ * vollstaendige Liste erhaelt ein Client beim Login, beim Raumwechsel und auf Anforderung.
+ */
+public abstract class AbstractChatWorker {
+
+    private static Log log = LogFactory.getLog(AbstractChatWorker.class);
+
+    protected PduSender connection; // Verbindungs-Handle (sendende Seite)
+    // Wird ggf. von dem Thread gesetzt, der die letzte Bestaetigung des Clients bearbeitet
+    protected volatile boolean finished = false;
+    protected String userName; // Username des durch den Worker bedienten Clients
+    protected volatile ChatPDU copyOfConfirmPdu;
+
+    // Ausgangswarteschlange fuer alle Nachrichten an den eigenen Client, wird beim Login angelegt
+    protected OutboundQueue outboundQueue;
+
+    // Gemeinsam fuer alle Worker verwaltete Liste aller eingeloggten Clients
+    protected SharedChatClientList clients;
+
+    // Serverweite Verwaltung der Ausgangswarteschlangen
+    protected OutboundDispatcher outboundDispatcher;
+
+    // Bearbeitung der Event-Bestaetigungen
+    protected EventConfirmHandler confirmHandler;
+
+    protected AbstractChatWorker(PduSender con, SharedChatClientList clients, OutboundDispatcher outboundDispatcher) {
+        this.connection = con;
+        this.clients = clients;
+        this.outboundDispatcher = outboundDispatcher;
+        this.confirmHandler = new EventConfirmHandler(clients);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    /**
+     * Erzeugen einer Logout-Event-PDU
+     *
+     * @param receivedPdu Empfangene PDU (Logout-Request-PDU)
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createLogoutEventPdu(ChatPDU receivedPdu) {
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.LOGOUT_EVENT);
+        pdu.setUserName(userName);
+        pdu.setEventUserName(userName);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setClientStatus(ChatClientConversationStatus.UNREGISTERING);
+        return pdu;
+    }
+
+    /**
+     * Erzeugen einer Login-Event-PDU
+     *
+     * @param receivedPdu Empfangene PDU (Login-Request-PDU)
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createLoginEventPdu(ChatPDU receivedPdu) {
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.LOGIN_EVENT);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setUserName(userName);
+        pdu.setEventUserName(receivedPdu.getUserName());
+        pdu.setUserName(receivedPdu.getUserName());
+        pdu.setClientStatus(ChatClientConversationStatus.REGISTERING);
+        return pdu;
+    }
+
+    /**
+     * Erzeugen einer Chat-Message-Event-PDU
+     *
+     * @param receivedPdu (Chat-Message-Request-PDU)
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createChatMessageEventPdu(ChatPDU receivedPdu) {
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.CHAT_MESSAGE_EVENT);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setUserName(userName);
+        pdu.setEventUserName(receivedPdu.getUserName());
+        pdu.setSequenceNumber(receivedPdu.getSequenceNumber());
+        pdu.setClientStatus(ChatClientConversationStatus.REGISTERED);
+        pdu.setMessage(receivedPdu.getMessage());
+        return pdu;
+    }
+
+    /**
+     * Erzeugen einer Logout-Response-PDU
+     *
+     * @param receivedPdu Empfangene PDU
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createLogoutResponsePdu(ChatPDU receivedPdu) {
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.LOGOUT_RESPONSE);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setUserName(receivedPdu.getUserName());
+        pdu.setClientStatus(ChatClientConversationStatus.UNREGISTERED);
+
+        ChatClientListEntry client = clients.getClient(receivedPdu.getUserName());
+        if (client != null) {
+            pdu.setClientStatus(client.getStatus());
+            pdu.setNumberOfSentEvents(client.getNumberOfSentEvents());
+            pdu.setNumberOfLostEventConfirms(client.getNumberOfLostEventConfirms());
+            pdu.setNumberOfEventReceivedConfirms(client.getNumberOfReceivedEventConfirms());
+            pdu.setNumberOfRetries(client.getNumberOfRetries());
+            pdu.setNumberOfReceivedChatMessages(client.getNumberOfReceivedChatMessages());
+        }
+        return pdu;
+    }
+
+    /**
+     * Erzeugen einer Login-Response-PDU mit Fehlermeldung
+     *
+     * @param receivedPdu Empfangene PDU
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createLoginErrorResponsePdu(ChatPDU receivedPdu, int errorCode) {
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.LOGIN_RESPONSE);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setUserName(receivedPdu.getUserName());
+        pdu.setClientStatus(ChatClientConversationStatus.UNREGISTERED);
+        pdu.setErrorCode(errorCode);
+        return pdu;
+    }
+
+    /**
+     * Senden eines Login-List-Update-Event an alle Mitglieder des Raums. Die PDU enthaelt den
+     * Raum und nur den hinzugekommenen bzw. entfernten User mit der neuen Version der Userliste.
+     * Der sich anmeldende Client erhaelt sein Login-Event mit der vollstaendigen Userliste.
+     *
+     * @param pdu        Zu sendende PDU
+     * @param clientList In die Warteliste eingetragene Mitglieder des Raums (und Relays)
+     */
+    protected void sendLoginListUpdateEvent(ChatPDU pdu, Vector<String> clientList) {
+        String room = clients.getRoom(pdu.getEventUserName());
+        pdu.setRoom(room != null ? room : ChatPDU.DEFAULT_ROOM);
+        if (pdu.getPduType() == ChatPDU.LOGIN_EVENT) {
+            clients.sendUserListChange(pdu, ChatPDU.USER_ADDED, clientList, pdu.getEventUserName());
+        } else {
+            clients.sendUserListChange(pdu, ChatPDU.USER_REMOVED, clientList, null);
+        }
+        log.debug("Login- oder Logout-Event-PDU fuer " + pdu.getEventUserName() + " an " + clientList.size()
+                + " Empfaenger gesendet");
+    }
+
+    /**
+     * Login-Request bearbeiten: Neuen Client anlegen, alle Clients informieren, Response senden
+     *
+     * @param receivedPdu Empfangene PDU
+     * @param con         Verbindung zum neuen Client
+     * @param startTime   Ankunftszeit des Login-Requests fuer die Serverzeit-Messung
+     */
+    protected void login(ChatPDU receivedPdu, PduSender con, long startTime) {
+        ChatPDU pdu;
+
+        // Ob der Name noch frei ist, entscheidet allein das atomare Eintragen in die Clientliste
+        OutboundQueue queue = outboundDispatcher.createQueue(receivedPdu.getUserName(), con);
+        ChatClientListEntry client = new ChatClientListEntry(receivedPdu.getUserName(), con, queue);
+        client.setLoginTime(System.nanoTime());
+        client.setStartTime(startTime);
+        if (clients.createClient(receivedPdu.getUserName(), client)) {
+            outboundQueue = queue;
+            clients.changeClientStatus(receivedPdu.getUserName(), ChatClientConversationStatus.REGISTERING);
+            log.debug("User " + receivedPdu.getUserName() + " nun in Clientliste");
+            userName = receivedPdu.getUserName();
+            log.debug("Laenge der Clientliste: " + clients.size());
+
+            //Erzeuge Warteliste fuer alle Clients im Standardraum
+            pdu = createLoginEventPdu(receivedPdu);
+            Vector<String> recipients = clients.createWaitList(receivedPdu.getUserName(), pdu.getPduType(),
+                    pdu.getSequenceNumber());
+
+            // Login-Event an alle Clients im Raum (auch an den gerade aktuell anfragenden) senden
+            sendLoginListUpdateEvent(pdu, recipients);
+
+
+        } else {
+            // User bereits angemeldet, Fehlermeldung an Client senden, Fehlercode an Client senden
+            pdu = createLoginErrorResponsePdu(receivedPdu, ChatPDU.LOGIN_ERROR);
+            try {
+                con.send(pdu);
+                log.debug("Login-Response-PDU an " + receivedPdu.getUserName() + " mit Fehlercode " + ChatPDU.LOGIN_ERROR + " gesendet");
+            } catch (Exception e) {
+                log.debug("Senden einer Login-Response-PDU an " + receivedPdu.getUserName() + " nicth moeglich");
+                ExceptionHandler.logExceptionAndTerminate(e);
+            }
+        }
+    }
+
+    /**
+     * Logout-request bearbeiten: Waitlist fuer UserName erstellen, Liste der Clients updaten, Status aendern
+     *
+     * @param receivedPdu die erhaltene PDU
+     * @throws Exception
+     */
+    protected void handleLogoutRequest(ChatPDU receivedPdu) throws Exception {
+        ChatPDU pdu = createLogoutEventPdu(receivedPdu);
+        Vector<String> recipients = clients.createWaitList(receivedPdu.getUserName(), pdu.getPduType(),
+                pdu.getSequenceNumber());
+        clients.changeClientStatus(receivedPdu.getUserName(), ChatClientConversationStatus.UNREGISTERING);
+        sendLoginListUpdateEvent(pdu, recipients);
+
+        // Logout abschliessen, sobald der Client in keiner Warteliste mehr enthalten ist
+        // (spaetestens nach Bestaetigung seines eigenen Logout-Events). Nach der Logout-Response
+        // wird nur die Senderichtung abgebaut, die Verbindung baut der Client selbst ab, bis
+        // dahin eintreffende Bestaetigungen werden noch gelesen und verworfen. Wuerde der Server
+        // mit ungelesenen Daten im Empfangspuffer schliessen, sendet TCP ein RST und die
+        // Logout-Response kann beim Client verloren gehen. Baut der Client die Verbindung nicht
+        // ab, wird sie nach Ablauf der Nachlaufzeit geschlossen.
+        clients.whenReleasedFromWaitLists(receivedPdu.getUserName(), new Runnable() {
+            @Override
+            public void run() {
+                sendLogoutResponse();
+                removeFromClientList();
+                shutdownOutbound();
+            }
+        });
+    }
+
+    /**
+     * Sendet erhaltene PDU an alle Mitglieder des Raums
+     *
+     * @param pdu        Erhaltene PDU, die an alle Mitglieder weitergeleitet werden muss
+     * @param clientList In die Warteliste eingetragene Mitglieder des Raums
+     */
+    protected void sendPduToRoom(ChatPDU pdu, Vector<String> clientList) {
+        // PDU nur einmal codieren und an alle Clients denselben Rahmen senden
+        EncodedPdu encodedPdu = new EncodedPdu(pdu);
+        for (String s : clientList) {
+            log.debug("Fuer " + s + " wird Login- oder Logout-Event-PDU an alle aktiven Clients gesendet");
+            ChatClientListEntry client = clients.getClient(s);
+            try {
+                if (client != null) {
+                    client.getOutboundQueue().send(encodedPdu);
+                    log.debug("Login- oder Logout-Event-PDU an " + client.getUserName() + " gesendet");
+                    clients.incrNumberOfSentChatEvents(client.getUserName());
+                }
+            } catch (Exception e) {
+                log.debug("Senden einer Login- oder Logout-Event-PDU an " + s + " nicht moeglich");
+                ExceptionHandler.logException(e);
+            }
+        }
+    }
+
+    /**
+     * Raumwechsel bearbeiten: Client in den neuen Raum eintragen, die Mitglieder des alten und
+     * des neuen Raums ueber die geaenderte Mitgliederliste informieren und Response senden.
+     * Raum-Events werden nicht bestaetigt.
+     *
+     * @param receivedPdu  Empfangene PDU (Room-Join- oder Room-Leave-Request-PDU)
+     * @param room         Neuer Raum
+     * @param responseType PDU-Typ der Response
+     */
+    protected void handleRoomChange(ChatPDU receivedPdu, String room, int responseType) {
+        if (room == null || room.length() == 0) {
+            room = ChatPDU.DEFAULT_ROOM;
+        }
+        String oldRoom = clients.changeRoom(userName, room);
+        if (oldRoom == null) {
+            log.debug("Raumwechsel fuer nicht angemeldeten Client " + receivedPdu.getUserName() + " verworfen");
+            return;
+        }
+        if (!oldRoom.equals(room)) {
+            sendRoomEvent(oldRoom, userName, ChatPDU.USER_REMOVED);
+            sendRoomEvent(room, userName, ChatPDU.USER_ADDED);
+
+            // Andere Serverknoten fuehren den Raum des Clients fuer ihre Userlisten mit
+            ChatPDU relayPdu = new ChatPDU();
+            relayPdu.setPduType(ChatPDU.ROOM_EVENT);
+            relayPdu.setEventUserName(userName);
+            relayPdu.setRoom(room);
+            clients.sendToRelays(relayPdu);
+        }
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(responseType);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setUserName(userName);
+        pdu.setClientStatus(clients.getClientStatus(userName));
+        pdu.setRoom(room);
+        clients.sendUserList(pdu, userName);
+        log.debug("Raumwechsel-Response-PDU an " + userName + " gesendet, Raum " + room);
+    }
+
+    /**
+     * Vollstaendige Userliste des eigenen Raums an den Client senden, nachdem er eine Luecke in
+     * den Aenderungen seiner Userliste erkannt hat
+     *
+     * @param receivedPdu Empfangene PDU (User-List-Request-PDU)
+     */
+    protected void handleUserListRequest(ChatPDU receivedPdu) {
+        String room = clients.getRoom(userName);
+        if (room == null) {
+            log.debug("User-List-Request fuer nicht angemeldeten Client " + receivedPdu.getUserName() + " verworfen");
+            return;
+        }
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.USER_LIST_RESPONSE);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setUserName(userName);
+        pdu.setClientStatus(clients.getClientStatus(userName));
+        pdu.setRoom(room);
+        clients.sendUserList(pdu, userName);
+        log.debug("User-List-Response-PDU an " + userName + " gesendet, Raum " + room);
+    }
+
+    /**
+     * Aenderung der Userliste eines Raums an alle Mitglieder ausser dem wechselnden Client senden
+     *
+     * @param room   Name des Raums
+     * @param mover  Name des Clients, der den Raum betreten oder verlassen hat
+     * @param change {@link ChatPDU#USER_ADDED} oder {@link ChatPDU#USER_REMOVED}
+     */
+    protected void sendRoomEvent(String room, String mover, int change) {
+        Vector<String> members = clients.getRoomMemberList(room);
+        members.remove(mover);
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.ROOM_EVENT);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setEventUserName(mover);
+        pdu.setRoom(room);
+        clients.sendUserListChange(pdu, change, members, null);
+    }
+
+    /**
+     * Logout-Response an den eigenen Client senden und die Bearbeitung der Session beenden
+     */
+    public void sendLogoutResponse() {
+        log.debug(userName + " ist in keiner Warteliste mehr enthalten, loggt sich aus");
+        // Vor dem Senden setzen: Der Client baut die Verbindung ab, sobald er die Response erhaelt
+        finished = true;
+        try {
+            if (copyOfConfirmPdu == null) {
+                // Eigenes Logout-Event wurde nicht zugestellt, Client ist bereits getrennt
+                log.debug("Keine Logout-Response-PDU fuer " + userName + " vorhanden");
+            } else {
+                copyOfConfirmPdu.setServerTime(System.nanoTime() - clients.getRequestStartTime(userName));
+                outboundQueue.send(copyOfConfirmPdu);
+                log.debug("Logout-Response-PDU an " + userName + " gesendet");
+            }
+
+        } catch (Exception e) {
+            log.error("Senden einer Logout-Response-PDU an " + userName + " nicht moeglich");
+            ExceptionHandler.logException(e);
+        }
+    }
+
+    /**
+     * Client beim Beenden der Session aus der Clientliste entfernen. Ist er noch in Wartelisten
+     * enthalten, kann er diese Events nicht mehr bestaetigen und wird zwangsweise entfernt.
+     */
+    protected void removeFromClientList() {
+        if (userName == null || !clients.existsClient(userName)) {
+            return;
+        }
+        clients.finish(userName);
+        if (!clients.deleteClient(userName)) {
+            log.debug(userName + " ist noch in Wartelisten enthalten und wird zwangsweise entfernt");
+            confirmHandler.removeClient(userName);
+        }
+    }
+
+    /**
+     * Verbindung zum Client schliessen, nachdem alle eingereihten Nachrichten gesendet wurden
+     */
+    protected void closeOutbound() {
+        try {
+            if (outboundQueue != null) {
+                outboundQueue.close();
+            } else {
+                connection.close();
+            }
+        } catch (Exception e) {
+            ExceptionHandler.logException(e);
+        }
+    }
+
+    /**
+     * Senderichtung zum Client abbauen, nachdem alle eingereihten Nachrichten gesendet wurden.
+     * Die Verbindung wird geschlossen, sobald der Client sie abbaut, spaetestens nach
+     * {@link OutboundDispatcher#LINGER_TIME} ms.
+     */
+    protected void shutdownOutbound() {
+        if (outboundQueue != null) {
+            outboundQueue.shutdownOutput();
+        }
+    }
+
+    /**
+     * Verbindung zum Client ist abgebrochen: Client wird mit Gewalt aus allen Listen geloescht
+     */
+    public void handleConnectionLost() {
+        log.error("Socket-Error, Worker fuer User: " + userName + ". Client wird mit Gewalt geloescht");
+        confirmHandler.removeClient(userName);
+        finished = true;
+    }
+
+    /**
+     * Verarbeitung einer empfangenen Nachricht eines Clients (Zustandsautomat des Servers)
+     *
+     * @param receivedPdu Empfangene PDU
+     */
+    public void handleReceivedPdu(ChatPDU receivedPdu) {
+        try {
+            switch (receivedPdu.getPduType()) {
+
+                case ChatPDU.LOGIN_REQUEST:
+                    // Neuer Client moechte sich einloggen, Client in Client-Liste eintragen
+                    log.debug("Login-Request-PDU fuer " + receivedPdu.getUserName() + " empfangen");
+                    login(receivedPdu, connection, System.nanoTime());
+                    break;
+
+                case ChatPDU.LOGOUT_REQUEST:
+                    //Ein Client moechte sich ausloggen
+                    clients.setRequestStartTime(receivedPdu.getUserName(), System.nanoTime());
+                    log.debug("Logout-Request-PDU fuer " + receivedPdu.getUserName() + " empfangen");
+                    clients.changeClientStatus(receivedPdu.getUserName(), ChatClientConversationStatus.UNREGISTERING);
+                    handleLogoutRequest(receivedPdu);
+                    break;
+
+                case ChatPDU.CHAT_MESSAGE_REQUEST:
+                    //Ein Client moechte eine Chat-Nachricht senden
+                    clients.setRequestStartTime(userName, System.nanoTime());
+                    log.debug("Chat-Message-Request-PDU fuer " + receivedPdu.getUserName() + "empfangen");
+                    ChatPDU eventPdu = createChatMessageEventPdu(receivedPdu);
+                    Vector<String> recipients = clients.createWaitList(userName, eventPdu.getPduType(),
+                            eventPdu.getSequenceNumber());
+                    sendPduToRoom(eventPdu, recipients);
+                    break;
+
+                case ChatPDU.ROOM_JOIN_REQUEST:
+                    //Ein Client moechte in einen anderen Raum wechseln
+                    log.debug("Room-Join-Request-PDU fuer " + userName + ", Raum " + receivedPdu.getRoom() + " empfangen");
+                    handleRoomChange(receivedPdu, receivedPdu.getRoom(), ChatPDU.ROOM_JOIN_RESPONSE);
+                    break;
+
+                case ChatPDU.ROOM_LEAVE_REQUEST:
+                    //Ein Client verlaesst seinen Raum und kehrt in den Standardraum zurueck
+                    log.debug("Room-Leave-Request-PDU fuer " + userName + " empfangen");
+                    handleRoomChange(receivedPdu, ChatPDU.DEFAULT_ROOM, ChatPDU.ROOM_LEAVE_RESPONSE);
+                    break;
+
+                case ChatPDU.USER_LIST_REQUEST:
+                    //Ein Client hat Aenderungen seiner Userliste verpasst
+                    log.debug("User-List-Request-PDU fuer " + userName + " empfangen");
+                    handleUserListRequest(receivedPdu);
+                    break;
+
+                case ChatPDU.LOGIN_EVENT_CONFIRM:
+                    //Ein Client sendet eine Login-Bestaetigung fuer einen anderen Client
+                    confirmHandler.handleLoginEventConfirm(receivedPdu, userName);
+                    break;
+
+                case ChatPDU.LOGOUT_EVENT_CONFIRM:
+                    //Ein Client sendet eine Logout-Bestaetigung fuer einen anderen Client
+                    //Response-PDU vorbereiten, gesendet wird sie, sobald der Client in keiner
+                    //Warteliste mehr enthalten ist (ggf. schon in der folgenden Bearbeitung)
+                    if (userName.equals(receivedPdu.getEventUserName())) {
+                        copyOfConfirmPdu = createLogoutResponsePdu(receivedPdu);
+                    }
+                    confirmHandler.handleLogoutEventConfirm(receivedPdu, userName);
+                    break;
+
+                case ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM:
+                    //EIn Cleint sendet eine Chat-Message-Bestaetigung fuer einen anderen Client
+                    clients.incrNumberOfReceivedChatEventConfirms(userName);
+                    confirmHandler.handleChatMessageEventConfirm(receivedPdu, userName);
+                    break;
+
+                case ChatPDU.EVENT_CONFIRM_BATCH:
+                    //Ein Client bestaetigt mehrere Chat- und Login-Events kumulativ
+                    confirmHandler.handleEventConfirmBatch(receivedPdu, userName);
+                    break;
+
+                default:
+                    log.debug("Falsche PDU empfangen von Client: " + receivedPdu.getUserName() + ", PduType: " + receivedPdu.getPduType());
+                    break;
+            }
+        } catch (Exception e) {
+            log.error("Exception bei der Nachrichtenverarbeitung");
+            ExceptionHandler.logExceptionAndTerminate(e);
+        }
+    }
+}
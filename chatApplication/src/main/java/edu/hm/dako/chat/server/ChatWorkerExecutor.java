@@ -0,0 +1,198 @@
+package edu.hm.dako.chat.server;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.VirtualThreads;
+import edu.hm.dako.chat.connection.Connection;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Serializable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Begrenzte Ausfuehrung der Worker-Threads eines Servers mit einem Thread je Verbindung.
+ * <p>
+ * Hoechstens maxWorkers Verbindungen werden gleichzeitig bedient, bis zu queueCapacity weitere
+ * warten auf einen freien Worker-Thread. Threads werden bei Bedarf erzeugt und nach einer Minute
+ * ohne Auftrag wieder beendet. Ist auch die Warteschlange voll, wird die Verbindung abgewiesen:
+ * Ein eigener Thread liest den Login-Request, beantwortet ihn mit einer Login-Response mit
+ * Fehlercode {@link ChatPDU#LOGIN_ERROR} und baut die Verbindung ab. Kann auch dieser Thread
+ * nicht mehr folgen, wird die Verbindung ohne Antwort abgebaut. Ein Verbindungssturm fuehrt
+ * damit zu abgewiesenen Logins statt zu unbegrenzt vielen Threads.
+ * <p>
+ * Anzahl aktiver Worker-Threads, Laenge der Warteschlange und Anzahl abgewiesener Logins koennen
+ * jederzeit abgefragt werden.
+ * <p>
+ * Die Worker-Threads werden ueber {@link VirtualThreads} erzeugt und sind bei eingeschalteten
+ * virtuellen Threads virtuell. Die Begrenzung bleibt dann als Zugangskontrolle erhalten, sie
+ * kann aber deutlich hoeher eingestellt werden.
+ */
+public class ChatWorkerExecutor {
+
+    private static Log log = LogFactory.getLog(ChatWorkerExecutor.class);
+
+    // Maximale Wartezeit auf den Login-Request einer abgewiesenen Verbindung in ms
+    private static final int REJECT_RECEIVE_TIMEOUT = 2000;
+
+    // Maximale Anzahl abgewiesener Verbindungen, die auf ihre Login-Response warten
+    private static final int REJECT_QUEUE_CAPACITY = 100;
+
+    private static final String OVERLOAD_MESSAGE = "Server ueberlastet, Login abgewiesen";
+
+    private final int maxWorkers;
+    private final ThreadPoolExecutor workers;
+    private final ThreadPoolExecutor rejecter;
+    private final AtomicLong rejectedLogins = new AtomicLong();
+
+    /**
+     * Konstruktor
+     *
+     * @param name          Praefix der Threadnamen
+     * @param maxWorkers    Maximale Anzahl gleichzeitig bedienter Verbindungen
+     * @param queueCapacity Maximale Anzahl auf einen Worker-Thread wartender Verbindungen
+     */
+    public ChatWorkerExecutor(String name, int maxWorkers, int queueCapacity) {
+        this.maxWorkers = maxWorkers;
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new LinkedBlockingQueue<Runnable>(queueCapacity) : new SynchronousQueue<Runnable>();
+        workers = new ThreadPoolExecutor(maxWorkers, maxWorkers, 60, TimeUnit.SECONDS, queue,
+                VirtualThreads.newThreadFactory(name, false));
+        workers.allowCoreThreadTimeOut(true);
+        rejecter = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(REJECT_QUEUE_CAPACITY), VirtualThreads.newThreadFactory(name + "-Rejecter", false));
+        rejecter.allowCoreThreadTimeOut(true);
+        log.debug("ChatWorkerExecutor " + name + ": maximal " + maxWorkers + " Worker-Threads, "
+                + queueCapacity + " wartende Verbindungen");
+    }
+
+    /**
+     * Uebergibt eine neue Verbindung an einen Worker-Thread oder weist sie ab
+     *
+     * @param worker     Bedienung der Verbindung
+     * @param connection Verbindung, wird bei Abweisung abgebaut
+     * @return false, falls die Verbindung abgewiesen wurde
+     */
+    public boolean execute(Runnable worker, Connection connection) {
+        try {
+            workers.execute(worker);
+            return true;
+        } catch (RejectedExecutionException e) {
+            reject(connection);
+            return false;
+        }
+    }
+
+    private void reject(final Connection connection) {
+        long rejected = rejectedLogins.incrementAndGet();
+        if (rejected == 1 || rejected % 1000 == 0) {
+            log.warn("Server ueberlastet, " + rejected + " Login(s) abgewiesen, " + getActiveWorkers()
+                    + " aktive Worker-Threads, " + getQueueLength() + " wartende Verbindungen");
+        }
+        try {
+            rejecter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendLoginError(connection);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void sendLoginError(Connection connection) {
+        try {
+            Serializable request = connection.receive(REJECT_RECEIVE_TIMEOUT);
+            if (request instanceof ChatPDU && ((ChatPDU) request).getPduType() == ChatPDU.LOGIN_REQUEST) {
+                ChatPDU receivedPdu = (ChatPDU) request;
+                ChatPDU pdu = new ChatPDU();
+                pdu.setPduType(ChatPDU.LOGIN_RESPONSE);
+                pdu.setServerThreadName(Thread.currentThread().getName());
+                pdu.setClientThreadName(receivedPdu.getClientThreadName());
+                pdu.setUserName(receivedPdu.getUserName());
+                pdu.setClientStatus(ChatClientConversationStatus.UNREGISTERED);
+                pdu.setErrorCode(ChatPDU.LOGIN_ERROR);
+                pdu.setMessage(OVERLOAD_MESSAGE);
+                connection.send(pdu);
+                log.debug("Login von " + receivedPdu.getUserName() + " wegen Ueberlast abgewiesen");
+            }
+        } catch (Exception e) {
+            log.debug("Abgewiesene Verbindung konnte nicht beantwortet werden: " + e);
+        } finally {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            log.debug("Abgewiesene Verbindung konnte nicht geschlossen werden: " + e);
+        }
+    }
+
+    /**
+     * Nimmt keine neuen Verbindungen mehr an, bereits bediente laufen weiter
+     */
+    public void shutdown() {
+        workers.shutdown();
+        rejecter.shutdown();
+    }
+
+    /**
+     * Wartet auf das Ende aller Worker-Threads nach {@link #shutdown()}
+     *
+     * @return false, falls die Wartezeit abgelaufen ist
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit) && rejecter.awaitTermination(timeout, unit);
+    }
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    /**
+     * @return Anzahl der Worker-Threads, die gerade eine Verbindung bedienen
+     */
+    public int getActiveWorkers() {
+        return workers.getActiveCount();
+    }
+
+    /**
+     * @return Hoechste bisher erreichte Anzahl an Worker-Threads
+     */
+    public int getLargestPoolSize() {
+        return workers.getLargestPoolSize();
+    }
+
+    /**
+     * @return Anzahl der Verbindungen, die auf einen Worker-Thread warten
+     */
+    public int getQueueLength() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * @return Anzahl der wegen Ueberlast abgewiesenen Verbindungen
+     */
+    public long getRejectedLogins() {
+        return rejectedLogins.get();
+    }
+
+    @Override
+    public String toString() {
+        return "aktive Worker-Threads: " + getActiveWorkers() + "/" + maxWorkers
+                + ", hoechstens gleichzeitig: " + getLargestPoolSize()
+                + ", wartende Verbindungen: " + getQueueLength()
+                + ", abgewiesene Logins: " + getRejectedLogins();
+    }
+}
@@ -0,0 +1,349 @@
+package edu.hm.dako.chat.server;
+
+import edu.hm.dako.chat.common.ChatClientConversationStatus;
+import edu.hm.dako.chat.common.ChatClientListEntry;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundQueue;
+import edu.hm.dako.chat.common.PendingAck;
+import edu.hm.dako.chat.common.SharedChatClientList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Bearbeitung von Event-Bestaetigungen.
+ * <p>
+ * Eine Bestaetigung entfernt den bestaetigenden Client aus der Warteliste des Clients, der das
+ * Event ausgeloest hat. Ist die Warteliste danach leer, erhaelt der ausloesende Client seine
+ * Response. Events, die wegen Ueberlaufs einer Ausgangswarteschlange nicht zugestellt werden,
+ * werden wie Bestaetigungen behandelt und als verlorene Bestaetigung gezaehlt, damit der
+ * ausloesende Client nicht endlos auf seine Response wartet.
+ * <p>
+ * Hat ein Client eines anderen Serverknotens das Event ausgeloest, erhaelt dessen Knoten statt
+ * der Response eine einzige Bestaetigung fuer alle Clients dieses Knotens, siehe
+ * {@link #forwardConfirm(OutboundQueue, int, ChatPDU)}.
+ */
+public class EventConfirmHandler implements OutboundQueue.Listener {
+
+    private static Log log = LogFactory.getLog(EventConfirmHandler.class);
+
+    private final SharedChatClientList clients;
+
+    public EventConfirmHandler(SharedChatClientList clients) {
+        this.clients = clients;
+    }
+
+    /**
+     * Erzeugen einer Login-Response-PDU
+     *
+     * @param receivedPdu Empfangene PDU (Login-Event-Confirm-PDU)
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createLoginResponsePdu(ChatPDU receivedPdu) {
+
+        ChatPDU pdu = new ChatPDU();
+
+        pdu.setPduType(ChatPDU.LOGIN_RESPONSE);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        // Response geht an den angemeldeten Client, nicht an den zuletzt bestaetigenden
+        pdu.setUserName(receivedPdu.getEventUserName());
+
+        ChatClientListEntry client = clients.getClient(receivedPdu.getEventUserName());
+
+        if (client != null) {
+            pdu.setClientStatus(client.getStatus());
+        } else {
+            pdu.setClientStatus(ChatClientConversationStatus.REGISTERED);
+        }
+        return pdu;
+    }
+
+    /**
+     * Erzeugen einer Chat-Message-Response-PDU
+     *
+     * @param receivedPdu (Chat-Message-Event-Confirm-PDU)
+     * @return Erzeugte PDU
+     */
+    protected ChatPDU createChatMessageResponsePdu(ChatPDU receivedPdu) {
+
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(ChatPDU.CHAT_MESSAGE_RESPONSE);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        pdu.setEventUserName(receivedPdu.getEventUserName());
+        pdu.setUserName(receivedPdu.getUserName());
+        pdu.setClientStatus(ChatClientConversationStatus.REGISTERED);
+        // Sequenznummer des Requests zurueckgeben, damit der Client die Response zuordnen kann
+        pdu.setSequenceNumber(receivedPdu.getSequenceNumber());
+        ChatClientListEntry client = clients.getClient(receivedPdu.getUserName());
+
+        if (client != null) {
+            pdu.setClientStatus(client.getStatus());
+            pdu.setNumberOfSentEvents(client.getNumberOfSentEvents());
+            pdu.setNumberOfLostEventConfirms(client.getNumberOfLostEventConfirms());
+            pdu.setNumberOfEventReceivedConfirms(client.getNumberOfReceivedEventConfirms());
+            pdu.setNumberOfRetries(client.getNumberOfRetries());
+            pdu.setNumberOfReceivedChatMessages(client.getNumberOfReceivedChatMessages());
+        }
+        return pdu;
+    }
+
+    /**
+     * Login-Event-Bestaetigung bearbeiten
+     *
+     * @param receivedPdu    Empfangene Login-Event-Confirm-PDU
+     * @param confirmingUser Name des bestaetigenden Clients
+     * @throws Exception
+     */
+    public void handleLoginEventConfirm(ChatPDU receivedPdu, String confirmingUser) throws Exception {
+        // Nur der Thread, der den letzten Eintrag entfernt, sendet die Response
+        if (clients.confirmWaitListEntry(receivedPdu.getEventUserName(), ChatPDU.LOGIN_EVENT,
+                receivedPdu.getSequenceNumber(), confirmingUser)) {
+            sendLoginResponse(receivedPdu);
+        }
+    }
+
+    /**
+     * Logout-Event-Bestaetigung bearbeiten
+     *
+     * @param receivedPdu    Empfangene Logout-Event-Confirm-PDU
+     * @param confirmingUser Name des bestaetigenden Clients
+     * @throws Exception
+     */
+    public void handleLogoutEventConfirm(ChatPDU receivedPdu, String confirmingUser) throws Exception {
+        clients.confirmWaitListEntry(receivedPdu.getEventUserName(), ChatPDU.LOGOUT_EVENT,
+                receivedPdu.getSequenceNumber(), confirmingUser);
+    }
+
+    /**
+     * Chat-Message-Event-Bestaetigung bearbeiten
+     *
+     * @param receivedPdu    Empfangene Chat-Message-Event-Confirm-PDU
+     * @param confirmingUser Name des bestaetigenden Clients
+     * @throws Exception
+     */
+    public void handleChatMessageEventConfirm(ChatPDU receivedPdu, String confirmingUser) throws Exception {
+        // Nur der Thread, der den letzten Eintrag entfernt, sendet die Response
+        if (clients.confirmWaitListEntry(receivedPdu.getEventUserName(), ChatPDU.CHAT_MESSAGE_EVENT,
+                receivedPdu.getSequenceNumber(), confirmingUser)) {
+            sendChatMessageResponse(receivedPdu);
+        }
+    }
+
+    /**
+     * Kumulative Bestaetigung mehrerer Chat- und Login-Events bearbeiten. Fuer jedes Event, das
+     * damit vollstaendig bestaetigt ist, wird die Response gesendet.
+     *
+     * @param receivedPdu    Empfangene Event-Confirm-Batch-PDU
+     * @param confirmingUser Name des bestaetigenden Clients
+     */
+    public void handleEventConfirmBatch(ChatPDU receivedPdu, String confirmingUser) {
+        if (receivedPdu.getConfirms() == null) {
+            return;
+        }
+        List<PendingAck> completed = new ArrayList<PendingAck>();
+        List<PendingAck> confirmed = clients.confirmWaitListEntries(confirmingUser,
+                receivedPdu.getConfirms(), completed);
+        for (PendingAck ack : confirmed) {
+            if (ack.getEventType() == ChatPDU.CHAT_MESSAGE_EVENT) {
+                clients.incrNumberOfReceivedChatEventConfirms(confirmingUser);
+            }
+        }
+        sendResponses(completed, confirmingUser);
+    }
+
+    /**
+     * Responses fuer vollstaendig bestaetigte Events senden
+     *
+     * @param completed      Events, deren letzte Bestaetigung ausgetragen wurde
+     * @param confirmingUser Name des Clients, der zuletzt bestaetigt hat bzw. entfernt wurde
+     */
+    private void sendResponses(List<PendingAck> completed, String confirmingUser) {
+        for (PendingAck ack : completed) {
+            ChatPDU lastConfirm = new ChatPDU();
+            lastConfirm.setUserName(confirmingUser);
+            lastConfirm.setEventUserName(ack.getSender());
+            lastConfirm.setSequenceNumber(ack.getSequenceNumber());
+            switch (ack.getEventType()) {
+                case ChatPDU.CHAT_MESSAGE_EVENT:
+                    lastConfirm.setPduType(ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM);
+                    sendChatMessageResponse(lastConfirm);
+                    break;
+                case ChatPDU.LOGIN_EVENT:
+                    lastConfirm.setPduType(ChatPDU.LOGIN_EVENT_CONFIRM);
+                    sendLoginResponse(lastConfirm);
+                    break;
+                default:
+                    // Logout-Events werden ohne Response abgeschlossen
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Login-Response an den ausloesenden Client senden, nachdem alle Bestaetigungen vorliegen
+     *
+     * @param receivedPdu Letzte Login-Event-Confirm-PDU
+     */
+    private void sendLoginResponse(ChatPDU receivedPdu) {
+        // Angemeldet ist der ausloesende Client, nicht der zuletzt bestaetigende. Ein Client, der
+        // sich inzwischen wieder abmeldet, behaelt seinen Status.
+        if (clients.getClientStatus(receivedPdu.getEventUserName()) == ChatClientConversationStatus.REGISTERING) {
+            clients.changeClientStatus(receivedPdu.getEventUserName(), ChatClientConversationStatus.REGISTERED);
+        }
+
+        //Response-PDU aufbauen und senden
+        ChatPDU pdu = createLoginResponsePdu(receivedPdu);
+        try {
+            ChatClientListEntry eventClient = clients.getClient(receivedPdu.getEventUserName());
+            if (eventClient != null && eventClient.isRemote()) {
+                forwardConfirm(eventClient.getOutboundQueue(), ChatPDU.LOGIN_EVENT_CONFIRM, receivedPdu);
+            } else if (eventClient != null) {
+                pdu.setServerTime(System.nanoTime() - clients.getRequestStartTime(receivedPdu.getEventUserName()));
+                eventClient.getOutboundQueue().send(pdu);
+                log.debug("Login-Response-PDU an " + receivedPdu.getEventUserName() + " gesendet");
+            }
+        } catch (Exception e) {
+            log.error("Senden einer Login-Response-PDU an " + receivedPdu.getEventUserName() + " nicht moeglich");
+            ExceptionHandler.logException(e);
+        }
+    }
+
+    /**
+     * Chat-Message-Response an den ausloesenden Client senden, nachdem alle Bestaetigungen vorliegen
+     *
+     * @param receivedPdu Letzte Chat-Message-Event-Confirm-PDU
+     */
+    private void sendChatMessageResponse(ChatPDU receivedPdu) {
+        //Response-PDU aufbauen und senden
+        ChatPDU pdu = createChatMessageResponsePdu(receivedPdu);
+        try {
+            ChatClientListEntry eventClient = clients.getClient(receivedPdu.getEventUserName());
+            if (eventClient != null && eventClient.isRemote()) {
+                forwardConfirm(eventClient.getOutboundQueue(), ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM, receivedPdu);
+            } else if (eventClient != null) {
+                pdu.setServerTime(System.nanoTime() - clients.getRequestStartTime(receivedPdu.getEventUserName()));
+                eventClient.getOutboundQueue().send(pdu);
+                log.debug("Chat-Message-Response-PDU an " + receivedPdu.getEventUserName() + " gesendet");
+            }
+        } catch (Exception e) {
+            log.error("Senden einer Chat-Message-Response-PDU an " + receivedPdu.getEventUserName() + " nicht moeglich");
+            ExceptionHandler.logException(e);
+        }
+    }
+
+    /**
+     * Bestaetigung eines Events, das ein Client eines anderen Serverknotens ausgeloest hat, an
+     * diesen Knoten senden. Die Bestaetigung gilt fuer alle Clients dieses Knotens.
+     *
+     * @param relayQueue  Ausgangswarteschlange der Verbindung zum anderen Knoten
+     * @param confirmType PDU-Typ der Bestaetigung
+     * @param receivedPdu Event oder letzte Bestaetigung des Events
+     */
+    public void forwardConfirm(OutboundQueue relayQueue, int confirmType, ChatPDU receivedPdu) {
+        ChatPDU pdu = new ChatPDU();
+        pdu.setPduType(confirmType);
+        pdu.setServerThreadName(Thread.currentThread().getName());
+        pdu.setClientThreadName(receivedPdu.getClientThreadName());
+        // Bestaetigt wird fuer alle Clients dieses Knotens, als Name dient der ausloesende Client
+        pdu.setUserName(receivedPdu.getEventUserName());
+        pdu.setEventUserName(receivedPdu.getEventUserName());
+        pdu.setClientStatus(ChatClientConversationStatus.REGISTERED);
+        pdu.setSequenceNumber(receivedPdu.getSequenceNumber());
+        relayQueue.send(pdu);
+        log.debug("Bestaetigung vom Typ " + confirmType + " fuer " + receivedPdu.getEventUserName()
+                + " an anderen Serverknoten gesendet");
+    }
+
+    /**
+     * Client zwangsweise aus allen Listen entfernen. Events anderer Clients, die nur noch auf
+     * diesen Client gewartet haben, werden wie vollstaendig bestaetigt beantwortet. Hat sich der
+     * Client nicht abgemeldet, erhalten die Mitglieder seines Raums ein Raum-Event, das ihn aus
+     * ihrer Userliste entfernt. Andere Serverknoten erhalten fuer einen lokalen Client ein
+     * Logout-Event, damit sie dessen Stellvertreter entfernen.
+     *
+     * @param userName Name des Clients
+     */
+    public void removeClient(String userName) {
+        if (userName == null) {
+            // Verbindung vor dem Login abgebrochen
+            return;
+        }
+        ChatClientListEntry client = clients.getClient(userName);
+        List<PendingAck> completed = clients.deleteClientWithoutCondition(userName);
+        if (client != null && !userName.equals(client.getNode())
+                && client.getStatus() != ChatClientConversationStatus.UNREGISTERING
+                && client.getStatus() != ChatClientConversationStatus.UNREGISTERED) {
+            ChatPDU roomPdu = new ChatPDU();
+            roomPdu.setPduType(ChatPDU.ROOM_EVENT);
+            roomPdu.setServerThreadName(Thread.currentThread().getName());
+            roomPdu.setEventUserName(userName);
+            roomPdu.setRoom(client.getRoom());
+            clients.sendUserListChange(roomPdu, ChatPDU.USER_REMOVED,
+                    clients.getRoomMemberList(client.getRoom()), null);
+        }
+        if (client != null && !client.isRemote()) {
+            ChatPDU logoutPdu = new ChatPDU();
+            logoutPdu.setPduType(ChatPDU.LOGOUT_EVENT);
+            logoutPdu.setUserName(userName);
+            logoutPdu.setEventUserName(userName);
+            logoutPdu.setClientStatus(ChatClientConversationStatus.UNREGISTERED);
+            clients.sendToRelays(logoutPdu);
+        }
+        sendResponses(completed, userName);
+    }
+
+    /**
+     * Nicht zugestelltes Event: Wird wie eine Bestaetigung des Empfaengers behandelt
+     */
+    @Override
+    public void messageDropped(String recipient, ChatPDU pdu) {
+        ChatPDU lostConfirm = new ChatPDU();
+        lostConfirm.setUserName(recipient);
+        lostConfirm.setEventUserName(pdu.getEventUserName());
+        lostConfirm.setClientThreadName(pdu.getClientThreadName());
+        lostConfirm.setSequenceNumber(pdu.getSequenceNumber());
+
+        try {
+            switch (pdu.getPduType()) {
+                case ChatPDU.CHAT_MESSAGE_EVENT:
+                    lostConfirm.setPduType(ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM);
+                    clients.incrNumberOfLostEventConfirms(pdu.getEventUserName());
+                    handleChatMessageEventConfirm(lostConfirm, recipient);
+                    break;
+                case ChatPDU.LOGIN_EVENT:
+                    lostConfirm.setPduType(ChatPDU.LOGIN_EVENT_CONFIRM);
+                    clients.incrNumberOfLostEventConfirms(pdu.getEventUserName());
+                    handleLoginEventConfirm(lostConfirm, recipient);
+                    break;
+                case ChatPDU.LOGOUT_EVENT:
+                    lostConfirm.setPduType(ChatPDU.LOGOUT_EVENT_CONFIRM);
+                    clients.incrNumberOfLostEventConfirms(pdu.getEventUserName());
+                    handleLogoutEventConfirm(lostConfirm, recipient);
+                    break;
+                default:
+                    // Responses erfordern keine Bestaetigung
+                    log.debug("PDU vom Typ " + pdu.getPduType() + " an " + recipient + " nicht zugestellt");
+                    break;
+            }
+        } catch (Exception e) {
+            // Ausloesender Client ist bereits nicht mehr in der Clientliste
+            log.debug("Nicht zugestelltes Event fuer " + recipient + " konnte nicht zugeordnet werden");
+        }
+    }
+
+    /**
+     * Getrennter Client wird zwangsweise aus allen Listen entfernt
+     */
+    @Override
+    public void recipientDisconnected(String recipient) {
+        log.debug("Client " + recipient + " wegen Ueberlaufs der Ausgangswarteschlange getrennt");
+        clients.finish(recipient);
+        removeClient(recipient);
+    }
+}
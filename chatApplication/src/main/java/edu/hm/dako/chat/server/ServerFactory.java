@@ -1,14 +1,21 @@
 package edu.hm.dako.chat.server;
 
+import edu.hm.dako.chat.cluster.ClusterChatServer;
+import edu.hm.dako.chat.cluster.ClusterNode;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.OutboundQueue;
+import edu.hm.dako.chat.common.VirtualThreads;
 import edu.hm.dako.chat.connection.Connection;
 import edu.hm.dako.chat.connection.LoggingConnectionDecorator;
 import edu.hm.dako.chat.connection.ServerSocket;
+import edu.hm.dako.chat.loopback.LoopbackServerSocket;
+import edu.hm.dako.chat.nio.NioChatServerImpl;
 import edu.hm.dako.chat.tcp.TcpChatAdvancedServerImpl;
 import edu.hm.dako.chat.tcp.TcpServerSocket;
+import edu.hm.dako.chat.udp.UdpChatServerImpl;
+import edu.hm.dako.chat.udp.UdpServerSocket;
 import edu.hm.dako.chat.benchmarking.UserInterfaceInputParameters;
 
-import java.util.concurrent.Executors;
-
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.log4j.PropertyConfigurator;
@@ -21,6 +28,8 @@ import org.apache.log4j.PropertyConfigurator;
 public final class ServerFactory {
     private static Log log = LogFactory.getLog(ServerFactory.class); /// Einfach fr Info, mit welchen Client gearbeitet wird? Oder wird hier ein Client-Instanz erzeugt?
     private static final int DEFAULT_SERVER_PORT = 50000; // Standard-Port des Servers
+    // Port des Servers, fuer mehrere Serverknoten auf einem Rechner ueber System-Property einstellbar
+    private static final int SERVER_PORT = Integer.getInteger("edu.hm.dako.chat.serverPort", DEFAULT_SERVER_PORT);
     /*
      * Die Groesse des Empfangspuffers ist fuer den Server sehr wichtig. 
      * Um viele parallele Client-Threads zu bedienen, sollte der Empfangspuffer im Server gut ausgetestet werden,
@@ -30,6 +39,43 @@ public final class ServerFactory {
      */
     private static final int SERVER_SEND_BUFFER_SIZE = 100000; // Sendepuffer des Servers in Byte
     private static final int SERVER_RECEIVE_BUFFER_SIZE = 100000; // Empfangspuffer des Servers in Byte
+    // Alle Clients teilen sich ein UDP-Socket, zu kleine Puffer verwerfen Datagramme bei Lastspitzen
+    private static final int UDP_SERVER_BUFFER_SIZE = 4000000;
+
+    /*
+     * Workerthreads des TCP-Servers (ein Thread je Verbindung): Maximale Anzahl gleichzeitig
+     * bedienter Verbindungen und Anzahl wartender Verbindungen, weitere Logins werden abgewiesen.
+     * Jeweils ueber System-Properties einstellbar. Mit virtuellen Threads (siehe
+     * VirtualThreads) kostet eine Verbindung kaum Ressourcen, die Grenze liegt dann hoeher.
+     */
+    private static final int MAX_WORKER_THREADS =
+            Integer.getInteger("edu.hm.dako.chat.maxWorkerThreads", VirtualThreads.isEnabled() ? 100000 : 2000);
+    private static final int WORKER_QUEUE_CAPACITY =
+            Integer.getInteger("edu.hm.dako.chat.workerQueueCapacity", 100);
+
+    // Anzahl der Worker-Threads des UDP-Servers
+    private static final int NUMBER_OF_UDP_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    // Anzahl der Event-Loop-Threads des NIO-Servers
+    private static final int NUMBER_OF_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    /*
+     * Ausgangswarteschlangen je Client: Maximale Anzahl wartender Nachrichten und Verhalten
+     * bei voller Warteschlange (BLOCK, DROP_OLDEST oder DISCONNECT), jeweils ueber
+     * System-Properties einstellbar
+     */
+    private static final int OUTBOUND_QUEUE_CAPACITY =
+            Integer.getInteger("edu.hm.dako.chat.outboundQueueCapacity", 1000);
+    private static final OutboundQueue.OverflowPolicy OUTBOUND_QUEUE_POLICY =
+            OutboundQueue.OverflowPolicy.valueOf(System.getProperty("edu.hm.dako.chat.outboundQueuePolicy", "BLOCK"));
+
+    /*
+     * Maximale Anzahl Writer-Threads, die die Ausgangswarteschlangen abarbeiten, 0 fuer
+     * unbegrenzt. Gilt nur fuer DROP_OLDEST und DISCONNECT, bei BLOCK bleibt die Anzahl
+     * unbegrenzt (siehe OutboundDispatcher).
+     */
+    private static final int OUTBOUND_WRITER_THREADS =
+            Integer.getInteger("edu.hm.dako.chat.outboundWriterThreads", 4 * Runtime.getRuntime().availableProcessors());
     
     private ServerFactory() {
     }
@@ -39,22 +85,54 @@ public final class ServerFactory {
         log.debug("ChatServer (" + type.toString() + ") wird gestartet");
         switch (type) {
             case TCPImplementation:
-                return new TcpChatAdvancedServerImpl(Executors.newCachedThreadPool(), getDecoratedServerSocket(  /// Ein bestimmtes Server-Objekt  ////WAS IST NEW CASHED THREAD POOL? WOFR???
-                        new TcpServerSocket(DEFAULT_SERVER_PORT,
+                return clustered(new TcpChatAdvancedServerImpl(createWorkerExecutor(), getDecoratedServerSocket(  /// Ein bestimmtes Server-Objekt
+                        new TcpServerSocket(SERVER_PORT,
                         					SERVER_SEND_BUFFER_SIZE, 
-                        					SERVER_RECEIVE_BUFFER_SIZE)));
-            /*
+                        					SERVER_RECEIVE_BUFFER_SIZE)),
+                        createOutboundDispatcher()));
+            case TCPNioImplementation:
+                return clustered(new NioChatServerImpl(SERVER_PORT,
+                        SERVER_SEND_BUFFER_SIZE,
+                        SERVER_RECEIVE_BUFFER_SIZE,
+                        NUMBER_OF_EVENT_LOOPS,
+                        createOutboundDispatcher()));
+            case LoopbackImplementation:
+                // TCP-Server mit Verbindungen im selben Prozess, Clients muessen im Prozess laufen
+                return new TcpChatAdvancedServerImpl(createWorkerExecutor(), getDecoratedServerSocket(
+                        new LoopbackServerSocket(SERVER_PORT,
+                                SERVER_SEND_BUFFER_SIZE,
+                                SERVER_RECEIVE_BUFFER_SIZE)),
+                        createOutboundDispatcher());
             case UDPImplementation:
-                return new UdpChatServerImpl(Executors.newCachedThreadPool(), getDecoratedServerSocket(
-                        new UdpServerSocket(DEFAULT_SERVER_PORT, 
-                        					SERVER_SEND_BUFFER_SIZE, 
-                        					SERVER_RECEIVE_BUFFER_SIZE)));
-            */
+                return clustered(new UdpChatServerImpl(new UdpServerSocket(SERVER_PORT,
+                        UDP_SERVER_BUFFER_SIZE,
+                        UDP_SERVER_BUFFER_SIZE),
+                        NUMBER_OF_UDP_WORKERS,
+                        createOutboundDispatcher()));
             default:
                 throw new RuntimeException("Unknown type: " + type);
         }
     }
       
+    /**
+     * Ist ueber System-Properties ein Cluster konfiguriert, laeuft der Server als Knoten des
+     * Clusters (siehe {@link ClusterNode}). Der Loopback-Server bleibt immer allein.
+     */
+    private static ChatServer clustered(ChatServer server) {
+        if (!ClusterNode.isConfigured()) {
+            return server;
+        }
+        return new ClusterChatServer(server, ClusterNode.fromSystemProperties());
+    }
+
+    private static ChatWorkerExecutor createWorkerExecutor() {
+        return new ChatWorkerExecutor("ChatWorker", MAX_WORKER_THREADS, WORKER_QUEUE_CAPACITY);
+    }
+
+    private static OutboundDispatcher createOutboundDispatcher() {
+        return new OutboundDispatcher(OUTBOUND_QUEUE_CAPACITY, OUTBOUND_QUEUE_POLICY, OUTBOUND_WRITER_THREADS);
+    }
+
     private static ServerSocket getDecoratedServerSocket(ServerSocket serverSocket) {
         return new DecoratingServerSocket(serverSocket); ///Was ist ein decorated Server Socket?
     }
@@ -70,9 +148,14 @@ public final class ServerFactory {
     	 PropertyConfigurator.configureAndWatch("log4j.server.properties", 60 * 1000); ///Lesen von Configurations des Files log4j.... wenn es existiert; erstellt einen Thread, der zyklisch nach Vernderung der Konfigurationsdatei mit Abstnden von 60*1000 ms abfragt
     	/* Hinweis:
          * Im ImplementationType der naechsten Anweisungen muss der Server, 
-    	 * der gestartet werden soll, angegeben werden
+    	 * der gestartet werden soll, angegeben werden, sofern er nicht als
+    	 * erstes Programmargument uebergeben wird (z.B. TCPNioImplementation)
          */   	
-    	getServer(UserInterfaceInputParameters.ImplementationType.TCPImplementation).start(); ///bekommt den ServerSocket (Port, Puffersizen)
+    	UserInterfaceInputParameters.ImplementationType type = UserInterfaceInputParameters.ImplementationType.TCPImplementation;
+    	if (args.length > 0) {
+    		type = UserInterfaceInputParameters.ImplementationType.valueOf(args[0]);
+    	}
+    	getServer(type).start(); ///bekommt den ServerSocket (Port, Puffersizen)
     	//getServer(UserInterfaceInputParameters.ImplementationType.UDPImplementation).start();
     }
 
@@ -2,17 +2,26 @@ package edu.hm.dako.chat.tcp;
 
 import edu.hm.dako.chat.client.AbstractClient;
 import edu.hm.dako.chat.client.ChatClientUserInterface;
+import edu.hm.dako.chat.client.EventConfirmBatcher;
+import edu.hm.dako.chat.client.ResponseFuture;
 import edu.hm.dako.chat.common.ChatClientConversationStatus;
 import edu.hm.dako.chat.common.ChatPDU;
 import edu.hm.dako.chat.common.ExceptionHandler;
 import edu.hm.dako.chat.common.SharedClientStatistics;
+import edu.hm.dako.chat.common.VirtualThreads;
 import edu.hm.dako.chat.connection.Connection;
 import edu.hm.dako.chat.connection.ConnectionFactory;
 import edu.hm.dako.chat.connection.DecoratingConnectionFactory;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -35,21 +44,39 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
     // Zaehler fuer gesendete Chat-Nachrichten des Clients
     private AtomicInteger messageCounter = new AtomicInteger(0); ///fr automatische Inkrementation bei mehreren Threads
 
-    // Kennzeichen, ob zuletzt erwartete Chat-Response-PDU des Clients angekommen ist
-    private AtomicBoolean chatResponseReceived = new AtomicBoolean(); ///ndert False auf True und receive response();
+    // Erwartete Chat-Response-PDUs des Clients, Schluessel ist die Sequenznummer des Requests
+    private final ConcurrentHashMap<Long, ResponseFuture> chatResponses = new ConcurrentHashMap<Long, ResponseFuture>();
+
+    // Freie Plaetze im Fenster ausstehender Chat-Requests, nur im Pipelining-Betrieb belegt.
+    // Im Open-Loop-Betrieb zaehlt das Fenster die eingetroffenen oder abgelaufenen Responses.
+    private volatile Semaphore window;
+
+    // Erwartete Login- und Logout-Response-PDU
+    private volatile ResponseFuture loginResponse;
+    private volatile ResponseFuture logoutResponse;
+
+    // Erwartete Room-Join- oder Room-Leave-Response-PDU und aktueller Chat-Raum
+    private volatile ResponseFuture roomResponse;
+    private volatile String currentRoom = ChatPDU.DEFAULT_ROOM;
+
+    // Userliste des eigenen Raums, wird aus der zuletzt empfangenen vollstaendigen Liste und den
+    // folgenden Aenderungen fortgeschrieben (nur im Listener-Thread verwendet)
+    private final Set<String> userList = new LinkedHashSet<String>();
+    private String userListRoom;
+    private long userListVersion;
+    private boolean userListRequested = false;
+
+    // Sammelt die Bestaetigungen von Chat- und Login-Events, null, falls jedes Event einzeln
+    // bestaetigt wird
+    private volatile EventConfirmBatcher confirmBatcher;
 
     // Zaehler fuer Logouts und empfangene Events aller Clients zum Test, 
     private static AtomicInteger logoutCounter = new AtomicInteger(0);
     private static AtomicInteger eventCounter = new AtomicInteger(0); ///Warum alle Event-typen auer logout hier zusammen reingetan?
 
-    // Serverzeit fuer letzte Chat-Message-Bearbeitung des Clients, wird fuer die Endebearbeitung genutzt
-    private long lastServerTime;
-
-    // Logout-Response-PDU, die vom Client empfangen wurde
-    private ChatPDU logoutResponsePdu;
-
-    // Thread, der die ankommenden Nachrichten fuer den Client verarbeitet
-    private MessageListenerThread messageListenerThread;
+    // Thread, der die ankommenden Nachrichten fuer den Client verarbeitet, bei eingeschalteten
+    // virtuellen Threads ein virtueller Thread (siehe VirtualThreads)
+    private Thread messageListenerThread;
 
     /**
      * Konstruktor fuer Benchmarking
@@ -63,15 +90,17 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
      * @param clientThinkTime
      * @param numberOfRetries
      * @param responseTimeout
+     * @param windowSize
+     * @param openLoop
      * @param sharedData
      * @param connectionFactory
      */
     public TcpChatAdvancedClientImpl(ChatClientUserInterface userInterface, int serverPort, String remoteServerAddress, int numberOfClient,
                                      int messageLength, int numberOfMessages, int clientThinkTime,
-                                     int numberOfRetries, int responseTimeout,
+                                     int numberOfRetries, int responseTimeout, int windowSize, boolean openLoop,
                                      SharedClientStatistics sharedData, ConnectionFactory connectionFactory) {
         super(serverPort, remoteServerAddress, numberOfClient, messageLength, numberOfMessages, clientThinkTime,
-                numberOfRetries, responseTimeout,
+                numberOfRetries, responseTimeout, windowSize, openLoop,
                 sharedData, connectionFactory);
 
         this.userInterface = userInterface;
@@ -83,9 +112,8 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
             log.debug("Verbindung zum Server steht");
 
             // Start eines Threads zur Bearbeitung ankommender Nachrichten vom Server
-            messageListenerThread = new MessageListenerThread();
+            messageListenerThread = VirtualThreads.newThread("Client-Thread-" + clientNumber, new MessageListenerThread());
             messageListenerThread.start();
-            messageListenerThread.setName("Client-Thread-" + clientNumber);
             log.debug("Message-Processing-Thread gestartet: " + messageListenerThread.getName());
         } catch (Exception e) {
             ExceptionHandler.logException(e);
@@ -112,7 +140,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         }
 
         // Start eines Threads fuer die Bearbeitung ankommender Nachrichten vom Server
-        messageListenerThread = new MessageListenerThread();
+        messageListenerThread = VirtualThreads.newThread("MessageListener", new MessageListenerThread());
         messageListenerThread.start();
         log.debug("Message-Listener-Thread gestartet: " + messageListenerThread.getName());
     }
@@ -146,30 +174,46 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         try {
             // Login ausfuehren und warten, bis Server bestaetigt
             this.login(threadName);
-            while (getStatus() != ChatClientConversationStatus.REGISTERED) {
-                Thread.sleep(1000);
-                if (getStatus() == ChatClientConversationStatus.UNREGISTERED) {
-                    // Fehlermeldung vom Server beim Login-Vorgang
-                    log.debug("User " + userName + " schon im Server angemeldet");
-                    return;
-                }
+            ChatPDU loginResponsePdu = waitForResponse(loginResponse, "Login",
+                    ChatClientConversationStatus.REGISTERING);
+            if (loginResponsePdu == null) {
+                connection.close();
+                return;
+            }
+            if (getStatus() != ChatClientConversationStatus.REGISTERED) {
+                // Fehlermeldung vom Server beim Login-Vorgang
+                log.debug("User " + userName + " schon im Server angemeldet");
+                return;
             }
 
             log.debug("User " + userName + " beim Server angemeldet");
 
+            // Vor der Lasterzeugung in den vorgegebenen Raum wechseln, damit alle Events
+            // bereits nur noch an die Mitglieder des Raums gehen
+            if (room != null) {
+                joinRoom(room);
+                waitForResponse(roomResponse, "Room-Join", null);
+            }
+
+            // Im Open-Loop-Betrieb muss das Fenster stehen, bevor der Lastgenerator nach
+            // dem Login aller Clients den ersten Request sendet
+            if (openLoop) {
+                window = new Semaphore(0);
+            }
+
             // Warten, bis alle Clients eingeloggt sind
             waitForLoggedInClients();
 
             // Alle Chat-Nachrichten senden
             int i;
-            for (i = 0; i < numberOfMessagesToSend; i++) {
-                sendMessageAndWaitForAck(i);
-                try {
-                    // Zufaellige Zeit, aber maximal die angegebene Denkzeit warten
-                    int randomThinkTime = (int) Math.random() * clientThinkTime + 1;
-                    Thread.sleep(randomThinkTime);
-                } catch (Exception e) {
-                    ExceptionHandler.logException(e);
+            if (openLoop) {
+                i = awaitScheduledResponses();
+            } else if (windowSize > 1) {
+                i = sendMessagesPipelined();
+            } else {
+                for (i = 0; i < numberOfMessagesToSend; i++) {
+                    sendMessageAndWaitForAck(i);
+                    think();
                 }
             }
             log.debug("Gesendete Chat-Nachrichten von " + userName + ": " + i);
@@ -184,8 +228,11 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
 
             // Logout  ausfuehren und warten, bis Server bestaetigt
             this.logout(threadName);
-            while (getStatus() != ChatClientConversationStatus.UNREGISTERED) {
-                Thread.sleep(1000);
+            ChatPDU logoutResponsePdu = waitForResponse(logoutResponse, "Logout",
+                    ChatClientConversationStatus.UNREGISTERING);
+            if (logoutResponsePdu == null) {
+                connection.close();
+                return;
             }
 
             postLogout(logoutResponsePdu);  // Nachbearbeitung fuer die Statistik	
@@ -210,21 +257,164 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
     }
 
     /**
-     * Warten, bis Server einen Chat-Response als Antwort auf den letzten
-     * Chat-Request gesendet hat (nur fuer Benchmarking)
+     * Warten, bis die Login-, Logout- oder Room-Join-Response eingetroffen ist. Nach Ablauf der
+     * Response-Wartezeit gilt der Request als fehlgeschlagen: Der Client wechselt in den Status
+     * UNREGISTERED, eine spaeter ankommende Response wird vom Listener-Thread verworfen, und
+     * der Fehler wird an der Benutzeroberflaeche gemeldet.
+     *
+     * @param future        Erwartete Response
+     * @param requestName   Bezeichnung des Requests fuer das Log
+     * @param pendingStatus Status des Clients waehrend des Wartens, bei null (Room-Join) bleibt
+     *                      der Status nach Ablauf der Wartezeit unveraendert
+     * @return Empfangene Response oder null, wenn sie nicht rechtzeitig eingetroffen ist
+     *         oder der Listener-Thread beendet wurde
+     * @throws InterruptedException Warten wurde unterbrochen
+     */
+    private ChatPDU waitForResponse(ResponseFuture future, String requestName,
+                                    ChatClientConversationStatus pendingStatus) throws InterruptedException {
+        ChatPDU response = future.await(responseTimeout);
+        if (future.isDone()) {
+            return response;
+        }
+        if (pendingStatus != null && !failPendingRequest(pendingStatus)) {
+            // Response ist gerade noch eingetroffen, der Listener-Thread hat den Status schon
+            // veraendert und uebergibt sie sofort
+            return future.await(0);
+        }
+        String errorMessage = requestName + "-Response-PDU fuer " + userName + " nicht innerhalb von "
+                + responseTimeout + " ms empfangen";
+        log.error(errorMessage);
+        userInterface.setErrorMessage(userName, errorMessage,
+                pendingStatus == ChatClientConversationStatus.REGISTERING ? ChatPDU.LOGIN_ERROR : ChatPDU.NO_ERROR);
+        return null;
+    }
+
+    /**
+     * Synchronisiertes Abbrechen eines Login- oder Logout-Vorgangs nach Ablauf der
+     * Response-Wartezeit
+     *
+     * @param pendingStatus Status des Clients waehrend des Wartens auf die Response
+     * @return true, wenn der Client noch im Status pendingStatus war und nun UNREGISTERED ist
      */
+    private synchronized boolean failPendingRequest(ChatClientConversationStatus pendingStatus) {
+        if (status != pendingStatus) {
+            return false;
+        }
+        status = ChatClientConversationStatus.UNREGISTERED;
+        return true;
+    }
 
-    private void waitUntilChatResponseReveiced() {
-        chatResponseReceived.set(false);
+    /**
+     * Zufaellige Zeit, aber maximal die angegebene Denkzeit warten
+     */
+    private void think() {
         try {
-            while ((!chatResponseReceived.get())) {
-                log.debug(userName + " wartet auf Chat-Message-Response-PDU");
-                Thread.sleep(1);
+            int randomThinkTime = (int) (Math.random() * clientThinkTime);
+            if (randomThinkTime > 0) {
+                Thread.sleep(randomThinkTime);
             }
         } catch (Exception e) {
             ExceptionHandler.logException(e);
         }
-        return;
+    }
+
+    /**
+     * Dummy-Nachricht in der eingestellten Laenge erzeugen
+     *
+     * @return Chat-Nachricht
+     */
+    private String createChatMessage() {
+        StringBuilder chatMessage = new StringBuilder(messageLength);
+        for (int j = 0; j < messageLength; j++) {
+            chatMessage.append('+');
+        }
+        return chatMessage.toString();
+    }
+
+    /**
+     * Alle Chat-Nachrichten im Pipelining-Betrieb senden: Es werden bis zu windowSize
+     * Requests gesendet, ohne auf die Responses zu warten. Die Responses werden ueber die
+     * Sequenznummer zugeordnet und im Listener-Thread in die Statistik aufgenommen, jede
+     * Response gibt einen Platz im Fenster frei. Methode wird nur von Benchmarking-Client
+     * genutzt
+     *
+     * @return Anzahl gesendeter Chat-Nachrichten
+     * @throws InterruptedException Warten wurde unterbrochen
+     */
+    private int sendMessagesPipelined() throws InterruptedException {
+        String chatMessage = createChatMessage();
+        window = new Semaphore(windowSize);
+        int i;
+        for (i = 0; i < numberOfMessagesToSend; i++) {
+            acquireWindowSlot();
+            if (i > 0) {
+                think();
+            }
+            sharedData.incrSentMsgCounter(clientNumber);
+            sendChatMessage(chatMessage);
+        }
+
+        // Warten, bis alle ausstehenden Responses eingetroffen oder abgelaufen sind
+        for (int j = 0; j < windowSize; j++) {
+            acquireWindowSlot();
+        }
+        window.release(windowSize);
+        return i;
+    }
+
+    /**
+     * Open-Loop-Betrieb: Die Chat-Requests sendet der Lastgenerator. Der Client-Thread wartet,
+     * bis fuer alle Nachrichten die Response eingetroffen oder abgelaufen ist.
+     *
+     * @return Anzahl abgeschlossener Chat-Nachrichten
+     * @throws InterruptedException Warten wurde unterbrochen
+     */
+    private int awaitScheduledResponses() throws InterruptedException {
+        int i;
+        for (i = 0; i < numberOfMessagesToSend; i++) {
+            acquireWindowSlot();
+        }
+        return i;
+    }
+
+    @Override
+    public void sendScheduledMessage(long intendedSendTime) {
+        sharedData.incrSentMsgCounter(clientNumber);
+        sendChatMessage(createChatMessage(), intendedSendTime);
+    }
+
+    /**
+     * Einen Platz im Fenster belegen. Ist nach Ablauf der Response-Wartezeit kein Platz frei
+     * geworden, werden die abgelaufenen Requests verworfen.
+     *
+     * @throws InterruptedException Warten wurde unterbrochen
+     */
+    private void acquireWindowSlot() throws InterruptedException {
+        if (responseTimeout <= 0) {
+            window.acquire();
+            return;
+        }
+        while (!window.tryAcquire(responseTimeout, TimeUnit.MILLISECONDS)) {
+            expireChatResponses();
+        }
+    }
+
+    /**
+     * Alle Chat-Requests verwerfen, deren Response laenger als die Response-Wartezeit
+     * aussteht, und ihre Plaetze im Fenster freigeben
+     */
+    private void expireChatResponses() {
+        long now = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(responseTimeout);
+        for (Map.Entry<Long, ResponseFuture> entry : chatResponses.entrySet()) {
+            if (now - entry.getValue().getSendTime() >= timeout
+                    && chatResponses.remove(entry.getKey(), entry.getValue())) {
+                sharedData.incrLostResponseCounter(clientNumber);
+                log.error("Keine Chat-Message-Response-PDU fuer " + userName + ", Nachricht " + entry.getKey()
+                        + " innerhalb von " + responseTimeout + " ms empfangen");
+                window.release();
+            }
+        }
     }
 
     /**
@@ -237,26 +427,34 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
 
     private void sendMessageAndWaitForAck(int i) throws Exception {
         // Dummy-Nachricht zusammenbauen
-        String chatMessage = "";
-        for (int j = 0; j < messageLength; j++) {
-            chatMessage += "+";
-        }
+        String chatMessage = createChatMessage();
         // Senden der Nachricht und warten, bis Bestaetigung vom Server da ist
         try {
 
             sharedData.incrSentMsgCounter(clientNumber);
             // RTT-Startzeit ermitteln
             long rttStartTime = System.nanoTime();
-            tell(userName, chatMessage);
+            ResponseFuture future = sendChatMessage(chatMessage);
 
             // Warten, bis Chat-Response empfangen wurde, dann erst naechsten
             // Chat Request senden
-            waitUntilChatResponseReveiced();
+            ChatPDU responsePdu = future.await(responseTimeout);
+            if (responsePdu == null && !chatResponses.values().remove(future)) {
+                // Response ist gerade noch eingetroffen, der Listener-Thread uebergibt sie sofort
+                responsePdu = future.await(0);
+            }
+            if (responsePdu == null) {
+                // Keine Response innerhalb der Wartezeit, eine spaeter ankommende Response wird verworfen
+                sharedData.incrLostResponseCounter(clientNumber);
+                log.error("Keine Chat-Message-Response-PDU fuer " + userName + ", Nachricht " + (i + 1)
+                        + " innerhalb von " + responseTimeout + " ms empfangen");
+                return;
+            }
 
             // Response in Statistik aufnehmen
             long rtt = System.nanoTime() - rttStartTime;
 
-            postReceive(i, lastServerTime, rtt);
+            postReceive(i, responsePdu.getServerTime(), rtt);
 
         } catch (Exception e) {
             ExceptionHandler.logException(e);
@@ -293,13 +491,21 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         Thread.currentThread().setName("Client-" + userName);
         requestPdu.setClientThreadName(Thread.currentThread().getName());
         requestPdu.setUserName(userName);
+        // Status vor dem Senden setzen, da die Antwort des Servers sonst vor dem Statuswechsel
+        // im Listener-Thread ankommen kann
+        setStatus(ChatClientConversationStatus.REGISTERING);
+        loginResponse = new ResponseFuture();
+        if (EventConfirmBatcher.isEnabled()) {
+            confirmBatcher = new EventConfirmBatcher(connection, userName,
+                    EventConfirmBatcher.DEFAULT_BATCH_SIZE, EventConfirmBatcher.DEFAULT_DELAY);
+            confirmBatcher.start("EventConfirm-" + userName);
+        }
         try {
             connection.send(requestPdu);
             log.debug("Login-Request-PDU fuer Client " + userName + " an Server gesendet");
         } catch (Exception e) {
             ExceptionHandler.logException(e);
         }
-        setStatus(ChatClientConversationStatus.REGISTERING);
     }
 
     /**
@@ -310,6 +516,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
      */
     public void logout(String name) throws Exception {
         ChatPDU requestPdu = new ChatPDU();
+        logoutResponse = new ResponseFuture();
         setStatus(ChatClientConversationStatus.UNREGISTERING);
         requestPdu.setPduType(ChatPDU.LOGOUT_REQUEST);
         requestPdu.setClientStatus(getStatus());
@@ -328,6 +535,45 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         }
     }
 
+    /**
+     * Room-Join-Request an den Server senden: Wechsel in einen anderen Chat-Raum
+     *
+     * @param room Name des Raums
+     */
+    public void joinRoom(String room) {
+        sendRoomRequest(ChatPDU.ROOM_JOIN_REQUEST, room);
+    }
+
+    /**
+     * Room-Leave-Request an den Server senden: Rueckkehr in den Standardraum
+     */
+    public void leaveRoom() {
+        sendRoomRequest(ChatPDU.ROOM_LEAVE_REQUEST, null);
+    }
+
+    /**
+     * @return Aktueller Chat-Raum laut letzter Room-Join- oder Room-Leave-Response
+     */
+    public String getCurrentRoom() {
+        return currentRoom;
+    }
+
+    private void sendRoomRequest(int pduType, String room) {
+        ChatPDU requestPdu = new ChatPDU();
+        requestPdu.setPduType(pduType);
+        requestPdu.setClientStatus(getStatus());
+        requestPdu.setClientThreadName(Thread.currentThread().getName());
+        requestPdu.setUserName(userName);
+        requestPdu.setRoom(room);
+        roomResponse = new ResponseFuture();
+        try {
+            connection.send(requestPdu);
+            log.debug("Raum-Request-PDU fuer Client " + userName + " an Server gesendet, Raum " + room);
+        } catch (Exception e) {
+            ExceptionHandler.logException(e);
+        }
+    }
+
     /**
      * Senden einer Chat-Nachricht zur Verteilung an den Server
      *
@@ -335,22 +581,47 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
      * @param text Chat-Nachricht
      */
     public void tell(String name, String text) {
+        sendChatMessage(text);
+    }
+
+    /**
+     * Chat-Nachricht senden und die Response als erwartet eintragen
+     *
+     * @param text Chat-Nachricht
+     * @return Erwartete Response des Requests
+     */
+    private ResponseFuture sendChatMessage(String text) {
+        return sendChatMessage(text, System.nanoTime());
+    }
+
+    /**
+     * Chat-Nachricht senden und die Response als erwartet eintragen
+     *
+     * @param text     Chat-Nachricht
+     * @param sendTime Beginn der RTT in ns (System.nanoTime)
+     * @return Erwartete Response des Requests
+     */
+    private ResponseFuture sendChatMessage(String text, long sendTime) {
         ChatPDU requestPdu = new ChatPDU();
         requestPdu.setPduType(ChatPDU.CHAT_MESSAGE_REQUEST);
         requestPdu.setClientStatus(getStatus());
         requestPdu.setClientThreadName(Thread.currentThread().getName());
         requestPdu.setUserName(userName);
         requestPdu.setMessage(text);
-        messageCounter.getAndIncrement();
-        requestPdu.setSequenceNumber(messageCounter.get());
+        long sequenceNumber = messageCounter.incrementAndGet();
+        requestPdu.setSequenceNumber(sequenceNumber);
 
+        // Vor dem Senden eintragen, da die Response sonst vorher ankommen kann
+        ResponseFuture future = new ResponseFuture(sendTime);
+        chatResponses.put(sequenceNumber, future);
         try {
             connection.send(requestPdu);
-            log.debug("Chat-Message-Request-PDU fuer Client " + name + " an Server gesendet, Inhalt: " + text);
+            log.debug("Chat-Message-Request-PDU fuer Client " + userName + " an Server gesendet, Inhalt: " + text);
 
         } catch (Exception e) {
             ExceptionHandler.logException(e);
         }
+        return future;
     }
 
     /**
@@ -359,6 +630,13 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
      * @param receivedPdu PDU des initiierenden Clients
      */
     public void sendMessageEventConfirm(ChatPDU receivedPdu) {
+        EventConfirmBatcher batcher = confirmBatcher;
+        if (batcher != null) {
+            batcher.confirm(ChatPDU.CHAT_MESSAGE_EVENT, receivedPdu.getEventUserName(),
+                    receivedPdu.getSequenceNumber());
+            return;
+        }
+
         //PDU aufbauen
         ChatPDU confirmPdu = new ChatPDU();
         confirmPdu.setPduType(ChatPDU.CHAT_MESSAGE_EVENT_CONFIRM);
@@ -366,6 +644,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         confirmPdu.setClientThreadName(Thread.currentThread().getName());
         confirmPdu.setUserName(userName);
         confirmPdu.setEventUserName(receivedPdu.getEventUserName());
+        confirmPdu.setSequenceNumber(receivedPdu.getSequenceNumber());
         confirmPdu.setServerThreadName(receivedPdu.getServerThreadName());
 
         //PDU senden
@@ -384,6 +663,12 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
      * @param pdu PDU des initiierenden Clients
      */
     public void sendLoginEventConfirm(ChatPDU pdu) {
+        EventConfirmBatcher batcher = confirmBatcher;
+        if (batcher != null) {
+            batcher.confirm(ChatPDU.LOGIN_EVENT, pdu.getEventUserName(), pdu.getSequenceNumber());
+            return;
+        }
+
         //PDU aufbauen
         ChatPDU confirmPdu = new ChatPDU();
         confirmPdu.setPduType(ChatPDU.LOGIN_EVENT_CONFIRM);
@@ -391,6 +676,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         confirmPdu.setClientThreadName(Thread.currentThread().getName());
         confirmPdu.setUserName(userName);
         confirmPdu.setEventUserName(pdu.getEventUserName());
+        confirmPdu.setSequenceNumber(pdu.getSequenceNumber());
 
         //Pdu senden
         try {
@@ -408,6 +694,12 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
      * @param pdu PDU des initiierenden Clients
      */
     public void sendLogoutEventConfirm(ChatPDU pdu) {
+        // Logout-Events werden einzeln bestaetigt, gesammelte Bestaetigungen vorher senden
+        EventConfirmBatcher batcher = confirmBatcher;
+        if (batcher != null) {
+            batcher.flush();
+        }
+
         //PDU aufbauen
         ChatPDU confirmPdu = new ChatPDU();
         confirmPdu.setPduType(ChatPDU.LOGOUT_EVENT_CONFIRM);
@@ -415,6 +707,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
         confirmPdu.setClientThreadName(Thread.currentThread().getName());
         confirmPdu.setUserName(userName);
         confirmPdu.setEventUserName(pdu.getEventUserName());
+        confirmPdu.setSequenceNumber(pdu.getSequenceNumber());
 
         //PDU senden
         try {
@@ -428,27 +721,101 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
 
     /**
      * Event vom Server zur Veraenderung der UserListe (eingeloggte Clients)
-     * verarbeiten
+     * verarbeiten. Eine vollstaendige Userliste ersetzt die bisherige, sonst wird nur der
+     * hinzugekommene bzw. entfernte User uebernommen. Aenderungen, die bereits in der Liste
+     * enthalten sind oder einen anderen Raum betreffen, werden verworfen. Fehlt eine Version,
+     * wird die vollstaendige Liste beim Server angefordert.
      *
      * @param receivedPdu Empfangene PDU
      */
     private void handleUserListEvent(ChatPDU receivedPdu) {
 
-        log.debug("Login- oder Logout-Event-PDU fuer Client " + receivedPdu.getUserName() + " empfangen");
+        log.debug("Login- oder Logout-Event-PDU fuer Client " + receivedPdu.getEventUserName() + " empfangen");
+
+        if (receivedPdu.getClients() != null) {
+            // Vollstaendige Userliste zur Darstellung an User Interface uebergeben
+            log.debug("Empfangene Userliste: " + receivedPdu.getClients());
+            userList.clear();
+            userList.addAll(receivedPdu.getClients());
+            userListRoom = receivedPdu.getRoom();
+            userListVersion = receivedPdu.getListVersion();
+            userListRequested = false;
+            userInterface.setUserList(new Vector<String>(userList));
+            return;
+        }
 
-        // Neue Userliste zur Darstellung an User Interface uebergeben
-        log.debug("Empfangene Userliste: " + receivedPdu.getClients());
-        userInterface.setUserList(receivedPdu.getClients());
+        if (userListRoom == null || !userListRoom.equals(receivedPdu.getRoom())
+                || receivedPdu.getListVersion() <= userListVersion) {
+            log.debug("Aenderung der Userliste in Version " + receivedPdu.getListVersion() + " verworfen");
+            return;
+        }
+        if (receivedPdu.getListVersion() > userListVersion + 1) {
+            log.debug("Luecke in der Userliste vor Version " + receivedPdu.getListVersion());
+            requestUserList();
+        }
+        userListVersion = receivedPdu.getListVersion();
+
+        String user = receivedPdu.getEventUserName();
+        if (receivedPdu.getListChange() == ChatPDU.USER_ADDED) {
+            if (userList.add(user)) {
+                userInterface.changeUserList(user, true);
+            }
+        } else if (receivedPdu.getListChange() == ChatPDU.USER_REMOVED) {
+            if (userList.remove(user)) {
+                userInterface.changeUserList(user, false);
+            }
+        }
+    }
+
+    /**
+     * Vollstaendige Userliste des eigenen Raums beim Server anfordern, hoechstens eine
+     * Anforderung ist gleichzeitig ausstehend
+     */
+    private void requestUserList() {
+        if (userListRequested) {
+            return;
+        }
+        userListRequested = true;
+        ChatPDU requestPdu = new ChatPDU();
+        requestPdu.setPduType(ChatPDU.USER_LIST_REQUEST);
+        requestPdu.setClientStatus(getStatus());
+        requestPdu.setClientThreadName(Thread.currentThread().getName());
+        requestPdu.setUserName(userName);
+        try {
+            connection.send(requestPdu);
+            log.debug("User-List-Request-PDU fuer Client " + userName + " an Server gesendet");
+        } catch (Exception e) {
+            ExceptionHandler.logException(e);
+        }
     }
 
     /*
      * Thread wartet auf ankommende Nachrichten vom Server und bearbeitet
      * diese.
      */
-    class MessageListenerThread extends Thread {
+    class MessageListenerThread implements Runnable {
 
         boolean finished = false; // Kennzeichen zum Beenden der Bearbeitung
 
+        /**
+         * Verbindung ist abgebrochen: Auf Login- oder Logout-Response wartende Threads wecken,
+         * damit sie sich nicht endlos blockieren
+         */
+        private void abortPendingResponses() {
+            ResponseFuture pendingLogin = loginResponse;
+            if (pendingLogin != null && !pendingLogin.isDone()) {
+                pendingLogin.complete(null);
+            }
+            ResponseFuture pendingLogout = logoutResponse;
+            if (pendingLogout != null && !pendingLogout.isDone()) {
+                pendingLogout.complete(null);
+            }
+            ResponseFuture pendingRoom = roomResponse;
+            if (pendingRoom != null && !pendingRoom.isDone()) {
+                pendingRoom.complete(null);
+            }
+        }
+
         /**
          * Bearbeitung aller ankommenden Nachrichten vom Server
          */
@@ -466,6 +833,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
                 } catch (Exception e) {
                     finished = true;
                     ExceptionHandler.logException(e);
+                    abortPendingResponses();
                 }
 
                 if (receivedPdu != null) {
@@ -487,6 +855,7 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
                                         Thread.currentThread().setName("Listener" + "-" + userName);
                                         log.debug("Login-Response-PDU fuer Client " + userName + " empfangen");
                                     }
+                                    loginResponse.complete(receivedPdu);
                                     break;
 
                                 case ChatPDU.LOGIN_EVENT:
@@ -510,6 +879,12 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
                                     }
                                     break;
 
+                                case ChatPDU.ROOM_EVENT:
+                                case ChatPDU.USER_LIST_RESPONSE:
+                                    // Aenderungen der Userliste nach dem eigenen Login-Event
+                                    handleUserListEvent(receivedPdu);
+                                    break;
+
                                 default:
                                     log.debug("Ankommende PDU im Zustand " + getStatus() + " wird verworfen"); ///Mit restlichen PDU-Typen macht er nichts
                             }
@@ -541,12 +916,42 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
                                     break;
 
                                 case ChatPDU.CHAT_MESSAGE_RESPONSE:
-                                    lastServerTime = receivedPdu.getServerTime();
+                                    ResponseFuture future = chatResponses.remove(receivedPdu.getSequenceNumber());
+                                    if (future != null) {
+                                        future.complete(receivedPdu);
+                                        Semaphore pipelineWindow = window;
+                                        if (pipelineWindow != null) {
+                                            // Pipelining oder Open-Loop: Response hier in Statistik aufnehmen
+                                            // und Platz freigeben
+                                            postReceive((int) receivedPdu.getSequenceNumber() - 1,
+                                                    receivedPdu.getServerTime(), System.nanoTime() - future.getSendTime());
+                                            pipelineWindow.release();
+                                        }
+                                    } else {
+                                        log.debug("Verspaetete oder unbekannte Chat-Message-Response-PDU "
+                                                + receivedPdu.getSequenceNumber() + " fuer " + userName + " verworfen");
+                                    }
                                     // Unblock Chat
-                                    chatResponseReceived.set(true);
                                     userInterface.setBlock(false);
                                     break;
 
+                                case ChatPDU.ROOM_JOIN_RESPONSE:
+                                case ChatPDU.ROOM_LEAVE_RESPONSE:
+                                    // Raumwechsel abgeschlossen, Mitgliederliste des neuen Raums anzeigen
+                                    currentRoom = receivedPdu.getRoom();
+                                    handleUserListEvent(receivedPdu);
+                                    if (roomResponse != null) {
+                                        roomResponse.complete(receivedPdu);
+                                    }
+                                    break;
+
+                                case ChatPDU.ROOM_EVENT:
+                                    // Mitgliederliste des eigenen Raums hat sich geaendert, keine Bestaetigung
+                                case ChatPDU.USER_LIST_RESPONSE:
+                                    // Angeforderte vollstaendige Userliste
+                                    handleUserListEvent(receivedPdu);
+                                    break;
+
                                 case ChatPDU.CHAT_MESSAGE_EVENT:
                                     eventCounter.getAndIncrement();
                                     // Confirmation an den Server senden
@@ -567,10 +972,16 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
                                 case ChatPDU.LOGOUT_RESPONSE:
                                     //Logout-Bestaetigung vom Server bekommen
                                     //Jetzt ordnungsgemaess Verbindung abbauen
-                                    logoutResponsePdu = receivedPdu;
                                     setStatus(ChatClientConversationStatus.UNREGISTERED);
                                     userInterface.logoutComplete();
+                                    logoutResponse.complete(receivedPdu);
                                     finished = true;
+                                    // Der Server wartet darauf, dass der Client die Verbindung abbaut
+                                    try {
+                                        connection.close();
+                                    } catch (Exception e) {
+                                        ExceptionHandler.logException(e);
+                                    }
                                     break;
 
                                 case ChatPDU.LOGIN_EVENT:
@@ -617,6 +1028,9 @@ public class TcpChatAdvancedClientImpl extends AbstractClient {
                     }
                 }
             }
+            if (confirmBatcher != null) {
+                confirmBatcher.close();
+            }
             log.debug("Ordnungsgemaesses Ende des Message-Listener-Threads");
         }
     }
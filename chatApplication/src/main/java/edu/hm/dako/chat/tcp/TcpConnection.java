@@ -1,27 +1,50 @@
 package edu.hm.dako.chat.tcp;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduCodecs;
+import edu.hm.dako.chat.connection.PduFrames;
 
+/**
+ * TCP-Verbindung, die jede Nachricht einzeln mit Laengenfeld uebertraegt (siehe {@link PduFrames}).
+ * <p>
+ * Die Codierung der Nachrichten wird beim Verbindungsaufbau ausgehandelt: Der Client schlaegt
+ * ueber {@link #negotiateCodec(PduCodec)} einen Codec vor, der Server beantwortet den Vorschlag
+ * beim ersten Empfangen einer Nachricht.
+ * <p>
+ * Gesendet wird unter einer {@link ReentrantLock} statt synchronized, damit ein virtueller
+ * Thread, der beim Schreiben an einen langsamen Client blockiert, seinen Traeger-Thread freigibt.
+ */
 public class TcpConnection implements Connection {
 	
     private static Log log = LogFactory.getLog(TcpConnection.class);
 
     // Ein- und Ausgabestrom der Verbindung
-    private final ObjectOutputStream out;
-    private final ObjectInputStream in;
+    private final DataOutputStream out;
+    private final DataInputStream in;
     
     // Verwendetes TCP-Socket
     private final Socket socket;
+
+    // Ausgehandelter Codec, null solange die Aushandlung noch aussteht
+    private volatile PduCodec codec;
+
+    // Sperre fuer das Schreiben in den Ausgabestrom
+    private final ReentrantLock sendLock = new ReentrantLock();
     
     /*
      *  Zur Information:
@@ -35,11 +58,9 @@ public class TcpConnection implements Connection {
                 socket.getPort());
         
         try {
-            // Ein- und Ausgabe-Objektstroeme erzeugen
-        	// Achtung: Erst Ausgabestrom, dann Eingabestrom erzeugen, sonst Fehler beim Verbindungsaufbau, siehe API-Beschreibung
-        	
-            out = new ObjectOutputStream(socket.getOutputStream());
-            in = new ObjectInputStream(socket.getInputStream());
+            // Gepufferte Ein- und Ausgabestroeme erzeugen
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 
             log.debug("Standardgroesse des Empfangspuffers der Verbindung: " + socket.getReceiveBufferSize() + " Byte");
             log.debug("Standardgroesse des Sendepuffers der Verbindung: " + socket.getSendBufferSize() + " Byte");
@@ -73,20 +94,65 @@ public class TcpConnection implements Connection {
         }
     }
 
+    /**
+     * Clientseitige Aushandlung des Codecs, muss vor dem ersten Senden aufgerufen werden
+     *
+     * @param proposed Gewuenschter Codec
+     * @return Vom Server gewaehlter Codec
+     * @throws IOException Fehler bei der Aushandlung
+     */
+    public PduCodec negotiateCodec(PduCodec proposed) throws IOException {
+    	out.writeByte(proposed.getId());
+    	out.flush();
+    	int id = in.read();
+    	if (id < 0) {
+    		throw new IOException("Verbindung waehrend der Codec-Aushandlung abgebaut");
+    	}
+    	codec = PduCodecs.getById(id);
+    	if (codec == null) {
+    		throw new IOException("Server hat unbekannten Codec gewaehlt: " + id);
+    	}
+    	log.debug("Codec fuer die Verbindung: " + codec.getName());
+    	return codec;
+    }
+
+    /**
+     * Serverseitige Beantwortung des Codec-Vorschlags des Clients
+     */
+    private void acceptCodec() throws IOException {
+    	int id = in.read();
+    	if (id < 0) {
+    		throw new IOException("Verbindung vor der Codec-Aushandlung abgebaut");
+    	}
+    	PduCodec selected = PduCodecs.negotiate(id);
+    	sendLock.lock();
+    	try {
+    		out.writeByte(selected.getId());
+    		out.flush();
+    		codec = selected;
+    	} finally {
+    		sendLock.unlock();
+    	}
+    	log.debug("Codec fuer die Verbindung: " + selected.getName());
+    }
+
     @Override
     public Serializable receive(int timeout) throws Exception {
-
-    	// Exceptions beim Lesen aus einem Stream sind immer schwerwiegend und ein Recovery des Streams nicht moeglich 
-    	Object message = in.readObject();
-    	return (Serializable) message;
+    	return receive();
     }
     
     
     @Override
     public Serializable receive() throws Exception {
+    	if (codec == null) {
+    		acceptCodec();
+    	}
       	// Exceptions beim Lesen aus einem Stream sind immer schwerwiegend und ein Recovery des Streams nicht moeglich 
-        Object message = in.readObject();
-    	return (Serializable) message;
+    	int length = in.readInt();
+    	PduFrames.checkLength(length);
+    	byte[] frame = new byte[length];
+    	in.readFully(frame);
+    	return codec.decode(frame, 0, length);
     }
 
     @Override
@@ -101,20 +167,73 @@ public class TcpConnection implements Connection {
      		return;
     	}
     	
+    	if (codec == null) {
+    		log.debug("Sendeversuch vor Abschluss der Codec-Aushandlung");
+    		return;
+    	}
+    	
+    	sendLock.lock();
     	try {
     		// Exceptions beim Schreiben in einen Stream sind immer schwerwiegend und ein Recovery des Streams nicht moeglich 
-    		out.writeObject(message);
+    		byte[] payload = codec.encode(message);
+    		out.writeInt(payload.length);
+    		out.write(payload);
     		out.flush();
     	} catch (Exception e) {
     		log.debug("Exception beim Sendeversuch an " + socket.getInetAddress());	
     		log.debug(e.getMessage());
     		//throw e;
+    	} finally {
+    		sendLock.unlock();
     	}
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        out.flush();
+    public void sendEncoded(EncodedPdu pdu) throws Exception {
+    	
+    	if (socket.isClosed() || !socket.isConnected()) {
+    		log.debug("Sendeversuch, obwohl Verbindung nicht mehr steht");
+    		return;
+    	}
+    	if (codec == null) {
+    		log.debug("Sendeversuch vor Abschluss der Codec-Aushandlung");
+    		return;
+    	}
+    	
+    	sendLock.lock();
+    	try {
+    		// Rahmen wird fuer alle Empfaenger mit demselben Codec nur einmal erzeugt
+    		out.write(pdu.getFrame(codec));
+    		out.flush();
+    	} catch (Exception e) {
+    		log.debug("Exception beim Sendeversuch an " + socket.getInetAddress());	
+    		log.debug(e.getMessage());
+    	} finally {
+    		sendLock.unlock();
+    	}
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException {
+    	sendLock.lock();
+    	try {
+    		if (socket.isClosed() || socket.isOutputShutdown()) {
+    			return;
+    		}
+    		// Der Client erhaelt danach EOF, kann aber noch senden, bis er die Verbindung abbaut
+    		out.flush();
+    		socket.shutdownOutput();
+    	} finally {
+    		sendLock.unlock();
+    	}
+    }
+
+    /*
+     * Nicht synchronisiert: Jede Nachricht wird beim Senden sofort ausgegeben, ein Schliessen
+     * darf daher nicht hinter einem blockierten Sendevorgang (z.B. zu einem langsamen Client) warten.
+     */
+    @Override
+    public void close() throws IOException {
         log.debug("Verbindungssocket wird geschlossen, lokaler Port: " 
         		+ socket.getLocalPort() + ", entfernter Port: " + socket.getPort());
         socket.close();
@@ -2,6 +2,8 @@ package edu.hm.dako.chat.tcp;
 
 import edu.hm.dako.chat.connection.Connection;
 import edu.hm.dako.chat.connection.ConnectionFactory;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduCodecs;
 
 import java.io.IOException;
 import java.net.BindException;
@@ -19,6 +21,17 @@ public class TcpConnectionFactory implements ConnectionFactory {
 	// Test: Zaehlt die Verbindungsaufbauversuche, bis eine Verbindung vom Server angenommen wird
 	private long connectionTryCounter = 0;
 
+	// Codec, der dem Server beim Verbindungsaufbau vorgeschlagen wird
+	private final PduCodec proposedCodec;
+
+	public TcpConnectionFactory() {
+		this(PduCodecs.getPreferred());
+	}
+
+	public TcpConnectionFactory(PduCodec proposedCodec) {
+		this.proposedCodec = proposedCodec;
+	}
+
 	public Connection connectToServer(String remoteServerAddress,
 			int serverPort, int localPort, int sendBufferSize, int receiveBufferSize) throws IOException {
 
@@ -33,6 +46,7 @@ public class TcpConnectionFactory implements ConnectionFactory {
 				
 				connection = new TcpConnection(new Socket(remoteServerAddress, serverPort, localAddress, localPort), 
 					sendBufferSize, receiveBufferSize, false, true);
+				connection.negotiateCodec(proposedCodec);
 				connected = true;
 	
 			} catch (BindException e) {
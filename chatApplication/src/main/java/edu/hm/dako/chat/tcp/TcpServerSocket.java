@@ -13,7 +13,7 @@ public class TcpServerSocket implements ServerSocket {
 	
 	private static Log log = LogFactory.getLog(TcpServerSocket.class);
 
-    private static java.net.ServerSocket serverSocket;
+    private final java.net.ServerSocket serverSocket;
     int sendBufferSize;
     int receiveBufferSize;
 
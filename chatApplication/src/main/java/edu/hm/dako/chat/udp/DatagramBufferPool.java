@@ -0,0 +1,55 @@
+package edu.hm.dako.chat.udp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool von Direct-Buffern fuer das Senden von Datagrammen.
+ * <p>
+ * Direct-Buffer werden vom Betriebssystem ohne zusaetzliche Kopie gelesen, ihre Erzeugung ist
+ * aber teuer. Gesendet wird aus mehreren Threads (Writer-Threads, Timer fuer Wiederholungen,
+ * Empfangsthread fuer Bestaetigungen), jeder Thread holt sich fuer ein Datagramm einen Puffer
+ * und gibt ihn danach zurueck. Es werden hoechstens so viele Puffer aufbewahrt wie angegeben,
+ * weitere werden nach Gebrauch dem Garbage Collector ueberlassen.
+ */
+class DatagramBufferPool {
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final int bufferSize;
+    private final int maxPooled;
+
+    /**
+     * @param bufferSize Groesse eines Puffers in Byte
+     * @param maxPooled  Maximale Anzahl aufbewahrter Puffer
+     */
+    DatagramBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return Leerer Puffer zum Schreiben
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * @param buffer Nicht mehr benoetigter Puffer aus {@link #acquire()}
+     */
+    void release(ByteBuffer buffer) {
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package edu.hm.dako.chat.udp;
+
+import edu.hm.dako.chat.common.ChatClientListEntry;
+import edu.hm.dako.chat.common.ChatPDU;
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundDispatcher;
+import edu.hm.dako.chat.common.SharedChatClientList;
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.LoggingPduSenderDecorator;
+import edu.hm.dako.chat.connection.PduCodecs;
+import edu.hm.dako.chat.connection.PduSender;
+import edu.hm.dako.chat.server.AbstractChatWorker;
+import edu.hm.dako.chat.server.ChatServer;
+import edu.hm.dako.chat.server.EventConfirmHandler;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Chat-Server-Implementierung auf Basis von UDP.
+ * <p>
+ * Alle Clients werden ueber ein einziges UDP-Socket bedient. Der aufrufende Thread von
+ * {@link #start()} empfaengt die Datagramme (jeweils alle bereits vorliegenden auf einmal) und
+ * verteilt sie nach Adresse und Port des Absenders auf eine feste Anzahl von Worker-Threads
+ * ({@link UdpWorkerThread}). Alle Datagramme eines Clients bearbeitet damit immer derselbe
+ * Worker-Thread in der Reihenfolge des Empfangs, Datagramme verschiedener Clients werden parallel
+ * bearbeitet. Der Worker-Thread ordnet ein Datagramm der Session des Clients zu und bearbeitet die
+ * darin enthaltenen PDUs. Gesendet wird aus allen Threads ueber dasselbe Socket, siehe
+ * {@link UdpSocket}.
+ * <p>
+ * Die zuverlaessige Uebertragung (Sequenznummern, Bestaetigungen, Wiederholungen, Unterdrueckung
+ * von Duplikaten) uebernimmt je Client eine {@link UdpSession}, die mit dem Codec des Clients
+ * antwortet. Der Zustandsautomat ist derselbe wie im TCP-Server, siehe {@link AbstractChatWorker}.
+ * <p>
+ * Eine Session beginnt mit dem ersten DATA-Datagramm einer neuen Session-Kennung und endet, wenn
+ * der Client sie abbaut oder nach der maximalen Anzahl an Wiederholungen nicht mehr antwortet.
+ * Wiederholungen an einen Client werden in dessen Clientlisteneintrag gezaehlt und mit der
+ * Logout-Response uebertragen.
+ */
+public class UdpChatServerImpl implements ChatServer {
+
+    private static Log log = LogFactory.getLog(UdpChatServerImpl.class);
+
+    // Maximale Anzahl der Datagramme, die in einem Empfangsversuch abgeholt werden
+    private static final int RECEIVE_BATCH_SIZE = 64;
+
+    // Socket, ueber das alle Datagramme empfangen und gesendet werden
+    private final UdpServerSocket socket;
+
+    // Maximale Anzahl wartender Datagramme je Worker-Thread
+    private static final int WORKER_QUEUE_CAPACITY = 4096;
+
+    // Worker-Threads, auf die die Datagramme nach Absender verteilt werden
+    private final UdpWorkerThread[] workers;
+
+    // Ausgangswarteschlangen aller Clients inkl. Writer-Threads
+    private final OutboundDispatcher outboundDispatcher;
+
+    // Gemeinsam verwaltete Liste aller eingeloggten Clients
+    private SharedChatClientList clients;
+
+    // Sessions aller Clients, Schluessel ist Adresse und Port des Clients
+    private final ConcurrentHashMap<InetSocketAddress, UdpChatWorker> sessions =
+            new ConcurrentHashMap<InetSocketAddress, UdpChatWorker>();
+
+    private final UdpSession.Listener sessionListener = new UdpSession.Listener() {
+        @Override
+        public void retransmitted(UdpSession session) {
+            UdpChatWorker worker = getWorker(session);
+            if (worker != null && worker.getUserName() != null) {
+                ChatClientListEntry client = clients.getClient(worker.getUserName());
+                if (client != null) {
+                    client.incrNumberOfRetries();
+                }
+            }
+        }
+
+        @Override
+        public void failed(UdpSession session) {
+            UdpChatWorker worker = getWorker(session);
+            if (worker != null) {
+                sessions.remove(session.getRemote(), worker);
+                worker.closeSession();
+            }
+        }
+    };
+
+    /**
+     * Konstruktor fuer den Server
+     *
+     * @param socket             UDP-Socket des Servers
+     * @param numberOfWorkers    Anzahl der Worker-Threads
+     * @param outboundDispatcher Verwaltung der Ausgangswarteschlangen
+     */
+    public UdpChatServerImpl(UdpServerSocket socket, int numberOfWorkers, OutboundDispatcher outboundDispatcher) {
+        log.debug("UdpChatServerImpl konstruiert, Anzahl Worker-Threads: " + numberOfWorkers);
+        this.socket = socket;
+        this.outboundDispatcher = outboundDispatcher;
+
+        UdpWorkerThread.Handler handler = new UdpWorkerThread.Handler() {
+            @Override
+            public void handle(UdpDatagram datagram) throws Exception {
+                handleDatagram(datagram);
+            }
+        };
+        workers = new UdpWorkerThread[numberOfWorkers];
+        for (int i = 0; i < numberOfWorkers; i++) {
+            workers[i] = new UdpWorkerThread("UdpWorker-" + (i + 1), WORKER_QUEUE_CAPACITY, handler);
+        }
+    }
+
+    @Override
+    public void start() {
+        clients = SharedChatClientList.getInstance();
+        outboundDispatcher.setListener(new EventConfirmHandler(clients));
+        for (UdpWorkerThread worker : workers) {
+            worker.start();
+        }
+
+        System.out.println("UdpChatServer wartet auf Datagramme von Clients...");
+        List<UdpDatagram> datagrams = new ArrayList<UdpDatagram>(RECEIVE_BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted() && !socket.isClosed()) {
+            try {
+                socket.receive(datagrams, RECEIVE_BATCH_SIZE, 0);
+                for (UdpDatagram datagram : datagrams) {
+                    // Gleicher Absender, gleicher Worker-Thread
+                    int hash = datagram.getSender().hashCode();
+                    workers[(hash & Integer.MAX_VALUE) % workers.length].dispatch(datagram);
+                }
+            } catch (Exception e) {
+                if (!socket.isClosed()) {
+                    log.error("Exception beim Empfangen eines Datagramms: " + e);
+                    ExceptionHandler.logException(e);
+                }
+            } finally {
+                datagrams.clear();
+            }
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        System.out.println("UdpChatServer beendet sich");
+        for (UdpWorkerThread worker : workers) {
+            worker.shutdown();
+        }
+        for (UdpWorkerThread worker : workers) {
+            worker.join();
+        }
+        log.debug("Worker-Threads beendet");
+        // Clients ueber das Ende ihrer Sessions informieren, solange das Socket noch offen ist
+        for (UdpChatWorker worker : new ArrayList<UdpChatWorker>(sessions.values())) {
+            worker.session.close();
+            worker.closeSession();
+        }
+        sessions.clear();
+        socket.close();
+        clients.deleteAll();
+        outboundDispatcher.shutdown();
+    }
+
+    /**
+     * Ordnet ein empfangenes Datagramm der Session seines Absenders zu und bearbeitet die dadurch
+     * zugestellten PDUs
+     */
+    private void handleDatagram(UdpDatagram datagram) throws Exception {
+        InetSocketAddress key = (InetSocketAddress) datagram.getSender();
+        UdpChatWorker worker = sessions.get(key);
+
+        if (worker == null || worker.session.getSessionId() != datagram.getSessionId()) {
+            // Nur die erste Nachricht einer Session eroeffnet sie, verspaetete Datagramme bereits
+            // beendeter Sessions werden verworfen
+            if (datagram.getType() != UdpDatagram.DATA || datagram.getSequenceNumber() != 1) {
+                log.debug("Datagramm ohne Session verworfen: " + datagram);
+                return;
+            }
+            if (worker != null) {
+                // Client hat mit demselben Port eine neue Session begonnen
+                sessions.remove(key, worker);
+                worker.closeSession();
+            }
+            UdpSession session = new UdpSession(socket.getSocket(), key, datagram.getSessionId(),
+                    PduCodecs.negotiate(datagram.getCodecId()), UdpSession.DEFAULT_RETRANSMISSION_TIMEOUT, UdpSession.DEFAULT_MAX_RETRANSMISSIONS,
+                    sessionListener);
+            worker = new UdpChatWorker(session);
+            sessions.put(key, worker);
+            log.debug("Neue UDP-Session " + datagram.getSessionId() + " mit " + key);
+        }
+
+        for (Serializable message : worker.session.receive(datagram)) {
+            worker.handleReceivedPdu((ChatPDU) message);
+        }
+        if (worker.session.isClosedByPeer()) {
+            sessions.remove(key, worker);
+            worker.closeSession();
+        }
+    }
+
+    private UdpChatWorker getWorker(UdpSession session) {
+        UdpChatWorker worker = sessions.get(session.getRemote());
+        return worker != null && worker.session == session ? worker : null;
+    }
+
+    /**
+     * Serverseitige Bedienung der Session mit einem Client. Wird vom Worker-Thread des Clients
+     * aufgerufen und besitzt keinen eigenen Thread.
+     */
+    private class UdpChatWorker extends AbstractChatWorker {
+
+        private final UdpSession session;
+
+        private UdpChatWorker(UdpSession session) {
+            super(new LoggingPduSenderDecorator(new UdpSessionSender(session)),
+                    UdpChatServerImpl.this.clients, UdpChatServerImpl.this.outboundDispatcher);
+            this.session = session;
+        }
+
+        /**
+         * Session beenden. Steht der Client noch in Wartelisten, kann er diese Events nicht mehr
+         * bestaetigen und wird zwangsweise entfernt.
+         */
+        private void closeSession() {
+            log.debug("Schliessen der UDP-Session zum Client " + userName);
+            finished = true;
+            removeFromClientList();
+            closeOutbound();
+        }
+    }
+
+    /**
+     * Sendende Seite einer Session fuer die Ausgangswarteschlange eines Clients. Empfangene
+     * Nachrichten stellt der Worker-Thread des Clients direkt zu.
+     */
+    private static class UdpSessionSender implements PduSender {
+
+        private final UdpSession session;
+
+        UdpSessionSender(UdpSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public void send(Serializable message) throws Exception {
+            session.send(message);
+        }
+
+        @Override
+        public void sendEncoded(EncodedPdu pdu) throws Exception {
+            session.sendEncoded(pdu);
+        }
+
+        /**
+         * Eine UDP-Session kennt keinen einseitigen Abbau: Der Client beendet sie nach Empfang
+         * der Logout-Response, spaetestens schliesst die Ausgangswarteschlange sie nach Ablauf
+         * der Nachlaufzeit
+         */
+        @Override
+        public void shutdownOutput() {
+        }
+
+        @Override
+        public void close() {
+            session.close();
+        }
+    }
+}
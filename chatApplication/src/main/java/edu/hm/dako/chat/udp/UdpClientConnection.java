@@ -1,43 +1,97 @@
 package edu.hm.dako.chat.udp;
 
 import edu.hm.dako.chat.connection.Connection;
+import edu.hm.dako.chat.connection.EncodedPdu;
 
-import java.io.IOException;
+import java.io.EOFException;
 import java.io.Serializable;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 
+/**
+ * Clientseitige UDP-Verbindung zum Chat-Server mit zuverlaessiger Uebertragung ueber eine
+ * {@link UdpSession}. Bestaetigungen und Wiederholungen sind fuer den Aufrufer unsichtbar,
+ * {@link #receive()} liefert nur Nachrichten des Servers in der gesendeten Reihenfolge.
+ */
 public class UdpClientConnection implements Connection {
 
+    // Wartezeit je Empfangsversuch, danach wird der Zustand der Session geprueft
+    private static final int POLL_INTERVAL = 100;
+
+    // Maximale Anzahl der Datagramme, die in einem Empfangsversuch abgeholt werden
+    private static final int RECEIVE_BATCH_SIZE = 32;
+
 	// UDP-Socket der Verbindung
-    private UdpSocket clientSocket;
+    private final UdpSocket clientSocket;
 
-    /**
-     * Timeout fuer {@link UdpSocket#receive(int)}
-     * Das ist die maximale Wartezeit beim Empfang von UDP-Datagrammen
-     */
-    
-    private final int receivingTimeout;  
-   
-    public UdpClientConnection(UdpSocket clientSocket, int receivingTimeout) throws Exception {
+    private final UdpSession session;
+
+    // Bereits zugestellte, aber noch nicht abgeholte Nachrichten, nur im empfangenden Thread
+    private final LinkedList<Serializable> received = new LinkedList<Serializable>();
+    private final List<UdpDatagram> datagrams = new ArrayList<UdpDatagram>(RECEIVE_BATCH_SIZE);
+
+    public UdpClientConnection(UdpSocket clientSocket, UdpSession session) {
         this.clientSocket = clientSocket;
-        this.receivingTimeout = receivingTimeout;
+        this.session = session;
     }
 
     @Override
     public Serializable receive(int timeout) throws Exception {
-        return (Serializable) clientSocket.receive(timeout);
+        long deadline = System.currentTimeMillis() + timeout;
+        while (received.isEmpty()) {
+            if (session.isFailed()) {
+                throw new SocketException("Server antwortet nicht, UDP-Session gescheitert");
+            }
+            if (session.isClosedByPeer()) {
+                throw new EOFException("UDP-Session vom Server abgebaut");
+            }
+            int wait = POLL_INTERVAL;
+            if (timeout > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Keine Nachricht innerhalb von " + timeout + " ms empfangen");
+                }
+                wait = (int) Math.min(wait, remaining);
+            }
+            clientSocket.receive(datagrams, RECEIVE_BATCH_SIZE, wait);
+            for (UdpDatagram datagram : datagrams) {
+                if (datagram.getSessionId() == session.getSessionId()) {
+                    received.addAll(session.receive(datagram));
+                }
+            }
+            datagrams.clear();
+        }
+        return received.removeFirst();
     }
 
     @Override
     public Serializable receive() throws Exception {
-        return (Serializable) clientSocket.receive(receivingTimeout);
+        return receive(0);
     }
+
     @Override
     public void send(Serializable message) throws Exception {
-        clientSocket.send(clientSocket.getRemoteAddress(), clientSocket.getRemotePort(), message);
+        session.send(message);
+    }
+
+    @Override
+    public void sendEncoded(EncodedPdu pdu) throws Exception {
+        session.sendEncoded(pdu);
+    }
+
+    /**
+     * Eine UDP-Session kennt keinen einseitigen Abbau, sie endet erst mit {@link #close()}
+     */
+    @Override
+    public void shutdownOutput() {
     }
 
     @Override
-    public void close() throws IOException {
+    public void close() {
+        session.close();
         clientSocket.close();
     }
 }
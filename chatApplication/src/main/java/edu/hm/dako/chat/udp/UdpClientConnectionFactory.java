@@ -2,23 +2,53 @@ package edu.hm.dako.chat.udp;
 
 import edu.hm.dako.chat.connection.Connection;
 import edu.hm.dako.chat.connection.ConnectionFactory;
+import edu.hm.dako.chat.connection.PduCodecs;
 
-import java.net.InetAddress;
-
+import java.net.InetSocketAddress;
+import java.util.Random;
 
 
+/**
+ * Erzeugt clientseitige UDP-Verbindungen mit zuverlaessiger Uebertragung, siehe
+ * {@link UdpSession}. Jede Verbindung beginnt eine neue Session mit zufaelliger Kennung, die
+ * Nachrichten werden mit dem bevorzugten Codec codiert (siehe {@link PduCodecs#getPreferred()}),
+ * der Server antwortet mit demselben Codec.
+ */
 public class UdpClientConnectionFactory implements ConnectionFactory {
 
-	// Maximale Wartezeit beim Empfang einer Nachricht in Millisekunden.
-	// Wenn in dieser Zeit keine Nachricht kommt, wird das Empfangen abgebrochen.
-	// Mit verschiedenen Einstellungen experimentieren.
-	private final int defaultResponseTimeout = 5000;
-	
+	private static final Random random = new Random();
+
+	// Maximale Anzahl an Wiederholungen einer unbestaetigten Nachricht
+	private final int maxRetransmissions;
+
+	// Wird ueber Wiederholungen und gescheiterte Sessions informiert, darf null sein
+	private final UdpSession.Listener listener;
+
+	public UdpClientConnectionFactory() {
+		this(UdpSession.DEFAULT_MAX_RETRANSMISSIONS, null);
+	}
+
+	// Mindestgroesse des Empfangspuffers in Byte, Events treffen schubweise ein
+	private static final int MIN_RECEIVE_BUFFER_SIZE = 262144;
+
+	public UdpClientConnectionFactory(int maxRetransmissions, UdpSession.Listener listener) {
+		this.maxRetransmissions = maxRetransmissions;
+		this.listener = listener;
+	}
+
     @Override
     public Connection connectToServer(String remoteServerAddress, int serverPort, int localPort, int sendBufferSize, int receiveBufferSize) throws Exception {
-    	UdpSocket udpSocket = new UdpSocket(localPort, sendBufferSize, receiveBufferSize);
-        udpSocket.setRemoteAddress(InetAddress.getByName(remoteServerAddress));
-        udpSocket.setRemotePort(serverPort);
-        return new UdpClientConnection(udpSocket, defaultResponseTimeout);
+    	UdpSocket udpSocket = new UdpSocket(localPort, sendBufferSize,
+    			Math.max(receiveBufferSize, MIN_RECEIVE_BUFFER_SIZE));
+    	long sessionId;
+    	synchronized (random) {
+    		do {
+    			sessionId = random.nextLong();
+    		} while (sessionId == 0);
+    	}
+    	UdpSession session = new UdpSession(udpSocket, new InetSocketAddress(remoteServerAddress, serverPort),
+    			sessionId, PduCodecs.getPreferred(), UdpSession.DEFAULT_RETRANSMISSION_TIMEOUT, maxRetransmissions,
+    			listener);
+        return new UdpClientConnection(udpSocket, session);
     }
 }
@@ -0,0 +1,189 @@
+package edu.hm.dako.chat.udp;
+
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduCodecs;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * UDP-Datagramm zwischen Chat-Client und Chat-Server, siehe {@link UdpSession}.
+ * <p>
+ * Aufbau eines Datagramms:
+ * <ul>
+ * <li>1 Byte Typ (DATA, ACK, CLOSE)</li>
+ * <li>1 Byte Kennung des Codecs der Nachricht, siehe {@link PduCodecs}</li>
+ * <li>8 Byte Kennung der Session</li>
+ * <li>8 Byte Sequenznummer</li>
+ * <li>bei DATA die mit dem Codec codierte Nachricht bis zum Ende des Datagramms</li>
+ * </ul>
+ * Jedes Datagramm traegt die Kennung der Session, damit der Server eine neue Session desselben
+ * Absenders (gleiche Adresse und gleicher Port) von verspaeteten Datagrammen einer alten Session
+ * unterscheiden kann.
+ * <p>
+ * Zu sendende Datagramme enthalten die bereits codierte Nachricht, damit Wiederholungen und
+ * Events an viele Empfaenger nicht erneut codiert werden muessen. Empfangene Datagramme
+ * enthalten die decodierte Nachricht.
+ */
+public class UdpDatagram {
+
+    // Nachricht mit Sequenznummer, wird bestaetigt und ggf. wiederholt
+    public static final byte DATA = 1;
+    // Bestaetigung einer DATA-Nachricht
+    public static final byte ACK = 2;
+    // Abbau der Session, wird nicht bestaetigt
+    public static final byte CLOSE = 3;
+
+    // Laenge des Kopfes in Byte
+    public static final int HEADER_LENGTH = 18;
+
+    // Maximale Laenge eines Datagramms (UDP ueber IPv4)
+    public static final int MAX_LENGTH = 65507;
+
+    private final byte type;
+    private final byte codecId;
+    private final long sessionId;
+    private final long sequenceNumber;
+
+    // Sendeseite: codierte Nachricht
+    private final byte[] payload;
+    private final int payloadOffset;
+    private final int payloadLength;
+
+    // Empfangsseite: Absender und decodierte Nachricht
+    private SocketAddress sender;
+    private Serializable message;
+
+    /**
+     * Datagramm ohne Nachricht (ACK, CLOSE)
+     */
+    public UdpDatagram(byte type, long sessionId, long sequenceNumber) {
+        this(type, (byte) 0, sessionId, sequenceNumber, null, 0, 0);
+    }
+
+    /**
+     * Datagramm mit codierter Nachricht
+     *
+     * @param payload       Puffer mit der codierten Nachricht, wird nicht kopiert und darf danach
+     *                      nicht mehr veraendert werden
+     * @param payloadOffset Beginn der Nachricht im Puffer
+     * @param payloadLength Laenge der Nachricht
+     * @throws IOException Nachricht passt nicht in ein Datagramm
+     */
+    public UdpDatagram(byte type, PduCodec codec, long sessionId, long sequenceNumber,
+                       byte[] payload, int payloadOffset, int payloadLength) throws IOException {
+        this(type, codec.getId(), sessionId, sequenceNumber, payload, payloadOffset, payloadLength);
+        if (HEADER_LENGTH + payloadLength > MAX_LENGTH) {
+            throw new IOException("Nachricht mit " + payloadLength + " Byte zu lang fuer ein UDP-Datagramm");
+        }
+    }
+
+    private UdpDatagram(byte type, byte codecId, long sessionId, long sequenceNumber,
+                        byte[] payload, int payloadOffset, int payloadLength) {
+        this.type = type;
+        this.codecId = codecId;
+        this.sessionId = sessionId;
+        this.sequenceNumber = sequenceNumber;
+        this.payload = payload;
+        this.payloadOffset = payloadOffset;
+        this.payloadLength = payloadLength;
+    }
+
+    /**
+     * Schreibt Kopf und codierte Nachricht in einen Puffer
+     *
+     * @param buffer Puffer mit mindestens {@link #getLength()} freien Bytes
+     */
+    public void writeTo(ByteBuffer buffer) {
+        writeHeader(buffer, type, codecId, sessionId, sequenceNumber);
+        if (payloadLength > 0) {
+            buffer.put(payload, payloadOffset, payloadLength);
+        }
+    }
+
+    /**
+     * Schreibt nur einen Kopf, z.B. fuer Bestaetigungen ohne eigenes Objekt
+     */
+    static void writeHeader(ByteBuffer buffer, byte type, byte codecId, long sessionId, long sequenceNumber) {
+        buffer.put(type);
+        buffer.put(codecId);
+        buffer.putLong(sessionId);
+        buffer.putLong(sequenceNumber);
+    }
+
+    /**
+     * Liest ein empfangenes Datagramm und decodiert die enthaltene Nachricht
+     *
+     * @param buffer  Puffer mit dem Datagramm, zum Lesen positioniert
+     * @param scratch Hilfspuffer fuer die Nachricht, mindestens {@link #MAX_LENGTH} Byte
+     * @param sender  Absender des Datagramms
+     * @return Datagramm mit decodierter Nachricht
+     * @throws IOException Datagramm ist fehlerhaft oder Codec unbekannt
+     */
+    static UdpDatagram readFrom(ByteBuffer buffer, byte[] scratch, SocketAddress sender) throws IOException {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            throw new IOException("UDP-Datagramm mit " + buffer.remaining() + " Byte ist zu kurz");
+        }
+        byte type = buffer.get();
+        byte codecId = buffer.get();
+        long sessionId = buffer.getLong();
+        long sequenceNumber = buffer.getLong();
+        UdpDatagram datagram = new UdpDatagram(type, codecId, sessionId, sequenceNumber, null, 0, 0);
+        datagram.sender = sender;
+
+        int length = buffer.remaining();
+        if (type == DATA) {
+            PduCodec codec = PduCodecs.getById(codecId);
+            if (codec == null) {
+                throw new IOException("UDP-Datagramm mit unbekanntem Codec " + codecId);
+            }
+            buffer.get(scratch, 0, length);
+            datagram.message = codec.decode(scratch, 0, length);
+        }
+        return datagram;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte getCodecId() {
+        return codecId;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return Laenge des Datagramms in Byte
+     */
+    public int getLength() {
+        return HEADER_LENGTH + payloadLength;
+    }
+
+    /**
+     * @return Absender eines empfangenen Datagramms
+     */
+    public SocketAddress getSender() {
+        return sender;
+    }
+
+    /**
+     * @return Decodierte Nachricht eines empfangenen DATA-Datagramms
+     */
+    public Serializable getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "UdpDatagram[type=" + type + ", session=" + sessionId + ", seq=" + sequenceNumber + "]";
+    }
+}
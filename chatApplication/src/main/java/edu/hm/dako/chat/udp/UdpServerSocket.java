@@ -1,12 +1,15 @@
 package edu.hm.dako.chat.udp;
 
-import edu.hm.dako.chat.connection.Connection;
-import edu.hm.dako.chat.connection.ServerSocket;
-
 import java.io.IOException;
 import java.net.SocketException;
+import java.util.List;
 
-public class UdpServerSocket implements ServerSocket {
+/**
+ * Serverseitiges UDP-Socket: Der Server empfaengt die Datagramme aller Clients gebuendelt ueber
+ * {@link #receive(List, int, int)} und ordnet sie selbst den Sessions zu, einzelne Verbindungen
+ * werden nicht angenommen.
+ */
+public class UdpServerSocket {
 
     private UdpSocket socket;
     
@@ -14,17 +17,24 @@ public class UdpServerSocket implements ServerSocket {
     	this.socket = new UdpSocket(serverPort, sendBufferSize, receiveBufferSize);
     }
 
-    @Override
-    public Connection accept() throws Exception {
-        return new UdpServerConnection(socket);
+    /**
+     * Empfaengt mehrere Datagramme auf einmal, siehe {@link UdpSocket#receive(List, int, int)}
+     */
+    public int receive(List<UdpDatagram> datagrams, int max, int timeout) throws IOException {
+        return socket.receive(datagrams, max, timeout);
     }
 
-    @Override    
     public void close() throws IOException {
         socket.close();
     }
 
-    @Override
+    /**
+     * @return Socket, ueber das auch die Antworten an alle Clients gesendet werden
+     */
+    UdpSocket getSocket() {
+        return socket;
+    }
+
     public boolean isClosed() {
         return socket.isClosed();
     }
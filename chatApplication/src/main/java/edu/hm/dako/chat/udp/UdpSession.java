@@ -0,0 +1,431 @@
+package edu.hm.dako.chat.udp;
+
+import edu.hm.dako.chat.connection.EncodedPdu;
+import edu.hm.dako.chat.connection.PduCodec;
+import edu.hm.dako.chat.connection.PduFrames;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zuverlaessige Uebertragung zwischen zwei UDP-Partnern (Client und Server) ueber ein
+ * {@link UdpSocket}.
+ * <p>
+ * Jede Nachricht wird mit einer fortlaufenden Sequenznummer als DATA-Datagramm gesendet und vom
+ * Empfaenger mit einem ACK-Datagramm bestaetigt. Unbestaetigte Nachrichten werden nach der
+ * Wiederholungszeit erneut gesendet, bei jeder Wiederholung verdoppelt sich die Wartezeit. Nach
+ * der maximalen Anzahl an Wiederholungen gilt der Partner als nicht mehr erreichbar, die Session
+ * ist dann gescheitert (siehe {@link Listener#failed(UdpSession)}).
+ * <p>
+ * Die Wiederholungszeit wird wie bei TCP aus den gemessenen Round-Trip-Zeiten geschaetzt
+ * (geglaetteter Mittelwert plus vierfache Schwankung, RFC 6298), Bestaetigungen wiederholter
+ * Nachrichten gehen nicht in die Schaetzung ein. Ein ueberlasteter Partner antwortet langsamer,
+ * ohne dass dadurch unnoetige Wiederholungen die Last weiter erhoehen. Zusaetzlich sind hoechstens
+ * {@link #DEFAULT_SEND_WINDOW} Nachrichten gleichzeitig unbestaetigt, weitere Nachrichten werden
+ * ohne zu blockieren zurueckgehalten und gesendet, sobald Bestaetigungen eintreffen.
+ * <p>
+ * Der Empfaenger bestaetigt auch Duplikate (das ACK kann verloren gegangen sein), liefert jede
+ * Nachricht aber nur einmal und in der Reihenfolge der Sequenznummern aus. Vorzeitig
+ * eintreffende Nachrichten werden bis zum Schliessen der Luecke zurueckgehalten.
+ * <p>
+ * Anfaengliche (und minimale) Wiederholungszeit, maximale Anzahl an Wiederholungen und das
+ * Sendefenster sind ueber die System-Properties edu.hm.dako.chat.udp.retransmissionTimeout (ms),
+ * edu.hm.dako.chat.udp.maxRetransmissions und edu.hm.dako.chat.udp.sendWindow einstellbar.
+ */
+public class UdpSession {
+
+    private static Log log = LogFactory.getLog(UdpSession.class);
+
+    /**
+     * Benachrichtigung ueber Wiederholungen und das Scheitern einer Session. Die Aufrufe erfolgen
+     * im Timer-Thread der Wiederholungen und duerfen nicht blockieren.
+     */
+    public interface Listener {
+
+        /**
+         * Eine Nachricht wurde wiederholt gesendet
+         *
+         * @param session Betroffene Session
+         */
+        void retransmitted(UdpSession session);
+
+        /**
+         * Eine Nachricht wurde auch nach der maximalen Anzahl an Wiederholungen nicht bestaetigt
+         *
+         * @param session Gescheiterte Session, bereits geschlossen
+         */
+        void failed(UdpSession session);
+    }
+
+    public static final int DEFAULT_RETRANSMISSION_TIMEOUT =
+            Integer.getInteger("edu.hm.dako.chat.udp.retransmissionTimeout", 200);
+    public static final int DEFAULT_MAX_RETRANSMISSIONS =
+            Integer.getInteger("edu.hm.dako.chat.udp.maxRetransmissions", 8);
+    public static final int DEFAULT_SEND_WINDOW =
+            Integer.getInteger("edu.hm.dako.chat.udp.sendWindow", 4);
+
+    // Obergrenze der Wartezeit bis zur naechsten Wiederholung in ms
+    private static final long MAX_RETRANSMISSION_TIMEOUT = 5000;
+
+    // Gemeinsamer Timer aller Sessions fuer die Wiederholungen
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "UdpRetransmissionTimer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Gesendete, noch nicht bestaetigte Nachricht
+     */
+    private static class Outstanding {
+        final UdpDatagram datagram;
+        long lastSent;          // Zeitpunkt der letzten Uebertragung in ns
+        int retransmissions;    // Bisherige Wiederholungen
+
+        Outstanding(UdpDatagram datagram) {
+            this.datagram = datagram;
+        }
+    }
+
+    private final UdpSocket socket;
+    private final InetSocketAddress remote;
+    private final PduCodec codec;
+    private final long sessionId;
+    private final int minRetransmissionTimeout;
+    private final int maxRetransmissions;
+    private final Listener listener;
+
+    // Sendeseite, Zugriff nur unter Sperre auf this
+    private long nextSequenceNumber = 1;
+    private final Map<Long, Outstanding> unacknowledged = new HashMap<Long, Outstanding>();
+    private final LinkedList<UdpDatagram> waiting = new LinkedList<UdpDatagram>();
+
+    // Schaetzung der Round-Trip-Zeit in ns, Zugriff nur unter Sperre auf this
+    private long smoothedRtt = -1;
+    private long rttVariation;
+    private long retransmissionTimeout;
+
+    // Empfangsseite, Zugriff nur unter Sperre auf this
+    private long nextExpectedSequenceNumber = 1;
+    private final TreeMap<Long, Serializable> outOfOrder = new TreeMap<Long, Serializable>();
+
+    private boolean closed = false;
+    private boolean closedByPeer = false;
+    private boolean failed = false;
+
+    // Messwerte
+    private long numberOfRetransmissions = 0;
+    private long numberOfDuplicates = 0;
+
+    /**
+     * Konstruktor
+     *
+     * @param socket                UDP-Socket, ueber das gesendet wird (ggf. mit anderen Sessions geteilt)
+     * @param remote                Adresse und Port des Partners
+     * @param sessionId             Kennung der Session, wird vom Client gewaehlt
+     * @param codec                 Codec fuer die gesendeten Nachrichten
+     * @param retransmissionTimeout Anfaengliche und minimale Wartezeit bis zur Wiederholung in ms
+     * @param maxRetransmissions    Maximale Anzahl an Wiederholungen einer Nachricht
+     * @param listener              Listener fuer Wiederholungen und Scheitern, darf null sein
+     */
+    public UdpSession(UdpSocket socket, InetSocketAddress remote, long sessionId, PduCodec codec,
+                      int retransmissionTimeout, int maxRetransmissions, Listener listener) {
+        this.socket = socket;
+        this.remote = remote;
+        this.codec = codec;
+        this.sessionId = sessionId;
+        this.minRetransmissionTimeout = retransmissionTimeout;
+        this.retransmissionTimeout = TimeUnit.MILLISECONDS.toNanos(retransmissionTimeout);
+        this.maxRetransmissions = maxRetransmissions;
+        this.listener = listener;
+    }
+
+    /**
+     * Sendet eine Nachricht zuverlaessig. Ist das Sendefenster voll, wird die Nachricht ohne zu
+     * blockieren zurueckgehalten.
+     *
+     * @param message Nachricht
+     * @throws IOException Session ist geschlossen oder Datagramm kann nicht gesendet werden
+     */
+    public void send(Serializable message) throws IOException {
+        byte[] payload = codec.encode(message);
+        send(payload, 0, payload.length);
+    }
+
+    /**
+     * Sendet eine an viele Empfaenger gerichtete Nachricht zuverlaessig. Die Nachricht wird je
+     * Codec nur einmal codiert, alle Sessions mit demselben Codec senden dieselben Bytes.
+     *
+     * @param pdu Nachricht
+     * @throws IOException Session ist geschlossen oder Datagramm kann nicht gesendet werden
+     */
+    public void sendEncoded(EncodedPdu pdu) throws IOException {
+        byte[] frame = pdu.getFrame(codec);
+        send(frame, PduFrames.HEADER_LENGTH, frame.length - PduFrames.HEADER_LENGTH);
+    }
+
+    private void send(byte[] payload, int offset, int length) throws IOException {
+        Outstanding outstanding = null;
+        synchronized (this) {
+            if (closed) {
+                throw new SocketException("UDP-Session " + sessionId + " ist geschlossen");
+            }
+            UdpDatagram datagram = new UdpDatagram(UdpDatagram.DATA, codec, sessionId, nextSequenceNumber,
+                    payload, offset, length);
+            nextSequenceNumber++;
+            if (unacknowledged.size() < DEFAULT_SEND_WINDOW && waiting.isEmpty()) {
+                outstanding = track(datagram);
+            } else {
+                waiting.add(datagram);
+            }
+        }
+        if (outstanding != null) {
+            transmit(outstanding);
+        }
+    }
+
+    /**
+     * Verarbeitet ein empfangenes Datagramm dieser Session
+     *
+     * @param datagram Empfangenes Datagramm
+     * @return Dadurch in der richtigen Reihenfolge vorliegende Nachrichten, ggf. leer
+     * @throws IOException Bestaetigung kann nicht gesendet werden
+     */
+    public List<Serializable> receive(UdpDatagram datagram) throws IOException {
+        switch (datagram.getType()) {
+            case UdpDatagram.ACK:
+                acknowledged(datagram.getSequenceNumber());
+                return Collections.emptyList();
+
+            case UdpDatagram.CLOSE:
+                synchronized (this) {
+                    closed = true;
+                    closedByPeer = true;
+                    unacknowledged.clear();
+                    waiting.clear();
+                }
+                log.debug("UDP-Session " + sessionId + " vom Partner abgebaut");
+                return Collections.emptyList();
+
+            case UdpDatagram.DATA:
+                long sequenceNumber = datagram.getSequenceNumber();
+                socket.sendControl(remote, UdpDatagram.ACK, sessionId, sequenceNumber);
+                synchronized (this) {
+                    if (sequenceNumber < nextExpectedSequenceNumber || outOfOrder.containsKey(sequenceNumber)) {
+                        numberOfDuplicates++;
+                        log.debug("Duplikat " + sequenceNumber + " in UDP-Session " + sessionId + " verworfen");
+                        return Collections.emptyList();
+                    }
+                    if (sequenceNumber > nextExpectedSequenceNumber) {
+                        outOfOrder.put(sequenceNumber, datagram.getMessage());
+                        return Collections.emptyList();
+                    }
+                    List<Serializable> messages = new ArrayList<Serializable>(1);
+                    messages.add(datagram.getMessage());
+                    nextExpectedSequenceNumber++;
+                    while (!outOfOrder.isEmpty() && outOfOrder.firstKey() == nextExpectedSequenceNumber) {
+                        messages.add(outOfOrder.pollFirstEntry().getValue());
+                        nextExpectedSequenceNumber++;
+                    }
+                    return messages;
+                }
+
+            default:
+                log.debug("Datagramm mit unbekanntem Typ " + datagram.getType() + " verworfen");
+                return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Schliesst die Session und meldet das dem Partner (ohne Bestaetigung). Unbestaetigte und
+     * zurueckgehaltene Nachrichten werden nicht mehr gesendet.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            unacknowledged.clear();
+            waiting.clear();
+        }
+        try {
+            socket.sendControl(remote, UdpDatagram.CLOSE, sessionId, 0);
+        } catch (IOException e) {
+            log.debug("Abbau der UDP-Session " + sessionId + " konnte nicht gemeldet werden: " + e);
+        }
+    }
+
+    /**
+     * Bestaetigte Nachricht austragen, Round-Trip-Zeit schaetzen und zurueckgehaltene Nachrichten
+     * in das freie Sendefenster nachruecken
+     */
+    private void acknowledged(long sequenceNumber) throws IOException {
+        List<Outstanding> released = null;
+        synchronized (this) {
+            Outstanding outstanding = unacknowledged.remove(sequenceNumber);
+            if (outstanding == null) {
+                return;
+            }
+            if (outstanding.retransmissions == 0) {
+                // Nur eindeutig zuordenbare Bestaetigungen messen (Karn-Algorithmus)
+                updateRetransmissionTimeout(System.nanoTime() - outstanding.lastSent);
+            }
+            while (!waiting.isEmpty() && unacknowledged.size() < DEFAULT_SEND_WINDOW) {
+                if (released == null) {
+                    released = new ArrayList<Outstanding>();
+                }
+                released.add(track(waiting.removeFirst()));
+            }
+        }
+        if (released != null) {
+            for (Outstanding outstanding : released) {
+                transmit(outstanding);
+            }
+        }
+    }
+
+    private void updateRetransmissionTimeout(long rtt) {
+        if (smoothedRtt < 0) {
+            smoothedRtt = rtt;
+            rttVariation = rtt / 2;
+        } else {
+            rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+        retransmissionTimeout = Math.max(TimeUnit.MILLISECONDS.toNanos(minRetransmissionTimeout),
+                Math.min(smoothedRtt + 4 * rttVariation, TimeUnit.MILLISECONDS.toNanos(MAX_RETRANSMISSION_TIMEOUT)));
+    }
+
+    private Outstanding track(UdpDatagram datagram) {
+        Outstanding outstanding = new Outstanding(datagram);
+        outstanding.lastSent = System.nanoTime();
+        unacknowledged.put(datagram.getSequenceNumber(), outstanding);
+        return outstanding;
+    }
+
+    private void transmit(Outstanding outstanding) throws IOException {
+        long timeout;
+        synchronized (this) {
+            timeout = retransmissionTimeout;
+        }
+        socket.send(remote, outstanding.datagram);
+        scheduleCheck(outstanding, timeout);
+    }
+
+    private void scheduleCheck(final Outstanding outstanding, long delay) {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                checkRetransmission(outstanding);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Prueft eine Nachricht nach Ablauf ihrer Wiederholungszeit. Ist die Wiederholungszeit
+     * inzwischen gewachsen, wird die Pruefung verschoben.
+     */
+    private void checkRetransmission(Outstanding outstanding) {
+        long sequenceNumber = outstanding.datagram.getSequenceNumber();
+        boolean giveUp = false;
+        long delay;
+        synchronized (this) {
+            if (closed || unacknowledged.get(sequenceNumber) != outstanding) {
+                return;
+            }
+            // Wartezeit verdoppelt sich mit jeder Wiederholung
+            delay = Math.min(retransmissionTimeout << outstanding.retransmissions,
+                    TimeUnit.MILLISECONDS.toNanos(MAX_RETRANSMISSION_TIMEOUT));
+            long remaining = outstanding.lastSent + delay - System.nanoTime();
+            if (remaining > 0) {
+                scheduleCheck(outstanding, remaining);
+                return;
+            }
+            if (outstanding.retransmissions >= maxRetransmissions) {
+                closed = true;
+                failed = true;
+                giveUp = true;
+                unacknowledged.clear();
+                waiting.clear();
+            } else {
+                outstanding.retransmissions++;
+                outstanding.lastSent = System.nanoTime();
+                numberOfRetransmissions++;
+                delay = Math.min(delay * 2, TimeUnit.MILLISECONDS.toNanos(MAX_RETRANSMISSION_TIMEOUT));
+            }
+        }
+        if (giveUp) {
+            log.error("UDP-Session " + sessionId + " mit " + remote
+                    + " gescheitert, Nachricht " + sequenceNumber + " nach "
+                    + maxRetransmissions + " Wiederholungen nicht bestaetigt");
+            if (listener != null) {
+                listener.failed(this);
+            }
+            return;
+        }
+
+        log.debug("Wiederholung " + outstanding.retransmissions + " von Nachricht " + sequenceNumber
+                + " in UDP-Session " + sessionId);
+        try {
+            socket.send(remote, outstanding.datagram);
+        } catch (IOException e) {
+            log.debug("Wiederholung in UDP-Session " + sessionId + " fehlgeschlagen: " + e);
+        }
+        if (listener != null) {
+            listener.retransmitted(this);
+        }
+        scheduleCheck(outstanding, delay);
+    }
+
+    public InetSocketAddress getRemote() {
+        return remote;
+    }
+
+    public PduCodec getCodec() {
+        return codec;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized boolean isClosedByPeer() {
+        return closedByPeer;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    public synchronized long getNumberOfRetransmissions() {
+        return numberOfRetransmissions;
+    }
+
+    public synchronized long getNumberOfDuplicates() {
+        return numberOfDuplicates;
+    }
+}
@@ -3,27 +3,35 @@ package edu.hm.dako.chat.udp;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.StreamCorruptedException;
 import java.net.BindException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Klasse UdpSocket
  * <p/>
- * Diese Klasse kapselt die Datagram-Sockets und stellt
+ * Diese Klasse kapselt einen Datagram-Channel und stellt
  * eine etwas komfortablere Schnittstelle zur Verfuegung.
  * <p/>
- * Der Mehrwert dieser Klasse im Vergleich zur Standard-DatagramSocket-Klasse
- * ist die Nutzung eines Objektstroms zur Kommunikation ueber UDP.
+ * Gesendet und empfangen werden {@link UdpDatagram}s, die Nachrichten darin sind mit einem
+ * {@link edu.hm.dako.chat.connection.PduCodec} codiert. Je Datagramm werden weder Objektstroeme
+ * noch Empfangspuffer erzeugt: Gesendet wird aus Direct-Buffern eines Pools, empfangen in einen
+ * Direct-Buffer des Sockets. Der Channel arbeitet nicht blockierend, gewartet wird ueber einen
+ * Selector, die Wartezeit muss daher nicht bei jedem Empfang am Socket eingestellt werden.
+ * <p/>
+ * Senden ist aus beliebig vielen Threads moeglich, empfangen darf immer nur ein Thread.
  * <p/>
  * Achtung: Maximale Datagramlaenge: 64 KByte
  *
@@ -32,145 +40,182 @@ import java.net.SocketTimeoutException;
  */
 public class UdpSocket {
     private static Log log = LogFactory.getLog(UdpSocket.class);
-    private DatagramSocket socket;
-    private InetAddress remoteAddress;
-    private int remotePort;
 
-       /**
+    // Anzahl aufbewahrter Sendepuffer
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final DatagramBufferPool sendBuffers =
+            new DatagramBufferPool(UdpDatagram.MAX_LENGTH, MAX_POOLED_BUFFERS);
+
+    // Nur im empfangenden Thread verwendet
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(UdpDatagram.MAX_LENGTH);
+    private final byte[] scratch = new byte[UdpDatagram.MAX_LENGTH];
+
+    /**
      * Konstruktor
      *
      * @param port UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden soll
      */
     public UdpSocket(int port) throws SocketException {
-      
-        try {
-        	socket = new DatagramSocket(port);
-        	System.out.println("Groesse des Empfangspuffers des Datagram-Sockets: " + socket.getReceiveBufferSize() + " Byte");
-        	System.out.println("Groesse des Sendepuffers des Datagram-Sockets: " + socket.getSendBufferSize() + " Byte");   
-    	} catch (BindException e) {
-    		log.error("Port " + port +" auf dem Rechner schon in Benutzung, Bind Exception: "+ e);
-    		System.out.println("Port " + port +" auf dem Rechner schon in Benutzung, Bind Exception: "+ e);
-    		throw e;
-    	} catch (SocketException e) {
-    		log.error("Datagram-Socketfehler: " + e);
-    		throw e;
-    	}
+        this(port, 0, 0);
     }
+
     /**
      * Konstruktor
      *
      * @param port              UDP-Port, der lokal fuer das Datagramm-Socket verwendet werden soll
-     * @param sendBufferSize    Groesse des Sendepuffers in Byte
-     * @param receiveBufferSize Groesse des Empfangspuffers in Byte
+     * @param sendBufferSize    Groesse des Sendepuffers in Byte, 0 fuer die Voreinstellung
+     * @param receiveBufferSize Groesse des Empfangspuffers in Byte, 0 fuer die Voreinstellung
      */
-
     public UdpSocket(int port, int sendBufferSize, int receiveBufferSize) throws SocketException {
-      
+        DatagramChannel channel = null;
         try {
-         	socket = new DatagramSocket(port);
-            socket.setReceiveBufferSize(receiveBufferSize);
-            socket.setSendBufferSize(sendBufferSize);
-            System.out.println("Groesse des Empfangspuffers des Datagram-Sockets: " + socket.getReceiveBufferSize() + " Byte");
-            System.out.println("Groesse des Sendepuffers des Datagram-Sockets: " + socket.getSendBufferSize() + " Byte");
+            channel = DatagramChannel.open();
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            if (sendBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+            }
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            this.channel = channel;
+            System.out.println("Groesse des Empfangspuffers des Datagram-Sockets: "
+                    + channel.getOption(StandardSocketOptions.SO_RCVBUF) + " Byte");
+            System.out.println("Groesse des Sendepuffers des Datagram-Sockets: "
+                    + channel.getOption(StandardSocketOptions.SO_SNDBUF) + " Byte");
         } catch (BindException e) {
-    		log.error("Port " + port +" auf dem Rechner schon in Benutzung, Bind Exception: "+ e);
-    		System.out.println("Port " + port +" auf dem Rechner schon in Benutzung, Bind Exception: "+ e);
-    		throw e;
-    	} catch (SocketException e) {
-            log.debug("Datagram-Socketfehler: " + e);
+            log.error("Port " + port + " auf dem Rechner schon in Benutzung, Bind Exception: " + e);
+            System.out.println("Port " + port + " auf dem Rechner schon in Benutzung, Bind Exception: " + e);
+            closeQuietly(channel);
+            throw e;
+        } catch (IOException e) {
+            log.error("Datagram-Socketfehler: " + e);
+            closeQuietly(channel);
+            SocketException socketException = new SocketException("Datagram-Socketfehler: " + e.getMessage());
+            socketException.initCause(e);
+            throw socketException;
         }
     }
 
     /**
-     * Empfangen einer Nachricht ueber UDP
+     * Empfangen eines Datagramms
      *
-     * @param timeout Wartezeit in ms
-     * @return Referenz auf Nachricht, die empfangen wurde
-     * @throws IOException
-     * @throws SocketTimeoutException
-     * @throws StreamCorruptedException
-     * @throws ClassNotFoundException
-     * @throws Exception 
+     * @param timeout Wartezeit in ms, 0 fuer unbegrenztes Warten
+     * @return Empfangenes Datagramm
+     * @throws SocketTimeoutException Innerhalb der Wartezeit kein Datagramm empfangen
+     * @throws IOException            Fehler beim Empfangen, Socket geschlossen
      */
-    public Object receive(int timeout) throws IOException, SocketTimeoutException,
-    		StreamCorruptedException, ClassNotFoundException, Exception {
-        
-    	// Maximale Wartezeit beim Empfang einstellen	
-    	try {
-    		socket.setSoTimeout(timeout);
-        } catch (SocketException e) {
-            log.error("RECEIVE: " + "Fehler beim Einstellen der maximalen Wartezeit");
-            throw e;
+    public UdpDatagram receive(int timeout) throws IOException {
+        List<UdpDatagram> datagrams = new ArrayList<UdpDatagram>(1);
+        while (receive(datagrams, 1, timeout) == 0) {
+            if (timeout > 0) {
+                throw new SocketTimeoutException("RECEIVE: Socket Timeout");
+            }
         }
-       
-        byte[] bytes = new byte[65527];
-        DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
-
-         try {  	
-             // Blockiert nur, bis Timeout abgelaufen ist
-                
-             //System.out.println("SoTimeout fr Socket enabled/disabled: " + socket.getSoTimeout());
-             socket.receive(packet);             
-             log.debug("RECEIVE: Empfangene Datenlaenge:  " + packet.getLength());
-         } catch (SocketTimeoutException e1) {
-             log.debug("RECEIVE: " + "Socket Timeout, Anzahl Versuche: " );
-         } catch (IOException e2) {
-             log.error("RECEIVE: " + "Fehler beim Empfangen einer PDU ueber UDP");
-             throw e2;
-         }
-
-        ByteArrayInputStream bais = new ByteArrayInputStream(packet.getData());
-        ObjectInputStream ois = new ObjectInputStream(bais);
-
-        Object pdu;
-        try {
-            pdu = ois.readObject();
-
-            remoteAddress = packet.getAddress();
-            remotePort = packet.getPort();
-
-            log.debug("RECEIVE: " + packet.getPort()
-                    + "->"
-                    + socket.getLocalPort());
+        return datagrams.get(0);
+    }
 
-        } catch (ClassNotFoundException e1) {
-            log.error("RECEIVE: " + "ClassNotFoundException:", e1);
-            //throw e1;
-            return null;
-        } catch (StreamCorruptedException e2) {
-            log.error("RECEIVE: " + "Invalid Stream:", e2);
-            //throw e2;
-            return null;
-        } catch (Exception e3) {
-            log.error("RECEIVE: " + "Sonstiger schwerwiegender Fehler:", e3);
-            //throw e3;
-            return null;
+    /**
+     * Empfangen mehrerer Datagramme. Es wird hoechstens bis zum Eintreffen des ersten Datagramms
+     * gewartet, danach werden ohne weiteres Warten alle bereits vorliegenden Datagramme bis zur
+     * angegebenen Anzahl abgeholt. Fehlerhafte Datagramme werden verworfen.
+     *
+     * @param datagrams Liste, an die die empfangenen Datagramme angehaengt werden
+     * @param max       Maximale Anzahl abzuholender Datagramme
+     * @param timeout   Wartezeit in ms, 0 fuer unbegrenztes Warten
+     * @return Anzahl empfangener Datagramme, 0 falls die Wartezeit abgelaufen ist
+     * @throws IOException Fehler beim Empfangen, Socket geschlossen
+     */
+    public int receive(List<UdpDatagram> datagrams, int max, int timeout) throws IOException {
+        int count = 0;
+        try {
+            boolean waited = false;
+            while (count < max) {
+                receiveBuffer.clear();
+                SocketAddress sender = channel.receive(receiveBuffer);
+                if (sender == null) {
+                    if (count > 0 || waited) {
+                        break;
+                    }
+                    // Noch nichts empfangen: auf das erste Datagramm warten
+                    selector.select(timeout);
+                    selector.selectedKeys().clear();
+                    waited = timeout > 0;
+                    continue;
+                }
+                receiveBuffer.flip();
+                try {
+                    datagrams.add(UdpDatagram.readFrom(receiveBuffer, scratch, sender));
+                    count++;
+                } catch (IOException e) {
+                    log.error("RECEIVE: Fehlerhaftes Datagramm von " + sender + " verworfen: " + e);
+                }
+            }
+        } catch (ClosedChannelException e) {
+            throw socketClosed(e);
+        } catch (ClosedSelectorException e) {
+            throw socketClosed(e);
+        } catch (IOException e) {
+            log.error("RECEIVE: " + "Fehler beim Empfangen einer PDU ueber UDP");
+            throw e;
         }
-        return pdu;
+        log.debug("RECEIVE: " + count + " Datagramm(e) empfangen");
+        return count;
     }
 
     /**
-     * Senden einer Nachricht ueber UDP
+     * Senden eines Datagramms
      *
-     * @param remoteAddress Adresse des Empfaengers
-     * @param remotePort    Port des Empfaengers
-     * @param pdu           Zu sendende PDU
-     * @throws IOException
+     * @param target   Empfaenger
+     * @param datagram Zu sendendes Datagramm
+     * @throws IOException Fehler beim Senden
      */
-    public void send(InetAddress remoteAddress, int remotePort, Object pdu) throws IOException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ObjectOutputStream os = new ObjectOutputStream(out);
-        os.writeObject(pdu);
-        byte[] bytes = out.toByteArray();
-
-        log.debug("SEND: zu sendende Bytes: " + bytes.length);
-
-        DatagramPacket packet = new DatagramPacket(bytes, bytes.length, remoteAddress, remotePort);
+    public void send(SocketAddress target, UdpDatagram datagram) throws IOException {
+        ByteBuffer buffer = sendBuffers.acquire();
+        try {
+            datagram.writeTo(buffer);
+            buffer.flip();
+            send(target, buffer);
+        } finally {
+            sendBuffers.release(buffer);
+        }
+    }
 
-        log.debug("SEND: " + packet.getAddress() + ":" + packet.getPort());
+    /**
+     * Senden eines Datagramms ohne Nachricht (Bestaetigung, Abbau einer Session)
+     *
+     * @param target         Empfaenger
+     * @param type           Typ des Datagramms
+     * @param sessionId      Kennung der Session
+     * @param sequenceNumber Sequenznummer
+     * @throws IOException Fehler beim Senden
+     */
+    public void sendControl(SocketAddress target, byte type, long sessionId, long sequenceNumber)
+            throws IOException {
+        ByteBuffer buffer = sendBuffers.acquire();
+        try {
+            UdpDatagram.writeHeader(buffer, type, (byte) 0, sessionId, sequenceNumber);
+            buffer.flip();
+            send(target, buffer);
+        } finally {
+            sendBuffers.release(buffer);
+        }
+    }
 
+    private void send(SocketAddress target, ByteBuffer buffer) throws IOException {
+        log.debug("SEND: " + buffer.remaining() + " Byte an " + target);
         try {
-            socket.send(packet);
+            if (channel.send(buffer, target) == 0) {
+                // Sendepuffer voll: wie ein auf dem Weg verlorenes Datagramm behandeln
+                log.debug("SEND: Sendepuffer voll, Datagramm an " + target + " verworfen");
+            }
+        } catch (ClosedChannelException e) {
+            throw socketClosed(e);
         } catch (IOException e) {
             log.error("SEND: " + "Fehler beim Senden einer PDU");
             throw e;
@@ -178,50 +223,56 @@ public class UdpSocket {
     }
 
     /**
-     * Datagram-Socket schliessen
+     * Datagram-Socket schliessen, ein wartender Empfang wird beendet
      */
     public void close() {
         log.debug("CLOSE: " + "Socket wird geschlossen");
-        socket.close();
+        // Erst den Channel schliessen, damit ein durch den Selector geweckter Empfang das Socket
+        // bereits als geschlossen sieht
+        closeQuietly(channel);
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.debug("CLOSE: Selector konnte nicht geschlossen werden: " + e);
+        }
     }
 
     /**
      * @return Lokale Adresse
      */
     public String getLocalAddress() {
-        return socket.getLocalAddress().getHostAddress();
+        try {
+            return ((InetSocketAddress) channel.getLocalAddress()).getAddress().getHostAddress();
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     /**
      * @return lokalen Port
      */
     public int getLocalPort() {
-        return socket.getLocalPort();
+        return channel.socket().getLocalPort();
     }
 
-    /**
-     * @return Remote Adresse
-     */
-    public InetAddress getRemoteAddress() {
-        return remoteAddress;
-    }
-
-    /**
-     * @return Remote Port
-     */
-    public int getRemotePort() {
-        return remotePort;
-    }
-
-    public void setRemoteAddress(InetAddress remoteAddress) {
-        this.remoteAddress = remoteAddress;
+    public boolean isClosed() {
+        return !channel.isOpen();
     }
 
-    public void setRemotePort(int remotePort) {
-        this.remotePort = remotePort;
+    private static SocketException socketClosed(Exception cause) {
+        SocketException e = new SocketException("Socket closed");
+        e.initCause(cause);
+        return e;
     }
 
-    public boolean isClosed() {
-        return socket.isClosed();
+    private static void closeQuietly(DatagramChannel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("CLOSE: Datagram-Channel konnte nicht geschlossen werden: " + e);
+        }
     }
-}
\ No newline at end of file
+}
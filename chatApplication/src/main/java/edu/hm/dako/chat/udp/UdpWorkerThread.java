@@ -0,0 +1,94 @@
+package edu.hm.dako.chat.udp;
+
+import edu.hm.dako.chat.common.ExceptionHandler;
+import edu.hm.dako.chat.common.OutboundQueue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Worker-Thread des UDP-Servers.
+ * <p>
+ * Der Empfangsthread verteilt die Datagramme nach Absender auf die Worker-Threads, alle
+ * Datagramme eines Clients werden daher immer vom selben Thread und in der Reihenfolge des
+ * Empfangs bearbeitet. Ist die Warteschlange eines Worker-Threads voll, wird das Datagramm
+ * verworfen, als waere es unterwegs verloren gegangen; die {@link UdpSession} des Absenders
+ * wiederholt es.
+ */
+class UdpWorkerThread extends Thread {
+
+    private static Log log = LogFactory.getLog(UdpWorkerThread.class);
+
+    /**
+     * Bearbeitung eines Datagramms im Worker-Thread
+     */
+    interface Handler {
+        void handle(UdpDatagram datagram) throws Exception;
+    }
+
+    private final BlockingQueue<UdpDatagram> queue;
+    private final Handler handler;
+
+    private volatile boolean running = true;
+
+    // Wegen voller Warteschlange verworfene Datagramme
+    private volatile long numberOfDroppedDatagrams = 0;
+
+    /**
+     * @param name     Name des Threads
+     * @param capacity Maximale Anzahl wartender Datagramme
+     * @param handler  Bearbeitung der Datagramme
+     */
+    UdpWorkerThread(String name, int capacity, Handler handler) {
+        setName(name);
+        setDaemon(true);
+        this.queue = new ArrayBlockingQueue<UdpDatagram>(capacity);
+        this.handler = handler;
+    }
+
+    /**
+     * Uebergibt ein Datagramm zur Bearbeitung, wird nur vom Empfangsthread aufgerufen
+     *
+     * @param datagram Empfangenes Datagramm
+     */
+    void dispatch(UdpDatagram datagram) {
+        if (!queue.offer(datagram)) {
+            numberOfDroppedDatagrams++;
+            log.debug(getName() + ": Warteschlange voll, Datagramm von " + datagram.getSender() + " verworfen");
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        interrupt();
+    }
+
+    long getNumberOfDroppedDatagrams() {
+        return numberOfDroppedDatagrams;
+    }
+
+    @Override
+    public void run() {
+        log.debug(getName() + " gestartet");
+        // Ein Worker-Thread bedient viele Clients und darf bei vollen Warteschlangen nicht warten
+        OutboundQueue.markNonBlockingThread();
+
+        while (running) {
+            UdpDatagram datagram;
+            try {
+                datagram = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                handler.handle(datagram);
+            } catch (Exception e) {
+                log.error("Exception beim Bearbeiten eines Datagramms von " + datagram.getSender() + ": " + e);
+                ExceptionHandler.logException(e);
+            }
+        }
+        log.debug(getName() + " beendet");
+    }
+}